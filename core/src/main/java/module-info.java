@@ -117,6 +117,7 @@ module wollmux
   requires java.net.http;
   requires java.management;
   requires java.scripting;
+  requires java.xml;
 
   requires com.google.common;
   requires transitive rstaui;
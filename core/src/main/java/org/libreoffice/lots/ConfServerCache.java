@@ -0,0 +1,289 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import org.libreoffice.lots.config.ConfigThingy;
+import org.libreoffice.lots.config.SyntaxErrorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches the configuration from a CONF_SERVER and keeps the last response on disk together with
+ * its validators (ETag and Last-Modified). If there is a cached response, it is used immediately
+ * and the server is asked in the background with a conditional request whether the configuration
+ * has changed. So a slow or unreachable server doesn't delay the start of WollMux.
+ */
+public class ConfServerCache
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConfServerCache.class);
+
+  private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+  private static final String KEY_URI = "uri";
+
+  private static final String KEY_USER = "user";
+
+  private static final String KEY_ETAG = "etag";
+
+  private static final String KEY_LAST_MODIFIED = "lastModified";
+
+  private static final String KEY_BODY = "body";
+
+  private final File cacheFile;
+
+  private final HttpClient client = HttpClient.newHttpClient();
+
+  /**
+   * The cached response of the last call of {@link #load(String, String)}. Null if the server had
+   * to be asked synchronously.
+   */
+  private Properties cached;
+
+  private String serverURI;
+
+  private String user;
+
+  /**
+   * Create a new cache.
+   *
+   * @param cacheFile
+   *          The file in which the last response is stored.
+   */
+  public ConfServerCache(File cacheFile)
+  {
+    this.cacheFile = cacheFile;
+  }
+
+  /**
+   * Get the configuration of a user. If a response of the server is cached, it is returned
+   * without asking the server. Call {@link #revalidate(Consumer)} afterwards to check for
+   * changes. Otherwise the server is asked and its response is stored.
+   *
+   * @param serverURI
+   *          The URI of the server.
+   * @param user
+   *          The name of the user.
+   * @return The configuration or null, if there is neither a cached nor a valid response.
+   */
+  public ConfigThingy load(String serverURI, String user)
+  {
+    this.serverURI = serverURI;
+    this.user = user;
+    cached = readCache();
+    if (cached != null)
+    {
+      try
+      {
+        return new ConfigThingy("", cached.getProperty(KEY_BODY));
+      } catch (IOException | SyntaxErrorException e)
+      {
+        LOGGER.info("Cached configuration of {} is invalid", serverURI, e);
+        cached = null;
+      }
+    }
+
+    try
+    {
+      HttpResponse<String> response = client.send(createRequest(null), BodyHandlers.ofString());
+      if (response.statusCode() != 200)
+      {
+        LOGGER.error("Server {} responded with status {}", serverURI, response.statusCode());
+        return null;
+      }
+      ConfigThingy conf = new ConfigThingy("", response.body());
+      writeCache(response);
+      return conf;
+    } catch (HttpTimeoutException e)
+    {
+      LOGGER.error("Serverrespond takes more than {} seconds", TIMEOUT.getSeconds(), e);
+    } catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    } catch (Exception e)
+    {
+      LOGGER.error("", e);
+    }
+    return null;
+  }
+
+  /**
+   * Ask the server in the background whether the configuration returned by the last call of
+   * {@link #load(String, String)} is still valid. If the server responds with a new
+   * configuration, it is stored and passed to {@code onUpdate}. Nothing happens if the
+   * configuration hasn't been taken from the cache.
+   *
+   * @param onUpdate
+   *          Called with the new configuration by a thread of the HTTP client.
+   * @return Completes after the server has responded.
+   */
+  public CompletableFuture<Void> revalidate(Consumer<ConfigThingy> onUpdate)
+  {
+    if (cached == null)
+    {
+      return CompletableFuture.completedFuture(null);
+    }
+
+    Properties validators = cached;
+    return client.sendAsync(createRequest(validators), BodyHandlers.ofString())
+        .thenAccept(response -> {
+          if (response.statusCode() == 304)
+          {
+            LOGGER.debug("Configuration of {} hasn't changed", serverURI);
+            return;
+          }
+          if (response.statusCode() != 200)
+          {
+            LOGGER.info("Server {} responded with status {}", serverURI, response.statusCode());
+            return;
+          }
+          if (response.body().equals(validators.getProperty(KEY_BODY)))
+          {
+            writeCache(response);
+            return;
+          }
+
+          try
+          {
+            ConfigThingy conf = new ConfigThingy("", response.body());
+            writeCache(response);
+            LOGGER.info("Configuration of {} has changed", serverURI);
+            onUpdate.accept(conf);
+          } catch (IOException | SyntaxErrorException e)
+          {
+            LOGGER.error("Server {} responded with an invalid configuration", serverURI, e);
+          }
+        }).exceptionally(e -> {
+          LOGGER.info("Server {} couldn't be asked for changes", serverURI, e);
+          return null;
+        });
+  }
+
+  private HttpRequest createRequest(Properties validators)
+  {
+    HttpRequest.Builder builder = HttpRequest.newBuilder().uri(URI.create(serverURI))
+        .header("Content-Type", "application/json")
+        .POST(BodyPublishers.ofString(("{ \"username\":\"" + user + "\"}")))
+        .timeout(TIMEOUT);
+    if (validators != null)
+    {
+      String etag = validators.getProperty(KEY_ETAG);
+      if (etag != null)
+      {
+        builder.header("If-None-Match", etag);
+      }
+      String lastModified = validators.getProperty(KEY_LAST_MODIFIED);
+      if (lastModified != null)
+      {
+        builder.header("If-Modified-Since", lastModified);
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * Read the cached response.
+   *
+   * @return The response or null, if there is no cached response for the current URI and user.
+   */
+  private Properties readCache()
+  {
+    if (!cacheFile.isFile())
+    {
+      return null;
+    }
+
+    Properties properties = new Properties();
+    try (Reader reader = Files.newBufferedReader(cacheFile.toPath(), StandardCharsets.UTF_8))
+    {
+      properties.load(reader);
+    } catch (IOException | IllegalArgumentException e)
+    {
+      LOGGER.debug("Cache {} couldn't be read", cacheFile, e);
+      return null;
+    }
+
+    if (!serverURI.equals(properties.getProperty(KEY_URI))
+        || !user.equals(properties.getProperty(KEY_USER))
+        || properties.getProperty(KEY_BODY) == null)
+    {
+      LOGGER.debug("Cache {} belongs to another server or user", cacheFile);
+      return null;
+    }
+    return properties;
+  }
+
+  /**
+   * Store a response. The cache file is replaced atomically.
+   */
+  private void writeCache(HttpResponse<String> response)
+  {
+    Properties properties = new Properties();
+    properties.setProperty(KEY_URI, serverURI);
+    properties.setProperty(KEY_USER, user);
+    properties.setProperty(KEY_BODY, response.body());
+    response.headers().firstValue("ETag")
+        .ifPresent(etag -> properties.setProperty(KEY_ETAG, etag));
+    response.headers().firstValue("Last-Modified")
+        .ifPresent(lastModified -> properties.setProperty(KEY_LAST_MODIFIED, lastModified));
+
+    try
+    {
+      File parent = cacheFile.getAbsoluteFile().getParentFile();
+      File tmp = File.createTempFile(cacheFile.getName(), ".tmp", parent);
+      try
+      {
+        try (Writer writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8))
+        {
+          properties.store(writer, "Configuration of " + serverURI);
+        }
+        Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally
+      {
+        Files.deleteIfExists(tmp.toPath());
+      }
+    } catch (IOException e)
+    {
+      LOGGER.info("Cache {} couldn't be written", cacheFile, e);
+    }
+  }
+}
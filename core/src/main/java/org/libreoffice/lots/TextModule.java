@@ -45,6 +45,7 @@ import org.libreoffice.ext.unohelper.common.UnoHelperException;
 import org.libreoffice.ext.unohelper.document.text.Bookmark;
 import org.libreoffice.ext.unohelper.common.TextDocument;
 import org.libreoffice.ext.unohelper.util.UnoService;
+import org.libreoffice.lots.config.ConfigQuery;
 import org.libreoffice.lots.config.ConfigThingy;
 import org.libreoffice.lots.config.NodeNotFoundException;
 import org.libreoffice.lots.document.TextRangeRelation;
@@ -69,6 +70,15 @@ public class TextModule
   private static final Pattern INSERTFRAG_PATTERN =
     DocumentCommands.getPatternForCommand("insertFrag");
 
+  private static final ConfigQuery TEXT_BLOCKS = ConfigQuery.compileNearest("//TextBlocks");
+
+  private static final ConfigQuery SEPARATOR = ConfigQuery.compileNearest("//SEPARATOR");
+
+  /**
+   * Mappings of the form (MATCH ... FRAG_ID ...).
+   */
+  private static final ConfigQuery MAPPINGS = ConfigQuery.compileNearest("//*[MATCH]");
+
   private TextModule()
   {
     // hide public constructor
@@ -102,19 +112,7 @@ public class TextModule
   public static void createInsertFragFromIdentifier(XTextDocument doc,
       XTextRange range, boolean isManual) throws WollMuxFehlerException
   {
-    ConfigThingy conf = WollMuxFiles.getWollmuxConf();
-
-    // fetches text modules from .conf and collects them in reverse
-    // Order in LinkedList tbList. So later defined
-    // Text module sections always take precedence.
-    LinkedList<ConfigThingy> tbListe = new LinkedList<>();
-    ConfigThingy tbConf = conf.query("TextBlocks");
-    Iterator<ConfigThingy> iter = tbConf.iterator();
-    while (iter.hasNext())
-    {
-      ConfigThingy confTextbaustein = iter.next();
-      tbListe.addFirst(confTextbaustein);
-    }
+    LinkedList<ConfigThingy> tbListe = getTextBlocks(WollMuxFiles.getWollmuxConf());
 
     XParagraphCursor cursor =
       UNO.XParagraphCursor(range.getText().createTextCursorByRange(range));
@@ -213,6 +211,20 @@ public class TextModule
         L.m("At the insertion place no text block could be found."));
   }
 
+  /**
+   * Fetches the text module sections from the configuration and collects them in reverse order, so
+   * that later defined text module sections always take precedence.
+   */
+  static LinkedList<ConfigThingy> getTextBlocks(ConfigThingy conf)
+  {
+    LinkedList<ConfigThingy> tbListe = new LinkedList<>();
+    for (ConfigThingy confTextbaustein : TEXT_BLOCKS.in(conf))
+    {
+      tbListe.addFirst(confTextbaustein);
+    }
+    return tbListe;
+  }
+
   /**
    * Parses the supplied identifierWithArgs for all mappings of the form (MATCH
    * ... FRAG_ID ...) contained in the boilerplate sections in tbList
@@ -265,17 +277,10 @@ public class TextModule
   {
     // Determine the separator for this text module block
     String separatorString = "#";
-    ConfigThingy separator = textbausteine.query("SEPARATOR");
-    if (separator.count() > 0)
+    ConfigThingy separator = SEPARATOR.last(textbausteine);
+    if (separator != null)
     {
-      try
-      {
-        separatorString = separator.getLastChild().toString();
-      }
-      catch (NodeNotFoundException e)
-      {
-        // optional
-      }
+      separatorString = separator.toString();
     }
 
     // Split identifierWithArgs and get first argument when on end
@@ -285,12 +290,8 @@ public class TextModule
     String first = args[0];
 
     // Iterate over all nodes of the form "(MATCH ... FRAG_ID ...)"
-    ConfigThingy mappingsConf = textbausteine.queryByChild("MATCH");
-    Iterator<ConfigThingy> iterMappings = mappingsConf.iterator();
-    while (iterMappings.hasNext())
+    for (ConfigThingy mappingConf : MAPPINGS.in(textbausteine))
     {
-      ConfigThingy mappingConf = iterMappings.next();
-
       String frag_id = null;
       try
       {
@@ -31,25 +31,20 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.MalformedURLException;
-import java.net.URI;
 import java.net.URL;
 import java.net.UnknownHostException;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpRequest.BodyPublishers;
-import java.net.http.HttpResponse;
-import java.net.http.HttpResponse.BodyHandlers;
-import java.net.http.HttpTimeoutException;
 import java.nio.charset.StandardCharsets;
-import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Enumeration;
+import java.util.LinkedHashSet;
 import java.util.Properties;
+import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
@@ -82,8 +77,15 @@ import org.libreoffice.ext.unohelper.util.UnoComponent;
 import org.libreoffice.ext.unohelper.util.UnoConfiguration;
 import org.libreoffice.ext.unohelper.util.UnoProperty;
 import org.libreoffice.ext.unohelper.util.UnoService;
+import org.libreoffice.lots.config.ConfigSnapshot;
 import org.libreoffice.lots.config.ConfigThingy;
+import org.libreoffice.lots.config.ConfigWatcher;
 import org.libreoffice.lots.config.NodeNotFoundException;
+import org.libreoffice.lots.db.CacheDatasource;
+import org.libreoffice.lots.db.Datasource;
+import org.libreoffice.lots.db.DatasourceExecutor;
+import org.libreoffice.lots.db.Datasources;
+import org.libreoffice.lots.event.handlers.OnConfigReloaded;
 import org.libreoffice.lots.util.L;
 import org.libreoffice.lots.util.Utils;
 
@@ -99,6 +101,16 @@ public class WollMuxFiles
 
   private static final String WOLLMUX_CONF_PATH = "WOLLMUX_CONF_PATH";
 
+  /**
+   * Name of the binary snapshot of the parsed configuration in {@link #getWollMuxDir()}.
+   */
+  private static final String CONF_SNAPSHOT = "lots.conf.snapshot";
+
+  /**
+   * Name of the file in {@link #getWollMuxDir()} with the last response of the CONF_SERVER.
+   */
+  private static final String CONF_SERVER_CACHE = "conf_server.cache";
+
   private static boolean debugMode = false;
 
   /**
@@ -122,7 +134,18 @@ public class WollMuxFiles
   /**
    * The configuration.
    */
-  private static ConfigThingy wollmuxConf;
+  private static volatile ConfigThingy wollmuxConf;
+
+  /**
+   * Watches the configuration file for changes. Null if it isn't watched.
+   */
+  private static ConfigWatcher confWatcher;
+
+  /**
+   * The configuration file and its included files, which have been read by
+   * {@link #parseWollMuxConf(File)}.
+   */
+  private static Set<URL> wollmuxConfSources = new LinkedHashSet<>();
 
   /**
    * The .wollmux folder in user space.
@@ -134,6 +157,12 @@ public class WollMuxFiles
    */
   private static File wollmuxConfFile;
 
+  /**
+   * True if the configuration file contains CONF_SERVER, so the configuration is provided by the
+   * server.
+   */
+  private static boolean confServerConfigured = false;
+
   /**
    * File of the local override storage.
    */
@@ -168,37 +197,39 @@ public class WollMuxFiles
   }
 
   /**
-   * Load a configuration.
+   * Load a configuration. If it contains CONF_SERVER, the configuration of the server is used
+   * instead. The last response of the server is cached, so the server is only asked in the
+   * background whether the configuration has changed, see {@link ConfServerCache}.
    *
    * @param wollMuxConfigFile
    *          The configuration file.
-   * @return The configuraiton.
+   * @return The configuraiton. It is {@link ConfigThingy#freeze() frozen}.
    */
   protected static ConfigThingy parseWollMuxConf(File wollMuxConfigFile)
   {
     wollmuxConf = new ConfigThingy("");
+    ConfServerCache confServer = null;
+    confServerConfigured = false;
+    Set<URL> sources = new LinkedHashSet<>();
 
     if (wollMuxConfigFile != null && wollMuxConfigFile.exists() && wollMuxConfigFile.isFile())
     {
       try
       {
-        wollmuxConf = new ConfigThingy("", wollMuxConfigFile.toURI().toURL());
-	String serverURI = wollmuxConf.getString("CONF_SERVER", null);
+        wollmuxConf = ConfigSnapshot.parse("", wollMuxConfigFile.toURI().toURL(),
+            new File(getWollMuxDir(), CONF_SNAPSHOT), sources);
+        String serverURI = wollmuxConf.getString("CONF_SERVER", null);
         if (serverURI != null)
         {
+          confServerConfigured = true;
           String user = wollmuxConf.getString("USERNAME", System.getProperty("user.name"));
-          HttpClient client = HttpClient.newHttpClient();
-          HttpRequest request = HttpRequest.newBuilder().uri(URI.create(serverURI))
-              .header("Content-Type", "application/json")
-              .POST(BodyPublishers.ofString(("{ \"username\":\"" + user + "\"}")))
-              .timeout(Duration.ofSeconds(5)).build();
-
-          HttpResponse<String> response = client.send(request, BodyHandlers.ofString());
-
-          wollmuxConf = new ConfigThingy("", response.body());
+          confServer = new ConfServerCache(new File(getWollMuxDir(), CONF_SERVER_CACHE));
+          ConfigThingy serverConf = confServer.load(serverURI, user);
+          if (serverConf != null)
+          {
+            wollmuxConf = serverConf;
+          }
         }
-      } catch (HttpTimeoutException ex) {
-        LOGGER.error("Serverrespond takes more than 5 seconds", ex);
       } catch (Exception e)
       {
         LOGGER.error("", e);
@@ -208,9 +239,62 @@ public class WollMuxFiles
       LOGGER.info(WOLLMUX_NOCONF);
     }
 
+    wollmuxConf = wollmuxConf.freeze();
+    wollmuxConfSources = sources;
+    if (confServer != null)
+    {
+      confServer.revalidate(WollMuxFiles::serverConfChanged);
+    }
     return wollmuxConf;
   }
 
+  private static void serverConfChanged(ConfigThingy conf)
+  {
+    ConfigThingy newConf = conf.freeze();
+    configReloaded(newConf, ConfigWatcher.changedSections(wollmuxConf, newConf));
+  }
+
+  /**
+   * Reload the configuration whenever the configuration file or one of its included files
+   * changes. After a reload {@link #getWollmuxConf()} returns the new configuration and an
+   * {@link OnConfigReloaded} event is emitted. A configuration provided by a CONF_SERVER isn't
+   * watched.
+   */
+  public static void watchWollMuxConf()
+  {
+    watchWollMuxConf(getWollMuxConfFile());
+  }
+
+  static synchronized void watchWollMuxConf(File file)
+  {
+    getWollmuxConf();
+    if (confWatcher != null || file == null || !file.isFile() || confServerConfigured)
+    {
+      return;
+    }
+
+    try
+    {
+      confWatcher = new ConfigWatcher("", file.toURI().toURL(), getWollmuxConf(),
+          wollmuxConfSources, WollMuxFiles::configReloaded);
+      confWatcher.start();
+    } catch (IOException e)
+    {
+      LOGGER.info("Changes of {} aren't recognized", file, e);
+    }
+  }
+
+  private static void configReloaded(ConfigThingy conf, Set<String> changedSections)
+  {
+    wollmuxConf = conf;
+    if (changedSections.contains("DEFAULT_CONTEXT"))
+    {
+      defaultContextURL = null;
+      determineDefaultContext();
+    }
+    new OnConfigReloaded(changedSections).emit();
+  }
+
   /**
    * Initialize localization.
    *
@@ -363,7 +447,7 @@ public class WollMuxFiles
   }
 
   /**
-   * Returns the content of wollmux,conf.
+   * Returns the content of wollmux,conf. It can't be modified, see {@link ConfigThingy#freeze()}.
    */
   public static ConfigThingy getWollmuxConf()
   {
@@ -571,6 +655,28 @@ public class WollMuxFiles
       out.write(dumpOOoConfiguration("/org.openoffice.Inet/") + "\n");
       out.write("===================== END OOo-Configuration dump ==================\n");
 
+      out.write("===================== START datasource caches ==================\n");
+      for (Datasource ds : Datasources.getCreatedDatasources().values())
+      {
+        if (ds instanceof CacheDatasource)
+        {
+          out.write(((CacheDatasource) ds).getStatistics() + "\n");
+        }
+      }
+      out.write("===================== END datasource caches ==================\n");
+
+      out.write("===================== START datasource executors ==================\n");
+      // wrapping data sources share the executor of the wrapped one
+      Set<DatasourceExecutor> executors = new LinkedHashSet<>();
+      for (Datasource ds : Datasources.getCreatedDatasources().values())
+      {
+        if (ds != null && executors.add(ds.getExecutor()))
+        {
+          out.write(ds.getExecutor() + "\n");
+        }
+      }
+      out.write("===================== END datasource executors ==================\n");
+
       out.write("===================== START OOo datasources ==================\n");
       dumpOfficeDatasources(out);
       out.write("===================== END OOo datasources ==================\n");
@@ -788,10 +894,11 @@ public class WollMuxFiles
    */
   public static void writeConfToFile(File file, ConfigThingy conf) throws IOException
   {
-    try (OutputStreamWriter out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))
+    try (Writer out = new BufferedWriter(
+        new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)))
     {
       out.write("\uFEFF");
-      out.write(conf.stringRepresentation(true, '"'));
+      conf.writeTo(out, true, '"');
     }
   }
 
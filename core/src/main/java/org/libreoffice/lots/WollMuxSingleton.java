@@ -134,6 +134,9 @@ public class WollMuxSingleton
       // Initialize EventProcessor
       WollMuxEventHandler.getInstance().setAcceptEvents(true);
 
+      // reload the configuration if it changes
+      WollMuxFiles.watchWollMuxConf();
+
       // register global EventListener
       try
       {
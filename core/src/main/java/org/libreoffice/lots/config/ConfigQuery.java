@@ -0,0 +1,569 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.config;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A path query over a {@link ConfigThingy} tree, which is parsed once and can be run against any
+ * tree. The query is evaluated lazily in one depth-first traversal, no intermediate
+ * {@code <query results>} nodes are created.
+ *
+ * A path consists of steps separated by {@code /} (the step matches children of the previous
+ * step) or {@code //} (the step matches descendants at any depth). A step is a node name or
+ * {@code *} for any name, followed by optional depth bounds and predicates:
+ *
+ * <ul>
+ * <li>{@code {min,max}}, {@code {min,}}, {@code {,max}} or {@code {n}} restrict the depth of the
+ * matching nodes relative to the previous step (1 are the children).</li>
+ * <li>{@code [KEY]} requires a child named KEY.</li>
+ * <li>{@code [KEY='value']} requires a child named KEY whose {@link ConfigThingy#toString()} is
+ * value. Quotes are escaped by doubling them, as in configuration files.</li>
+ * </ul>
+ *
+ * Examples: {@code //DataSources/DataSource[TYPE='ldap']}, {@code *[FRAG_ID]},
+ * {@code Textbausteine//Kuerzel{,2}}.
+ *
+ * Nodes are returned in the order in which they are found, each node only once.
+ *
+ * A query created by {@link #compileNearest(String)} behaves like a chain of
+ * {@link ConfigThingy#query(String)} calls instead: each step only matches the nodes at the
+ * smallest depth at which there are matches, in breadth-first order, and a step whose name has an
+ * old German name (e.g. "Datenquellen" for "DataSources") matches nodes with the old name if there
+ * are no nodes with the new one.
+ */
+public final class ConfigQuery
+{
+  private final String path;
+
+  private final Step[] steps;
+
+  /**
+   * Can a node be found on more than one way?
+   */
+  private final boolean needsDeduplication;
+
+  /**
+   * Do the steps only match the nearest nodes?
+   */
+  private final boolean nearest;
+
+  private ConfigQuery(String path, List<Step> steps, boolean nearest)
+  {
+    this.path = path;
+    this.steps = steps.toArray(new Step[0]);
+    this.nearest = nearest;
+    boolean nested = false;
+    for (int i = 0; i < this.steps.length - 1; i++)
+    {
+      nested |= this.steps[i].maxDepth > 1;
+    }
+    this.needsDeduplication = nested;
+  }
+
+  /**
+   * Parse a path.
+   *
+   * @param path
+   *          The path.
+   * @return The query.
+   * @throws IllegalArgumentException
+   *           The path is invalid.
+   */
+  public static ConfigQuery compile(String path)
+  {
+    return new Parser(path).parse(false);
+  }
+
+  /**
+   * Parse a path whose steps only match the nearest nodes, like {@link ConfigThingy#query(String)}.
+   * The matches of a step are computed level by level, so the nodes aren't returned lazily.
+   *
+   * @param path
+   *          The path.
+   * @return The query.
+   * @throws IllegalArgumentException
+   *           The path is invalid.
+   */
+  public static ConfigQuery compileNearest(String path)
+  {
+    return new Parser(path).parse(true);
+  }
+
+  /**
+   * Run the query.
+   *
+   * @param context
+   *          The node from which the path starts.
+   * @return An iterator over the matching nodes. It computes the next node on demand.
+   */
+  public Iterator<ConfigThingy> iterator(ConfigThingy context)
+  {
+    if (nearest)
+    {
+      return nearestMatches(context).iterator();
+    }
+    return new Matches(context);
+  }
+
+  /**
+   * Run the query, for use in for-each loops.
+   *
+   * @param context
+   *          The node from which the path starts.
+   * @return The matching nodes.
+   */
+  public Iterable<ConfigThingy> in(ConfigThingy context)
+  {
+    return () -> iterator(context);
+  }
+
+  /**
+   * Get the first matching node.
+   *
+   * @param context
+   *          The node from which the path starts.
+   * @return The first node or null, if no node matches.
+   */
+  public ConfigThingy first(ConfigThingy context)
+  {
+    Iterator<ConfigThingy> iter = iterator(context);
+    return iter.hasNext() ? iter.next() : null;
+  }
+
+  /**
+   * Get the last matching node.
+   *
+   * @param context
+   *          The node from which the path starts.
+   * @return The last node or null, if no node matches.
+   */
+  public ConfigThingy last(ConfigThingy context)
+  {
+    ConfigThingy last = null;
+    for (Iterator<ConfigThingy> iter = iterator(context); iter.hasNext();)
+    {
+      last = iter.next();
+    }
+    return last;
+  }
+
+  @Override
+  public String toString()
+  {
+    return path;
+  }
+
+  private List<ConfigThingy> nearestMatches(ConfigThingy context)
+  {
+    List<ConfigThingy> current = List.of(context);
+    for (Step step : steps)
+    {
+      List<ConfigThingy> matches = nearestMatches(current, step, step.name);
+      String oldName = step.name == null ? null : ConfigThingy.getOldName(step.name);
+      if (matches.isEmpty() && oldName != null)
+      {
+        matches = nearestMatches(current, step, oldName);
+      }
+      current = matches;
+    }
+    return current;
+  }
+
+  /**
+   * The nodes below the contexts which match a step at the smallest depth with matches.
+   *
+   * @param name
+   *          The name which is matched instead of the name of the step.
+   */
+  private static List<ConfigThingy> nearestMatches(List<ConfigThingy> contexts, Step step,
+      String name)
+  {
+    List<ConfigThingy> matches = new ArrayList<>();
+    Set<ConfigThingy> found = Collections.newSetFromMap(new IdentityHashMap<>());
+    List<ConfigThingy> level = contexts;
+    for (int depth = 1; depth <= step.maxDepth && !level.isEmpty() && matches.isEmpty(); depth++)
+    {
+      List<ConfigThingy> next = new ArrayList<>();
+      for (ConfigThingy node : level)
+      {
+        for (ConfigThingy child : node)
+        {
+          if (depth >= step.minDepth && step.matches(child, name) && found.add(child))
+          {
+            matches.add(child);
+          }
+          if (child.count() > 0)
+          {
+            next.add(child);
+          }
+        }
+      }
+      level = next;
+    }
+    return matches;
+  }
+
+  private static final class Step
+  {
+    /** The name or null for any name. */
+    private final String name;
+    private final int minDepth;
+    private final int maxDepth;
+    private final Predicate[] predicates;
+
+    Step(String name, int minDepth, int maxDepth, List<Predicate> predicates)
+    {
+      this.name = name;
+      this.minDepth = minDepth;
+      this.maxDepth = maxDepth;
+      this.predicates = predicates.toArray(new Predicate[0]);
+    }
+
+    boolean matches(ConfigThingy node)
+    {
+      return matches(node, name);
+    }
+
+    /**
+     * Does the node match the step if the step had the given name?
+     */
+    boolean matches(ConfigThingy node, String name)
+    {
+      if (name != null && !name.equals(node.getName()))
+      {
+        return false;
+      }
+      for (Predicate predicate : predicates)
+      {
+        if (!predicate.matches(node))
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static final class Predicate
+  {
+    private final String key;
+    /** The value or null, if only the existence of the child is tested. */
+    private final String value;
+
+    Predicate(String key, String value)
+    {
+      this.key = key;
+      this.value = value;
+    }
+
+    boolean matches(ConfigThingy node)
+    {
+      for (ConfigThingy child : node)
+      {
+        if (key.equals(child.getName()) && (value == null || value.equals(child.toString())))
+        {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * The children of a node, which still have to be visited.
+   */
+  private static final class Frame
+  {
+    private final Iterator<ConfigThingy> children;
+    /** The depth of the children relative to the node matched by the previous step. */
+    private final int depth;
+    /** The index of the step which the children are matched against. */
+    private final int step;
+
+    Frame(ConfigThingy node, int depth, int step)
+    {
+      this.children = node.iterator();
+      this.depth = depth;
+      this.step = step;
+    }
+  }
+
+  private final class Matches implements Iterator<ConfigThingy>
+  {
+    private final Deque<Frame> stack = new ArrayDeque<>();
+    private final Set<ConfigThingy> found;
+    private ConfigThingy next;
+
+    Matches(ConfigThingy context)
+    {
+      found = needsDeduplication ? Collections.newSetFromMap(new IdentityHashMap<>()) : null;
+      if (steps.length > 0)
+      {
+        stack.push(new Frame(context, 1, 0));
+      }
+      else
+      {
+        next = context;
+      }
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      if (next == null)
+      {
+        next = advance();
+      }
+      return next != null;
+    }
+
+    @Override
+    public ConfigThingy next()
+    {
+      if (!hasNext())
+      {
+        throw new NoSuchElementException();
+      }
+      ConfigThingy result = next;
+      next = null;
+      return result;
+    }
+
+    private ConfigThingy advance()
+    {
+      while (!stack.isEmpty())
+      {
+        Frame frame = stack.peek();
+        if (!frame.children.hasNext())
+        {
+          stack.pop();
+          continue;
+        }
+
+        ConfigThingy node = frame.children.next();
+        Step step = steps[frame.step];
+        if (frame.depth < step.maxDepth && node.count() > 0)
+        {
+          stack.push(new Frame(node, frame.depth + 1, frame.step));
+        }
+        if (frame.depth >= step.minDepth && step.matches(node))
+        {
+          if (frame.step < steps.length - 1)
+          {
+            stack.push(new Frame(node, 1, frame.step + 1));
+          }
+          else if (found == null || found.add(node))
+          {
+            return node;
+          }
+        }
+      }
+      return null;
+    }
+  }
+
+  private static final class Parser
+  {
+    private final String path;
+    private int pos;
+
+    Parser(String path)
+    {
+      this.path = path;
+    }
+
+    ConfigQuery parse(boolean nearest)
+    {
+      List<Step> steps = new ArrayList<>();
+      if (!path.isEmpty())
+      {
+        boolean descendant = skip("//");
+        if (!descendant)
+        {
+          skip("/");
+        }
+        steps.add(step(descendant));
+        while (pos < path.length())
+        {
+          if (skip("//"))
+          {
+            steps.add(step(true));
+          }
+          else if (skip("/"))
+          {
+            steps.add(step(false));
+          }
+          else
+          {
+            throw error("'/' expected");
+          }
+        }
+      }
+      return new ConfigQuery(path, steps, nearest);
+    }
+
+    private Step step(boolean descendant)
+    {
+      String name;
+      if (skip("*"))
+      {
+        name = null;
+      }
+      else
+      {
+        name = identifier();
+      }
+
+      int minDepth = 1;
+      int maxDepth = descendant ? Integer.MAX_VALUE : 1;
+      if (skip("{"))
+      {
+        minDepth = number(1);
+        if (skip(","))
+        {
+          maxDepth = number(Integer.MAX_VALUE);
+        }
+        else
+        {
+          maxDepth = minDepth;
+        }
+        expect("}");
+        if (minDepth < 1 || maxDepth < minDepth)
+        {
+          throw error("Invalid depth bounds");
+        }
+      }
+
+      List<Predicate> predicates = new ArrayList<>();
+      while (skip("["))
+      {
+        String key = identifier();
+        String value = null;
+        if (skip("="))
+        {
+          value = string();
+        }
+        expect("]");
+        predicates.add(new Predicate(key, value));
+      }
+      return new Step(name, minDepth, maxDepth, predicates);
+    }
+
+    private String identifier()
+    {
+      int start = pos;
+      while (pos < path.length()
+          && (Character.isLetterOrDigit(path.charAt(pos)) || path.charAt(pos) == '_'))
+      {
+        pos++;
+      }
+      if (start == pos)
+      {
+        throw error("Name expected");
+      }
+      return path.substring(start, pos);
+    }
+
+    private int number(int defaultValue)
+    {
+      int start = pos;
+      while (pos < path.length() && path.charAt(pos) >= '0' && path.charAt(pos) <= '9')
+      {
+        pos++;
+      }
+      if (start == pos)
+      {
+        return defaultValue;
+      }
+      try
+      {
+        return Integer.parseInt(path.substring(start, pos));
+      }
+      catch (NumberFormatException e)
+      {
+        throw error("Invalid number");
+      }
+    }
+
+    private String string()
+    {
+      if (pos >= path.length() || (path.charAt(pos) != '\'' && path.charAt(pos) != '"'))
+      {
+        throw error("Quoted string expected");
+      }
+      char quote = path.charAt(pos++);
+      StringBuilder value = new StringBuilder();
+      while (pos < path.length())
+      {
+        char c = path.charAt(pos++);
+        if (c != quote)
+        {
+          value.append(c);
+        }
+        else if (pos < path.length() && path.charAt(pos) == quote)
+        {
+          value.append(quote);
+          pos++;
+        }
+        else
+        {
+          return value.toString();
+        }
+      }
+      throw error("Unterminated string");
+    }
+
+    private boolean skip(String token)
+    {
+      if (path.startsWith(token, pos))
+      {
+        pos += token.length();
+        return true;
+      }
+      return false;
+    }
+
+    private void expect(String token)
+    {
+      if (!skip(token))
+      {
+        throw error("'" + token + "' expected");
+      }
+    }
+
+    private IllegalArgumentException error(String message)
+    {
+      return new IllegalArgumentException(
+          message + " at position " + pos + " of query '" + path + "'");
+    }
+  }
+}
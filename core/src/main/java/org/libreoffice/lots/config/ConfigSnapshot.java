@@ -0,0 +1,601 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.config;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A binary snapshot of a parsed configuration. The snapshot stores the ConfigThingy tree together
+ * with URL, size, modification time and content hash of the configuration file and all its
+ * included files. As long as none of these files has changed, the tree can be loaded from the
+ * snapshot without reading and parsing the files again.
+ */
+public final class ConfigSnapshot
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConfigSnapshot.class);
+
+  /**
+   * "LOTS" in ASCII.
+   */
+  private static final int MAGIC = 0x4C4F5453;
+
+  /**
+   * Has to be increased if the format of the snapshot changes.
+   */
+  private static final int VERSION = 1;
+
+  private static final String HASH_ALGORITHM = "SHA-256";
+
+  /**
+   * Maximum number of included files which are read in parallel.
+   */
+  private static final int INCLUDE_THREADS = 8;
+
+  private ConfigSnapshot()
+  {
+  }
+
+  /**
+   * Loads the configuration {@code url} from the snapshot {@code snapshotFile}. If there is no
+   * valid snapshot, the configuration is parsed (included files are read in parallel) and a new
+   * snapshot is written.
+   *
+   * @param name
+   *          the name of the root of the created ConfigThingy tree.
+   * @param url
+   *          the configuration file.
+   * @param snapshotFile
+   *          the file of the snapshot.
+   * @return The configuration.
+   * @throws IOException
+   *           if loading data from url (or an included URL) fails.
+   * @throws SyntaxErrorException
+   *           if a syntactic error is found when parsing the data from url.
+   */
+  public static ConfigThingy parse(String name, URL url, File snapshotFile)
+      throws IOException, SyntaxErrorException
+  {
+    return parse(name, url, snapshotFile, new LinkedHashSet<>());
+  }
+
+  /**
+   * Like {@link #parse(String, URL, File)}, but the configuration file and all included files are
+   * added to {@code sources}, no matter whether they have been read from the snapshot or parsed.
+   */
+  public static ConfigThingy parse(String name, URL url, File snapshotFile,
+      Collection<URL> sources) throws IOException, SyntaxErrorException
+  {
+    ConfigThingy conf = read(snapshotFile, name, url, sources);
+    if (conf != null)
+    {
+      return conf;
+    }
+
+    long start = System.currentTimeMillis();
+    SourceRecorder recorder = new SourceRecorder();
+    ExecutorService executor = Executors.newFixedThreadPool(INCLUDE_THREADS, r -> {
+      Thread thread = new Thread(r, "lots.conf include reader");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try
+    {
+      conf = new ConfigThingy(name, url, sources, executor, recorder);
+    } finally
+    {
+      executor.shutdownNow();
+    }
+    try
+    {
+      write(snapshotFile, conf, recorder.getSources(sources), start);
+    } catch (IOException e)
+    {
+      LOGGER.info("Snapshot {} of the configuration couldn't be written", snapshotFile, e);
+    }
+    return conf;
+  }
+
+  /**
+   * Reads the snapshot of the configuration {@code url}.
+   *
+   * @param snapshotFile
+   *          the file of the snapshot.
+   * @param name
+   *          the name of the root of the created ConfigThingy tree.
+   * @param url
+   *          the configuration file.
+   * @return The configuration or null, if there is no snapshot of {@code url} or if any of its
+   *         files has changed.
+   */
+  public static ConfigThingy read(File snapshotFile, String name, URL url)
+  {
+    return read(snapshotFile, name, url, new ArrayList<>());
+  }
+
+  /**
+   * Like {@link #read(File, String, URL)}, but the files of the configuration are added to
+   * {@code files} if the snapshot is valid.
+   */
+  private static ConfigThingy read(File snapshotFile, String name, URL url,
+      Collection<URL> files)
+  {
+    if (!snapshotFile.isFile())
+    {
+      return null;
+    }
+
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(snapshotFile))))
+    {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION)
+      {
+        LOGGER.debug("Snapshot {} has an unknown format", snapshotFile);
+        return null;
+      }
+
+      int sourceCount = in.readInt();
+      List<Source> sources = new ArrayList<>(sourceCount);
+      for (int i = 0; i < sourceCount; i++)
+      {
+        sources.add(Source.read(in));
+      }
+      if (sources.isEmpty() || !sources.get(0).url.equals(url.toExternalForm()))
+      {
+        LOGGER.debug("Snapshot {} belongs to another configuration", snapshotFile);
+        return null;
+      }
+
+      boolean touched = false;
+      for (Source source : sources)
+      {
+        State state = source.check();
+        if (state == State.CHANGED)
+        {
+          LOGGER.debug("{} has changed, snapshot {} is outdated", source.url, snapshotFile);
+          return null;
+        }
+        touched |= state == State.TOUCHED;
+      }
+
+      String[] strings = new String[in.readInt()];
+      for (int i = 0; i < strings.length; i++)
+      {
+        strings[i] = readString(in);
+      }
+      ConfigThingy conf = new ConfigThingy(name);
+      readChildren(in, strings, conf);
+
+      if (touched)
+      {
+        // avoid hashing the touched files again at the next start
+        writeSnapshot(snapshotFile, conf, sources);
+      }
+      List<URL> urls = new ArrayList<>(sources.size());
+      for (Source source : sources)
+      {
+        urls.add(new URL(source.url));
+      }
+      files.addAll(urls);
+      return conf;
+    } catch (IOException | RuntimeException e)
+    {
+      LOGGER.debug("Snapshot {} couldn't be read", snapshotFile, e);
+      return null;
+    }
+  }
+
+  /**
+   * Writes a snapshot of {@code conf}.
+   *
+   * @param snapshotFile
+   *          the file of the snapshot.
+   * @param conf
+   *          the parsed configuration.
+   * @param metadata
+   *          all files which have been read while parsing, the configuration file first.
+   * @param parseStart
+   *          the time the parsing started. If any file has been modified since then, no snapshot
+   *          is written, because it may not match the configuration.
+   * @throws IOException
+   *           the snapshot can't be written.
+   */
+  private static void write(File snapshotFile, ConfigThingy conf, List<Source> metadata,
+      long parseStart) throws IOException
+  {
+    for (Source source : metadata)
+    {
+      if (source.lastModified >= parseStart)
+      {
+        LOGGER.debug("{} has been modified while parsing, no snapshot is written", source.url);
+        return;
+      }
+    }
+    writeSnapshot(snapshotFile, conf, metadata);
+  }
+
+  private static void writeSnapshot(File snapshotFile, ConfigThingy conf, List<Source> sources)
+      throws IOException
+  {
+    File parent = snapshotFile.getAbsoluteFile().getParentFile();
+    File tmp = File.createTempFile(snapshotFile.getName(), ".tmp", parent);
+    try
+    {
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tmp))))
+      {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(sources.size());
+        for (Source source : sources)
+        {
+          source.write(out);
+        }
+
+        Map<String, Integer> stringIds = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        collectStrings(conf, stringIds, strings);
+        out.writeInt(strings.size());
+        for (String str : strings)
+        {
+          writeString(out, str);
+        }
+        writeChildren(out, stringIds, conf);
+      }
+      Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally
+    {
+      Files.deleteIfExists(tmp.toPath());
+    }
+  }
+
+  private static void collectStrings(ConfigThingy conf, Map<String, Integer> stringIds,
+      List<String> strings)
+  {
+    for (ConfigThingy child : conf)
+    {
+      if (stringIds.putIfAbsent(child.getName(), strings.size()) == null)
+      {
+        strings.add(child.getName());
+      }
+      collectStrings(child, stringIds, strings);
+    }
+  }
+
+  private static void writeChildren(DataOutputStream out, Map<String, Integer> stringIds,
+      ConfigThingy conf) throws IOException
+  {
+    writeVarInt(out, conf.count());
+    for (ConfigThingy child : conf)
+    {
+      writeVarInt(out, stringIds.get(child.getName()));
+      writeChildren(out, stringIds, child);
+    }
+  }
+
+  private static void readChildren(DataInputStream in, String[] strings, ConfigThingy conf)
+      throws IOException
+  {
+    int count = readVarInt(in);
+    for (int i = 0; i < count; i++)
+    {
+      readChildren(in, strings, conf.add(strings[readVarInt(in)]));
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String str) throws IOException
+  {
+    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+    writeVarInt(out, bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException
+  {
+    byte[] bytes = new byte[readVarInt(in)];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeVarInt(DataOutputStream out, int value) throws IOException
+  {
+    while ((value & ~0x7F) != 0)
+    {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  private static int readVarInt(DataInputStream in) throws IOException
+  {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7)
+    {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0)
+      {
+        return value;
+      }
+    }
+    throw new IOException("Malformed snapshot");
+  }
+
+  private static byte[] hash(URL url) throws IOException
+  {
+    try (InputStream in = url.openStream())
+    {
+      MessageDigest digest = newDigest();
+      byte[] buffy = new byte[8192];
+      int len;
+      while ((len = in.read(buffy)) >= 0)
+      {
+        digest.update(buffy, 0, len);
+      }
+      return digest.digest();
+    }
+  }
+
+  private static MessageDigest newDigest() throws IOException
+  {
+    try
+    {
+      return MessageDigest.getInstance(HASH_ALGORITHM);
+    } catch (NoSuchAlgorithmException e)
+    {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Opens the files for the parser and computes size and hash of each file from the bytes the
+   * parser reads, so the files don't have to be read again for the snapshot. The modification
+   * time is taken before the file is opened, so a later modification is noticed by
+   * {@link Source#check()}.
+   */
+  private static class SourceRecorder implements ConfigThingy.URLOpener
+  {
+    private final Map<String, Source> sources = new ConcurrentHashMap<>();
+
+    @Override
+    public InputStream open(URL url) throws IOException
+    {
+      File file = Source.toFile(url);
+      long lastModified = file == null ? 0 : file.lastModified();
+      MessageDigest digest = newDigest();
+      return new FilterInputStream(url.openStream())
+      {
+        private long size = 0;
+
+        private boolean closed = false;
+
+        @Override
+        public int read() throws IOException
+        {
+          int b = super.read();
+          if (b >= 0)
+          {
+            digest.update((byte) b);
+            size++;
+          }
+          return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+          int count = super.read(b, off, len);
+          if (count > 0)
+          {
+            digest.update(b, off, count);
+            size += count;
+          }
+          return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+          if (n <= 0)
+          {
+            return 0;
+          }
+          return Math.max(0, read(new byte[(int) Math.min(n, 8192)]));
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+          super.close();
+          if (!closed)
+          {
+            closed = true;
+            sources.put(url.toExternalForm(), new Source(url.toExternalForm(),
+                file == null ? -1 : size, lastModified, digest.digest()));
+          }
+        }
+      };
+    }
+
+    /**
+     * The recorded files in the order of {@code urls}.
+     *
+     * @throws IOException
+     *           a file hasn't been read by the parser.
+     */
+    public List<Source> getSources(Collection<URL> urls) throws IOException
+    {
+      List<Source> result = new ArrayList<>(urls.size());
+      for (URL url : urls)
+      {
+        Source source = sources.get(url.toExternalForm());
+        if (source == null)
+        {
+          throw new IOException(url + " hasn't been read completely");
+        }
+        result.add(source);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * The state of a file compared to its state in the snapshot.
+   */
+  private enum State
+  {
+    UNCHANGED,
+    /** Only the modification time has changed. */
+    TOUCHED,
+    CHANGED;
+  }
+
+  /**
+   * A file which has been read while parsing the configuration.
+   */
+  private static class Source
+  {
+    private final String url;
+
+    /** The size in bytes or -1 if it isn't a local file. */
+    private final long size;
+
+    /** The modification time or 0 if it isn't a local file. */
+    private long lastModified;
+
+    private final byte[] hash;
+
+    private Source(String url, long size, long lastModified, byte[] hash)
+    {
+      this.url = url;
+      this.size = size;
+      this.lastModified = lastModified;
+      this.hash = hash;
+    }
+
+    private static Source read(DataInputStream in) throws IOException
+    {
+      String url = readString(in);
+      long size = in.readLong();
+      long lastModified = in.readLong();
+      byte[] hash = new byte[readVarInt(in)];
+      in.readFully(hash);
+      return new Source(url, size, lastModified, hash);
+    }
+
+    private void write(DataOutputStream out) throws IOException
+    {
+      writeString(out, url);
+      out.writeLong(size);
+      out.writeLong(lastModified);
+      writeVarInt(out, hash.length);
+      out.write(hash);
+    }
+
+    /**
+     * Checks whether the file still has the same content. Local files are only hashed if their
+     * modification time has changed. If the file has only been touched, the modification time of
+     * this source is updated.
+     */
+    private State check() throws IOException
+    {
+      URL source = new URL(url);
+      File file = toFile(source);
+      if (file != null)
+      {
+        if (!file.isFile() || file.length() != size)
+        {
+          return State.CHANGED;
+        }
+        if (file.lastModified() == lastModified)
+        {
+          return State.UNCHANGED;
+        }
+      }
+
+      try
+      {
+        if (!Arrays.equals(hash, hash(source)))
+        {
+          return State.CHANGED;
+        }
+      } catch (IOException e)
+      {
+        LOGGER.debug("", e);
+        return State.CHANGED;
+      }
+
+      if (file == null)
+      {
+        return State.UNCHANGED;
+      }
+      lastModified = file.lastModified();
+      return State.TOUCHED;
+    }
+
+    private static File toFile(URL url)
+    {
+      if (!"file".equals(url.getProtocol()))
+      {
+        return null;
+      }
+      try
+      {
+        return new File(url.toURI());
+      } catch (URISyntaxException | IllegalArgumentException e)
+      {
+        return null;
+      }
+    }
+  }
+}
@@ -22,26 +22,40 @@
  */
 package org.libreoffice.lots.config;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.util.AbstractList;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.libreoffice.lots.config.scanner.ConfigLexer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -64,17 +78,6 @@ public class ConfigThingy implements Iterable<ConfigThingy>
    */
   public static final String CHARSET = "UTF-8";
 
-  /**
-   * Pattern for Unicode letters and digits.
-   */
-  private static final Pattern NON_LETTER_OR_DIGITS =
-    Pattern.compile("\\P{javaLetterOrDigit}");
-
-  /**
-   * Pattern for characters that must be escaped in ConfigThingys.
-   */
-  private static final Pattern CONFIGTHINGY_SPECIAL = Pattern.compile("[%\n\r\"']");
-
   /**
    * Indentation for stringRepresentation().
    */
@@ -94,49 +97,69 @@ public class ConfigThingy implements Iterable<ConfigThingy>
 
   private static final int ST_OTHER = 2;
 
-  /** The child nodes. */
+  /**
+   * Subtrees with fewer nodes are always searched without a {@link NameIndex}.
+   */
+  private static final int MIN_INDEXED_NODES = 64;
+
+  /** The child nodes. A {@link FrozenChildren} list if this node is frozen. */
   private List<ConfigThingy> children;
 
   /** The name of the node. For leaves, this is the (string) value of the node. */
   private String name;
 
+  /**
+   * Index of all descendants by name of a frozen node, created lazily by {@link #getNameIndex()}.
+   * {@link NameIndex#QUERIED} after the first query.
+   */
+  private volatile NameIndex nameIndex;
+
   /** Fallback names (to support old German config items) */
-  Map<String, String> oldConfigItems = new HashMap<String, String>() {{
-      put("ColumnTransformation", "Spaltenumsetzung");
-      put("LibreOfficeSettings", "OOoEinstellungen");
-      put("Functions", "Funktionen");
-      put("PrintFunctions", "Druckfunktionen");
-      put("MailSettings", "EMailEinstellungen");
-      put("DataSources", "Datenquellen");
-      put("DataSource", "Datenquelle");
-      put("PersonalSenderListInit", "PersoenlicheAbsenderlisteInitialisierung");
-      put("SearchStrategy", "Suchstrategie");
-      put("TextBlocks", "Textbausteine");
-      put("Warnings", "Warnungen");
-      put("TextFragments", "Textfragmente");
-      put("KeyboardShortcuts", "Tastenkuerzel");
-      put("DefaultElements", "Standardelemente");
-      put("RecipientSelection", "Empfaengerauswahl");
-      put("InputFields", "Eingabefelder");
-      put("SenderDataColumnTransformation", "AbsenderdatenSpaltenumsetzung");
-      put("ExternalApplications", "ExterneAnwendungen");
-      put("ContentBasedDirectives", "SachleitendeVerfuegungen");
-      put("FunctionDialogs", "Funktionsdialoge");
-      put("Search", "Suche");
-      put("SearchResult", "Suchergebnis");
-      put("Preview", "Vorschau");
-      put("BottomArea", "Fussbereich");
-      put("Menubar", "Menueleiste");
-      put("Toolbars", "Symbolleisten");
-      put("LetterheadToolbar", "Briefkopfleiste");
-      put("Elemente", "Elements");
-      put("Data", "Daten");
-      put("DocumentActions", "Dokumentaktionen");
-      put("Columns", "Spalten");
-      put("DB_COLUMN", "DB_SPALTE");
-      put("COPY_NAME", "ABDRUCK_NAME");
-      put("OVERRIDE_FRAG_DB_COLUMN", "OVERRIDE_FRAG_DB_SPALTE");
-  }};
+  private static final Map<String, String> OLD_CONFIG_ITEMS = Map.ofEntries(
+      Map.entry("ColumnTransformation", "Spaltenumsetzung"),
+      Map.entry("LibreOfficeSettings", "OOoEinstellungen"),
+      Map.entry("Functions", "Funktionen"),
+      Map.entry("PrintFunctions", "Druckfunktionen"),
+      Map.entry("MailSettings", "EMailEinstellungen"),
+      Map.entry("DataSources", "Datenquellen"),
+      Map.entry("DataSource", "Datenquelle"),
+      Map.entry("PersonalSenderListInit", "PersoenlicheAbsenderlisteInitialisierung"),
+      Map.entry("SearchStrategy", "Suchstrategie"),
+      Map.entry("TextBlocks", "Textbausteine"),
+      Map.entry("Warnings", "Warnungen"),
+      Map.entry("TextFragments", "Textfragmente"),
+      Map.entry("KeyboardShortcuts", "Tastenkuerzel"),
+      Map.entry("DefaultElements", "Standardelemente"),
+      Map.entry("RecipientSelection", "Empfaengerauswahl"),
+      Map.entry("InputFields", "Eingabefelder"),
+      Map.entry("SenderDataColumnTransformation", "AbsenderdatenSpaltenumsetzung"),
+      Map.entry("ExternalApplications", "ExterneAnwendungen"),
+      Map.entry("ContentBasedDirectives", "SachleitendeVerfuegungen"),
+      Map.entry("FunctionDialogs", "Funktionsdialoge"),
+      Map.entry("Search", "Suche"),
+      Map.entry("SearchResult", "Suchergebnis"),
+      Map.entry("Preview", "Vorschau"),
+      Map.entry("BottomArea", "Fussbereich"),
+      Map.entry("Menubar", "Menueleiste"),
+      Map.entry("Toolbars", "Symbolleisten"),
+      Map.entry("LetterheadToolbar", "Briefkopfleiste"),
+      Map.entry("Elemente", "Elements"),
+      Map.entry("Data", "Daten"),
+      Map.entry("DocumentActions", "Dokumentaktionen"),
+      Map.entry("Columns", "Spalten"),
+      Map.entry("DB_COLUMN", "DB_SPALTE"),
+      Map.entry("COPY_NAME", "ABDRUCK_NAME"),
+      Map.entry("OVERRIDE_FRAG_DB_COLUMN", "OVERRIDE_FRAG_DB_SPALTE"));
+
+  /**
+   * The old German name of a config item.
+   *
+   * @return The old name or null, if there's none.
+   */
+  static String getOldName(String name)
+  {
+    return OLD_CONFIG_ITEMS.get(name);
+  }
 
 
   /**
@@ -155,6 +178,68 @@ public class ConfigThingy implements Iterable<ConfigThingy>
     childrenFromUrl(url, new InputStreamReader(url.openStream(), CHARSET));
   }
 
+  /**
+   * Like {@link #ConfigThingy(String, URL)}, but {@code url} and the URLs of all included files are
+   * added to {@code sources} in the order in which they are read.
+   */
+  public ConfigThingy(String name, URL url, Collection<URL> sources)
+      throws IOException, SyntaxErrorException
+  {
+    this(name);
+    sources.add(url);
+    childrenFromUrl(url, new InputStreamReader(url.openStream(), CHARSET), sources);
+  }
+
+  /**
+   * Like {@link #ConfigThingy(String, URL, Collection)}, but all included files are read and
+   * tokenized in parallel by {@code executor} before the tree is built. This is useful if the
+   * files are on a network share, where reading the included files one after another adds up all
+   * latencies. The result is the same as the result of the sequential parser.
+   *
+   * @param executor
+   *          reads and tokenizes the included files. Its tasks never wait for each other, so a
+   *          bounded thread pool can be used.
+   */
+  public ConfigThingy(String name, URL url, Collection<URL> sources, Executor executor)
+      throws IOException, SyntaxErrorException
+  {
+    this(name, url, sources, executor, URL::openStream);
+  }
+
+  /**
+   * Like {@link #ConfigThingy(String, URL, Collection, Executor)}, but all files are opened with
+   * {@code opener}, which can observe the bytes the parser reads.
+   */
+  ConfigThingy(String name, URL url, Collection<URL> sources, Executor executor,
+      URLOpener opener) throws IOException, SyntaxErrorException
+  {
+    this(name);
+    sources.add(url);
+    RecordedTokens tokens = RecordedTokens.record(url,
+      new InputStreamReader(opener.open(url), CHARSET));
+    PrefetchingIncludeResolver includes = new PrefetchingIncludeResolver(executor, sources,
+      opener);
+    includes.prefetch(tokens);
+    childrenFromTokens(tokens.replay(), includes);
+  }
+
+  /**
+   * Like {@link #ConfigThingy(String, URL, Collection)}, but the tokens of a file are taken from
+   * {@code tokenCache} if it contains the external form of the file's URL. Otherwise the file is
+   * read and its tokens are added to {@code tokenCache}. So only files which have been removed
+   * from the cache are read again.
+   */
+  ConfigThingy(String name, URL url, Collection<URL> sources,
+      Map<String, RecordedTokens> tokenCache) throws IOException, SyntaxErrorException
+  {
+    this(name);
+    sources.add(url);
+    childrenFromTokens(RecordedTokens.cached(url, tokenCache).replay(), includeURL -> {
+      sources.add(includeURL);
+      return RecordedTokens.cached(includeURL, tokenCache).replay();
+    });
+  }
+
   /**
    * Parses the string {@code confString} in the context of the null URL
    * (i.e. includes with relative URLs must not occur in confString).
@@ -235,6 +320,61 @@ public class ConfigThingy implements Iterable<ConfigThingy>
     }
   }
 
+  /**
+   * Returns a read-only copy of this tree, which needs less memory. The names of inner nodes are
+   * interned, equal values of leaves are shared, all leaves share one empty list of children and
+   * the children of all other nodes are stored in arrays of the exact size. Methods which modify a
+   * frozen node throw an {@link UnsupportedOperationException}. A copy made with
+   * {@link #ConfigThingy(ConfigThingy)} can be modified again. Repeated queries of a frozen tree
+   * are answered from an index of its nodes by name.
+   *
+   * @return {@code this}, if it is already frozen.
+   */
+  public ConfigThingy freeze()
+  {
+    return freeze(new HashMap<>());
+  }
+
+  /**
+   * Like {@link #freeze()}, but leaves are named with the values of {@code values}.
+   */
+  private ConfigThingy freeze(Map<String, String> values)
+  {
+    if (isFrozen())
+    {
+      return this;
+    }
+
+    if (children.isEmpty())
+    {
+      String value = name == null ? null : values.computeIfAbsent(name, v -> v);
+      return new ConfigThingy(value, FrozenChildren.NONE);
+    }
+
+    ConfigThingy[] frozen = new ConfigThingy[children.size()];
+    for (int i = 0; i < frozen.length; ++i)
+    {
+      frozen[i] = children.get(i).freeze(values);
+    }
+    return new ConfigThingy(name == null ? null : name.intern(), new FrozenChildren(frozen));
+  }
+
+  /**
+   * Returns true if this node has been created by {@link #freeze()} and can't be modified.
+   */
+  public boolean isFrozen()
+  {
+    return children instanceof FrozenChildren;
+  }
+
+  private void checkNotFrozen()
+  {
+    if (isFrozen())
+    {
+      throw new UnsupportedOperationException("ConfigThingy is frozen: " + name);
+    }
+  }
+
   /**
    * Parses the data from {@code read} in the context of {@code url}
    * and appends the corresponding nodes as children to {@code this}.
@@ -246,79 +386,105 @@ public class ConfigThingy implements Iterable<ConfigThingy>
    */
   protected void childrenFromUrl(URL url, Reader read) throws IOException,
       SyntaxErrorException
+  {
+    childrenFromUrl(url, read, null);
+  }
+
+  /**
+   * Like {@link #childrenFromUrl(URL, Reader)}, but the URLs of all included files are added to
+   * {@code sources}, if it isn't null.
+   */
+  private void childrenFromUrl(URL url, Reader read, Collection<URL> sources)
+      throws IOException, SyntaxErrorException
+  {
+    childrenFromTokens(new LexerTokenStream(url, read), includeURL -> {
+      if (sources != null) {
+        sources.add(includeURL);
+      }
+      return new LexerTokenStream(includeURL,
+        new InputStreamReader(includeURL.openStream(), CHARSET));
+    });
+  }
+
+  /**
+   * Appends the nodes described by {@code tokens} as children to {@code this}. Included files are
+   * read with {@code includes}. {@code tokens} is closed afterwards.
+   *
+   * @throws IOException
+   *           if loading data from {@code tokens} or an included URL fails.
+   * @throws SyntaxErrorException
+   *           if a syntactic error is found in the tokens or in an included file.
+   */
+  private void childrenFromTokens(TokenStream tokens, IncludeResolver includes)
+      throws IOException, SyntaxErrorException
   {
     try
     {
       Deque<ConfigThingy> stack = new ArrayDeque<>();
       stack.push(this);
-      List<StringContentToken> tokens = tokenize(url, read);
-      Iterator<StringContentToken> liter = tokens.iterator();
-      Token token1;
-      Token token2;
+      TokenType type1;
       do
       {
-        token1 = liter.next();
+        type1 = tokens.next();
         ConfigThingy child;
-        switch (token1.type())
+        switch (type1)
         {
           case INCLUDE:
-            token2 = liter.next();
-            if (token2.type() == TokenType.STRING && !token2.contentString().isEmpty())
+            if (tokens.next() == TokenType.STRING && !tokens.content().isEmpty())
             {
               try
               {
-                URL includeURL = new URL(url, urlEncode(token2.contentString()));
-                stack.peek().childrenFromUrl(includeURL,
-                  new InputStreamReader(includeURL.openStream(), CHARSET));
+                URL includeURL = new URL(tokens.url(), urlEncode(tokens.content()));
+                stack.peek().childrenFromTokens(includes.open(includeURL), includes);
               }
               catch (IOException iox)
               {
-                throw new IOException(token2.url() + " in line " + token2.line()
-                  + " at char " + token2.position()
+                throw new IOException(tokens.url() + " in line " + tokens.line()
+                  + " at char " + tokens.position()
                   + ": %include failed: ", iox);
               }
             }
             else
             {
-              throw new SyntaxErrorException(token2.url()
+              throw new SyntaxErrorException(tokens.url()
                 + ": URL string (enclosed in quotes) expected in line "
-                + token2.line() + " at char " + token2.position());
+                + tokens.line() + " at char " + tokens.position());
             }
             break;
 
           case KEY:
-            token2 = liter.next();
-            switch (token2.type())
+            String key = tokens.content();
+            switch (tokens.next())
             {
               case OPENPAREN:
-                child = new ConfigThingy(token1.contentString());
+                child = new ConfigThingy(key);
                 stack.peek().addChild(child);
                 stack.push(child);
                 break;
               case STRING:
-                child = new ConfigThingy(token1.contentString());
-                ConfigThingy grandchild = new ConfigThingy(token2.contentString());
+                child = new ConfigThingy(key);
+                ConfigThingy grandchild = new ConfigThingy(tokens.content());
                 child.addChild(grandchild);
                 stack.peek().addChild(child);
                 break;
               default:
-                throw new SyntaxErrorException(token2.url()
-                  + ": syntax error in line " + token2.line() + " at char "
-                  + token2.position());
+                throw new SyntaxErrorException(tokens.url()
+                  + ": syntax error in line " + tokens.line() + " at char "
+                  + tokens.position());
             }
             break;
 
           case STRING:
-            child = new ConfigThingy(token1.contentString());
+            child = new ConfigThingy(tokens.content());
             stack.peek().addChild(child);
             break;
 
           case CLOSEPAREN:
             // Attention: root must not be popped.
             if (stack.size() <= 1)
-              throw new SyntaxErrorException(token1.url()
+              throw new SyntaxErrorException(tokens.url()
                 + ": Bracket ')' without matching bracket '(' in line "
-                + token1.line() + " at char " + token1.position());
+                + tokens.line() + " at char " + tokens.position());
             stack.pop();
             break;
 
@@ -332,28 +498,21 @@ public class ConfigThingy implements Iterable<ConfigThingy>
             break;
 
           default:
-            throw new SyntaxErrorException(token1.url() + ": syntax error in line"
-              + token1.line() + " at char " + token1.position());
+            throw new SyntaxErrorException(tokens.url() + ": syntax error in line"
+              + tokens.line() + " at char " + tokens.position());
         }
 
-      } while (token1.type() != TokenType.END);
+      } while (type1 != TokenType.END);
 
       if (stack.size() > 1)
       {
-        throw new SyntaxErrorException(token1.url() + ": " + (stack.size() - 1)
+        throw new SyntaxErrorException(tokens.url() + ": " + (stack.size() - 1)
           + " closing brackets are missing");
       }
     }
     finally
     {
-      try
-      {
-        read.close();
-      }
-      catch (Exception x)
-      {
-        LOGGER.trace("", x);
-      }
+      tokens.close();
     }
   }
 
@@ -403,6 +562,7 @@ public class ConfigThingy implements Iterable<ConfigThingy>
    */
   public void addChild(ConfigThingy child)
   {
+    checkNotFrozen();
     children.add(child);
   }
 
@@ -433,7 +593,30 @@ public class ConfigThingy implements Iterable<ConfigThingy>
   @Override
   public Iterator<ConfigThingy> iterator()
   {
-    return children.iterator();
+    Iterator<ConfigThingy> iter = children.iterator();
+    return new Iterator<ConfigThingy>()
+    {
+      private ConfigThingy last;
+
+      @Override
+      public boolean hasNext()
+      {
+        return iter.hasNext();
+      }
+
+      @Override
+      public ConfigThingy next()
+      {
+        last = iter.next();
+        return last;
+      }
+
+      @Override
+      public void remove()
+      {
+        iter.remove();
+      }
+    };
   }
 
   /**
@@ -504,6 +687,7 @@ public class ConfigThingy implements Iterable<ConfigThingy>
    */
   public void setName(String newName)
   {
+    checkNotFrozen();
     name = newName;
   }
 
@@ -556,6 +740,9 @@ public class ConfigThingy implements Iterable<ConfigThingy>
    *          are inserted into this list. Each node appears at most once in this list,
    *          i.e. if getParents==true and a node has several children with name name,
    *          this node is nevertheless inserted only once.
+   * @param foundParents
+   *          all parents which have already been inserted into {@code found}. Only used if
+   *          {@code getParents==true}.
    * @param parentLevel
    *          the search depth for breadth-first search of {@code parent},
    *          i.e. this has search depth {@code parentLevel + 1}
@@ -569,8 +756,8 @@ public class ConfigThingy implements Iterable<ConfigThingy>
    * @return {@code true} if at least one node with search depth searchlevel has been reached,
    *         i.e. if a search with a higher searchlevel could possibly yield results.
    */
-  private boolean rollcall(ConfigThingy parent, String name,
-      List<ConfigThingy> found, int parentLevel, int searchLevel, boolean getParents)
+  private boolean rollcall(ConfigThingy parent, String name, List<ConfigThingy> found,
+      Set<ConfigThingy> foundParents, int parentLevel, int searchLevel, boolean getParents)
   {
     int level = parentLevel + 1;
     if (searchLevel == level)
@@ -579,7 +766,7 @@ public class ConfigThingy implements Iterable<ConfigThingy>
       {
         if (getParents)
         {
-          if (!found.contains(parent)) {
+          if (foundParents.add(parent)) {
             found.add(parent);
           }
         }
@@ -594,7 +781,7 @@ public class ConfigThingy implements Iterable<ConfigThingy>
       for (ConfigThingy child : children)
       {
         boolean result =
-          child.rollcall(this, name, found, level, searchLevel, getParents);
+          child.rollcall(this, name, found, foundParents, level, searchLevel, getParents);
         haveMore = haveMore || result;
       }
       return haveMore;
@@ -687,8 +874,8 @@ public class ConfigThingy implements Iterable<ConfigThingy>
     ConfigThingy res = query(name, false, maxlevel, minlevel);
     if (res.count() == 0)
     {
-      if (oldConfigItems.containsKey(name))
-        res = get(oldConfigItems.get(name), maxlevel, minlevel);
+      if (OLD_CONFIG_ITEMS.containsKey(name))
+        res = get(OLD_CONFIG_ITEMS.get(name), maxlevel, minlevel);
       if (res.count() == 0)
         throw new NodeNotFoundException("Knoten " + getName() + " hat keinen Nachfahren '" + name + "'");
     }
@@ -830,13 +1017,23 @@ public class ConfigThingy implements Iterable<ConfigThingy>
   public ConfigThingy queryAll(String name, int maxlevel, boolean getParents)
   {
     ArrayList<ConfigThingy> found = new ArrayList<>();
+    Set<ConfigThingy> foundParents = getParents ? newIdentitySet() : null;
+
+    NameIndex index = getNameIndex();
+    if (index != null)
+    {
+      // level 1 is always searched, maxlevel + 1 may overflow
+      int deepest = maxlevel == Integer.MAX_VALUE ? 1 : Math.max(1, maxlevel);
+      index.collect(name, 1, deepest, false, found, foundParents, getParents);
+      return new ConfigThingy("<query results>", found);
+    }
 
     boolean hasMore;
 
     int searchlevel = 1;
     do
     {
-      hasMore = rollcall(this, name, found, -1, searchlevel++, getParents);
+      hasMore = rollcall(this, name, found, foundParents, -1, searchlevel++, getParents);
     } while (hasMore && searchlevel < maxlevel + 1);
 
     return new ConfigThingy("<query results>", found);
@@ -850,19 +1047,28 @@ public class ConfigThingy implements Iterable<ConfigThingy>
       int minlevel)
   {
     List<ConfigThingy> found = new ArrayList<>();
-    boolean haveMore;
-    int searchlevel = minlevel;
-    do
+    Set<ConfigThingy> foundParents = getParents ? newIdentitySet() : null;
+    NameIndex index = minlevel >= 0 ? getNameIndex() : null;
+    if (index != null)
     {
-      if (searchlevel > maxlevel) {
-        break;
-      }
-      haveMore = rollcall(this, name, found, -1, searchlevel, getParents);
-      ++searchlevel;
-    } while (found.isEmpty() && haveMore);
+      index.collect(name, minlevel, maxlevel, true, found, foundParents, getParents);
+    }
+    else
+    {
+      boolean haveMore;
+      int searchlevel = minlevel;
+      do
+      {
+        if (searchlevel > maxlevel) {
+          break;
+        }
+        haveMore = rollcall(this, name, found, foundParents, -1, searchlevel, getParents);
+        ++searchlevel;
+      } while (found.isEmpty() && haveMore);
+    }
 
-    if (found.isEmpty() && oldConfigItems.containsKey(name)) {
-      ConfigThingy res = query(oldConfigItems.get(name), getParents, maxlevel, minlevel);
+    if (found.isEmpty() && OLD_CONFIG_ITEMS.containsKey(name)) {
+      ConfigThingy res = query(OLD_CONFIG_ITEMS.get(name), getParents, maxlevel, minlevel);
       if (res.count() == 0)
         return new ConfigThingy("<query results>");
     }
@@ -881,6 +1087,38 @@ public class ConfigThingy implements Iterable<ConfigThingy>
     return query(name, getParents, maxlevel, DEFAULT_MINLEVEL);
   }
 
+  /**
+   * Returns the {@link NameIndex} of this subtree or null if the subtree should be searched
+   * with {@link #rollcall(ConfigThingy, String, List, Set, int, int, boolean)}.
+   *
+   * Only frozen subtrees are indexed, because they never change. The index is created by the
+   * second query, so trees which are only queried once don't pay for it.
+   */
+  private NameIndex getNameIndex()
+  {
+    if (!isFrozen())
+    {
+      return null;
+    }
+    NameIndex index = nameIndex;
+    if (index == null)
+    {
+      nameIndex = NameIndex.QUERIED;
+      return null;
+    }
+    if (index == NameIndex.QUERIED)
+    {
+      index = new NameIndex(this);
+      nameIndex = index;
+    }
+    return index.isEnabled() ? index : null;
+  }
+
+  private static Set<ConfigThingy> newIdentitySet()
+  {
+    return Collections.newSetFromMap(new IdentityHashMap<>());
+  }
+
   /**
    * If {@code getParents == false} this function behaves like {@link #get(String, int)},
    * if {@code getParents == true} like {@link #getByChild(String, int)}.
@@ -920,20 +1158,15 @@ public class ConfigThingy implements Iterable<ConfigThingy>
   public String stringRepresentation(boolean childrenOnly, char stringChar,
       boolean escapeAll)
   {
-    if (stringChar != '"' && stringChar != '\'')
-      throw new java.lang.IllegalArgumentException(
-        "Only \" and ' are allowed as string limiters.");
-
     StringBuilder buf = new StringBuilder();
-    if (!childrenOnly)
-      stringRepresentation(buf, "", stringChar, escapeAll);
-    else
+    try
     {
-      for (ConfigThingy child : children)
-      {
-        child.stringRepresentation(buf, "", stringChar, escapeAll);
-        buf.append('\n');
-      }
+      writeTo(buf, childrenOnly, stringChar, escapeAll);
+    }
+    catch (IOException x)
+    {
+      // a StringBuilder doesn't throw
+      throw new UncheckedIOException(x);
     }
     return buf.toString();
   }
@@ -955,81 +1188,128 @@ public class ConfigThingy implements Iterable<ConfigThingy>
   }
 
   /**
-   * Replaces ' with '', \n with %n, % with %%.
+   * Writes the same text as {@link #stringRepresentation(boolean, char, boolean)} to
+   * {@code out}. The text is escaped and indented directly into {@code out}, so no copy of the
+   * whole text is created.
    *
-   * @param escapeAll
-   *          if true all {@link #NON_LETTER_OR_DIGITS} are escaped as Unicode escapes.
+   * @throws IOException
+   *           if {@code out} can't be written.
+   * @throws IllegalArgumentException
+   *           if {@code stringChar} is not ' or ".
    */
-  private String escapeString(String str, char stringChar, boolean escapeAll)
+  public void writeTo(Appendable out, boolean childrenOnly, char stringChar, boolean escapeAll)
+      throws IOException
   {
-    Pattern p;
-    if (escapeAll)
-      p = NON_LETTER_OR_DIGITS;
-    else
-      p = CONFIGTHINGY_SPECIAL;
+    if (stringChar != '"' && stringChar != '\'')
+      throw new java.lang.IllegalArgumentException(
+        "Only \" and ' are allowed as string limiters.");
 
-    Matcher m = p.matcher(str);
-    ArrayList<Integer> locations = new ArrayList<>();
-    while (m.find())
-      locations.add(Integer.valueOf(m.start()));
-    StringBuilder buffy = new StringBuilder(str);
-    while (!locations.isEmpty())
+    if (!childrenOnly)
+      writeTo(out, "", stringChar, escapeAll);
+    else
     {
-      int idx = locations.remove(locations.size() - 1).intValue();
+      for (ConfigThingy child : children)
+      {
+        child.writeTo(out, "", stringChar, escapeAll);
+        out.append('\n');
+      }
+    }
+  }
 
-      String repstr = Character.toString(buffy.charAt(idx));
+  /**
+   * Like {@link #writeTo(Appendable, boolean, char, boolean)} with {@code escapeAll == false}.
+   */
+  public void writeTo(Appendable out, boolean childrenOnly, char stringChar) throws IOException
+  {
+    writeTo(out, childrenOnly, stringChar, false);
+  }
 
+  /**
+   * Appends {@code str} to {@code out}. Replaces ' with '', \n with %n, % with %%.
+   *
+   * @param escapeAll
+   *          if true all characters which aren't letters or digits are escaped as Unicode
+   *          escapes.
+   */
+  private static void writeEscaped(Appendable out, String str, char stringChar,
+      boolean escapeAll) throws IOException
+  {
+    int length = str.length();
+    int i = 0;
+    while (i < length)
+    {
+      char ch = str.charAt(i);
       if (escapeAll)
       {
-        repstr = Integer.toHexString(buffy.charAt(idx));
-        while (repstr.length() < 4)
-          repstr = "0" + repstr;
-        repstr = "%u" + repstr;
-      }
-      else
-      {
-        switch (buffy.charAt(idx))
+        int codePoint = str.codePointAt(i);
+        int charCount = Character.charCount(codePoint);
+        if (Character.isLetterOrDigit(codePoint))
         {
-          case '\'':
-            repstr = stringChar == '\'' ? "''" : "'";
-            break;
-          case '"':
-            repstr = stringChar == '"' ? "\"\"" : "\"";
-            break;
-          case '\n':
-            repstr = "%n";
-            break;
-          case '\r':
-            repstr = "%u000a";
-            break;
-          case '%':
-            repstr = "%%";
-            break;
-          default:
-            break;
+          out.append(str, i, i + charCount);
+        }
+        else
+        {
+          // only the first char of a surrogate pair is escaped
+          writeUnicodeEscape(out, ch);
+          out.append(str, i + 1, i + charCount);
         }
+        i += charCount;
+        continue;
+      }
+
+      switch (ch)
+      {
+        case '\'':
+          out.append(stringChar == '\'' ? "''" : "'");
+          break;
+        case '"':
+          out.append(stringChar == '"' ? "\"\"" : "\"");
+          break;
+        case '\n':
+          out.append("%n");
+          break;
+        case '\r':
+          out.append("%u000a");
+          break;
+        case '%':
+          out.append("%%");
+          break;
+        default:
+          out.append(ch);
+          break;
       }
-      buffy.replace(idx, idx + 1, repstr);
+      ++i;
+    }
+  }
+
+  private static void writeUnicodeEscape(Appendable out, char ch) throws IOException
+  {
+    out.append("%u");
+    String hex = Integer.toHexString(ch);
+    for (int i = hex.length(); i < 4; ++i)
+    {
+      out.append('0');
     }
-    return buffy.toString();
+    out.append(hex);
   }
 
   /**
-   * Appends a textual representation of these ConfigThingys to {@code buf}.
+   * Writes a textual representation of these ConfigThingys to {@code out}.
    * Each line is prefixed with {@code childPrefix}.
    *
    * @param escapeAll
    *          if true, all characters in strings that are not letters
    *          or digits are escaped with the %u syntax.
    */
-  private void stringRepresentation(StringBuilder buf, String childPrefix,
-      char stringChar, boolean escapeAll)
+  private void writeTo(Appendable out, String childPrefix, char stringChar, boolean escapeAll)
+      throws IOException
   {
 
     if (count() == 0) // leaf
     {
-      buf.append(stringChar + escapeString(getName(), stringChar, escapeAll)
-        + stringChar);
+      out.append(stringChar);
+      writeEscaped(out, getName(), stringChar, escapeAll);
+      out.append(stringChar);
     }
     else if (count() == 1 && getFirstChildNoThrow().count() == 0) // Schlüssel-Wert-Paar
     {
@@ -1038,16 +1318,15 @@ public class ConfigThingy implements Iterable<ConfigThingy>
        * but in the special case that the key is empty (list with only one element)
        * the parentheses must not be omitted.
        */
-      buf.append(getName());
+      out.append(getName());
       if (getName().length() == 0)
-        buf.append('(');
+        out.append('(');
       else
-        buf.append(' ');
+        out.append(' ');
 
-      getFirstChildNoThrow().stringRepresentation(buf, childPrefix, stringChar,
-        escapeAll);
+      getFirstChildNoThrow().writeTo(out, childPrefix, stringChar, escapeAll);
       if (getName().length() == 0) {
-        buf.append(')');
+        out.append(')');
       }
     }
     else
@@ -1056,46 +1335,46 @@ public class ConfigThingy implements Iterable<ConfigThingy>
       if (type == ST_VALUE_LIST || type == ST_PAIR_LIST) // nur Kinder, keine
       // Enkelkinder
       {
-        buf.append(childPrefix);
-        buf.append(getName());
-        buf.append('(');
+        out.append(childPrefix);
+        out.append(getName());
+        out.append('(');
         Iterator<ConfigThingy> iter = iterator();
         while (iter.hasNext())
         {
           ConfigThingy child = iter.next();
-          child.stringRepresentation(buf, childPrefix, stringChar, escapeAll);
+          child.writeTo(out, childPrefix, stringChar, escapeAll);
           if (iter.hasNext())
           {
             if (type == ST_VALUE_LIST) {
-              buf.append(',');
+              out.append(',');
             }
-            buf.append(' ');
+            out.append(' ');
           }
         }
-        buf.append(')');
-        buf.append("\n");
+        out.append(')');
+        out.append('\n');
       }
       else
       {
-        buf.append('\n');
-        buf.append(childPrefix);
-        buf.append(getName());
-        buf.append("(\n");
+        out.append('\n');
+        out.append(childPrefix);
+        out.append(getName());
+        out.append("(\n");
+        String grandchildPrefix = childPrefix + INDENT;
         for (ConfigThingy child : children)
         {
-          if (child.count() == 0
-            || (child.count() == 1 && child.getFirstChildNoThrow().count() == 0))
-            buf.append(childPrefix + INDENT);
+          boolean simple = child.count() == 0
+            || (child.count() == 1 && child.getFirstChildNoThrow().count() == 0);
+          if (simple)
+            out.append(grandchildPrefix);
 
-          child.stringRepresentation(buf, childPrefix + INDENT, stringChar,
-            escapeAll);
+          child.writeTo(out, grandchildPrefix, stringChar, escapeAll);
 
-          if (child.count() == 0
-            || (child.count() == 1 && child.getFirstChildNoThrow().count() == 0))
-            buf.append('\n');
+          if (simple)
+            out.append('\n');
         }
-        buf.append(childPrefix);
-        buf.append(")\n");
+        out.append(childPrefix);
+        out.append(")\n");
       }
     }
   }
@@ -1137,507 +1416,702 @@ public class ConfigThingy implements Iterable<ConfigThingy>
       throw new InvalidIdentifierException(id);
   }
 
-  private enum TokenType
-  {
-    KEY,
-    STRING,
-    OPENPAREN,
-    CLOSEPAREN,
-    END,
-    INCLUDE,
-    LINECOMMENT;
-  }
-
-  /**
-   * The {@link ConfigThingy#tokenize(URL)} method returns a list of objects
-   * that all implement this interface.
-   */
-  private interface Token
-  {
-    /**
-     * Returns the URL of the document in which this token was found.
-     */
-    public URL url();
-
-    /**
-     * Returns the line in which this token was found.
-     */
-    public int line();
-
-    /**
-     * Returns the position of the first character of this token in its line, counted from 1.
-     */
-    public int position();
-
-    /**
-     * Returns the type of this token, e.g. {@link #KEY}.
-     */
-    public TokenType type();
-
-    /**
-     * Returns the text representation of this token.
-     * This is NOT necessarily identical with the string from which this token was parsed.
-     * For example, separators like the quotation marks for delimiting strings do not appear
-     * in the string returned here.
-     * Nor do escape sequences used in the input data stream to represent certain characters
-     * such as newline appear in this string.
-     */
-    public String contentString();
-  }
-
   /**
-   * Abstract base class for tokens that store their {@link #contentString()} value in a string variable.
+   * The children of a frozen ConfigThingy. A single child is stored without an array.
    */
-  private abstract static class StringContentToken implements Token
+  private static final class FrozenChildren extends AbstractList<ConfigThingy>
+      implements RandomAccess
   {
-    protected String content;
-
-    protected int myLine;
-
-    protected int myPosition;
+    /** The children of all frozen leaves. */
+    static final FrozenChildren NONE = new FrozenChildren(new ConfigThingy[0]);
 
-    protected URL myURL;
+    /** The only child, or null if there are none or several children. */
+    private final ConfigThingy single;
 
-    public StringContentToken(URL url, int line, int position)
-    {
-      myURL = url;
-      myLine = line;
-      myPosition = position;
-    }
+    /** The children, or null if there is only one child. */
+    private final ConfigThingy[] children;
 
-    @Override
-    public URL url()
+    public FrozenChildren(ConfigThingy[] children)
     {
-      return myURL;
+      if (children.length == 1)
+      {
+        this.single = children[0];
+        this.children = null;
+      } else
+      {
+        this.single = null;
+        this.children = children;
+      }
     }
 
     @Override
-    public int line()
+    public ConfigThingy get(int index)
     {
-      return myLine;
+      if (children == null)
+      {
+        Objects.checkIndex(index, 1);
+        return single;
+      }
+      return children[index];
     }
 
     @Override
-    public int position()
+    public int size()
     {
-      return myPosition;
+      return children == null ? 1 : children.length;
     }
+  }
 
-    @Override
-    public String contentString()
-    {
-      return content;
-    }
+  /**
+   * Opens the files of a configuration.
+   */
+  @FunctionalInterface
+  interface URLOpener
+  {
+    /**
+     * Returns the content of the file {@code url}.
+     *
+     * @throws IOException
+     *           if the file can't be opened.
+     */
+    InputStream open(URL url) throws IOException;
   }
 
   /**
-   * Token for a string according to the syntax for WollMux config files.
+   * Provides the tokens of included files.
    */
-  private static class StringToken extends StringContentToken
+  @FunctionalInterface
+  private interface IncludeResolver
   {
     /**
-     * Creates a new StringToken
+     * Returns the tokens of the file {@code url}.
      *
-     * @param tokenData
-     *          a string for which {@link #atStartOf(String)} returns a value greater than 0.
+     * @throws IOException
+     *           if the file can't be opened.
      */
-    public StringToken(String tokenData, URL url, int line, int position)
-    {
-      super(url, line, position);
+    TokenStream open(URL url) throws IOException;
+  }
 
-      int len = atStartOf(tokenData);
-      if (len < 2) {
-        throw new IllegalArgumentException("String token expected!");
-      }
+  /**
+   * Reads and tokenizes all files included by a configuration in parallel. As soon as a file has
+   * been tokenized, its own included files are scheduled. Errors are recorded with the tokens and
+   * reported when the parser reaches them, so they are reported in the same order as by the
+   * sequential parser.
+   */
+  private static class PrefetchingIncludeResolver implements IncludeResolver
+  {
+    private final Executor executor;
 
-      char quote = tokenData.charAt(0);
+    private final Collection<URL> sources;
 
-      /*
-       * Evaluate % escapes, as well as replace quotequote with quote
-       */
-      StringBuilder buffy = new StringBuilder(tokenData.substring(1, len - 1));
-      String quoteStr = Character.toString(quote);
-      int startidx = 0;
-      int idx;
-      while (true)
-      {
-        idx = buffy.indexOf("%", startidx);
-        int idx2 = buffy.indexOf(quoteStr, startidx);
+    private final URLOpener opener;
 
-        if (idx < 0 && idx2 < 0) {
-          break;
-        }
+    /**
+     * The tokens of all scheduled files by URL.
+     */
+    private final Map<String, CompletableFuture<RecordedTokens>> files =
+      new ConcurrentHashMap<>();
 
-        String repstr;
-        int replen;
+    public PrefetchingIncludeResolver(Executor executor, Collection<URL> sources,
+        URLOpener opener)
+    {
+      this.executor = executor;
+      this.sources = sources;
+      this.opener = opener;
+    }
 
-        if (idx < 0 || (idx2 >= 0 && idx2 < idx)) // quotequote
-        {
-          idx = idx2;
-          replen = 2;
-          repstr = quoteStr;
-        }
-        else // % escape
+    /**
+     * Schedules all files included by {@code tokens}.
+     */
+    public void prefetch(RecordedTokens tokens)
+    {
+      for (int i = 0; i + 1 < tokens.size; ++i)
+      {
+        if (tokens.types[i] == TokenType.INCLUDE && tokens.types[i + 1] == TokenType.STRING
+          && !tokens.contents[i + 1].isEmpty())
         {
-          if (idx + 1 >= buffy.length()) {
-            break;
+          try
+          {
+            schedule(new URL(tokens.url, urlEncode(tokens.contents[i + 1])));
           }
-
-          // default: replace with the same character, i.e. %
-          repstr = Character.toString(buffy.charAt(idx));
-          replen = 1;
-
-          switch (buffy.charAt(idx + 1))
+          catch (MalformedURLException x)
           {
-            case 'n':
-              repstr = "\n";
-              replen = 2;
-              break;
-            case '%':
-              repstr = "%";
-              replen = 2;
-              break;
-            case 'u':
-              repstr = parseUnicode(buffy, idx + 2);
-              replen = 6;
-              break;
-            default:
-              break;
+            // reported by the parser
+            LOGGER.trace("", x);
           }
         }
-        buffy.replace(idx, idx + replen, repstr);
-        startidx = idx + repstr.length();
       }
-
-      content = buffy.toString();
     }
 
-    private String parseUnicode(StringBuilder str, int idx)
+    private void schedule(URL url)
     {
-      if (idx + 4 > str.length())
-        throw new IllegalArgumentException("Incomplete %u escape!");
-      String code = str.substring(idx, idx + 4);
+      CompletableFuture<RecordedTokens> future = new CompletableFuture<>();
+      if (files.putIfAbsent(url.toExternalForm(), future) != null) {
+        return;
+      }
+
+      Runnable task = () -> {
+        try
+        {
+          RecordedTokens tokens = RecordedTokens.record(url,
+            new InputStreamReader(opener.open(url), CHARSET));
+          prefetch(tokens);
+          future.complete(tokens);
+        }
+        catch (Exception | Error x)
+        {
+          future.completeExceptionally(x);
+        }
+      };
       try
       {
-        char ch = (char) Integer.parseInt(code, 16);
-        return Character.toString(ch);
+        executor.execute(task);
       }
-      catch (NumberFormatException x)
+      catch (RejectedExecutionException x)
       {
-        throw new IllegalArgumentException("Incorrect hex number in %u escape: \"%u"
-          + code + "\"");
+        task.run();
       }
     }
 
     @Override
-    public TokenType type()
+    public TokenStream open(URL url) throws IOException
     {
-      return TokenType.STRING;
-    }
+      sources.add(url);
+      CompletableFuture<RecordedTokens> future = files.get(url.toExternalForm());
+      if (future == null) {
+        return new LexerTokenStream(url, new InputStreamReader(opener.open(url), CHARSET));
+      }
 
-    /**
-     * Returns the length of the longest prefix of str which can be interpreted
-     * as a token of this class.
-     */
-    public static int atStartOf(String str)
-    {
-      if (str.length() < 2) {
-        return 0;
+      try
+      {
+        return future.get().replay();
       }
-      char quote = str.charAt(0);
-      if (quote != '"' && quote != '\'') {
-        return 0;
+      catch (InterruptedException x)
+      {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Reading " + url + " has been interrupted");
       }
-
-      int idx = 1;
-      while (true)
+      catch (ExecutionException x)
       {
-        idx = str.indexOf(quote, idx);
-        if (idx < 0) {
-          return 0;
+        Throwable cause = x.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
         }
-        ++idx;
-        if (idx >= str.length() || str.charAt(idx) != quote) {
-          return idx;
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
         }
-        ++idx;
+        throw (Error) cause;
       }
     }
   }
 
+  private enum TokenType
+  {
+    KEY,
+    STRING,
+    OPENPAREN,
+    CLOSEPAREN,
+    END,
+    INCLUDE;
+  }
+
   /**
-   * A token for a key according to the syntax for WollMux config files.
+   * A stream of tokens according to the syntax for WollMux config files. Comments are discarded,
+   * because the parser isn't able to read over them in pairs like KEY STRING. The stream is
+   * positioned on one token at a time.
    */
-  private static class KeyToken extends StringContentToken
+  private interface TokenStream
   {
     /**
-     * Regex for the identification of valid keys.
+     * Advances to the next token and returns its type. After the end of the data {@link
+     * TokenType#END} is returned on every call.
+     *
+     * @throws IOException
+     *           if the data can't be read.
+     * @throws SyntaxErrorException
+     *           if no token can be identified.
      */
-    private static Pattern p = Pattern.compile("^([a-zA-Z_][a-zA-Z_0-9]*)");
+    TokenType next() throws IOException, SyntaxErrorException;
 
     /**
-     * Creates a new KeyToken
-     *
-     * @param tokenData
-     *          a string for which {@link #atStartOf(String)} returns a value greater than 0.
+     * Returns the text representation of the current token. This is NOT necessarily identical
+     * with the string from which the token was parsed. For example, the quotation marks for
+     * delimiting strings and escape sequences do not appear in the string returned here.
      */
-    public KeyToken(String tokenData, URL url, int line, int position)
-    {
-      super(url, line, position);
-      Matcher m = p.matcher(tokenData);
-      if (!m.find()) {
-        throw new IllegalArgumentException("Key token expected!");
-      }
-      content = m.group(1);
-    }
+    String content();
 
-    @Override
-    public TokenType type()
-    {
-      return TokenType.KEY;
-    }
+    /**
+     * Returns the URL of the document from which the tokens are read.
+     */
+    URL url();
 
     /**
-     * Returns the length of the longest prefix of str which can be interpreted
-     * as a token of this class.
+     * Returns the line of the current token.
      */
-    public static int atStartOf(String str)
-    {
-      Matcher m = p.matcher(str);
-      if (!m.find()) {
-        return 0;
-      }
-      return m.end();
-    }
+    int line();
+
+    /**
+     * Returns the position of the first character of the current token in its line, counted
+     * from 1.
+     */
+    int position();
+
+    /**
+     * Closes the underlying data.
+     */
+    void close();
   }
 
   /**
-   * Token for opening round bracket.
+   * Reads the tokens on demand with a {@link ConfigLexer}.
    */
-  private static class OpenParenToken extends StringContentToken
+  private static class LexerTokenStream implements TokenStream
   {
-    public OpenParenToken(URL url, int line, int position)
+    private final URL url;
+
+    private final ConfigLexer lexer;
+
+    private String content = "";
+
+    public LexerTokenStream(URL url, Reader read)
     {
-      super(url, line, position);
-      content = "(";
+      this.url = url;
+      this.lexer = new ConfigLexer(read, true);
     }
 
     @Override
-    public TokenType type()
+    public TokenType next() throws IOException, SyntaxErrorException
     {
-      return TokenType.OPENPAREN;
+      while (true)
+      {
+        switch (lexer.next())
+        {
+          case KEY:
+            content = lexer.text();
+            return TokenType.KEY;
+          case STRING:
+            try
+            {
+              content = lexer.value();
+            }
+            catch (IllegalArgumentException x)
+            {
+              throw new SyntaxErrorException(errorMessage(), x);
+            }
+            return TokenType.STRING;
+          case OPENING_BRACKET:
+            content = "(";
+            return TokenType.OPENPAREN;
+          case CLOSING_BRACKET:
+            content = ")";
+            return TokenType.CLOSEPAREN;
+          case INCLUDE:
+            content = "%include";
+            return TokenType.INCLUDE;
+          case COMMENT:
+            continue;
+          case END:
+            content = "";
+            return TokenType.END;
+          default:
+            throw new SyntaxErrorException(errorMessage());
+        }
+      }
     }
 
-    /**
-     * Returns 1 if {@code str} starts with '(', 0 otherwise.
-     */
-    public static int atStartOf(String str)
+    private String errorMessage()
     {
-      return str.startsWith("(") ? 1 : 0;
+      return url + ": syntax error in line " + lexer.line() + " at char " + lexer.column()
+        + ", text in error location: \"" + lexer.rest() + "\"";
     }
-  }
 
-  /**
-   * Token for closing round bracket.
-   */
-  private static class CloseParenToken extends StringContentToken
-  {
-    public CloseParenToken(URL url, int line, int position)
+    @Override
+    public String content()
+    {
+      return content;
+    }
+
+    @Override
+    public URL url()
     {
-      super(url, line, position);
-      content = ")";
+      return url;
     }
 
     @Override
-    public TokenType type()
+    public int line()
     {
-      return TokenType.CLOSEPAREN;
+      return lexer.line();
     }
 
-    /**
-     * Returns 1 if {@code str} starts with ')', 0 otherwise.
-     */
-    public static int atStartOf(String str)
+    @Override
+    public int position()
+    {
+      return lexer.column();
+    }
+
+    @Override
+    public void close()
     {
-      return str.startsWith(")") ? 1 : 0;
+      try
+      {
+        lexer.close();
+      }
+      catch (Exception x)
+      {
+        LOGGER.trace("", x);
+      }
     }
   }
 
   /**
-   * Token for the string "%include".
+   * The tokens of a file, so that they can be read in another thread than the one which parses
+   * them. If reading fails, the error is recorded after the last token and thrown when it is
+   * replayed.
    */
-  private static class IncludeToken extends StringContentToken
+  static class RecordedTokens
   {
-    private static final String INC = "%include";
+    private final URL url;
 
-    public IncludeToken(URL url, int line, int position)
-    {
-      super(url, line, position);
-      content = INC;
-    }
+    private TokenType[] types = new TokenType[64];
 
-    @Override
-    public TokenType type()
+    private String[] contents = new String[64];
+
+    private int[] lines = new int[64];
+
+    private int[] positions = new int[64];
+
+    private int size = 0;
+
+    private IOException ioError;
+
+    private SyntaxErrorException syntaxError;
+
+    private RecordedTokens(URL url)
     {
-      return TokenType.INCLUDE;
+      this.url = url;
     }
 
     /**
-     * Returns the length of the longest prefix of str which can be interpreted
-     * as a token of this class.
+     * Reads all tokens from {@code read}. {@code read} is closed afterwards.
      */
-    public static int atStartOf(String str)
+    public static RecordedTokens record(URL url, Reader read)
     {
-      return str.startsWith(INC) ? INC.length() : 0;
+      RecordedTokens tokens = new RecordedTokens(url);
+      TokenStream stream = new LexerTokenStream(url, read);
+      try
+      {
+        TokenType type;
+        do
+        {
+          type = stream.next();
+          tokens.add(type, stream.content(), stream.line(), stream.position());
+        } while (type != TokenType.END);
+      }
+      catch (IOException x)
+      {
+        tokens.ioError = x;
+      }
+      catch (SyntaxErrorException x)
+      {
+        tokens.syntaxError = x;
+      }
+      finally
+      {
+        stream.close();
+      }
+      return tokens;
     }
-  }
-
-  /**
-   * Token for a comment according to WollMux config file syntax.
-   * ATTENTION: Tokens of this class are currently not returned by
-   * {@link ConfigThingy#tokenize(URL)}, but discarded.
-   */
-  private static class LineCommentToken extends StringContentToken
-  {
 
     /**
-     * Creates a new LineCommentToken.
+     * Returns the tokens of {@code url} from {@code cache}. If they aren't in the cache, they are
+     * read and added.
      *
-     * @param tokenData
-     *          a string whose first character is '#'.
+     * @throws IOException
+     *           if the file can't be opened.
      */
-    public LineCommentToken(String tokenData, URL url, int line, int position)
+    public static RecordedTokens cached(URL url, Map<String, RecordedTokens> cache)
+        throws IOException
     {
-      super(url, line, position);
-      content = tokenData.substring(1);
+      String key = url.toExternalForm();
+      RecordedTokens tokens = cache.get(key);
+      if (tokens == null)
+      {
+        tokens = record(url, new InputStreamReader(url.openStream(), CHARSET));
+        cache.put(key, tokens);
+      }
+      return tokens;
     }
 
-    @Override
-    public TokenType type()
+    private void add(TokenType type, String content, int line, int position)
     {
-      return TokenType.LINECOMMENT;
+      if (size == types.length)
+      {
+        int capacity = size * 2;
+        types = Arrays.copyOf(types, capacity);
+        contents = Arrays.copyOf(contents, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+      }
+      types[size] = type;
+      contents[size] = content;
+      lines[size] = line;
+      positions[size] = position;
+      ++size;
     }
 
     /**
-     * Returns the length of the longest prefix of {@code str}
-     * which can be interpreted as a token of this class.
+     * Returns a new stream over the recorded tokens.
      */
-    public static int atStartOf(String str)
+    public TokenStream replay()
     {
-      return str.startsWith("#") ? str.length() : 0;
+      return new TokenStream()
+      {
+        private int index = -1;
+
+        @Override
+        public TokenType next() throws IOException, SyntaxErrorException
+        {
+          if (index + 1 < size)
+          {
+            return types[++index];
+          }
+          if (ioError != null)
+          {
+            throw ioError;
+          }
+          if (syntaxError != null)
+          {
+            throw syntaxError;
+          }
+          return types[index];
+        }
+
+        @Override
+        public String content()
+        {
+          return contents[index];
+        }
+
+        @Override
+        public URL url()
+        {
+          return url;
+        }
+
+        @Override
+        public int line()
+        {
+          return lines[index];
+        }
+
+        @Override
+        public int position()
+        {
+          return positions[index];
+        }
+
+        @Override
+        public void close()
+        {
+          // nothing to close
+        }
+      };
     }
   }
 
   /**
-   * Signals the end of the input data stream.
+   * Index of all nodes of a subtree by name. For every name the nodes are grouped by their search
+   * depth (0 is the root of the subtree) in the order in which the breadth-first search of
+   * {@link ConfigThingy#rollcall(ConfigThingy, String, List, Set, int, int, boolean)} finds them.
+   * The levels are indexed on demand, so a query for a node near the root doesn't index the whole
+   * subtree.
    */
-  private static class EndToken extends StringContentToken
+  private static class NameIndex
   {
-    public EndToken(URL url, int line, int position)
+    /** Marks a subtree which has been queried once without an index. */
+    static final NameIndex QUERIED = new NameIndex();
+
+    /**
+     * The first (lowest) level of each name. Null if the subtree is too small to be indexed.
+     */
+    private final Map<String, Level> levelsByName;
+
+    /**
+     * All nodes of the first search depth which hasn't been indexed yet.
+     */
+    private List<ConfigThingy> nodes = new ArrayList<>();
+
+    /** The parent of each node in {@link #nodes}. */
+    private List<ConfigThingy> parents = new ArrayList<>();
+
+    /** The number of indexed search depths. */
+    private int indexedDepth = 0;
+
+    private NameIndex()
     {
-      super(url, line, position);
-      content = "";
+      levelsByName = null;
     }
 
-    @Override
-    public TokenType type()
+    /**
+     * Creates an index of the subtree with root {@code root}, if it has at least
+     * {@link ConfigThingy#MIN_INDEXED_NODES} nodes.
+     */
+    public NameIndex(ConfigThingy root)
     {
-      return TokenType.END;
+      if (hasAtLeast(root, MIN_INDEXED_NODES))
+      {
+        levelsByName = new HashMap<>();
+        nodes.add(root);
+        parents.add(root);
+      }
+      else
+      {
+        levelsByName = null;
+      }
     }
-  }
 
-  /**
-   * Splits the data from {@code read} into {@link Tokens}s.
-   * As source URL {@code url} is entered in the tokens.
-   *
-   * @return the list of identified tokens, terminated by at least 7 {@link EndToken}s.
-   * @throws IOException
-   *           in case something goes wrong when accessing the data from {@code url}.
-   * @throws SyntaxErrorException
-   *           if a string cannot be identified as a token.
-   */
-  private static List<StringContentToken> tokenize(URL url, Reader read)
-      throws IOException, SyntaxErrorException
-  {
-    List<StringContentToken> tokens = new ArrayList<>();
-    BufferedReader in = new BufferedReader(read);
-    String line;
+    private static boolean hasAtLeast(ConfigThingy root, int count)
+    {
+      Deque<ConfigThingy> stack = new ArrayDeque<>();
+      stack.push(root);
+      int found = 0;
+      while (!stack.isEmpty())
+      {
+        if (++found >= count) {
+          return true;
+        }
+        for (ConfigThingy child : stack.pop().children)
+          stack.push(child);
+      }
+      return false;
+    }
 
-    int lineNo = 0;
-    Pattern whitespace = Pattern.compile("^(\\p{Space}|\\u00A0|,|;|\\uFEFF)+");
-    while (null != (line = in.readLine()))
+    public boolean isEnabled()
     {
-      ++lineNo;
-      int pos = 0;
+      return levelsByName != null;
+    }
 
-      while (line.length() > 0)
+    /**
+     * Adds the nodes named {@code name} (or if {@code getParents==true} their parents) with search
+     * depth between {@code minlevel} and {@code maxlevel} to {@code found}, ordered by depth.
+     * Parents are only added if they aren't already in {@code foundParents}.
+     *
+     * @param lowestLevelOnly
+     *          if true, only the nodes of the lowest search depth containing such nodes are added.
+     */
+    public synchronized void collect(String name, int minlevel, int maxlevel,
+        boolean lowestLevelOnly, List<ConfigThingy> found, Set<ConfigThingy> foundParents,
+        boolean getParents)
+    {
+      for (int depth = minlevel; depth <= maxlevel; ++depth)
       {
-        Matcher wsm = whitespace.matcher(line);
-        if (wsm.find())
+        while (indexedDepth <= depth)
         {
-          pos += wsm.end();
-          line = line.substring(wsm.end());
-          if (line.length() == 0) {
-            continue;
+          if (!indexNextLevel()) {
+            return;
           }
         }
 
-        int tokenLength;
-        try
+        Level level = levelsByName.get(name);
+        while (level != null && level.depth < depth)
+          level = level.next;
+        if (level != null && level.depth == depth)
         {
-          if (0 != (tokenLength = KeyToken.atStartOf(line)))
-          {
-            tokens.add(new KeyToken(line, url, lineNo, pos + 1));
-          }
-          else if (0 != (tokenLength = StringToken.atStartOf(line)))
-          {
-            tokens.add(new StringToken(line, url, lineNo, pos + 1));
-          }
-          else if (0 != (tokenLength = OpenParenToken.atStartOf(line)))
-          {
-            tokens.add(new OpenParenToken(url, lineNo, pos + 1));
-          }
-          else if (0 != (tokenLength = CloseParenToken.atStartOf(line)))
-          {
-            tokens.add(new CloseParenToken(url, lineNo, pos + 1));
-          }
-          else if (0 != (tokenLength = IncludeToken.atStartOf(line)))
-          {
-            tokens.add(new IncludeToken(url, lineNo, pos + 1));
-          }
-          else if (0 != (tokenLength = LineCommentToken.atStartOf(line)))
-          {
-            // LineCommentTokens werden nicht in tokens eingefügt, weil
-            // der Parser im Fall von 2er Paaren wie KEY STRING nicht in
-            // der Lage ist über Kommentare hinwegzulesen. Anstatt ihm das
-            // Einzubauen ist es einfacher, Kommentare einfach wegzuschmeissen.
-          }
-          else
-          {
-            throw new SyntaxErrorException(url + ": syntax error in line " + lineNo
-              + " at char " + (pos + 1) + ", text in error location: \"" + line
-              + "\"");
+          level.collect(found, foundParents, getParents);
+          if (lowestLevelOnly) {
+            return;
           }
         }
-        catch (IllegalArgumentException x)
+      }
+    }
+
+    /**
+     * Indexes the nodes of search depth {@link #indexedDepth}.
+     *
+     * @return false if there are no nodes at this depth.
+     */
+    private boolean indexNextLevel()
+    {
+      if (nodes.isEmpty()) {
+        return false;
+      }
+
+      List<ConfigThingy> nextNodes = new ArrayList<>();
+      List<ConfigThingy> nextParents = new ArrayList<>();
+      for (int i = 0; i < nodes.size(); ++i)
+      {
+        ConfigThingy node = nodes.get(i);
+        Level first = levelsByName.get(node.name);
+        if (first == null)
+        {
+          first = new Level(indexedDepth);
+          first.last = first;
+          levelsByName.put(node.name, first);
+        }
+        else if (first.last.depth != indexedDepth)
         {
-          throw new SyntaxErrorException(url + ": syntax error in line " + lineNo
-            + " at char " + (pos + 1) + ", text in error location: \"" + line
-            + "\"", x);
+          first.last.next = new Level(indexedDepth);
+          first.last = first.last.next;
         }
+        first.last.add(node, parents.get(i));
 
-        pos += tokenLength;
-        line = line.substring(tokenLength);
+        for (ConfigThingy child : node.children)
+        {
+          nextNodes.add(child);
+          nextParents.add(node);
+        }
       }
+      nodes = nextNodes;
+      parents = nextParents;
+      ++indexedDepth;
+      return true;
     }
 
-    // add a couple EndTokens so that users don't have to worry about
-    // checking if there's enough input remaining
-    ++lineNo;
-    for (int i = 0; i < 7; ++i)
-      tokens.add(new EndToken(url, lineNo, 0));
+    /**
+     * All nodes with the same name on the same search depth.
+     */
+    private static class Level
+    {
+      private final int depth;
+
+      /** Alternately a node and its parent. */
+      private ConfigThingy[] entries = new ConfigThingy[2];
 
-    return tokens;
+      private int size;
+
+      /** The next deeper level of the same name. */
+      private Level next;
+
+      /** The deepest level of the same name. Only maintained in the first level. */
+      private Level last;
+
+      private Level(int depth)
+      {
+        this.depth = depth;
+      }
+
+      private void add(ConfigThingy node, ConfigThingy parent)
+      {
+        if (size == entries.length) {
+          entries = Arrays.copyOf(entries, 2 * size);
+        }
+        entries[size++] = node;
+        entries[size++] = parent;
+      }
+
+      private void collect(List<ConfigThingy> found, Set<ConfigThingy> foundParents,
+          boolean getParents)
+      {
+        for (int i = 0; i < size; i += 2)
+        {
+          if (!getParents) {
+            found.add(entries[i]);
+          } else if (foundParents.add(entries[i + 1])) {
+            found.add(entries[i + 1]);
+          }
+        }
+      }
+    }
   }
 
   /**
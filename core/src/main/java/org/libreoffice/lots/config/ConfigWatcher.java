@@ -0,0 +1,369 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.config;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches a configuration file and all its included files for changes. If a file changes, the
+ * configuration is parsed again and the {@link Listener} is notified. Only the changed files are
+ * read again, the tokens of all other files are kept in memory.
+ *
+ * Only local files can be watched. Included files with other URLs are never read again.
+ */
+public class ConfigWatcher implements Closeable
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConfigWatcher.class);
+
+  /**
+   * Editors often write a file in several steps. Changes are collected until there hasn't been
+   * any event for this time.
+   */
+  private static final long DEBOUNCE_MILLIS = 500;
+
+  /**
+   * Is notified if the configuration has changed.
+   */
+  @FunctionalInterface
+  public interface Listener
+  {
+    /**
+     * Called by the thread of the watcher after the configuration has been parsed again.
+     *
+     * @param conf
+     *          The new configuration. It is {@link ConfigThingy#freeze() frozen}.
+     * @param changedSections
+     *          The names of all top level nodes which have been added, removed or modified.
+     */
+    void reloaded(ConfigThingy conf, Set<String> changedSections);
+  }
+
+  private final String name;
+
+  private final URL url;
+
+  private final Listener listener;
+
+  /**
+   * The tokens of all files of the configuration by the external form of their URL.
+   */
+  private final Map<String, ConfigThingy.RecordedTokens> tokens = new HashMap<>();
+
+  /**
+   * The external form of the URLs of all watched files by their absolute path.
+   */
+  private final Map<Path, String> watchedFiles = new ConcurrentHashMap<>();
+
+  /**
+   * All registered directories.
+   */
+  private final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+
+  private ConfigThingy conf;
+
+  /**
+   * The files of the initial configuration, which are watched by {@link #start()}.
+   */
+  private final Collection<URL> sources;
+
+  private WatchService watchService;
+
+  private Thread thread;
+
+  private volatile boolean closed = false;
+
+  /**
+   * Create a new watcher. Nothing is watched until {@link #start()} is called.
+   *
+   * @param name
+   *          The name of the root of the configuration.
+   * @param url
+   *          The configuration file.
+   * @param conf
+   *          The current configuration. The listener is only notified of changes against it.
+   * @param sources
+   *          The configuration file and all its included files, which have been read to create
+   *          {@code conf}.
+   * @param listener
+   *          The listener.
+   */
+  public ConfigWatcher(String name, URL url, ConfigThingy conf, Collection<URL> sources,
+      Listener listener)
+  {
+    this.name = name;
+    this.url = url;
+    this.conf = conf;
+    this.sources = new LinkedHashSet<>(sources);
+    this.sources.add(url);
+    this.listener = listener;
+  }
+
+  /**
+   * Start watching the files of the current configuration. The configuration is only parsed
+   * again if one of them changes.
+   *
+   * @throws IOException
+   *           The file system can't be watched.
+   */
+  public synchronized void start() throws IOException
+  {
+    if (thread != null)
+    {
+      return;
+    }
+    watchService = FileSystems.getDefault().newWatchService();
+    watch(sources);
+    thread = new Thread(this::run, "lots.conf watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Returns the current configuration.
+   */
+  public synchronized ConfigThingy getConf()
+  {
+    return conf;
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    closed = true;
+    WatchService service;
+    synchronized (this)
+    {
+      service = watchService;
+    }
+    if (service != null)
+    {
+      service.close();
+    }
+  }
+
+  private void run()
+  {
+    try
+    {
+      while (!closed)
+      {
+        Set<String> changed = new HashSet<>();
+        collect(watchService.take(), changed);
+        WatchKey key;
+        while ((key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null)
+        {
+          collect(key, changed);
+        }
+        if (!changed.isEmpty())
+        {
+          reload(changed);
+        }
+      }
+    } catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    } catch (ClosedWatchServiceException e)
+    {
+      LOGGER.trace("", e);
+    }
+    LOGGER.debug("Stopped watching {}", url);
+  }
+
+  /**
+   * Adds the URLs of all watched files affected by the events of {@code key} to
+   * {@code changed}.
+   */
+  private void collect(WatchKey key, Set<String> changed)
+  {
+    Path directory = (Path) key.watchable();
+    for (WatchEvent<?> event : key.pollEvents())
+    {
+      if (event.kind() == OVERFLOW)
+      {
+        changed.addAll(watchedFiles.values());
+        continue;
+      }
+      String file = watchedFiles.get(directory.resolve((Path) event.context()));
+      if (file != null)
+      {
+        changed.add(file);
+      }
+    }
+    if (!key.reset())
+    {
+      watchedDirectories.remove(directory);
+    }
+  }
+
+  /**
+   * Parse the configuration again. Only the files in {@code changed} and files which haven't been
+   * read by the watcher before are read. If the configuration has changed, the listener is notified. If the
+   * configuration can't be parsed, the current configuration is kept.
+   *
+   * @param changed
+   *          The external forms of the URLs of the changed files.
+   */
+  synchronized void reload(Collection<String> changed)
+  {
+    tokens.keySet().removeAll(changed);
+    Collection<URL> sources = new LinkedHashSet<>();
+    ConfigThingy newConf;
+    try
+    {
+      newConf = new ConfigThingy(name, url, sources, tokens).freeze();
+    } catch (IOException | SyntaxErrorException e)
+    {
+      LOGGER.error("The changed configuration {} can't be read", url, e);
+      return;
+    } finally
+    {
+      Set<String> keys = new HashSet<>();
+      sources.forEach(source -> keys.add(source.toExternalForm()));
+      tokens.keySet().retainAll(keys);
+      watch(sources);
+    }
+
+    Set<String> changedSections = changedSections(conf, newConf);
+    conf = newConf;
+    if (!changedSections.isEmpty())
+    {
+      LOGGER.info("Configuration {} has been reloaded, changed sections: {}", url,
+          changedSections);
+      listener.reloaded(newConf, changedSections);
+    }
+  }
+
+  /**
+   * Watch all local files of {@code sources}.
+   */
+  private void watch(Collection<URL> sources)
+  {
+    watchedFiles.clear();
+    for (URL source : sources)
+    {
+      if (!"file".equalsIgnoreCase(source.getProtocol()))
+      {
+        continue;
+      }
+      try
+      {
+        Path file = Paths.get(source.toURI()).toAbsolutePath().normalize();
+        watchedFiles.put(file, source.toExternalForm());
+        Path directory = file.getParent();
+        if (watchService != null && directory != null && watchedDirectories.add(directory))
+        {
+          directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        }
+      } catch (URISyntaxException | IOException | IllegalArgumentException
+          | ClosedWatchServiceException e)
+      {
+        LOGGER.debug("{} can't be watched", source, e);
+      }
+    }
+  }
+
+  /**
+   * Compares the top level nodes of two configurations.
+   *
+   * @return The names of all top level nodes which are in only one of the configurations or
+   *         whose content differs.
+   */
+  public static Set<String> changedSections(ConfigThingy oldConf, ConfigThingy newConf)
+  {
+    Map<String, List<ConfigThingy>> oldSections = sections(oldConf);
+    Map<String, List<ConfigThingy>> newSections = sections(newConf);
+    Set<String> changed = new TreeSet<>();
+    for (Map.Entry<String, List<ConfigThingy>> section : newSections.entrySet())
+    {
+      List<ConfigThingy> old = oldSections.remove(section.getKey());
+      if (old == null || !equalTrees(old, section.getValue()))
+      {
+        changed.add(section.getKey());
+      }
+    }
+    changed.addAll(oldSections.keySet());
+    return changed;
+  }
+
+  private static Map<String, List<ConfigThingy>> sections(ConfigThingy conf)
+  {
+    Map<String, List<ConfigThingy>> sections = new LinkedHashMap<>();
+    if (conf != null)
+    {
+      for (ConfigThingy section : conf)
+      {
+        sections.computeIfAbsent(section.getName(), n -> new ArrayList<>()).add(section);
+      }
+    }
+    return sections;
+  }
+
+  private static boolean equalTrees(Iterable<ConfigThingy> a, Iterable<ConfigThingy> b)
+  {
+    Iterator<ConfigThingy> itA = a.iterator();
+    Iterator<ConfigThingy> itB = b.iterator();
+    while (itA.hasNext() && itB.hasNext())
+    {
+      ConfigThingy nodeA = itA.next();
+      ConfigThingy nodeB = itB.next();
+      if (!Objects.equals(nodeA.getName(), nodeB.getName()) || nodeA.count() != nodeB.count()
+          || !equalTrees(nodeA, nodeB))
+      {
+        return false;
+      }
+    }
+    return !itA.hasNext() && !itB.hasNext();
+  }
+}
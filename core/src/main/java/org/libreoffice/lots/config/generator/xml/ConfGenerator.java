@@ -26,13 +26,23 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.libreoffice.lots.config.Trimmer;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -41,11 +51,33 @@ import org.w3c.dom.NodeList;
 /**
  * Generates a configuration out of a XML-document.
  *
+ * Large documents can be converted with {@link #generateConf(InputStream)},
+ * which reads the document with a {@link XMLStreamReader}. Only the top level
+ * element, which is printed, and its successor are kept in memory.
+ *
  * @author daniel.sikeler
  *
  */
 public class ConfGenerator
 {
+  /**
+   * Opens the writer for a file of the configuration.
+   */
+  @FunctionalInterface
+  public interface Output
+  {
+    /**
+     * Open a writer.
+     *
+     * @param filename
+     *          The filename attribute of the file element.
+     * @return A writer, it's closed after the file has been printed.
+     * @throws IOException
+     *           Couldn't open the writer.
+     */
+    Writer open(String filename) throws IOException;
+  }
+
   /**
    * The nodes of the root element of the document.
    */
@@ -182,6 +214,150 @@ public class ConfGenerator
     }
   }
 
+  /**
+   * Generate the configuration files from a XML-document without reading the
+   * whole document into memory. Every file element is written to the file
+   * named by its filename attribute.
+   *
+   * @param xml
+   *          The stream of the XML-document.
+   * @throws XMLGeneratorException
+   *           Invalid XML-document or unable to generate the configuration
+   *           file.
+   */
+  public static void generateConf(final InputStream xml)
+      throws XMLGeneratorException
+  {
+    generateConf(xml, filename -> new OutputStreamWriter(
+        new FileOutputStream(new File(filename)), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Generate the configuration files from a XML-document without reading the
+   * whole document into memory.
+   *
+   * @param xml
+   *          The stream of the XML-document.
+   * @param output
+   *          Opens a writer for every file element.
+   * @throws XMLGeneratorException
+   *           Invalid XML-document or unable to generate the configuration
+   *           file.
+   */
+  public static void generateConf(final InputStream xml, final Output output)
+      throws XMLGeneratorException
+  {
+    try
+    {
+      final XMLInputFactory factory = XMLInputFactory.newInstance();
+      factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+      factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+      final XMLStreamReader reader = factory.createXMLStreamReader(xml);
+      try
+      {
+        generateConf(reader, output);
+      } finally
+      {
+        reader.close();
+      }
+    } catch (final XMLStreamException e)
+    {
+      throw new XMLGeneratorException("Invalid XML-document", e);
+    }
+  }
+
+  private static void generateConf(final XMLStreamReader reader,
+      final Output output) throws XMLStreamException, XMLGeneratorException
+  {
+    final Document document;
+    try
+    {
+      document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+          .newDocument();
+    } catch (final ParserConfigurationException e)
+    {
+      throw new XMLGeneratorException("Couldn't create document.", e);
+    }
+
+    reader.nextTag();
+    if (!XMLTags.CONFIG.getName().equals(reader.getLocalName()))
+    {
+      throw new XMLGeneratorException("No root element config in xml file");
+    }
+    boolean hasFiles = false;
+    while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+    {
+      hasFiles = true;
+      final String filename = reader.getAttributeValue(null, "filename");
+      try (Writer writer = output.open(filename))
+      {
+        final PrettyPrinter printer = new PrettyPrinter(writer);
+        // an element can only be printed if its next sibling is known
+        final Element file = document.createElement(XMLTags.FILE.getName());
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+        {
+          file.appendChild(readElement(reader, document));
+          if (file.getFirstChild() != file.getLastChild())
+          {
+            printElement((Element) file.getFirstChild(), printer);
+            file.removeChild(file.getFirstChild());
+          }
+        }
+        if (file.hasChildNodes())
+        {
+          printElement((Element) file.getFirstChild(), printer);
+        }
+        printer.print();
+        printer.flush();
+      } catch (final IOException e)
+      {
+        throw new XMLGeneratorException("Print was unsuccessful.", e);
+      }
+    }
+    if (!hasFiles)
+    {
+      throw new XMLGeneratorException(
+          "Root element of document has no child-elements.");
+    }
+  }
+
+  /**
+   * Read the current element of the reader and its children.
+   *
+   * @param reader
+   *          The reader, positioned at the start of the element. Afterwards it's
+   *          positioned at the end of the element.
+   * @param document
+   *          The document to create the element.
+   * @return The element.
+   * @throws XMLStreamException
+   *           Invalid XML-document.
+   */
+  private static Element readElement(final XMLStreamReader reader,
+      final Document document) throws XMLStreamException
+  {
+    final String tag = reader.getLocalName();
+    final Element element = document.createElement(tag);
+    for (int i = 0; i < reader.getAttributeCount(); i++)
+    {
+      element.setAttribute(reader.getAttributeLocalName(i),
+          reader.getAttributeValue(i));
+    }
+    if (XMLTags.VALUE.getName().equals(tag)
+        || XMLTags.COMMENT.getName().equals(tag)
+        || XMLTags.FILEREFERENCE.getName().equals(tag))
+    {
+      element.setTextContent(reader.getElementText());
+    } else
+    {
+      while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+      {
+        element.appendChild(readElement(reader, document));
+      }
+    }
+    return element;
+  }
+
   /**
    * Print the children of a file tag.
    *
@@ -194,41 +370,58 @@ public class ConfGenerator
    * @throws XMLGeneratorException
    *           Unsupported elements.
    */
-  private void printChildren(final NodeList children,
+  private static void printChildren(final NodeList children,
       final PrettyPrinter printer) throws IOException, XMLGeneratorException
   {
     for (int index = 0; index < children.getLength(); index++)
     {
-      final Element element = (Element) children.item(index);
-      switch (XMLTags.valueOf(element.getTagName().toUpperCase()))
-      {
-      case KEY:
-        printKey(element, false, false, printer);
-        break;
-      case VALUE:
-        printer.add2Line("(" + Trimmer.addQuoates(element.getTextContent())
-            + ")");
-        printer.print();
-        break;
-      case GROUP:
-        printGroup(element, false, printer);
-        break;
-      case COMMENT:
-        printComment(element, printer);
-        break;
-      case FILEREFERENCE:
-        final String content = element.getTextContent();
-        printer.add2Line("%include \"" + content + "\"");
-        printer.print();
-        break;
-      default:
-        throw new XMLGeneratorException("Unsupported element");
-      }
+      printElement((Element) children.item(index), printer);
     }
     printer.print();
     printer.flush();
   }
 
+  /**
+   * Print a child of a file tag.
+   *
+   * @param element
+   *          The child.
+   * @param printer
+   *          The printer to use.
+   * @throws IOException
+   *           Couldn't print.
+   * @throws XMLGeneratorException
+   *           Unsupported elements.
+   */
+  private static void printElement(final Element element,
+      final PrettyPrinter printer) throws IOException, XMLGeneratorException
+  {
+    switch (XMLTags.valueOf(element.getTagName().toUpperCase()))
+    {
+    case KEY:
+      printKey(element, false, false, printer);
+      break;
+    case VALUE:
+      printer.add2Line("(" + Trimmer.addQuoates(element.getTextContent())
+          + ")");
+      printer.print();
+      break;
+    case GROUP:
+      printGroup(element, false, printer);
+      break;
+    case COMMENT:
+      printComment(element, printer);
+      break;
+    case FILEREFERENCE:
+      final String content = element.getTextContent();
+      printer.add2Line("%include \"" + content + "\"");
+      printer.print();
+      break;
+    default:
+      throw new XMLGeneratorException("Unsupported element");
+    }
+  }
+
   /**
    * Print a key element and its children.
    *
@@ -245,7 +438,7 @@ public class ConfGenerator
    * @throws IOException
    *           Print was unsuccessful.
    */
-  private void printKey(final Element elem, final boolean grouped,
+  private static void printKey(final Element elem, final boolean grouped,
       final boolean whitespace, final PrettyPrinter printer)
       throws XMLGeneratorException, IOException
   {
@@ -294,7 +487,7 @@ public class ConfGenerator
    * @throws IOException
    *           Print was unsuccessful.
    */
-  private void printComment(final Element elem, final PrettyPrinter printer)
+  private static void printComment(final Element elem, final PrettyPrinter printer)
       throws IOException
   {
     printer.add2Line(elem.getTextContent());
@@ -313,7 +506,7 @@ public class ConfGenerator
    * @param printer
    *          The printer.
    */
-  private void printValueOfGroup(final String value, final String whitespace,
+  private static void printValueOfGroup(final String value, final String whitespace,
       final boolean last, final PrettyPrinter printer)
   {
     if (last)
@@ -339,7 +532,7 @@ public class ConfGenerator
    * @throws IOException
    *           Couldn't print.
    */
-  private void printGroupElements(final NodeList elements,
+  private static void printGroupElements(final NodeList elements,
       final boolean isList, final PrettyPrinter printer)
       throws XMLGeneratorException, IOException
   {
@@ -381,7 +574,7 @@ public class ConfGenerator
    * @throws XMLGeneratorException
    *           Unsupported element for group.
    */
-  private void printGroup(final Element elem, final boolean named,
+  private static void printGroup(final Element elem, final boolean named,
       final PrettyPrinter printer) throws IOException, XMLGeneratorException
   {
     printer.add2Line("(");
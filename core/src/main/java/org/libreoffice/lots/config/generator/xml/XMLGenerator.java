@@ -22,23 +22,30 @@
  */
 package org.libreoffice.lots.config.generator.xml;
 
+import java.io.BufferedOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
@@ -49,12 +56,15 @@ import org.libreoffice.lots.config.scanner.ScannerException;
 import org.libreoffice.lots.config.scanner.Token;
 import org.libreoffice.lots.config.scanner.TokenType;
 import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 
 /**
  * Generates a XML-document from a configuration.
  *
+ * The configuration is converted file by file. The tokens of a file are
+ * written to a {@link XMLStreamWriter} as soon as they are read, included
+ * files are converted after the including file. So only the current file and
+ * the names of the pending includes are kept in memory.
+ *
  * Use case:
  *
  * <pre>
@@ -65,8 +75,12 @@ import org.w3c.dom.NodeList;
  * XMLGenerator generator = new XMLGenerator(new URL("file:someFile"));
  * //create XML-document
  * Document doc = generator.generateXML();
+ * //or write the XML-document to a stream without creating it in memory
+ * generator.generateXML(new FileOutputStream("someFile.xml"));
  * //print XML-document to original files
  * new ConfGenerator(doc).generateConf();
+ * //or read the XML-document from a stream and print it to the original files
+ * ConfGenerator.generateConf(new FileInputStream("someFile.xml"));
  * //print the first file of the XML-document to a stream.
  * new ConfGenerator(doc).generateConf(new FileOutputStream("someOtherFile"), 0);
  * </code>
@@ -77,22 +91,14 @@ import org.w3c.dom.NodeList;
 public class XMLGenerator
 {
 
-  /**
-   * The document.
-   */
-  private final Document document;
-  /**
-   * The root element of the document.
-   */
-  private final Element config;
   /**
    * The scanner to get the configuration from.
    */
   private final Scanner scanner;
   /**
-   * A stack with the produced elements, which can contain other elements.
+   * The URL of the configuration, included files are resolved relative to it.
    */
-  private final Deque<Element> files;
+  private final URL url;
 
   /**
    * Create a new generator.
@@ -106,15 +112,8 @@ public class XMLGenerator
   {
     try
     {
-      scanner = new Scanner(url);
-      this.document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
-          .newDocument();
-      this.config = document.createElement(XMLTags.CONFIG.getName());
-      document.appendChild(config);
-      files = new LinkedList<>();
-    } catch (final ParserConfigurationException e)
-    {
-      throw new XMLGeneratorException("Couldn't create document.", e);
+      scanner = new Scanner(url, false);
+      this.url = url;
     } catch (final ScannerException e)
     {
       throw new XMLGeneratorException("Couldn't read from stream.", e);
@@ -135,24 +134,17 @@ public class XMLGenerator
   {
     try
     {
-      scanner = new Scanner(stream);
-      this.document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
-          .newDocument();
-      this.config = document.createElement(XMLTags.CONFIG.getName());
-      document.appendChild(config);
-      files = new LinkedList<>();
-    } catch (final ParserConfigurationException e)
-    {
-      throw new XMLGeneratorException("Couldn't create document.", e);
-    } catch (final ScannerException e)
+      scanner = new Scanner(stream, false);
+      this.url = new URL("file:.");
+    } catch (final ScannerException | MalformedURLException e)
     {
       throw new XMLGeneratorException("Couldn't read from stream.", e);
     }
   }
 
   /**
-   * Create the XML-document and return it. If it was already created, it is
-   * deleted and created from scratch.
+   * Create the XML-document and return it. The configuration can only be
+   * converted once.
    *
    * @return The document.
    * @throws XMLGeneratorException
@@ -162,191 +154,261 @@ public class XMLGenerator
   {
     try
     {
-      if (config.hasChildNodes())
+      final Document document = DocumentBuilderFactory.newInstance()
+          .newDocumentBuilder().newDocument();
+      final XMLStreamWriter writer = XMLOutputFactory.newInstance()
+          .createXMLStreamWriter(new DOMResult(document));
+      generateXML(writer);
+      writer.close();
+      return document;
+    } catch (final ParserConfigurationException e)
+    {
+      throw new XMLGeneratorException("Couldn't create document.", e);
+    } catch (final XMLStreamException e)
+    {
+      throw new XMLGeneratorException("Couldn't write document.", e);
+    }
+  }
+
+  /**
+   * Write the XML-document in UTF-8 to a stream. The stream isn't closed. The
+   * configuration can only be converted once.
+   *
+   * @param out
+   *          The stream.
+   * @throws XMLGeneratorException
+   *           Couldn't create the document.
+   */
+  public void generateXML(final OutputStream out) throws XMLGeneratorException
+  {
+    try
+    {
+      // the writer doesn't buffer the stream itself
+      final XMLStreamWriter writer = XMLOutputFactory.newInstance()
+          .createXMLStreamWriter(new BufferedOutputStream(out), "UTF-8");
+      writer.writeStartDocument("UTF-8", "1.0");
+      generateXML(writer);
+      writer.writeEndDocument();
+      writer.close();
+    } catch (final XMLStreamException e)
+    {
+      throw new XMLGeneratorException("Couldn't write document.", e);
+    }
+  }
+
+  /**
+   * Write the root element of the XML-document to a writer. The configuration
+   * can only be converted once.
+   *
+   * @param writer
+   *          The writer.
+   * @throws XMLGeneratorException
+   *           Couldn't create the document.
+   */
+  public void generateXML(final XMLStreamWriter writer)
+      throws XMLGeneratorException
+  {
+    try
+    {
+      final Deque<IncludedFile> pending = new ArrayDeque<>();
+      writer.writeStartElement(XMLTags.CONFIG.getName());
+      writeFile(writer, scanner, url, null, pending);
+      while (!pending.isEmpty())
       {
-        NodeList nodes = config.getChildNodes();
-        for (int index = 0; index < nodes.getLength(); index++)
-        {
-          config.removeChild(nodes.item(index));
-        }
-        while (!files.isEmpty())
-        {
-          files.removeFirst();
-        }
+        final IncludedFile file = pending.pop();
+        writeFile(writer, new Scanner(file.url, false), file.url, file.filename,
+            pending);
       }
-      createDocument();
-      return document;
-    } catch (final ScannerException ex)
+      writer.writeEndElement();
+      writer.flush();
+    } catch (final ScannerException | NoSuchElementException ex)
     {
       throw new XMLGeneratorException("Problems while scaning", ex);
-    } catch (MalformedURLException e)
+    } catch (final MalformedURLException e)
     {
       throw new XMLGeneratorException("Problems to create new file reference",
           e);
+    } catch (final XMLStreamException e)
+    {
+      throw new XMLGeneratorException("Couldn't write document.", e);
     }
   }
 
   /**
-   * Create the XML-document.
+   * Write the file element of a configuration file. The included files are
+   * added to the front of the pending files, so that they are written in the
+   * order of their appearance.
    *
-   * @return The XML-document.
+   * @param writer
+   *          The writer.
+   * @param fileScanner
+   *          The scanner of the file, it has to ignore included files.
+   * @param fileURL
+   *          The URL of the file.
+   * @param filename
+   *          The filename attribute of the file element or null, if it has to
+   *          be computed from the first token.
+   * @param pending
+   *          The files, which still have to be written.
    * @throws ScannerException
-   *           Thrown if the scanner has problems or unknown tokens are
-   *           recognized.
+   *           The scanner has problems.
    * @throws XMLGeneratorException
-   *           Unknown tokens
+   *           Unknown tokens or unbalanced brackets.
    * @throws MalformedURLException
+   *           Invalid include-instruction.
+   * @throws XMLStreamException
+   *           Couldn't write.
    */
-  private void createDocument() throws ScannerException, XMLGeneratorException,
-      MalformedURLException
+  private void writeFile(final XMLStreamWriter writer,
+      final Scanner fileScanner, final URL fileURL, final String filename,
+      final Deque<IncludedFile> pending) throws ScannerException,
+      XMLGeneratorException, MalformedURLException, XMLStreamException
   {
-    Token token;
-    files.push(config);
-    while (scanner.hasNext())
+    final Deque<XMLTags> open = new ArrayDeque<>();
+    final List<IncludedFile> includes = new ArrayList<>();
+    String name = filename;
+    if (name != null)
+    {
+      writeFileStart(writer, name, open);
+    }
+    boolean first = true;
+    while (fileScanner.hasNext())
     {
-      token = scanner.next();
+      final Token token = fileScanner.next();
       switch (token.getType())
       {
       case KEY:
-        createKey(token);
+        writer.writeStartElement(XMLTags.KEY.getName());
+        writer.writeAttribute("id", token.getContent());
+        open.push(XMLTags.KEY);
         break;
       case VALUE:
-        createValue(token);
+        writeText(writer, XMLTags.VALUE,
+            Trimmer.trimQuotes(token.getContent()));
+        closeKey(writer, open);
         break;
       case OPENING_BRACKET:
-        createOpen();
+        writer.writeStartElement(XMLTags.GROUP.getName());
+        open.push(XMLTags.GROUP);
         break;
       case CLOSING_BRACKET:
-        createClose();
+        if (open.peek() != XMLTags.GROUP)
+        {
+          throw new XMLGeneratorException("Unbalanced brackets in " + name);
+        }
+        writer.writeEndElement();
+        open.pop();
+        closeKey(writer, open);
         break;
       case COMMENT:
-        createComment(token);
+        writeText(writer, XMLTags.COMMENT, token.getContent());
         break;
       case NEW_FILE:
-        createFile(token);
+        if (first)
+        {
+          // the scanner starts every file with the name of the file
+          if (name == null)
+          {
+            name = fileName("", token.getContent());
+            writeFileStart(writer, name, open);
+          }
+        } else
+        {
+          writeText(writer, XMLTags.FILEREFERENCE, token.getContent());
+          includes.add(new IncludedFile(
+              new URL(fileURL, PathProcessor.processInclude(token.getContent())),
+              fileName(name, token.getContent())));
+        }
         break;
       case END_FILE:
-        files.pop();
         break;
       default:
         throw new XMLGeneratorException("Unknown token");
       }
+      first = false;
+    }
+    fileScanner.close();
+    while (!open.isEmpty())
+    {
+      writer.writeEndElement();
+      open.pop();
+    }
+    for (int i = includes.size() - 1; i >= 0; i--)
+    {
+      pending.push(includes.get(i));
     }
-    scanner.close();
   }
 
-  /**
-   * Process a {@link TokenType}.{@link KEY}.
-   *
-   * @param token
-   *          The token.
-   */
-  private void createKey(final Token token)
+  private static void writeFileStart(final XMLStreamWriter writer,
+      final String filename, final Deque<XMLTags> open)
+      throws XMLStreamException
   {
-    final Element element = document.createElement(XMLTags.KEY.getName());
-    element.setAttribute("id", token.getContent());
-    files.peek().appendChild(element);
-    files.push(element);
+    writer.writeStartElement(XMLTags.FILE.getName());
+    writer.writeAttribute("filename", filename);
+    open.push(XMLTags.FILE);
   }
 
-  /**
-   * Process a {@link TokenType}.{@link VALUE}.
-   *
-   * @param token
-   *          The token.
-   */
-  private void createValue(final Token token)
+  private static void writeText(final XMLStreamWriter writer,
+      final XMLTags tag, final String text) throws XMLStreamException
   {
-    final Element element = document.createElement(XMLTags.VALUE.getName());
-    element.setTextContent(Trimmer.trimQuotes(token.getContent()));
-    files.peek().appendChild(element);
-    if (XMLTags.KEY.getName().equals(files.peek().getNodeName()))
+    writer.writeStartElement(tag.getName());
+    if (!text.isEmpty())
     {
-      files.pop();
+      writer.writeCharacters(text);
     }
+    writer.writeEndElement();
   }
 
   /**
-   * Process a {@link TokenType}.{@link OPENING_BRACKET}.
-   *
-   * @param token
-   *          The token.
+   * Close the key element, if a value or group of a key has been written.
    */
-  private void createOpen()
+  private static void closeKey(final XMLStreamWriter writer,
+      final Deque<XMLTags> open) throws XMLStreamException
   {
-    final Element element = document.createElement(XMLTags.GROUP.getName());
-    files.peek().appendChild(element);
-    files.push(element);
+    if (open.peek() == XMLTags.KEY)
+    {
+      writer.writeEndElement();
+      open.pop();
+    }
   }
 
   /**
-   * Process a {@link TokenType}.{@link CLOSING_BRACKET}.
+   * Compute the filename attribute of an included file.
    *
-   * @param token
-   *          The token.
+   * @param context
+   *          The filename of the including file.
+   * @param include
+   *          The content of the include-instruction.
+   * @return The path of the included file.
+   * @throws MalformedURLException
+   *           Couldn't create the URL of the included file.
    */
-  private void createClose()
+  private static String fileName(final String context, final String include)
+      throws MalformedURLException
   {
-    files.pop();
-    if (XMLTags.KEY.getName().equals(files.peek().getNodeName()))
+    final URL contextURL = new URL("file:" + context);
+    final String newFile = PathProcessor.processInclude(include);
+    boolean windowsOS = System.getProperty("os.name").toLowerCase().contains("windows");
+    if (windowsOS && Paths.get(newFile).toFile().exists())
     {
-      files.pop();
+      return new URL(contextURL, "/" + newFile).getPath();
     }
+    return new URL(contextURL, newFile).getPath();
   }
 
   /**
-   * Process a {@link TokenType}.{@link COMMENT}.
-   *
-   * @param token
-   *          The token.
+   * An included file, which hasn't been written yet.
    */
-  private void createComment(final Token token)
+  private static class IncludedFile
   {
-    final Element element = document.createElement(XMLTags.COMMENT.getName());
-    element.setTextContent(token.getContent());
-    files.peek().appendChild(element);
-  }
+    private final URL url;
+    private final String filename;
 
-  /**
-   * Process a {@link TokenType}.{@link NEW_FILE}.
-   *
-   * @param token
-   *          The token.
-   * @throws MalformedURLException
-   *           Couldn't create the URL of the new element.
-   */
-  private void createFile(final Token token) throws MalformedURLException
-  {
-    final String FILE_NAME = "filename";
-    Element element;
-    if (!XMLTags.CONFIG.getName().equals(files.peek().getTagName()))
-    {
-      element = document.createElement(XMLTags.FILEREFERENCE.getName());
-      element.setTextContent(token.getContent());
-      files.peek().appendChild(element);
-    }
-    URL context = new URL("file:" + files.peek().getAttribute(FILE_NAME));
-    String newFile = PathProcessor.processInclude(token.getContent());
-    Path path = Paths.get(newFile);
-    element = document.createElement(XMLTags.FILE.getName());
-    boolean windowsOS = System.getProperty("os.name").toLowerCase().contains("windows");
-    if(windowsOS)
-    {
-      if(path.toFile().exists())
-      {
-        element.setAttribute(FILE_NAME, new URL(context, "/" + newFile).getPath());
-      }
-      else
-      {
-        element.setAttribute(FILE_NAME, new URL(context, newFile).getPath());
-      }
-    }
-    else
+    IncludedFile(final URL url, final String filename)
     {
-      element.setAttribute(FILE_NAME, new URL(context, newFile).getPath());
+      this.url = url;
+      this.filename = filename;
     }
-    config.appendChild(element);
-    files.push(element);
   }
 
   /**
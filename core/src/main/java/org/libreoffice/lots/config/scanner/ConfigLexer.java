@@ -0,0 +1,484 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.config.scanner;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits the content of a configuration file into tokens.
+ *
+ * The lexer reads the file in one pass and keeps only the current line in a
+ * reusable buffer. Tokens are returned one by one by {@link #next()}. No
+ * strings are created unless the content of a token is requested with
+ * {@link #text()}, {@link #value()} or {@link #rest()}.
+ *
+ * Lines are terminated by "\n", "\r" or "\r\n". A token never spans more than
+ * one line. Whitespace, "," and ";" separate tokens and are skipped.
+ */
+public class ConfigLexer implements Closeable
+{
+  /**
+   * The different kinds of tokens.
+   */
+  public enum Kind
+  {
+    /** A key, matching [a-zA-Z_][a-zA-Z_0-9]*. */
+    KEY,
+    /** A string enclosed in single or double quotes. */
+    STRING,
+    /** "(" */
+    OPENING_BRACKET,
+    /** ")" */
+    CLOSING_BRACKET,
+    /** The keyword "%include". */
+    INCLUDE,
+    /** A comment from "#" to the end of the line. */
+    COMMENT,
+    /** The end of the file. Returned on every call after the end was reached. */
+    END,
+    /**
+     * No token can start at the current position. The lexer doesn't advance
+     * after an error.
+     */
+    ERROR
+  }
+
+  private static final String INCLUDE = "%include";
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Reader reader;
+
+  /**
+   * If true, no-break spaces and byte order marks are treated as whitespace.
+   */
+  private final boolean lenient;
+
+  private final char[] buffer = new char[BUFFER_SIZE];
+
+  private int bufferPos = 0;
+
+  private int bufferEnd = 0;
+
+  /** Skip a "\n" at the start of the next line, because the last line ended with "\r". */
+  private boolean skipLF = false;
+
+  private boolean eof = false;
+
+  /** The current line. */
+  private char[] line = new char[256];
+
+  private int lineLength = 0;
+
+  /** The number of lines read so far. */
+  private int lineNumber = 0;
+
+  /** The position in the current line where the lexer continues. */
+  private int pos = 0;
+
+  /** The start of the current token in the current line. */
+  private int start = 0;
+
+  /** The end (exclusive) of the current token in the current line. */
+  private int end = 0;
+
+  private Kind kind = null;
+
+  /**
+   * Create a new lexer.
+   *
+   * @param reader
+   *          The content to split. The reader is closed by {@link #close()}.
+   * @param lenient
+   *          If true, no-break spaces (U+00A0) and byte order marks (U+FEFF)
+   *          are treated as whitespace.
+   */
+  public ConfigLexer(Reader reader, boolean lenient)
+  {
+    this.reader = reader;
+    this.lenient = lenient;
+  }
+
+  /**
+   * Advance to the next token.
+   *
+   * @return The kind of the token.
+   * @throws IOException
+   *           The content can't be read.
+   */
+  public Kind next() throws IOException
+  {
+    if (kind == Kind.END || kind == Kind.ERROR)
+    {
+      return kind;
+    }
+
+    while (true)
+    {
+      if (pos >= lineLength)
+      {
+        if (!readLine())
+        {
+          start = 0;
+          end = 0;
+          kind = Kind.END;
+          return kind;
+        }
+        continue;
+      }
+
+      char ch = line[pos];
+      if (isWhitespace(ch))
+      {
+        ++pos;
+        continue;
+      }
+
+      start = pos;
+      kind = scan(ch);
+      end = pos;
+      return kind;
+    }
+  }
+
+  /**
+   * The line of the current token, starting with 1. The end of the file is
+   * positioned in the line after the last line.
+   *
+   * @return The line number.
+   */
+  public int line()
+  {
+    return kind == Kind.END ? lineNumber + 1 : lineNumber;
+  }
+
+  /**
+   * The position of the current token in its line, starting with 1. The end
+   * of the file is at position 0.
+   *
+   * @return The column.
+   */
+  public int column()
+  {
+    return kind == Kind.END ? 0 : start + 1;
+  }
+
+  /**
+   * The text of the current token as it appears in the file.
+   *
+   * @return The text of the token.
+   */
+  public String text()
+  {
+    return new String(line, start, end - start);
+  }
+
+  /**
+   * The text from the start of the current token to the end of the line.
+   *
+   * @return The rest of the line.
+   */
+  public String rest()
+  {
+    return kind == Kind.END ? "" : new String(line, start, lineLength - start);
+  }
+
+  /**
+   * Continue after the current line.
+   */
+  public void skipLine()
+  {
+    pos = lineLength;
+  }
+
+  /**
+   * The value of the current {@link Kind#STRING} token. The enclosing quotes
+   * are removed, doubled quotes are replaced by a single quote and the escape
+   * sequences %n, %% and %uXXXX are decoded. Any other "%" is kept.
+   *
+   * @return The value of the string.
+   * @throws IllegalArgumentException
+   *           The string contains an invalid %u escape sequence.
+   */
+  public String value()
+  {
+    if (kind != Kind.STRING)
+    {
+      throw new IllegalStateException("Current token isn't a string");
+    }
+
+    int from = start + 1;
+    int to = end - 1;
+    char quote = line[start];
+    int i = from;
+    while (i < to && line[i] != quote && line[i] != '%')
+    {
+      ++i;
+    }
+    if (i == to)
+    {
+      return new String(line, from, to - from);
+    }
+
+    StringBuilder value = new StringBuilder(to - from);
+    value.append(line, from, i - from);
+    while (i < to)
+    {
+      char ch = line[i];
+      if (ch == quote)
+      {
+        // quotes inside a string are always doubled
+        value.append(quote);
+        i += 2;
+      } else if (ch == '%' && i + 1 < to)
+      {
+        switch (line[i + 1])
+        {
+        case 'n':
+          value.append('\n');
+          i += 2;
+          break;
+        case '%':
+          value.append('%');
+          i += 2;
+          break;
+        case 'u':
+          value.append(parseUnicode(i + 2, to));
+          i += 6;
+          break;
+        default:
+          value.append('%');
+          ++i;
+          break;
+        }
+      } else
+      {
+        value.append(ch);
+        ++i;
+      }
+    }
+    return value.toString();
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    reader.close();
+  }
+
+  private char parseUnicode(int from, int to)
+  {
+    if (from + 4 > to)
+    {
+      throw new IllegalArgumentException("Incomplete %u escape!");
+    }
+    String code = new String(line, from, 4);
+    try
+    {
+      return (char) Integer.parseInt(code, 16);
+    } catch (NumberFormatException x)
+    {
+      throw new IllegalArgumentException("Incorrect hex number in %u escape: \"%u" + code + "\"");
+    }
+  }
+
+  private Kind scan(char ch)
+  {
+    if (isKeyStart(ch))
+    {
+      ++pos;
+      while (pos < lineLength && isKeyPart(line[pos]))
+      {
+        ++pos;
+      }
+      return Kind.KEY;
+    }
+
+    switch (ch)
+    {
+    case '"':
+    case '\'':
+      return scanString(ch);
+    case '(':
+      ++pos;
+      return Kind.OPENING_BRACKET;
+    case ')':
+      ++pos;
+      return Kind.CLOSING_BRACKET;
+    case '#':
+      pos = lineLength;
+      return Kind.COMMENT;
+    case '%':
+      if (startsWith(INCLUDE))
+      {
+        pos += INCLUDE.length();
+        return Kind.INCLUDE;
+      }
+      return Kind.ERROR;
+    default:
+      return Kind.ERROR;
+    }
+  }
+
+  private Kind scanString(char quote)
+  {
+    int i = pos + 1;
+    while (i < lineLength)
+    {
+      if (line[i] == quote)
+      {
+        if (i + 1 < lineLength && line[i + 1] == quote)
+        {
+          i += 2;
+          continue;
+        }
+        pos = i + 1;
+        return Kind.STRING;
+      }
+      ++i;
+    }
+    return Kind.ERROR;
+  }
+
+  private boolean startsWith(String prefix)
+  {
+    if (pos + prefix.length() > lineLength)
+    {
+      return false;
+    }
+    for (int i = 0; i < prefix.length(); ++i)
+    {
+      if (line[pos + i] != prefix.charAt(i))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean isWhitespace(char ch)
+  {
+    switch (ch)
+    {
+    case ' ':
+    case '\t':
+    case '\n':
+    case '\u000B':
+    case '\f':
+    case '\r':
+    case ',':
+    case ';':
+      return true;
+    case '\u00A0':
+    case '\uFEFF':
+      return lenient;
+    default:
+      return false;
+    }
+  }
+
+  private static boolean isKeyStart(char ch)
+  {
+    return (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || ch == '_';
+  }
+
+  private static boolean isKeyPart(char ch)
+  {
+    return isKeyStart(ch) || (ch >= '0' && ch <= '9');
+  }
+
+  /**
+   * Read the next line into the line buffer.
+   *
+   * @return False if the end of the file was reached before any character
+   *         could be read.
+   * @throws IOException
+   *           The content can't be read.
+   */
+  private boolean readLine() throws IOException
+  {
+    lineLength = 0;
+    pos = 0;
+    start = 0;
+    end = 0;
+    boolean any = false;
+    while (true)
+    {
+      if (bufferPos >= bufferEnd && !fill())
+      {
+        if (any)
+        {
+          ++lineNumber;
+        }
+        return any;
+      }
+
+      char ch = buffer[bufferPos++];
+      if (skipLF)
+      {
+        skipLF = false;
+        if (ch == '\n')
+        {
+          continue;
+        }
+      }
+      any = true;
+      if (ch == '\n' || ch == '\r')
+      {
+        skipLF = ch == '\r';
+        ++lineNumber;
+        return true;
+      }
+      if (lineLength == line.length)
+      {
+        char[] newLine = new char[line.length * 2];
+        System.arraycopy(line, 0, newLine, 0, lineLength);
+        line = newLine;
+      }
+      line[lineLength++] = ch;
+    }
+  }
+
+  private boolean fill() throws IOException
+  {
+    if (eof)
+    {
+      return false;
+    }
+    int read;
+    do
+    {
+      read = reader.read(buffer, 0, buffer.length);
+    } while (read == 0);
+    if (read < 0)
+    {
+      eof = true;
+      return false;
+    }
+    bufferPos = 0;
+    bufferEnd = read;
+    return true;
+  }
+}
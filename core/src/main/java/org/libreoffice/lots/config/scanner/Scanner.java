@@ -50,6 +50,8 @@ public class Scanner implements Iterator<Token>, Closeable
   private final Deque<Tokenizer> stack = new LinkedList<>();
   /** Is this the first time to read. */
   private boolean isStart;
+  /** Are included files read? */
+  private final boolean followIncludes;
 
   /**
    * Create a new ScannerReader and read the UTF-8 byte ordering mark if there
@@ -62,8 +64,29 @@ public class Scanner implements Iterator<Token>, Closeable
    *           or it can't be read.
    */
   public Scanner(final URL filename) throws ScannerException
+  {
+    this(filename, true);
+  }
+
+  /**
+   * Create a new ScannerReader and read the UTF-8 byte ordering mark if there
+   * is one.
+   *
+   * @param filename
+   *          The URL of the file to be read.
+   * @param followIncludes
+   *          If false, included files aren't read. The include-instruction is
+   *          still returned as {@link TokenType#NEW_FILE}, but it isn't followed
+   *          by the tokens of the included file.
+   * @throws ScannerException
+   *           The ScannerReader can't be initialized, because there is no file
+   *           or it can't be read.
+   */
+  public Scanner(final URL filename, final boolean followIncludes)
+      throws ScannerException
   {
     isStart = true;
+    this.followIncludes = followIncludes;
     stack.push(new Tokenizer(filename));
   }
 
@@ -78,8 +101,27 @@ public class Scanner implements Iterator<Token>, Closeable
    *           or it can't be read.
    */
   public Scanner(final InputStream stream) throws ScannerException
+  {
+    this(stream, true);
+  }
+
+  /**
+   * Create a new ScannerReader and read the UTF-8 byte ordering mark if there
+   * is one.
+   *
+   * @param stream
+   *          The stream to read.
+   * @param followIncludes
+   *          If false, included files aren't read.
+   * @throws ScannerException
+   *           The ScannerReader can't be initialized, because there is no file
+   *           or it can't be read.
+   */
+  public Scanner(final InputStream stream, final boolean followIncludes)
+      throws ScannerException
   {
     isStart = true;
+    this.followIncludes = followIncludes;
     stack.push(new Tokenizer(stream));
   }
 
@@ -113,7 +155,7 @@ public class Scanner implements Iterator<Token>, Closeable
       return new Token(stack.peek().getFilename().getFile(), TokenType.NEW_FILE);
     }
     final Token token = stack.peek().next();
-    if (token.getType() == TokenType.NEW_FILE)
+    if (token.getType() == TokenType.NEW_FILE && followIncludes)
     {
       try
       {
@@ -50,10 +50,10 @@ public class Tokenizer implements Iterator<Token>, Closeable
 
   /** Number of bytes of UTF-8 ordering mark. */
   private static final int BYTE_ORDERING_MARK_LENGTH = 4;
-  /** The file reader. */
-  private final BufferedReader reader;
-  /** The current line to tokenize. */
-  private String line;
+  /** The lexer for the file. */
+  private final ConfigLexer lexer;
+  /** True if the end of the file has been returned. */
+  private boolean finished;
   /** The file from which this scanner reads. */
   private final URL filename;
 
@@ -72,14 +72,11 @@ public class Tokenizer implements Iterator<Token>, Closeable
     try
     {
       this.filename = filename;
-      reader = new BufferedReader(new InputStreamReader(filename.openStream(),
+      BufferedReader reader = new BufferedReader(new InputStreamReader(filename.openStream(),
           Charset.forName("UTF-8")));
-      reader.mark(BYTE_ORDERING_MARK_LENGTH);
-      if ('\ufeff' != reader.read())
-      {
-        reader.reset();
-      }
-      line = reader.readLine();
+      skipByteOrderingMark(reader);
+      finished = isEmpty(reader);
+      lexer = new ConfigLexer(reader, false);
     } catch (final FileNotFoundException e)
     {
       throw new ScannerException(e);
@@ -103,14 +100,11 @@ public class Tokenizer implements Iterator<Token>, Closeable
   {
     try
     {
-      reader = new BufferedReader(new InputStreamReader(stream,
+      BufferedReader reader = new BufferedReader(new InputStreamReader(stream,
           Charset.forName("UTF-8")));
-      reader.mark(BYTE_ORDERING_MARK_LENGTH);
-      if ('\ufeff' != reader.read())
-      {
-        reader.reset();
-      }
-      line = reader.readLine();
+      skipByteOrderingMark(reader);
+      finished = isEmpty(reader);
+      lexer = new ConfigLexer(reader, false);
       this.filename = new URL("file:.");
     } catch (final FileNotFoundException e)
     {
@@ -121,6 +115,32 @@ public class Tokenizer implements Iterator<Token>, Closeable
     }
   }
 
+  /**
+   * Skip the UTF-8 byte ordering mark if there is one.
+   */
+  private static void skipByteOrderingMark(final BufferedReader reader) throws IOException
+  {
+    reader.mark(BYTE_ORDERING_MARK_LENGTH);
+    if ('\ufeff' != reader.read())
+    {
+      reader.reset();
+    }
+  }
+
+  /**
+   * Check whether there are no more characters.
+   */
+  private static boolean isEmpty(final BufferedReader reader) throws IOException
+  {
+    reader.mark(1);
+    if (reader.read() < 0)
+    {
+      return true;
+    }
+    reader.reset();
+    return false;
+  }
+
   public URL getFilename()
   {
     return filename;
@@ -131,7 +151,7 @@ public class Tokenizer implements Iterator<Token>, Closeable
   {
     try
     {
-      reader.close();
+      lexer.close();
     } catch (final IOException e)
     {
       throw new ScannerException("The file reader can't be closed", e);
@@ -141,73 +161,65 @@ public class Tokenizer implements Iterator<Token>, Closeable
   @Override
   public boolean hasNext()
   {
-    return line != null;
+    return !finished;
   }
 
   @Override
   public Token next()
   {
-    // Read the next line if this was the last token in the line.
-    if (line.isEmpty())
+    if (finished)
     {
-      try
-      {
-        line = reader.readLine();
-        if (line == null)
-        {
-          return new Token("", TokenType.END_FILE);
-        } else
-        {
-          return next();
-        }
-      } catch (final IOException e)
-      {
-        LOGGER.error("Die Konfigurationsdatei konnte nicht gelesen werden.", e);
-        throw new NoSuchElementException("File can't be read");
-      }
+      throw new NoSuchElementException("No more tokens");
     }
 
-    Token token = parseLine();
-    if (token != null)
+    ConfigLexer.Kind kind;
+    try
     {
-      return token;
+      kind = lexer.next();
+    } catch (final IOException e)
+    {
+      LOGGER.error("Die Konfigurationsdatei konnte nicht gelesen werden.", e);
+      throw new NoSuchElementException("File can't be read");
     }
 
-    throw new NoSuchElementException("No more tokens");
+    switch (kind)
+    {
+    case KEY:
+      return new Token(lexer.text(), TokenType.KEY);
+    case STRING:
+      return new Token(lexer.text(), TokenType.VALUE);
+    case OPENING_BRACKET:
+      return new Token(lexer.text(), TokenType.OPENING_BRACKET);
+    case CLOSING_BRACKET:
+      return new Token(lexer.text(), TokenType.CLOSING_BRACKET);
+    case COMMENT:
+      return new Token(lexer.text(), TokenType.COMMENT);
+    case INCLUDE:
+      return parseInclude();
+    case END:
+      finished = true;
+      return new Token("", TokenType.END_FILE);
+    default:
+      throw new NoSuchElementException("No more tokens");
+    }
   }
 
   /**
-   * Extracts the next token from the current line.
+   * An include has to be of the form %include "file" and consumes the rest of
+   * the line.
    *
-   * @return The next token.
+   * @return The token with the name of the included file.
    */
-  private Token parseLine()
+  private Token parseInclude()
   {
-    for (final TokenType tokenType : TokenType.values())
+    final String content = lexer.rest();
+    final Matcher matcher = TokenType.NEW_FILE.getRegex().matcher(content);
+    if (!matcher.find())
     {
-      if (!tokenType.hasRegex())
-      {
-        continue;
-      }
-      final Matcher matcher = tokenType.getRegex().matcher(line);
-      if (matcher.find())
-      {
-        final int end = matcher.end();
-        final String content = line.substring(0, end);
-        line = line.substring(end, line.length());
-        if (tokenType == TokenType.NEW_FILE)
-        {
-          return new Token(content.split("\"")[1], tokenType);
-        } else if (tokenType == TokenType.WHITESPACE)
-        {
-          return next();
-        } else
-        {
-          return new Token(content, tokenType);
-        }
-      }
+      throw new NoSuchElementException("No more tokens");
     }
-    return null;
+    lexer.skipLine();
+    return new Token(content.split("\"")[1], TokenType.NEW_FILE);
   }
 
   /** This method isn't supported. */
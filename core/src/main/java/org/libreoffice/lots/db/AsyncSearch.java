@@ -52,28 +52,48 @@ public class AsyncSearch
   }
 
   /**
-   * Start an asynchronous search.
+   * Start an asynchronous search on the threads of the data source.
    *
-   * @return A future with the results. Never null.
+   * @return A future with the results. Never null. It completes exceptionally if the
+   *         {@link DatasourceExecutor} of the data source rejects the search.
    */
   public CompletableFuture<QueryResults> runSearchAsync()
   {
-    return CompletableFuture.supplyAsync(() -> {
-
-      if (searchQuery == null || datasource == null)
-      {
-        return new QueryResultsList(Collections.emptyList());
-      }
+    if (datasource == null)
+    {
+      return CompletableFuture.completedFuture(search());
+    }
+    return datasource.getExecutor().supplyAsync(this::search);
+  }
 
-      return search(searchQuery);
-    });
+  /**
+   * Start an asynchronous search in a session on the threads of the data source. The search
+   * cancels the previous search of the session.
+   *
+   * @param session
+   *          The session.
+   * @return A future with the results. It's cancelled if the search is superseded by another
+   *         search of the session.
+   */
+  public CompletableFuture<QueryResults> runSearchAsync(SearchSession session)
+  {
+    if (datasource == null)
+    {
+      return session.search(this::search);
+    }
+    return session.search(this::search, datasource.getExecutor());
   }
 
-  private QueryResults search(Map<String, String> query)
+  private QueryResults search()
   {
+    if (searchQuery == null || datasource == null)
+    {
+      return new QueryResultsList(Collections.emptyList());
+    }
+
     List<QueryPart> parts = new ArrayList<>();
 
-    for (Map.Entry<String, String> entry : query.entrySet())
+    for (Map.Entry<String, String> entry : searchQuery.entrySet())
     {
       QueryPart qp = new QueryPart(entry.getKey(), entry.getValue());
       parts.add(qp);
@@ -244,6 +244,12 @@ public class AttachDatasource extends Datasource
     }
   }
 
+  @Override
+  protected Datasource getWrappedDatasource()
+  {
+    return source1;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -257,27 +263,19 @@ public class AttachDatasource extends Datasource
 
   private QueryResults attachColumns(QueryResults results, Predicate<Dataset> filter)
   {
-    List<Dataset> resultsWithAttachments = new ArrayList<>(results.size());
+    List<Dataset> datasets = new ArrayList<>(results.size());
+    results.forEach(datasets::add);
+    List<List<Dataset>> appendices = new JoinLookup(source2, match1, match2).lookup(datasets);
 
-    for (Dataset ds : results)
+    List<Dataset> resultsWithAttachments = new ArrayList<>(datasets.size());
+    for (int i = 0; i < datasets.size(); i++)
     {
-      List<QueryPart> query = new ArrayList<>(match1.length);
-      for (int i = 0; i < match1.length; ++i)
-      {
-        try
-        {
-          query.add(new QueryPart(match2[i], ds.get(match1[i])));
-        } catch (ColumnNotFoundException x)
-        {
-          LOGGER.error("", x);
-        }
-      }
-
-      QueryResults appendix = source2.find(query);
+      Dataset ds = datasets.get(i);
+      List<Dataset> appendix = appendices.get(i);
 
       Dataset newDataset;
 
-      if (appendix.size() == 0)
+      if (appendix.isEmpty())
       {
         newDataset = new ConcatDataset(ds, null);
         if (filter.test(newDataset))
@@ -303,30 +301,16 @@ public class AttachDatasource extends Datasource
 
   private QueryResults attachColumnsReversed(QueryResults results)
   {
-    List<ConcatDataset> resultsWithAttachments = new ArrayList<>(results.size());
+    List<Dataset> datasets = new ArrayList<>(results.size());
+    results.forEach(datasets::add);
+    List<List<Dataset>> prependices = new JoinLookup(source1, match2, match1).lookup(datasets);
 
-    for (Dataset ds : results)
+    List<ConcatDataset> resultsWithAttachments = new ArrayList<>(datasets.size());
+    for (int i = 0; i < datasets.size(); i++)
     {
-      List<QueryPart> query = new ArrayList<>(match1.length);
-      for (int i = 0; i < match1.length; ++i)
+      for (Dataset ds1 : prependices.get(i))
       {
-        try
-        {
-          query.add(new QueryPart(match1[i], ds.get(match2[i])));
-        } catch (ColumnNotFoundException x)
-        {
-          LOGGER.error("", x);
-        }
-      }
-
-      QueryResults prependix = source1.find(query);
-
-      if (prependix.size() > 0)
-      {
-        for (Dataset ds1 : prependix)
-        {
-          resultsWithAttachments.add(new ConcatDataset(ds1, ds));
-        }
+        resultsWithAttachments.add(new ConcatDataset(ds1, datasets.get(i)));
       }
     }
 
@@ -0,0 +1,202 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Splits the results of a combined search for several queries, like an LDAP filter or an SQL
+ * WHERE clause joined with OR, into the results of the single queries. A dataset belongs to every
+ * query whose search strings match the values of the dataset ignoring case, where '*' matches any
+ * string.
+ *
+ * The data source may match differently, for example it may ignore additional whitespace, fold
+ * case in another way or match other values of a multi-valued attribute. The split can't
+ * reproduce such matches, so the affected queries have to be searched on their own. A query is
+ * affected if a dataset matches it only if whitespace and case are normalized more tolerantly, or
+ * if it has a condition on a column with several values. If a dataset matches no query at all, it
+ * can't be told which query it belongs to, so all queries are affected. Differences which none of
+ * these checks detects, like a data source which doesn't ignore case, still lead to wrong splits.
+ */
+final class BatchResults
+{
+  private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+  private BatchResults()
+  {
+  }
+
+  /**
+   * Split combined results.
+   *
+   * @param queries
+   *          The combined queries.
+   * @param results
+   *          The results of the combined search.
+   * @param multiValued
+   *          The columns which had several values in some of the results. Only one of them is
+   *          available in the datasets.
+   * @return The results of each query in the order of the queries. The results of a query are
+   *         null if the split isn't reliable for it. The caller has to search such queries on
+   *         their own.
+   */
+  static List<QueryResults> split(List<List<QueryPart>> queries, Iterable<Dataset> results,
+      Collection<String> multiValued)
+  {
+    List<List<Dataset>> split = new ArrayList<>(queries.size());
+    boolean[] unreliable = new boolean[queries.size()];
+    for (int i = 0; i < queries.size(); i++)
+    {
+      split.add(new ArrayList<>());
+      unreliable[i] = queries.get(i).stream()
+          .anyMatch(part -> multiValued.contains(part.getColumnName()));
+    }
+
+    for (Dataset ds : results)
+    {
+      boolean matched = false;
+      for (int i = 0; i < queries.size(); i++)
+      {
+        if (matches(ds, queries.get(i)))
+        {
+          split.get(i).add(ds);
+          matched = true;
+        } else if (matchesTolerant(ds, queries.get(i)))
+        {
+          unreliable[i] = true;
+          matched = true;
+        }
+      }
+      if (!matched)
+      {
+        Arrays.fill(unreliable, true);
+      }
+    }
+
+    List<QueryResults> queryResults = new ArrayList<>(split.size());
+    for (int i = 0; i < split.size(); i++)
+    {
+      queryResults.add(unreliable[i] ? null : new QueryResultsList(split.get(i)));
+    }
+    return queryResults;
+  }
+
+  /**
+   * Split combined results of a data source with single-valued columns.
+   *
+   * @see #split(List, Iterable, Collection)
+   */
+  static List<QueryResults> split(List<List<QueryPart>> queries, Iterable<Dataset> results)
+  {
+    return split(queries, results, Set.of());
+  }
+
+  /**
+   * Does a dataset match all parts of a query, if whitespace is collapsed and case is folded
+   * character by character?
+   */
+  private static boolean matchesTolerant(Dataset ds, List<QueryPart> query)
+  {
+    for (QueryPart part : query)
+    {
+      String value;
+      try
+      {
+        value = ds.get(part.getColumnName());
+      } catch (ColumnNotFoundException e)
+      {
+        return false;
+      }
+      if (value == null
+          || !matches(normalize(value), normalize(part.getSearchString())))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String normalize(String value)
+  {
+    return DatasetPredicate.fold(WHITESPACE.matcher(value).replaceAll(" ").trim());
+  }
+
+  /**
+   * Does a dataset match all parts of a query?
+   */
+  static boolean matches(Dataset ds, List<QueryPart> query)
+  {
+    for (QueryPart part : query)
+    {
+      String value;
+      try
+      {
+        value = ds.get(part.getColumnName());
+      } catch (ColumnNotFoundException e)
+      {
+        return false;
+      }
+      if (value == null || !matches(value, part.getSearchString()))
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Does a value match a search string ignoring case? Each '*' of the search string matches any
+   * string.
+   */
+  static boolean matches(String value, String searchString)
+  {
+    String text = value.toLowerCase(Locale.ROOT);
+    String[] segments = searchString.toLowerCase(Locale.ROOT).split("\\*", -1);
+    if (segments.length == 1)
+    {
+      return text.equals(segments[0]);
+    }
+    if (!text.startsWith(segments[0]))
+    {
+      return false;
+    }
+    int pos = segments[0].length();
+    for (int i = 1; i < segments.length - 1; i++)
+    {
+      pos = text.indexOf(segments[i], pos);
+      if (pos < 0)
+      {
+        return false;
+      }
+      pos += segments[i].length();
+    }
+    String last = segments[segments.length - 1];
+    return text.length() - pos >= last.length() && text.endsWith(last);
+  }
+}
@@ -0,0 +1,413 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.libreoffice.lots.config.ConfigThingy;
+import org.libreoffice.lots.config.ConfigurationErrorException;
+import org.libreoffice.lots.util.L;
+
+/**
+ * Data source which caches the results of another data source. The description looks like
+ *
+ * <pre>
+ * DataSource(
+ *   NAME "cachedLdap"
+ *   TYPE "cache"
+ *   SOURCE "ldap"
+ *   TTL "300"           # seconds a result is used, default 300
+ *   NEGATIVE_TTL "10"   # seconds an empty result is used, 0 disables caching them, default 30
+ *   MAX_ENTRIES "1000"  # maximum number of cached results, default 1000
+ *   MAX_BYTES "4000000" # maximum estimated size of all cached results, default unlimited
+ * )
+ * </pre>
+ *
+ * Results of {@link #find(List)} are cached per query, results of
+ * {@link #getDatasetsByKey(Collection)} per key. If a limit is exceeded, the least recently used
+ * results are dropped. {@link #getContents()} isn't cached. Results which the source couldn't
+ * fetch completely (see {@link LazyQueryResults#isFailed()}) aren't cached either.
+ */
+public class CacheDatasource extends Datasource
+{
+  /**
+   * Default seconds an empty result is used, so a source which has been unavailable is asked again
+   * soon.
+   */
+  private static final long DEFAULT_NEGATIVE_TTL = 30;
+
+  /**
+   * Estimated size of a cache entry and a dataset without their strings.
+   */
+  private static final int OVERHEAD = 64;
+
+  private final String name;
+
+  private final Datasource source;
+
+  private final List<String> schema;
+
+  private final long ttl;
+
+  private final long negativeTtl;
+
+  private final int maxEntries;
+
+  private final long maxBytes;
+
+  private final LongSupplier clock;
+
+  /**
+   * The cached results in order of their last access. The keys are either a {@link List} of
+   * normalized query parts or a {@link String} with a dataset key.
+   */
+  private final LinkedHashMap<Object, Entry> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long bytes;
+
+  private long hits;
+
+  private long misses;
+
+  private long evictions;
+
+  /**
+   * Creates a new CacheDatasource.
+   *
+   * @param nameToDatasource
+   *          Contains all data sources that have already been fully instantiated up to the point
+   *          of defining this CacheDatasource.
+   * @param sourceDesc
+   *          the "DataSource" node that contains the description of this CacheDatasource.
+   */
+  public CacheDatasource(Map<String, Datasource> nameToDatasource, ConfigThingy sourceDesc)
+  {
+    this(nameToDatasource, sourceDesc, System::nanoTime);
+  }
+
+  CacheDatasource(Map<String, Datasource> nameToDatasource, ConfigThingy sourceDesc,
+      LongSupplier clock)
+  {
+    this.clock = clock;
+    name = parseConfig(sourceDesc, "NAME", () -> L.m("NAME of data source is missing"));
+    String sourceName = parseConfig(sourceDesc, "SOURCE",
+        () -> L.m("SOURCE of data source {0} is missing", name));
+    source = nameToDatasource.get(sourceName);
+    if (source == null)
+    {
+      throw new ConfigurationErrorException(L.m("Error during initialization of datasource \"{0}\": "
+          + "Referenced datasource \"{1}\" missing or defined incorrectly", name, sourceName));
+    }
+    schema = source.getSchema();
+
+    long ttlSeconds = parseNumber(sourceDesc, name, "TTL", 300);
+    ttl = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    negativeTtl = TimeUnit.SECONDS
+        .toNanos(parseNumber(sourceDesc, name, "NEGATIVE_TTL",
+            Math.min(DEFAULT_NEGATIVE_TTL, ttlSeconds)));
+    maxEntries = (int) Math.min(Integer.MAX_VALUE,
+        parseNumber(sourceDesc, name, "MAX_ENTRIES", 1000));
+    maxBytes = parseNumber(sourceDesc, name, "MAX_BYTES", Long.MAX_VALUE);
+  }
+
+  @Override
+  public List<String> getSchema()
+  {
+    return new ArrayList<>(schema);
+  }
+
+  @Override
+  public QueryResults getDatasetsByKey(Collection<String> keys)
+  {
+    Set<String> uniqueKeys = new LinkedHashSet<>(keys);
+    Map<String, List<Dataset>> found = new HashMap<>();
+    List<String> missing = new ArrayList<>();
+    for (String key : uniqueKeys)
+    {
+      List<Dataset> cached = lookup(key);
+      if (cached == null)
+      {
+        missing.add(key);
+      } else
+      {
+        found.put(key, cached);
+      }
+    }
+
+    if (!missing.isEmpty())
+    {
+      Map<String, List<Dataset>> loaded = new HashMap<>();
+      for (String key : missing)
+      {
+        loaded.put(key, new ArrayList<>(1));
+      }
+      QueryResults sourceResults = source.getDatasetsByKey(missing);
+      for (Dataset ds : sourceResults)
+      {
+        List<Dataset> datasets = loaded.get(ds.getKey());
+        if (datasets != null)
+        {
+          datasets.add(ds);
+        }
+      }
+      if (!LazyQueryResults.isFailed(sourceResults))
+      {
+        for (Map.Entry<String, List<Dataset>> entry : loaded.entrySet())
+        {
+          store(entry.getKey(), entry.getValue());
+        }
+      }
+      found.putAll(loaded);
+    }
+
+    List<Dataset> results = new ArrayList<>();
+    for (String key : uniqueKeys)
+    {
+      results.addAll(found.get(key));
+    }
+    return new QueryResultsList(results);
+  }
+
+  @Override
+  public QueryResults getContents()
+  {
+    return source.getContents();
+  }
+
+  @Override
+  public QueryResults find(List<QueryPart> query)
+  {
+    List<List<String>> key = normalize(query);
+    List<Dataset> results = lookup(key);
+    if (results == null)
+    {
+      results = new ArrayList<>();
+      QueryResults sourceResults = source.find(query);
+      for (Dataset ds : sourceResults)
+      {
+        results.add(ds);
+      }
+      if (!LazyQueryResults.isFailed(sourceResults))
+      {
+        store(key, results);
+      }
+    }
+    return new QueryResultsList(Collections.unmodifiableList(results));
+  }
+
+  /**
+   * Cached queries are answered from the cache, the others are passed to the source together.
+   */
+  @Override
+  public List<QueryResults> findAll(List<List<QueryPart>> queries)
+  {
+    List<QueryResults> results = new ArrayList<>(Collections.nCopies(queries.size(), null));
+    List<Integer> missing = new ArrayList<>();
+    for (int i = 0; i < queries.size(); i++)
+    {
+      List<Dataset> cached = lookup(normalize(queries.get(i)));
+      if (cached == null)
+      {
+        missing.add(i);
+      } else
+      {
+        results.set(i, new QueryResultsList(Collections.unmodifiableList(cached)));
+      }
+    }
+
+    if (!missing.isEmpty())
+    {
+      List<List<QueryPart>> missingQueries = new ArrayList<>(missing.size());
+      missing.forEach(i -> missingQueries.add(queries.get(i)));
+      List<QueryResults> found = source.findAll(missingQueries);
+      for (int j = 0; j < missing.size(); j++)
+      {
+        List<Dataset> datasets = new ArrayList<>();
+        found.get(j).forEach(datasets::add);
+        if (!LazyQueryResults.isFailed(found.get(j)))
+        {
+          store(normalize(missingQueries.get(j)), datasets);
+        }
+        results.set(missing.get(j), new QueryResultsList(Collections.unmodifiableList(datasets)));
+      }
+    }
+    return results;
+  }
+
+  @Override
+  protected Datasource getWrappedDatasource()
+  {
+    return source;
+  }
+
+  @Override
+  public String getName()
+  {
+    return name;
+  }
+
+  /**
+   * Drop all cached results.
+   */
+  public synchronized void clear()
+  {
+    cache.clear();
+    bytes = 0;
+  }
+
+  /**
+   * Statistics of the cache for error reports.
+   *
+   * @return A single line with the number of hits, misses, entries and so on.
+   */
+  public synchronized String getStatistics()
+  {
+    long lookups = hits + misses;
+    return String.format("%s (SOURCE %s): hits=%d, misses=%d, hit rate=%d%%, entries=%d, "
+        + "bytes=%d, evictions=%d", name, source.getName(), hits, misses,
+        lookups == 0 ? 0 : hits * 100 / lookups, cache.size(), bytes, evictions);
+  }
+
+  /**
+   * A query with its parts in a defined order, so that equal queries have equal keys.
+   */
+  private static List<List<String>> normalize(List<QueryPart> query)
+  {
+    Set<List<String>> parts = new LinkedHashSet<>();
+    for (QueryPart part : query)
+    {
+      parts.add(List.of(part.getColumnName(), part.getSearchString()));
+    }
+    List<List<String>> key = new ArrayList<>(parts);
+    key.sort(Comparator.<List<String>, String> comparing(p -> p.get(0))
+        .thenComparing(p -> p.get(1)));
+    return key;
+  }
+
+  /**
+   * Get cached results.
+   *
+   * @return The results or null, if there are none or they have expired.
+   */
+  private synchronized List<Dataset> lookup(Object key)
+  {
+    Entry entry = cache.get(key);
+    if (entry != null && entry.expires - clock.getAsLong() > 0)
+    {
+      ++hits;
+      return entry.datasets;
+    }
+    if (entry != null)
+    {
+      remove(key);
+    }
+    ++misses;
+    return null;
+  }
+
+  private synchronized void store(Object key, List<Dataset> datasets)
+  {
+    long lifetime = datasets.isEmpty() ? negativeTtl : ttl;
+    if (lifetime == 0 || maxEntries == 0)
+    {
+      return;
+    }
+    Entry entry = new Entry(datasets, clock.getAsLong() + lifetime, weigh(key, datasets));
+    if (entry.bytes > maxBytes)
+    {
+      return;
+    }
+    remove(key);
+    cache.put(key, entry);
+    bytes += entry.bytes;
+
+    Iterator<Entry> iter = cache.values().iterator();
+    while ((cache.size() > maxEntries || bytes > maxBytes) && iter.hasNext())
+    {
+      bytes -= iter.next().bytes;
+      iter.remove();
+      ++evictions;
+    }
+  }
+
+  private void remove(Object key)
+  {
+    Entry old = cache.remove(key);
+    if (old != null)
+    {
+      bytes -= old.bytes;
+    }
+  }
+
+  /**
+   * Estimate the memory used by a cache entry. Strings are counted with two bytes per character.
+   */
+  private long weigh(Object key, List<Dataset> datasets)
+  {
+    long weight = OVERHEAD + 2L * key.toString().length();
+    for (Dataset ds : datasets)
+    {
+      weight += OVERHEAD + 2L * Objects.toString(ds.getKey(), "").length();
+      for (String column : schema)
+      {
+        try
+        {
+          weight += 2L * Objects.toString(ds.get(column), "").length();
+        } catch (ColumnNotFoundException e)
+        {
+          // doesn't use memory
+        }
+      }
+    }
+    return weight;
+  }
+
+  private static class Entry
+  {
+    private final List<Dataset> datasets;
+
+    private final long expires;
+
+    private final long bytes;
+
+    Entry(List<Dataset> datasets, long expires, long bytes)
+    {
+      this.datasets = datasets;
+      this.expires = expires;
+      this.bytes = bytes;
+    }
+  }
+}
@@ -0,0 +1,408 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.db;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Index of the values of one column of a {@link RAMDatasource}. The values are folded to lower
+ * case by {@link DatasetPredicate#fold(String)}. The values themselves and the suffixes of all
+ * values are sorted, so that the datasets whose value starts with a string or is equal to it are
+ * found by binary search in the values, and the datasets whose value contains a string or ends
+ * with it by binary search in the suffixes. The index is a snapshot of the datasets at the time of
+ * its creation.
+ */
+final class ColumnIndex
+{
+  /** Partitions with fewer suffixes are sorted by insertion sort. */
+  private static final int INSERTION_SORT_THRESHOLD = 16;
+
+  /** The folded values one after another. */
+  private final char[] text;
+
+  /**
+   * The position of each indexed value in {@link #text} in ascending order, followed by the length
+   * of the text. So value i ends at {@code valueStarts[i + 1]}.
+   */
+  private final int[] valueStarts;
+
+  /** The index of the dataset of each indexed value. */
+  private final int[] rows;
+
+  /** The indexed values in lexicographic order. */
+  private final int[] sortedValues;
+
+  /**
+   * The start positions of all non-empty suffixes in lexicographic order. A suffix ends with its
+   * value.
+   */
+  private final int[] suffixes;
+
+  private final int size;
+
+  /**
+   * Create the index of a column.
+   *
+   * @param data
+   *          The datasets.
+   * @param column
+   *          The column. Datasets without this column aren't indexed.
+   */
+  ColumnIndex(List<Dataset> data, String column)
+  {
+    size = data.size();
+    StringBuilder buffer = new StringBuilder();
+    int[] starts = new int[size + 1];
+    int[] indexedRows = new int[size];
+    int count = 0;
+    for (int row = 0; row < size; row++)
+    {
+      String value;
+      try
+      {
+        value = data.get(row).get(column);
+      } catch (ColumnNotFoundException e)
+      {
+        value = null;
+      }
+      if (value == null)
+      {
+        continue;
+      }
+      starts[count] = buffer.length();
+      indexedRows[count++] = row;
+      buffer.append(DatasetPredicate.fold(value));
+    }
+    starts[count] = buffer.length();
+    valueStarts = Arrays.copyOf(starts, count + 1);
+    rows = Arrays.copyOf(indexedRows, count);
+    text = new char[buffer.length()];
+    buffer.getChars(0, buffer.length(), text, 0);
+
+    int[] ends = new int[text.length];
+    suffixes = new int[text.length];
+    for (int value = 0; value < count; value++)
+    {
+      for (int i = valueStarts[value]; i < valueStarts[value + 1]; i++)
+      {
+        ends[i] = valueStarts[value + 1];
+        suffixes[i] = i;
+      }
+    }
+    sort(suffixes, ends, 0, suffixes.length, 0);
+
+    // the empty values come first, the others in the order of their first suffix
+    sortedValues = new int[count];
+    int next = 0;
+    for (int value = 0; value < count; value++)
+    {
+      if (valueStarts[value] == valueStarts[value + 1])
+      {
+        sortedValues[next++] = value;
+      }
+    }
+    for (int suffix : suffixes)
+    {
+      int value = valueAt(suffix);
+      if (valueStarts[value] == suffix)
+      {
+        sortedValues[next++] = value;
+      }
+    }
+  }
+
+  /**
+   * Estimate the number of datasets which would be returned by
+   * {@link #lookup(String, boolean, boolean)}. The estimate is never lower than the real number.
+   *
+   * @return The estimate.
+   */
+  int estimate(String folded, boolean atStart, boolean atEnd)
+  {
+    char[] pattern = folded.toCharArray();
+    if (atStart || pattern.length == 0)
+    {
+      return upperBoundValue(pattern, atStart && atEnd) - lowerBoundValue(pattern);
+    }
+    return upperBoundSuffix(pattern, atEnd) - lowerBoundSuffix(pattern);
+  }
+
+  /**
+   * Find the datasets whose folded value contains a string.
+   *
+   * @param folded
+   *          The folded string.
+   * @param atStart
+   *          Does the value have to start with the string?
+   * @param atEnd
+   *          Does the value have to end with the string?
+   * @return The indexes of the datasets in ascending order.
+   */
+  int[] lookup(String folded, boolean atStart, boolean atEnd)
+  {
+    char[] pattern = folded.toCharArray();
+    BitSet found = new BitSet(size);
+    if (atStart || pattern.length == 0)
+    {
+      for (int i = lowerBoundValue(pattern), end = upperBoundValue(pattern, atStart && atEnd);
+          i < end; i++)
+      {
+        found.set(rows[sortedValues[i]]);
+      }
+    } else
+    {
+      for (int i = lowerBoundSuffix(pattern), end = upperBoundSuffix(pattern, atEnd); i < end;
+          i++)
+      {
+        found.set(rows[valueAt(suffixes[i])]);
+      }
+    }
+    return found.stream().toArray();
+  }
+
+  /**
+   * The value which contains a position of the text.
+   */
+  private int valueAt(int position)
+  {
+    // the last value starting at or before the position, empty values are skipped this way
+    int low = 0;
+    int high = valueStarts.length - 1;
+    while (low < high)
+    {
+      int mid = (low + high + 1) >>> 1;
+      if (valueStarts[mid] <= position)
+      {
+        low = mid;
+      } else
+      {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Sort suffixes with a multikey quicksort, which compares each character only once per
+   * partition.
+   *
+   * @param ends
+   *          The end of the value of each position.
+   * @param depth
+   *          The number of characters which are equal in all suffixes of the partition.
+   */
+  private void sort(int[] a, int[] ends, int from, int to, int depth)
+  {
+    while (to - from > INSERTION_SORT_THRESHOLD)
+    {
+      int pivot = charAt(a[(from + to) >>> 1], ends, depth);
+      int lt = from;
+      int gt = to;
+      int i = from;
+      while (i < gt)
+      {
+        int c = charAt(a[i], ends, depth);
+        if (c < pivot)
+        {
+          swap(a, lt++, i++);
+        } else if (c > pivot)
+        {
+          swap(a, i, --gt);
+        } else
+        {
+          i++;
+        }
+      }
+      sort(a, ends, from, lt, depth);
+      sort(a, ends, gt, to, depth);
+      if (pivot < 0)
+      {
+        // all suffixes of the middle partition have ended
+        return;
+      }
+      from = lt;
+      to = gt;
+      depth++;
+    }
+    for (int i = from + 1; i < to; i++)
+    {
+      for (int j = i; j > from && compareSuffixes(a[j - 1], a[j], ends, depth) > 0; j--)
+      {
+        swap(a, j - 1, j);
+      }
+    }
+  }
+
+  /**
+   * The character of a suffix at some depth or -1 if the suffix is shorter.
+   */
+  private int charAt(int suffix, int[] ends, int depth)
+  {
+    int i = suffix + depth;
+    return i < ends[suffix] ? text[i] : -1;
+  }
+
+  private int compareSuffixes(int a, int b, int[] ends, int depth)
+  {
+    for (int d = depth;; d++)
+    {
+      int x = charAt(a, ends, d);
+      int y = charAt(b, ends, d);
+      if (x != y || x < 0)
+      {
+        return x - y;
+      }
+    }
+  }
+
+  private static void swap(int[] a, int i, int j)
+  {
+    int tmp = a[i];
+    a[i] = a[j];
+    a[j] = tmp;
+  }
+
+  /**
+   * Compare the text between two positions with a pattern.
+   *
+   * @param prefix
+   *          If true, a text which starts with the pattern is equal to it.
+   * @return 0 if the text is equal to the pattern (or starts with it).
+   */
+  private int compare(int start, int end, char[] pattern, boolean prefix)
+  {
+    for (int k = 0; k < pattern.length; k++)
+    {
+      if (start + k >= end)
+      {
+        return -1;
+      }
+      char x = text[start + k];
+      if (x != pattern[k])
+      {
+        return x - pattern[k];
+      }
+    }
+    return prefix || start + pattern.length == end ? 0 : 1;
+  }
+
+  private int compareValue(int i, char[] pattern, boolean prefix)
+  {
+    int value = sortedValues[i];
+    return compare(valueStarts[value], valueStarts[value + 1], pattern, prefix);
+  }
+
+  private int compareSuffix(int i, char[] pattern, boolean prefix)
+  {
+    int suffix = suffixes[i];
+    return compare(suffix, valueStarts[valueAt(suffix) + 1], pattern, prefix);
+  }
+
+  /**
+   * The first value which is equal to the pattern or starts with it.
+   */
+  private int lowerBoundValue(char[] pattern)
+  {
+    int low = 0;
+    int high = sortedValues.length;
+    while (low < high)
+    {
+      int mid = (low + high) >>> 1;
+      if (compareValue(mid, pattern, true) < 0)
+      {
+        low = mid + 1;
+      } else
+      {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * The first value after the values which are equal to the pattern or, if {@code exact} is
+   * false, start with it.
+   */
+  private int upperBoundValue(char[] pattern, boolean exact)
+  {
+    int low = 0;
+    int high = sortedValues.length;
+    while (low < high)
+    {
+      int mid = (low + high) >>> 1;
+      if (compareValue(mid, pattern, !exact) <= 0)
+      {
+        low = mid + 1;
+      } else
+      {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * The first suffix which is equal to the pattern or starts with it.
+   */
+  private int lowerBoundSuffix(char[] pattern)
+  {
+    int low = 0;
+    int high = suffixes.length;
+    while (low < high)
+    {
+      int mid = (low + high) >>> 1;
+      if (compareSuffix(mid, pattern, true) < 0)
+      {
+        low = mid + 1;
+      } else
+      {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * The first suffix after the suffixes which are equal to the pattern or, if {@code exact} is
+   * false, start with it.
+   */
+  private int upperBoundSuffix(char[] pattern, boolean exact)
+  {
+    int low = 0;
+    int high = suffixes.length;
+    while (low < high)
+    {
+      int mid = (low + high) >>> 1;
+      if (compareSuffix(mid, pattern, !exact) <= 0)
+      {
+        low = mid + 1;
+      } else
+      {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
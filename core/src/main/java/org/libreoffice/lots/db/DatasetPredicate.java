@@ -22,9 +22,10 @@
  */
 package org.libreoffice.lots.db;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.function.Predicate;
-import java.util.regex.Pattern;
 
 /**
  *
@@ -43,27 +44,196 @@ public class DatasetPredicate
    * Matches a List of {@link QueryPart} against a given {@link Dataset}. Invalid * character in
    * QueryPart's search string are filtered out.
    *
+   * The search strings are compared literally and case insensitive. A search string starting with
+   * * and not ending with * only matches values ending with it, a search string ending with * and
+   * not starting with * only matches values starting with it. All other search strings match
+   * values containing them. The query parts are tested in the order of their estimated
+   * selectivity.
+   *
    * @param query
    *          List of {@link QueryPart}
    * @return Predicate for a dataset.
    */
   public static Predicate<Dataset> makePredicate(List<QueryPart> query)
   {
-    return query.stream().map(part -> {
-      @SuppressWarnings("squid:S1488")
-      Predicate<Dataset> pred = (Dataset ds) -> {
-        try
-        {
-          return Pattern.compile(part.getSearchString().replace("*", "").toLowerCase())
-              .matcher(ds.get(part.getColumnName()).toLowerCase())
-              .find();
-        } catch (ColumnNotFoundException ex)
+    return matchAllOf(compile(query));
+  }
+
+  /**
+   * Combines matchers.
+   *
+   * @return Predicate matching datasets which match all matchers.
+   */
+  static Predicate<Dataset> matchAllOf(List<PartMatcher> matchers)
+  {
+    if (matchers.isEmpty())
+    {
+      return matchAll;
+    }
+    PartMatcher[] array = matchers.toArray(new PartMatcher[0]);
+    return (Dataset ds) -> {
+      for (PartMatcher matcher : array)
+      {
+        if (!matcher.test(ds))
         {
           return false;
         }
-      };
+      }
+      return true;
+    };
+  }
+
+  /**
+   * Analyze the parts of a query.
+   *
+   * @return A matcher for each query part, the most selective first.
+   */
+  static List<PartMatcher> compile(List<QueryPart> query)
+  {
+    List<PartMatcher> matchers = new ArrayList<>(query.size());
+    for (QueryPart part : query)
+    {
+      matchers.add(new PartMatcher(part));
+    }
+    matchers.sort(Comparator.comparingInt(PartMatcher::getRank)
+        .thenComparing(Comparator.comparingInt((PartMatcher m) -> m.getNeedle().length()).reversed()));
+    return matchers;
+  }
 
-      return pred;
-    }).reduce(matchAll, Predicate::and);
+  /**
+   * Fold a string to lower case character by character, so that the length doesn't change.
+   */
+  static String fold(String value)
+  {
+    char[] chars = value.toCharArray();
+    for (int i = 0; i < chars.length; i++)
+    {
+      chars[i] = fold(chars[i]);
+    }
+    return new String(chars);
+  }
+
+  private static char fold(char c)
+  {
+    if (c < 128)
+    {
+      return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+    return Character.toLowerCase(Character.toUpperCase(c));
+  }
+
+  /**
+   * Tests the value of one column against a literal search string.
+   */
+  static final class PartMatcher implements Predicate<Dataset>
+  {
+    private final String column;
+
+    private final String needle;
+
+    private final char[] chars;
+
+    private final boolean atStart;
+
+    private final boolean atEnd;
+
+    PartMatcher(QueryPart part)
+    {
+      column = part.getColumnName();
+      String search = part.getSearchString();
+      boolean starAtStart = search.startsWith("*");
+      boolean starAtEnd = search.length() > 1 && search.endsWith("*");
+      atStart = starAtEnd && !starAtStart;
+      atEnd = starAtStart && !starAtEnd;
+      needle = fold(search.replace("*", ""));
+      chars = needle.toCharArray();
+    }
+
+    String getColumn()
+    {
+      return column;
+    }
+
+    /**
+     * The search string without * folded to lower case.
+     */
+    String getNeedle()
+    {
+      return needle;
+    }
+
+    /**
+     * Does the value have to start with the needle?
+     */
+    boolean isAtStart()
+    {
+      return atStart;
+    }
+
+    /**
+     * Does the value have to end with the needle?
+     */
+    boolean isAtEnd()
+    {
+      return atEnd;
+    }
+
+    /**
+     * Anchored matchers are tested first, matchers of empty search strings last.
+     */
+    private int getRank()
+    {
+      if (chars.length == 0)
+      {
+        return 2;
+      }
+      return atStart || atEnd ? 0 : 1;
+    }
+
+    @Override
+    public boolean test(Dataset ds)
+    {
+      String value;
+      try
+      {
+        value = ds.get(column);
+      } catch (ColumnNotFoundException ex)
+      {
+        return false;
+      }
+      if (value == null)
+      {
+        return false;
+      }
+      int last = value.length() - chars.length;
+      if (atStart)
+      {
+        return last >= 0 && matchesAt(value, 0);
+      }
+      if (atEnd)
+      {
+        return last >= 0 && matchesAt(value, last);
+      }
+      for (int i = 0; i <= last; i++)
+      {
+        if (matchesAt(value, i))
+        {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private boolean matchesAt(String value, int offset)
+    {
+      for (int i = 0; i < chars.length; i++)
+      {
+        if (fold(value.charAt(offset + i)) != chars[i])
+        {
+          return false;
+        }
+      }
+      return true;
+    }
   }
 }
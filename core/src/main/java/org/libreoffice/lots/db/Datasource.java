@@ -22,6 +22,7 @@
  */
 package org.libreoffice.lots.db;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.function.Supplier;
@@ -30,6 +31,7 @@ import org.libreoffice.lots.WollMuxFiles;
 import org.libreoffice.lots.config.ConfigThingy;
 import org.libreoffice.lots.config.ConfigurationErrorException;
 import org.libreoffice.lots.config.NodeNotFoundException;
+import org.libreoffice.lots.util.L;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -58,7 +60,9 @@ public abstract class Datasource
 
   private static final Logger LOGGER = LoggerFactory.getLogger(Datasource.class);
 
-  private static Long datasourceTimeout = null;
+  private static volatile Long datasourceTimeout = null;
+
+  private DatasourceExecutor executor;
 
   /**
    * Returns a list containing the titles of all columns in the data source.
@@ -87,6 +91,25 @@ public abstract class Datasource
    */
   public abstract QueryResults find(List<QueryPart> query);
 
+  /**
+   * Runs several queries at once, for example to look up the partners of many records in a join.
+   * Data sources which can combine the queries into fewer requests should override this method.
+   * The default implementation calls {@link #find(List)} for each query.
+   *
+   * @param queries
+   *          The queries, each one as described for {@link #find(List)}.
+   * @return The results of each query in the order of the queries.
+   */
+  public List<QueryResults> findAll(List<List<QueryPart>> queries)
+  {
+    List<QueryResults> results = new ArrayList<>(queries.size());
+    for (List<QueryPart> query : queries)
+    {
+      results.add(find(query));
+    }
+    return results;
+  }
+
   /**
    * Returns an implementation-dependent subset of records from the data source.
    * Ideally, the data source should return all of its records here, or at least as many as possible.
@@ -99,6 +122,46 @@ public abstract class Datasource
    */
   public abstract String getName();
 
+  /**
+   * Returns the data source which is wrapped by this data source, e.g. the SOURCE of a cache or the
+   * SOURCE1 of a union.
+   *
+   * @return The wrapped data source or null, if this data source doesn't wrap another one.
+   */
+  protected Datasource getWrappedDatasource()
+  {
+    return null;
+  }
+
+  /**
+   * Returns the executor on which the asynchronous work of this data source runs. If none has been
+   * set, a data source which wraps another data source shares its executor, so that its queries
+   * stay within the limits of the wrapped data source. Otherwise an executor with the default
+   * limits is created.
+   */
+  public synchronized DatasourceExecutor getExecutor()
+  {
+    if (executor == null)
+    {
+      Datasource wrapped = getWrappedDatasource();
+      executor = wrapped != null ? wrapped.getExecutor()
+          : new DatasourceExecutor(getName(), DatasourceExecutor.DEFAULT_MAX_CONCURRENCY,
+              DatasourceExecutor.DEFAULT_MAX_QUEUE);
+    }
+    return executor;
+  }
+
+  /**
+   * Sets the executor on which the asynchronous work of this data source runs.
+   *
+   * @param executor
+   *          The executor.
+   */
+  public synchronized void setExecutor(DatasourceExecutor executor)
+  {
+    this.executor = executor;
+  }
+
   /**
    * Gets datasource value by given {@link ConfigThingy} and key.
    *
@@ -115,22 +178,61 @@ public abstract class Datasource
     return source.get(key, ConfigurationErrorException.class, errorMessage.get()).toString();
   }
 
+  /**
+   * Gets a non-negative integer value of a datasource by given {@link ConfigThingy} and key.
+   *
+   * @param source
+   *          {@link ConfigThingy} that should contain a configured datasource.
+   * @param name
+   *          Name of the datasource, which is used in the error message.
+   * @param key
+   *          Key of the value, i.e. 'TTL'.
+   * @param defaultValue
+   *          Value if the key is missing.
+   * @return The value.
+   * @throws ConfigurationErrorException
+   *           The value isn't a non-negative integer.
+   */
+  protected static long parseNumber(ConfigThingy source, String name, String key,
+      long defaultValue)
+  {
+    String value = source.getString(key, null);
+    if (value == null)
+    {
+      return defaultValue;
+    }
+    try
+    {
+      long number = Long.parseLong(value.trim());
+      if (number >= 0)
+      {
+        return number;
+      }
+    } catch (NumberFormatException e)
+    {
+      // handled below
+    }
+    throw new ConfigurationErrorException(
+        L.m("{0} of data source {1} has to be a non-negative integer", key, name));
+  }
+
   public static long getDatasourceTimeout()
   {
-    if (datasourceTimeout == null)
+    Long timeout = datasourceTimeout;
+    if (timeout == null)
     {
-      datasourceTimeout = 10000l;
+      timeout = 10000l;
       ConfigThingy dataSourceTimeout = WollMuxFiles.getWollmuxConf().query("DATASOURCE_TIMEOUT", 1);
       try
       {
-        long timeout = Long.parseLong(dataSourceTimeout.getLastChild().toString());
+        long configured = Long.parseLong(dataSourceTimeout.getLastChild().toString());
 
-        if (timeout <= 0)
+        if (configured <= 0)
         {
           LOGGER.error("DATASOURCE_TIMEOUT has to be greater than 0");
         } else
         {
-          datasourceTimeout = timeout;
+          timeout = configured;
         }
       } catch (NodeNotFoundException e)
       {
@@ -139,7 +241,17 @@ public abstract class Datasource
       {
         LOGGER.error("DATASOURCE_TIMEOUT has to be an integer number");
       }
+      datasourceTimeout = timeout;
     }
-    return datasourceTimeout;
+    return timeout;
+  }
+
+  /**
+   * Read the timeout from the configuration again on the next call of
+   * {@link #getDatasourceTimeout()}.
+   */
+  public static void invalidateDatasourceTimeout()
+  {
+    datasourceTimeout = null;
   }
 }
@@ -0,0 +1,214 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.db;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.libreoffice.lots.config.ConfigThingy;
+import org.libreoffice.lots.config.ConfigurationErrorException;
+import org.libreoffice.lots.util.L;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The threads on which the asynchronous work of one {@link Datasource} runs (a bulkhead). At most
+ * MAX_CONCURRENCY tasks run at the same time and at most MAX_QUEUE tasks wait for a thread.
+ * Further tasks are rejected. So a data source which hangs, like an unreachable LDAP server,
+ * blocks only its own threads and not the searches of other data sources.
+ *
+ * The limits are configured in the DataSource section, e.g.
+ *
+ * <pre>
+ * DataSource(NAME "ldap" TYPE "ldap" ... MAX_CONCURRENCY "2" MAX_QUEUE "20")
+ * </pre>
+ *
+ * A data source which wraps another one, like a cache, shares the executor of the wrapped data
+ * source unless it has its own limits.
+ */
+public class DatasourceExecutor implements Executor
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(DatasourceExecutor.class);
+
+  /**
+   * Default number of tasks which run concurrently.
+   */
+  public static final int DEFAULT_MAX_CONCURRENCY = 4;
+
+  /**
+   * Default number of tasks which wait for a thread.
+   */
+  public static final int DEFAULT_MAX_QUEUE = 100;
+
+  private final String name;
+
+  private final ThreadPoolExecutor executor;
+
+  private final AtomicLong rejected = new AtomicLong();
+
+  /**
+   * A new executor.
+   *
+   * @param name
+   *          The name of the data source, which is used as name of the threads.
+   * @param maxConcurrency
+   *          The maximum number of tasks which run concurrently. Has to be greater than 0.
+   * @param maxQueue
+   *          The maximum number of tasks which wait for a thread.
+   */
+  public DatasourceExecutor(String name, int maxConcurrency, int maxQueue)
+  {
+    this.name = name;
+    BlockingQueue<Runnable> queue = maxQueue == 0 ? new SynchronousQueue<>()
+        : new ArrayBlockingQueue<>(maxQueue);
+    executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 60, TimeUnit.SECONDS, queue,
+        r -> {
+          Thread thread = new Thread(r, "WollMux data source " + name);
+          thread.setDaemon(true);
+          return thread;
+        }, (r, e) -> {
+          rejected.incrementAndGet();
+          throw new RejectedExecutionException(
+              L.m("Data source {0} is busy, the task has been rejected", name));
+        });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Create the executor of a data source from its description.
+   *
+   * @param name
+   *          The name of the data source.
+   * @param sourceDesc
+   *          The "DataSource" node, which may contain MAX_CONCURRENCY and MAX_QUEUE.
+   * @return The executor.
+   * @throws ConfigurationErrorException
+   *           The limits are invalid.
+   */
+  public static DatasourceExecutor create(String name, ConfigThingy sourceDesc)
+  {
+    int maxConcurrency = (int) Math.min(Integer.MAX_VALUE,
+        Datasource.parseNumber(sourceDesc, name, "MAX_CONCURRENCY", DEFAULT_MAX_CONCURRENCY));
+    if (maxConcurrency == 0)
+    {
+      throw new ConfigurationErrorException(
+          L.m("MAX_CONCURRENCY of data source {0} has to be greater than 0", name));
+    }
+    int maxQueue = (int) Math.min(Integer.MAX_VALUE,
+        Datasource.parseNumber(sourceDesc, name, "MAX_QUEUE", DEFAULT_MAX_QUEUE));
+    return new DatasourceExecutor(name, maxConcurrency, maxQueue);
+  }
+
+  /**
+   * Does the description of a data source contain MAX_CONCURRENCY or MAX_QUEUE?
+   */
+  public static boolean hasLimits(ConfigThingy sourceDesc)
+  {
+    return sourceDesc.query("MAX_CONCURRENCY").count() > 0
+        || sourceDesc.query("MAX_QUEUE").count() > 0;
+  }
+
+  /**
+   * Run a task on a thread of the data source.
+   *
+   * @throws RejectedExecutionException
+   *           All threads are busy and the queue is full.
+   */
+  @Override
+  public void execute(Runnable command)
+  {
+    executor.execute(command);
+  }
+
+  /**
+   * Run a task on a thread of the data source.
+   *
+   * @return The future of the task, which can be used to interrupt it.
+   * @throws RejectedExecutionException
+   *           All threads are busy and the queue is full.
+   */
+  public Future<?> submit(Runnable task)
+  {
+    return executor.submit(task);
+  }
+
+  /**
+   * Compute a value on a thread of the data source.
+   *
+   * @param supplier
+   *          Computes the value.
+   * @return A future with the value. It completes with a {@link RejectedExecutionException} if all
+   *         threads are busy and the queue is full.
+   */
+  public <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier)
+  {
+    try
+    {
+      return CompletableFuture.supplyAsync(supplier, executor);
+    } catch (RejectedExecutionException e)
+    {
+      LOGGER.warn("Task rejected. {}", this);
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  /**
+   * The number of tasks which are running.
+   */
+  public int getActiveCount()
+  {
+    return executor.getActiveCount();
+  }
+
+  /**
+   * The number of tasks which wait for a thread.
+   */
+  public int getQueuedCount()
+  {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * The number of tasks which have been rejected since the executor has been created.
+   */
+  public long getRejectedCount()
+  {
+    return rejected.get();
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("Data source %s: %d active, %d queued, %d rejected tasks", name,
+        getActiveCount(), getQueuedCount(), getRejectedCount());
+  }
+}
@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.libreoffice.lots.WollMuxFiles;
+import org.libreoffice.lots.config.ConfigQuery;
 import org.libreoffice.lots.config.ConfigThingy;
 import org.libreoffice.lots.util.L;
 import org.slf4j.Logger;
@@ -40,6 +41,13 @@ public class Datasources
 
   private static final Logger LOGGER = LoggerFactory.getLogger(Datasources.class);
 
+  private static final ConfigQuery DATASOURCES =
+      ConfigQuery.compileNearest("//DataSources//DataSource");
+
+  /**
+   * The data sources of the current configuration. Null if they haven't been created yet or the
+   * configuration has changed.
+   */
   private static Map<String, Datasource> datasources = null;
 
   private Datasources()
@@ -48,23 +56,62 @@ public class Datasources
   }
 
   /**
-   * Parse the configuration for {@link Datasource} definitions.
+   * Parse the configuration for {@link Datasource} definitions. The data sources are created only
+   * once until {@link #invalidate()} is called.
    *
    * @return Mapping from data source name to {@link Datasource}.
    */
-  public static Map<String, Datasource> getDatasources()
+  public static synchronized Map<String, Datasource> getDatasources()
   {
     if (datasources != null)
     {
       return datasources;
     }
 
+    datasources = createDatasources();
+    return datasources;
+  }
+
+  /**
+   * The data sources which have already been created. In contrast to {@link #getDatasources()}
+   * no data sources are created.
+   *
+   * @return Mapping from data source name to {@link Datasource}, maybe empty.
+   */
+  public static synchronized Map<String, Datasource> getCreatedDatasources()
+  {
+    return datasources == null ? Map.of() : datasources;
+  }
+
+  /**
+   * Forget all data sources, so that they are created from the configuration again on the next
+   * call of {@link #getDatasources()}. Data sources which are in use aren't affected.
+   */
+  public static synchronized void invalidate()
+  {
+    datasources = null;
+  }
+
+  private static Map<String, Datasource> createDatasources()
+  {
+    return createDatasources(WollMuxFiles.getWollmuxConf(), WollMuxFiles.getDefaultContext());
+  }
+
+  /**
+   * Create the data sources of a configuration.
+   *
+   * @param joinConf
+   *          The configuration.
+   * @param context
+   *          The context of relative URLs.
+   * @return Mapping from data source name to {@link Datasource}, which is null if the data source
+   *         couldn't be created.
+   */
+  static Map<String, Datasource> createDatasources(ConfigThingy joinConf, URL context)
+  {
     HashMap<String, Datasource> datasources = new HashMap<>();
-    ConfigThingy joinConf = WollMuxFiles.getWollmuxConf();
-    URL context = WollMuxFiles.getDefaultContext();
 
-    ConfigThingy datenquellen = joinConf.query("DataSources").query("DataSource");
-    for (ConfigThingy sourceDesc : datenquellen)
+    for (ConfigThingy sourceDesc : DATASOURCES.in(joinConf))
     {
       String name = sourceDesc.getString("NAME");
       String type = sourceDesc.getString("TYPE");
@@ -77,6 +124,7 @@ public class Datasources
       Datasource ds = null;
       try
       {
+        DatasourceExecutor executor = DatasourceExecutor.create(name, sourceDesc);
         switch (type)
         {
         case "conf":
@@ -106,10 +154,21 @@ public class Datasources
         case "funky":
           ds = new FunkyDatasource(datasources, sourceDesc);
           break;
+        case "cache":
+          ds = new CacheDatasource(datasources, sourceDesc);
+          break;
+        case "replica":
+          ds = new ReplicaDatasource(datasources, sourceDesc);
+          break;
         default:
           LOGGER.error("Unsupported data source type: {}", type);
           break;
         }
+        if (ds != null
+            && (ds.getWrappedDatasource() == null || DatasourceExecutor.hasLimits(sourceDesc)))
+        {
+          ds.setExecutor(executor);
+        }
       } catch (Exception x)
       {
         LOGGER.error("Error during initialization of data source '{}' (Type '{}'):", name, type, x);
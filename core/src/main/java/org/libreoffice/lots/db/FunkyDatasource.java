@@ -127,6 +127,12 @@ public class FunkyDatasource extends Datasource
     return columnTransformer.transform(source.find(query));
   }
 
+  @Override
+  protected Datasource getWrappedDatasource()
+  {
+    return source;
+  }
+
   @Override
   public String getName()
   {
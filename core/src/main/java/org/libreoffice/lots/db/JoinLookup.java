@@ -0,0 +1,117 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.db;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Looks up the datasets of another data source which match a list of datasets, as needed by
+ * {@link OverlayDatasource} and {@link AttachDatasource}. Instead of one search per dataset, the
+ * match values of all datasets are collected, the distinct combinations are searched together with
+ * {@link Datasource#findAll(List)} and the results are joined via a hash map. So every dataset
+ * gets exactly the results a search of its own would have returned, in the same order.
+ */
+class JoinLookup
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(JoinLookup.class);
+
+  private final Datasource source;
+
+  private final String[] columns;
+
+  private final String[] sourceColumns;
+
+  /**
+   * New lookup.
+   *
+   * @param source
+   *          The data source which is searched.
+   * @param columns
+   *          The match columns of the datasets.
+   * @param sourceColumns
+   *          The match columns of the data source, sourceColumns[i] has to match columns[i].
+   */
+  JoinLookup(Datasource source, String[] columns, String[] sourceColumns)
+  {
+    this.source = source;
+    this.columns = columns;
+    this.sourceColumns = sourceColumns;
+  }
+
+  /**
+   * Find the matching datasets of the source.
+   *
+   * @param datasets
+   *          The datasets.
+   * @return For each dataset the list of matching datasets of the source.
+   */
+  List<List<Dataset>> lookup(List<Dataset> datasets)
+  {
+    List<List<QueryPart>> queries = new ArrayList<>(datasets.size());
+    Map<List<QueryPart>, List<Dataset>> matches = new LinkedHashMap<>();
+    for (Dataset ds : datasets)
+    {
+      List<QueryPart> query = matchQuery(ds);
+      queries.add(query);
+      matches.put(query, null);
+    }
+
+    List<List<QueryPart>> distinct = new ArrayList<>(matches.keySet());
+    List<QueryResults> found = source.findAll(distinct);
+    for (int i = 0; i < distinct.size(); i++)
+    {
+      List<Dataset> results = new ArrayList<>();
+      found.get(i).forEach(results::add);
+      matches.put(distinct.get(i), results);
+    }
+
+    List<List<Dataset>> joined = new ArrayList<>(datasets.size());
+    for (List<QueryPart> query : queries)
+    {
+      joined.add(matches.get(query));
+    }
+    return joined;
+  }
+
+  private List<QueryPart> matchQuery(Dataset ds)
+  {
+    List<QueryPart> query = new ArrayList<>(columns.length);
+    for (int i = 0; i < columns.length; ++i)
+    {
+      try
+      {
+        query.add(new QueryPart(sourceColumns[i], ds.get(columns[i])));
+      } catch (ColumnNotFoundException x)
+      {
+        LOGGER.error("", x);
+      }
+    }
+    return query;
+  }
+}
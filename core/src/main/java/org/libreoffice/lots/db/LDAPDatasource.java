@@ -22,32 +22,48 @@
  */
 package org.libreoffice.lots.db;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.NoSuchElementException;
 import java.util.Properties;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 import javax.naming.Context;
 import javax.naming.Name;
-import javax.naming.NameParser;
+import javax.naming.InvalidNameException;
+import javax.naming.NameNotFoundException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.SizeLimitExceededException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
-import javax.naming.directory.DirContext;
+import javax.naming.directory.BasicAttributes;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
 import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import javax.naming.ldap.Rdn;
 
 import org.libreoffice.lots.config.ConfigThingy;
 import org.libreoffice.lots.config.ConfigurationErrorException;
@@ -59,6 +75,20 @@ import org.slf4j.LoggerFactory;
 /**
  * Data source for accessing an LDAP directory.
  *
+ * The connections to the server are pooled by JNDI, so closing a context returns its connection
+ * to the pool. Idle connections are closed after {@link #POOL_TIMEOUT} milliseconds unless the
+ * system property com.sun.jndi.ldap.connect.pool.timeout is set.
+ *
+ * Searches request their results in pages of PAGE_SIZE entries (RFC 2696, default
+ * {@link #DEFAULT_PAGE_SIZE}, 0 disables paging), so they aren't truncated by the size limit of
+ * the server. {@link #find(List)} returns {@link LazyQueryResults}, further pages are requested
+ * while the results are iterated.
+ *
+ * Columns with a relative path read their values from other nodes, usually parents like the
+ * organisational unit. The distinct nodes needed by a page of results are read with one search.
+ * Their attributes are cached across searches for ATTRIBUTE_CACHE_TTL seconds (default
+ * {@link #DEFAULT_ATTRIBUTE_CACHE_TTL}, 0 disables the cache).
+ *
  * @author Max Meier (D-III-ITD 5.1)
  */
 public class LDAPDatasource extends Datasource
@@ -66,6 +96,37 @@ public class LDAPDatasource extends Datasource
 
   private static final Logger LOGGER = LoggerFactory.getLogger(LDAPDatasource.class);
 
+  /** Milliseconds after which idle pooled connections are closed. */
+  private static final String POOL_TIMEOUT = "300000";
+
+  /** Number of entries per page if PAGE_SIZE isn't configured. */
+  private static final int DEFAULT_PAGE_SIZE = 500;
+
+  /** Seconds for which attributes of other nodes are cached if ATTRIBUTE_CACHE_TTL isn't set. */
+  private static final long DEFAULT_ATTRIBUTE_CACHE_TTL = 300;
+
+  /** Maximum number of nodes in {@link #attributeCache}. */
+  private static final int MAX_ATTRIBUTE_CACHE_ENTRIES = 10000;
+
+  /** Maximum number of queries which {@link #findAll(List)} combines into one search. */
+  private static final int MAX_COMBINED_QUERIES = 50;
+
+  /** Maximum number of nodes which are read with one search. */
+  private static final int ATTRIBUTE_BATCH_SIZE = 100;
+
+  static
+  {
+    // The pool reads these properties once, so they have to be set before the first connection.
+    if (System.getProperty("com.sun.jndi.ldap.connect.pool.timeout") == null)
+    {
+      System.setProperty("com.sun.jndi.ldap.connect.pool.timeout", POOL_TIMEOUT);
+    }
+    if (System.getProperty("com.sun.jndi.ldap.connect.pool.protocol") == null)
+    {
+      System.setProperty("com.sun.jndi.ldap.connect.pool.protocol", "plain ssl");
+    }
+  }
+
   private List<String> schema;
 
   private String datasourceName;
@@ -74,8 +135,35 @@ public class LDAPDatasource extends Datasource
 
   private String baseDN;
 
+  /** The parsed {@link #baseDN}. */
+  private Name rootName;
+
   private String objectClass;
 
+  /** Number of entries per page, 0 if the results aren't paged. */
+  private int pageSize = DEFAULT_PAGE_SIZE;
+
+  /** Nanoseconds for which attributes of other nodes are cached. */
+  private long attributeCacheTtl;
+
+  /**
+   * Attributes of nodes referenced by columns with a relative path. The least recently used
+   * nodes are dropped if there are more than {@link #MAX_ATTRIBUTE_CACHE_ENTRIES}.
+   */
+  private final Map<Name, CachedAttributes> attributeCache = new LinkedHashMap<>(16, 0.75f, true)
+  {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Name, CachedAttributes> eldest)
+    {
+      return size() > MAX_ATTRIBUTE_CACHE_ENTRIES;
+    }
+  };
+
+  /** The LDAP attributes of all columns with a relative path. */
+  private String[] relativeAttributes;
+
   /** Properties for the connection to the LDAP server. */
   private Properties properties = new Properties();
 
@@ -129,11 +217,6 @@ public class LDAPDatasource extends Datasource
   private static final Pattern KEY_RE = Pattern.compile("^(\\(&(\\([^()=]+[^()]*\\))+\\))?"
       + KEY_SEPARATOR_0_NON_0_RE + "([a-zA-Z_][a-zA-Z0-9_]*=.*" + SEPARATOR + ")?$");
 
-  /**
-   * temporary cache for relative attributes (is created with every new search)
-   */
-  private Map<CacheKey, Attributes> attributeCache = new HashMap<>();
-
   /**
    * Creates a new LDAP Datasource.
    *
@@ -170,6 +253,13 @@ public class LDAPDatasource extends Datasource
     {
       throw new ConfigurationErrorException(L.m("BASE_DN-value is invalid: " + baseDN));
     }
+    try
+    {
+      rootName = new LdapName(baseDN);
+    } catch (InvalidNameException e)
+    {
+      throw new ConfigurationErrorException(L.m("BASE_DN-value is invalid: " + baseDN), e);
+    }
 
     objectClass = parseConfig(sourceDesc, "OBJECT_CLASS",
         () -> errorMessage() + L.m("No OBJECT_CLASS defined."));
@@ -179,6 +269,11 @@ public class LDAPDatasource extends Datasource
           L.m("OBJECT_CLASS contains of forbidden characters: " + objectClass));
     }
 
+    pageSize = (int) Math.min(Integer.MAX_VALUE,
+        parseNumber(sourceDesc, datasourceName, "PAGE_SIZE", DEFAULT_PAGE_SIZE));
+    attributeCacheTtl = TimeUnit.SECONDS.toNanos(parseNumber(sourceDesc, datasourceName,
+        "ATTRIBUTE_CACHE_TTL", DEFAULT_ATTRIBUTE_CACHE_TTL));
+
     String user = "";
     String password = "";
     try
@@ -193,6 +288,7 @@ public class LDAPDatasource extends Datasource
     // set properties
     properties.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
     properties.put(Context.PROVIDER_URL, url);
+    properties.put("com.sun.jndi.ldap.connect.pool", "true");
 
     if (!user.isEmpty() && !password.isEmpty())
     {
@@ -326,6 +422,9 @@ public class LDAPDatasource extends Datasource
     {
       keyStatus = ABSOLUTE_AND_RELATIVE;
     }
+
+    relativeAttributes = columnDefinitions.values().stream().filter(c -> c.relativePath != 0)
+        .map(c -> c.attributeName).distinct().toArray(String[]::new);
   }
 
   /** Set the timeout properties. */
@@ -431,8 +530,6 @@ public class LDAPDatasource extends Datasource
 
     try
     {
-      attributeCache.clear();
-
       if (keyStatus == ABSOLUTE_ONLY || keyStatus == ABSOLUTE_AND_RELATIVE)
       { // Absolute attributes present.
         results.addAll(handleAbsoluteKeys(keys));
@@ -445,16 +542,27 @@ public class LDAPDatasource extends Datasource
           QueryResults res = find(query);
           for (Dataset ds : res)
             results.add(ds);
+          if (LazyQueryResults.isFailed(res))
+          {
+            return LazyQueryResults.incomplete(results);
+          }
         }
       }
-
-      return new QueryResultsList(results);
-    } finally
+    } catch (IllegalStateException e)
     {
-      attributeCache.clear();
+      LOGGER.error("", e);
+      return LazyQueryResults.incomplete(results);
     }
+
+    return new QueryResultsList(results);
   }
 
+  /**
+   * Get the datasets of keys with one search.
+   *
+   * @throws IllegalStateException
+   *           The search failed.
+   */
   private List<Dataset> handleAbsoluteKeys(Collection<String> keys)
   {
     List<Dataset> results = new ArrayList<>();
@@ -478,22 +586,21 @@ public class LDAPDatasource extends Datasource
     searchFilter.append(")");
 
     // search LDAP
-    NamingEnumeration<SearchResult> currentResults = searchLDAP("", searchFilter.toString(),
+    List<SearchResult> searchResults = new ArrayList<>();
+    PagedSearch currentResults = searchLDAP("", searchFilter.toString(),
         SearchControls.SUBTREE_SCOPE, true);
+    currentResults.forEachRemaining(searchResults::add);
+    if (currentResults.isFailed())
+    {
+      throw new IllegalStateException(
+          L.m("Search of data source {0} failed, the results are incomplete", datasourceName));
+    }
 
-    while (currentResults != null && currentResults.hasMoreElements())
+    for (Dataset dataset : getDatasets(searchResults))
     {
-      try
-      {
-        SearchResult currentResult = currentResults.next();
-        Dataset dataset = getDataset(currentResult);
-        if (keyStatus == ABSOLUTE_ONLY || keys.contains(dataset.getKey()))
-        {
-          results.add(dataset);
-        }
-      } catch (NamingException e)
+      if (keyStatus == ABSOLUTE_ONLY || keys.contains(dataset.getKey()))
       {
-        LOGGER.error("Error in LDAP-Directory.", e);
+        results.add(dataset);
       }
     }
     return results;
@@ -548,31 +655,21 @@ public class LDAPDatasource extends Datasource
    */
   private RelativePaths getPaths(String filter, int pathLength)
   {
+    List<Name> paths = new Vector<>();
+    int rootSize = rootName.size();
+    SearchControls sc = new SearchControls();
+    sc.setSearchScope(SearchControls.SUBTREE_SCOPE);
 
-    List<Name> paths = null;
-    DirContext ctx = null;
+    sc.setTimeLimit((int) Datasource.getDatasourceTimeout());
 
+    PagedSearch enumer = new PagedSearch(baseDN, filter, sc);
     try
     {
-      ctx = new InitialLdapContext(properties, null);
-      NameParser np = ctx.getNameParser("");
-      int rootSize = np.parse(baseDN).size();
-      SearchControls sc = new SearchControls();
-      sc.setSearchScope(SearchControls.SUBTREE_SCOPE);
-
-      sc.setTimeLimit((int) Datasource.getDatasourceTimeout());
-
-      LOGGER.trace("ctx.search({}, {}, sc) mit Zeitlimit {}", baseDN, filter, sc.getTimeLimit());
-      NamingEnumeration<SearchResult> enumer = ctx.search(baseDN, filter, sc);
-      LOGGER.trace("ctx.search() abgeschlossen");
-
-      paths = new Vector<>();
-
-      while (enumer != null && enumer.hasMoreElements())
+      while (enumer.hasNext())
       {
-        SearchResult result = enumer.nextElement();
+        SearchResult result = enumer.next();
         String path = preparePath(result.getNameInNamespace());
-        Name pathName = np.parse(path);
+        Name pathName = new LdapName(path);
         /*
          * CAUTION: here, you CANNOT test (pathLength < 0 && (pathName.size()+rootLength > abs(pathLength)))
          * because negative conditions apply to descendants.
@@ -581,24 +678,12 @@ public class LDAPDatasource extends Datasource
         if (pathName.size() + rootSize == pathLength || pathLength < 0)
           paths.add(pathName);
       }
-
-      ctx.close();
-
     } catch (NamingException e)
     {
       LOGGER.error("Internal error in LDAP.", e);
     } finally
     {
-      if (ctx != null)
-      {
-        try
-        {
-          ctx.close();
-        } catch (NamingException e)
-        {
-          LOGGER.error("", e);
-        }
-      }
+      enumer.close();
     }
 
     return new RelativePaths(pathLength, paths);
@@ -630,7 +715,6 @@ public class LDAPDatasource extends Datasource
         return new QueryResultsList(new Vector<Dataset>(0));
       }
 
-      String attributeName = colDef.attributeName;
       int relativePath = colDef.relativePath;
       String attributeValue = currentQuery.getSearchString();
 
@@ -639,14 +723,7 @@ public class LDAPDatasource extends Datasource
         continue;
       }
 
-      String columnObjectClass = colDef.columnObjectClass;
-      String currentSearchFilter = "(" + ldapEscape(attributeName) + "="
-          + ldapEscape(attributeValue) + ")";
-      if (columnObjectClass != null)
-      {
-        currentSearchFilter = "(&" + currentSearchFilter + "(objectClass="
-            + ldapEscape(columnObjectClass) + "))";
-      }
+      String currentSearchFilter = columnFilter(colDef, attributeValue);
 
       if (relativePath == 0)
       { // edit filter
@@ -924,7 +1001,8 @@ public class LDAPDatasource extends Datasource
       return new QueryResultsList(new Vector<Dataset>(0));
     }
 
-    List<SearchResult> currentResultList = new ArrayList<>();
+    String filter = searchFilter.toString();
+    List<Supplier<PagedSearch>> searches = new ArrayList<>();
 
     /*
      * TODO: Better to switch to using havePositiveConstraints and 
@@ -957,22 +1035,8 @@ public class LDAPDatasource extends Datasource
 
       for (String subTree : positiveSubtreeStrings)
       {
-        String comma = ",";
-        if (subTree.isEmpty())
-        {
-          comma = "";
-        }
-        NamingEnumeration<SearchResult> currentResults = searchLDAP(subTree + comma,
-            searchFilter.toString(), SearchControls.SUBTREE_SCOPE, true);
-
-        while (currentResults != null && currentResults.hasMoreElements())
-        {
-          SearchResult sr = currentResults.nextElement();
-          String name = preparePath(sr.getNameInNamespace());
-          sr.setName(name + (name.length() > 0 ? comma : "") + subTree);
-          currentResultList.add(sr);
-        }
-
+        String comma = subTree.isEmpty() ? "" : ",";
+        searches.add(() -> searchLDAP(subTree + comma, filter, SearchControls.SUBTREE_SCOPE, true));
       }
     } else
     { // Breadth-first search starting from the nodes of mergedNegativeSubtreePaths
@@ -984,32 +1048,216 @@ public class LDAPDatasource extends Datasource
 
         Name currentName = currentRelativePath.name;
         String currentPath = currentName.toString();
-        List<SearchResult> currentSearch = searchLDAPLevel(currentPath, searchFilter.toString(),
-            depth);
+        int scope = depth == 0 ? SearchControls.OBJECT_SCOPE : SearchControls.ONELEVEL_SCOPE;
+        for (String seed : searchLDAPLevel(currentPath, depth))
+        {
+          String comma = seed.isEmpty() ? "" : ",";
+          searches.add(() -> searchLDAP(seed + comma, filter, scope, true));
+        }
+      }
+
+    }
+
+    // generate Datasets from SearchResults while the results are iterated
+    LazyQueryResults results = new LazyQueryResults(new SearchSource(searches));
+    // request the first page now, so that it's available as soon as find returns
+    results.isEmpty();
+    return results;
+  }
+
+  /**
+   * Queries which only have conditions on columns of the found nodes themselves (path 0:*) are
+   * combined into searches with an OR filter. The results are assigned to the queries with
+   * {@link BatchResults}. The queries it can't split reliably and the queries of failed searches
+   * are searched one by one.
+   */
+  @Override
+  public List<QueryResults> findAll(List<List<QueryPart>> queries)
+  {
+    List<QueryResults> results = new ArrayList<>(Collections.nCopies(queries.size(), null));
+    List<Integer> combinable = new ArrayList<>();
+    for (int i = 0; i < queries.size(); i++)
+    {
+      if (isCombinable(queries.get(i)))
+      {
+        combinable.add(i);
+      } else
+      {
+        results.set(i, find(queries.get(i)));
+      }
+    }
 
-        currentResultList.addAll(currentSearch);
+    for (int start = 0; start < combinable.size(); start += MAX_COMBINED_QUERIES)
+    {
+      List<Integer> indexes = combinable.subList(start,
+          Math.min(combinable.size(), start + MAX_COMBINED_QUERIES));
+      List<List<QueryPart>> batch = new ArrayList<>(indexes.size());
+      StringBuilder filter = new StringBuilder("(|");
+      for (int i : indexes)
+      {
+        List<QueryPart> query = queries.get(i);
+        batch.add(query);
+        filter.append("(&");
+        for (QueryPart part : query)
+        {
+          filter.append(columnFilter(columnDefinitions.get(part.getColumnName()),
+              part.getSearchString()));
+        }
+        filter.append(")");
       }
+      filter.append(")");
 
+      List<SearchResult> searchResults = new ArrayList<>();
+      PagedSearch search = searchLDAP("", filter.toString(), SearchControls.SUBTREE_SCOPE, true);
+      search.forEachRemaining(searchResults::add);
+      List<QueryResults> split = null;
+      if (!search.isFailed())
+      {
+        try
+        {
+          split = BatchResults.split(batch, getDatasets(searchResults),
+              getMultiValuedColumns(searchResults));
+        } catch (IllegalStateException e)
+        {
+          LOGGER.debug("Combined search failed, searching one by one", e);
+        }
+      }
+      for (int j = 0; j < indexes.size(); j++)
+      {
+        results.set(indexes.get(j),
+            split == null || split.get(j) == null ? find(batch.get(j)) : split.get(j));
+      }
     }
+    return results;
+  }
 
-    List<Dataset> results = new ArrayList<>();
+  /**
+   * The columns with a path 0:* whose attribute has several values in some search results.
+   */
+  private Set<String> getMultiValuedColumns(List<SearchResult> searchResults)
+  {
+    Set<String> multiValued = new HashSet<>();
+    for (Map.Entry<String, ColumnDefinition> column : columnDefinitions.entrySet())
+    {
+      if (column.getValue().relativePath != 0)
+      {
+        continue;
+      }
+      for (SearchResult searchResult : searchResults)
+      {
+        Attribute attribute = searchResult.getAttributes().get(column.getValue().attributeName);
+        if (attribute != null && attribute.size() > 1)
+        {
+          multiValued.add(column.getKey());
+          break;
+        }
+      }
+    }
+    return multiValued;
+  }
+
+  /**
+   * Can the query be combined with other queries by {@link #findAll(List)}?
+   */
+  private boolean isCombinable(List<QueryPart> query)
+  {
+    if (query.isEmpty())
+    {
+      return false;
+    }
+    for (QueryPart part : query)
+    {
+      ColumnDefinition colDef = columnDefinitions.get(part.getColumnName());
+      if (colDef == null || colDef.relativePath != 0 || part.getSearchString().isEmpty())
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The filter for a condition on a column.
+   */
+  private String columnFilter(ColumnDefinition colDef, String value)
+  {
+    String filter = "(" + ldapEscape(colDef.attributeName) + "=" + ldapEscape(value) + ")";
+    if (colDef.columnObjectClass != null)
+    {
+      filter = "(&" + filter + "(objectClass=" + ldapEscape(colDef.columnObjectClass) + "))";
+    }
+    return filter;
+  }
 
-    // generate Datasets from SearchResults
+  /**
+   * Creates the datasets of a sequence of searches. The next search is started as soon as the
+   * previous one is exhausted. The datasets are created a page at a time, so that the attributes
+   * of other nodes can be read together.
+   */
+  private class SearchSource implements LazyQueryResults.Source
+  {
+    private final Iterator<Supplier<PagedSearch>> searches;
 
-    attributeCache.clear();
+    private PagedSearch current;
 
-    try
+    private final Deque<Dataset> pending = new ArrayDeque<>();
+
+    /** True if a search has failed, so there are no more results. */
+    private boolean failed = false;
+
+    SearchSource(List<Supplier<PagedSearch>> searches)
+    {
+      this.searches = searches.iterator();
+    }
+
+    @Override
+    public Dataset fetch()
     {
-      for (SearchResult currentResult : currentResultList)
+      if (pending.isEmpty())
       {
-        results.add(getDataset(currentResult));
+        int batchSize = pageSize > 0 ? pageSize : DEFAULT_PAGE_SIZE;
+        List<SearchResult> batch = new ArrayList<>();
+        while (batch.size() < batchSize && hasNextResult())
+        {
+          batch.add(current.next());
+        }
+        pending.addAll(getDatasets(batch));
       }
-    } finally
+      Dataset dataset = pending.poll();
+      if (dataset == null && failed)
+      {
+        throw new IllegalStateException(
+            L.m("Search of data source {0} failed, the results are incomplete", datasourceName));
+      }
+      return dataset;
+    }
+
+    private boolean hasNextResult()
     {
-      attributeCache.clear();
+      while (current == null || !current.hasNext())
+      {
+        if (current != null && current.isFailed())
+        {
+          failed = true;
+          return false;
+        }
+        if (!searches.hasNext())
+        {
+          return false;
+        }
+        current = searches.next().get();
+      }
+      return true;
     }
 
-    return new QueryResultsList(results);
+    @Override
+    public void close()
+    {
+      if (current != null)
+      {
+        current.close();
+      }
+    }
   }
 
   /**
@@ -1112,79 +1360,321 @@ public class LDAPDatasource extends Datasource
     return key.toString();
   }
 
-  private static class CacheKey
+  /** Attributes of a node in {@link #attributeCache}. */
+  private static class CachedAttributes
   {
-    private static final String CACHE_KEY_SEPARATOR = "/{%§";
+    private final Attributes attributes;
 
-    private String hash;
+    private final long expires;
 
-    public CacheKey(Name attributePath, String[] searchAttributes)
+    CachedAttributes(Attributes attributes, long expires)
     {
-      StringBuilder buf = new StringBuilder();
-      buf.append(searchAttributes.length);
-      buf.append(CACHE_KEY_SEPARATOR);
-      buf.append(attributePath.toString());
-      for (int n = 0; n < searchAttributes.length; ++n)
+      this.attributes = attributes;
+      this.expires = expires;
+    }
+  }
+
+  /**
+   * Creates the datasets of some search results. The attributes of other nodes, which are needed
+   * by columns with a relative path, are taken from the cache or read together.
+   *
+   * @param searchResults
+   *          The search results.
+   * @return The datasets in the order of the search results.
+   * @throws IllegalStateException
+   *           The attributes of another node couldn't be read.
+   */
+  private List<Dataset> getDatasets(List<SearchResult> searchResults)
+  {
+    List<Name> pathNames = new ArrayList<>(searchResults.size());
+    Set<Name> nodes = new HashSet<>();
+    for (SearchResult searchResult : searchResults)
+    {
+      Name pathName = null;
+      try
       {
-        buf.append(searchAttributes[n]);
+        pathName = new LdapName(preparePath(searchResult.getNameInNamespace()));
+        for (ColumnDefinition columnDefinition : columnDefinitions.values())
+        {
+          Name attributePath = getAttributePath(pathName, columnDefinition.relativePath);
+          if (attributePath != null)
+          {
+            nodes.add(attributePath);
+          }
+        }
+      } catch (NamingException e)
+      {
+        LOGGER.error("Fehler beim Zugriff auf das LDAP-Verzeichnis.", e);
       }
-      hash = buf.toString();
+      pathNames.add(pathName);
     }
 
-    @Override
-    public int hashCode()
+    Map<Name, Attributes> nodeAttributes = getNodeAttributes(nodes);
+    List<Dataset> datasets = new ArrayList<>(searchResults.size());
+    for (int i = 0; i < searchResults.size(); i++)
     {
-      return hash.hashCode();
+      datasets.add(getDataset(searchResults.get(i), pathNames.get(i), nodeAttributes));
     }
+    return datasets;
+  }
 
-    @Override
-    public boolean equals(Object other)
+  /**
+   * The path of the node which contains the value of a column with a relative path.
+   *
+   * @param pathName
+   *          The path of the dataset relative to BASE_DN.
+   * @param relativePath
+   *          The relative path of the column.
+   * @return The absolute path of the node or null, if the column isn't relative or the path
+   *         doesn't exist.
+   */
+  private Name getAttributePath(Name pathName, int relativePath)
+  {
+    if (relativePath == 0)
     {
-      if (other == null || other.getClass() != getClass())
-      {
-        return false;
+      return null;
+    }
+    Name attributePath = (Name) rootName.clone();
+    try
+    {
+      if (relativePath < 0)
+      { // Path relative to the current element
+        attributePath.addAll(pathName.getPrefix(pathName.size() + relativePath));
+      } else
+      { // relativePath > 0, path relative to the root
+        attributePath.addAll(pathName.getPrefix(relativePath - rootName.size()));
       }
-      CacheKey otherKey = (CacheKey) other;
-      return hash.equals(otherKey.hash);
+      return attributePath;
+    } catch (InvalidNameException | IndexOutOfBoundsException e)
+    {
+      LOGGER.trace("", e);
+      return null;
     }
   }
 
   /**
-   * Completes SearchResults with data from the directory and returns a dataset
-   *
-   * @param searchResult
-   * @param endTime
-   * @return Dataset
-   * @author Max Meier (D-III-ITD 5.1)
+   * Get the attributes of columns with a relative path of some nodes. Nodes which aren't cached
+   * are read from the directory, up to {@link #ATTRIBUTE_BATCH_SIZE} nodes with the same parent
+   * with one search. If such a search fails, the nodes are read one by one.
    *
+   * @param nodes
+   *          The absolute paths of the nodes.
+   * @return The attributes of the nodes.
+   * @throws IllegalStateException
+   *           The attributes of a node couldn't be read.
    */
-  private Dataset getDataset(SearchResult searchResult)
+  private Map<Name, Attributes> getNodeAttributes(Set<Name> nodes)
   {
-    Attributes attributes = searchResult.getAttributes();
+    Map<Name, Attributes> result = new HashMap<>();
+    Map<Name, List<Name>> missing = new LinkedHashMap<>();
+    long now = System.nanoTime();
+    synchronized (attributeCache)
+    {
+      for (Name node : nodes)
+      {
+        CachedAttributes cached = attributeCache.get(node);
+        if (cached != null && cached.expires - now > 0)
+        {
+          result.put(node, cached.attributes);
+        } else if (!node.isEmpty())
+        {
+          missing.computeIfAbsent(node.getPrefix(node.size() - 1), parent -> new ArrayList<>())
+              .add(node);
+        }
+      }
+    }
 
-    Map<String, String> relation = new HashMap<>();
+    for (Map.Entry<Name, List<Name>> children : missing.entrySet())
+    {
+      List<Name> siblings = children.getValue();
+      for (int i = 0; i < siblings.size(); i += ATTRIBUTE_BATCH_SIZE)
+      {
+        List<Name> batch =
+            siblings.subList(i, Math.min(siblings.size(), i + ATTRIBUTE_BATCH_SIZE));
+        Map<Name, Attributes> found = new HashMap<>();
+        if (!readNodeAttributes(children.getKey(), batch, found))
+        {
+          for (Name node : batch)
+          {
+            if (!found.containsKey(node))
+            {
+              found.put(node, readNodeAttributes(node));
+            }
+          }
+        }
+        // nodes which don't exist have no attributes
+        batch.forEach(node -> found.computeIfAbsent(node, n -> new BasicAttributes(true)));
+        result.putAll(found);
+        if (attributeCacheTtl > 0)
+        {
+          long expires = System.nanoTime() + attributeCacheTtl;
+          synchronized (attributeCache)
+          {
+            found.forEach((node, attributes) -> attributeCache.put(node,
+                new CachedAttributes(attributes, expires)));
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Read the attributes {@link #relativeAttributes} of some nodes with the same parent with one
+   * search. The search only covers the children of the parent, the filter selects the children
+   * with the RDN of one of the nodes.
+   *
+   * @param parent
+   *          The absolute path of the parent.
+   * @param nodes
+   *          The absolute paths of the nodes.
+   * @param found
+   *          The attributes of the found nodes are added to this map.
+   * @return False if the search failed.
+   */
+  private boolean readNodeAttributes(Name parent, List<Name> nodes, Map<Name, Attributes> found)
+  {
+    StringBuilder filter = new StringBuilder("(|");
+    try
+    {
+      for (Name node : nodes)
+      {
+        Rdn rdn = ((LdapName) node).getRdn(node.size() - 1);
+        filter.append("(&");
+        NamingEnumeration<? extends Attribute> rdnAttributes = rdn.toAttributes().getAll();
+        while (rdnAttributes.hasMore())
+        {
+          Attribute rdnAttribute = rdnAttributes.next();
+          filter.append("(").append(rdnAttribute.getID()).append("=")
+              .append(escapeFilterValue(rdnAttribute.get().toString())).append(")");
+        }
+        filter.append(")");
+      }
+    } catch (NamingException e)
+    {
+      LOGGER.error("", e);
+      return false;
+    }
+    filter.append(")");
 
-    Name pathName = null;
-    Name rootName = null;
-    DirContext ctx = null;
+    SearchControls searchControls = new SearchControls();
+    searchControls.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+    searchControls.setReturningAttributes(relativeAttributes);
+    searchControls.setTimeLimit((int) Datasource.getDatasourceTimeout());
 
+    Set<Name> wanted = new HashSet<>(nodes);
+    PagedSearch search = new PagedSearch(parent.toString(), filter.toString(), searchControls);
     try
     {
-      String tempPath = searchResult.getNameInNamespace();
-      tempPath = preparePath(tempPath);
+      while (search.hasNext())
+      {
+        SearchResult searchResult = search.next();
+        Name node = new LdapName(searchResult.getNameInNamespace());
+        if (wanted.contains(node))
+        {
+          found.put(node, searchResult.getAttributes());
+        }
+      }
+    } catch (NamingException e)
+    {
+      LOGGER.error("", e);
+      return false;
+    } finally
+    {
+      search.close();
+    }
+    return !search.isFailed();
+  }
 
+  /**
+   * Read the attributes {@link #relativeAttributes} of one node.
+   *
+   * @param node
+   *          The absolute path of the node.
+   * @return The attributes, which are empty if the node doesn't exist.
+   * @throws IllegalStateException
+   *           The node couldn't be read.
+   */
+  private Attributes readNodeAttributes(Name node)
+  {
+    LdapContext ctx = null;
+    try
+    {
       ctx = new InitialLdapContext(properties, null);
-      NameParser nameParser = ctx.getNameParser("");
-      pathName = nameParser.parse(tempPath);
-      rootName = nameParser.parse(baseDN); // TOD0: This is a constant, only
-      // calculated only once (except that this
-      // only with a functioning
-      // network connection is possible). Testing with the network cable unplugged
-
+      return ctx.getAttributes(node, relativeAttributes);
+    } catch (NameNotFoundException e)
+    {
+      LOGGER.trace("", e);
+      return new BasicAttributes(true);
     } catch (NamingException e)
     {
-      LOGGER.error("Fehler beim Zugriff auf das LDAP-Verzeichnis.", e);
+      throw new IllegalStateException(
+          L.m("Attributes of {0} in data source {1} couldn't be read", node, datasourceName), e);
+    } finally
+    {
+      if (ctx != null)
+      {
+        try
+        {
+          ctx.close();
+        } catch (NamingException e)
+        {
+          LOGGER.trace("", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Escaping of an assertion value according to RFC 4515, asterisks included.
+   */
+  private static String escapeFilterValue(String value)
+  {
+    StringBuilder escaped = new StringBuilder(value.length());
+    for (char c : value.toCharArray())
+    {
+      switch (c)
+      {
+      case '\\':
+        escaped.append("\\5c");
+        break;
+      case '*':
+        escaped.append("\\2a");
+        break;
+      case '(':
+        escaped.append("\\28");
+        break;
+      case ')':
+        escaped.append("\\29");
+        break;
+      case '\0':
+        escaped.append("\\00");
+        break;
+      default:
+        escaped.append(c);
+      }
     }
+    return escaped.toString();
+  }
+
+  /**
+   * Completes SearchResults with data from the directory and returns a dataset
+   *
+   * @param searchResult
+   * @param pathName
+   *          The path of the search result relative to BASE_DN, null if it couldn't be parsed.
+   * @param nodeAttributes
+   *          The attributes of the nodes referenced by columns with a relative path.
+   * @return Dataset
+   * @author Max Meier (D-III-ITD 5.1)
+   *
+   */
+  private Dataset getDataset(SearchResult searchResult, Name pathName,
+      Map<Name, Attributes> nodeAttributes)
+  {
+    Attributes attributes = searchResult.getAttributes();
+
+    Map<String, String> relation = new HashMap<>();
 
     for (Map.Entry<String, ColumnDefinition> columnDefEntry : columnDefinitions.entrySet())
     {
@@ -1208,46 +1698,19 @@ public class LDAPDatasource extends Datasource
           // do nothing (Attribute value is not present and remains 'null'.)
         }
 
-      } else
+      } else if (pathName != null)
       { // value is stored somewhere else in the directory
 
-        Name attributePath = (Name) rootName.clone();
-
+        Attributes foundAttributes = nodeAttributes.get(getAttributePath(pathName, relativePath));
         try
         {
-
-          if (relativePath < 0)
-          { // Path relative to the current element
-
-            attributePath.addAll(pathName.getPrefix(pathName.size() + relativePath));
-
-          } else
-          { // relativePath > 0, path relative to the root
-
-            attributePath.addAll(pathName.getPrefix(relativePath - rootName.size()));
-          }
-
-          String[] searchAttributes = { attributeName };
-
-          Attributes foundAttributes;
-
-          CacheKey key = new CacheKey(attributePath, searchAttributes);
-          foundAttributes = attributeCache.get(key);
-
-          if (foundAttributes == null)
-          {
-            foundAttributes = ctx.getAttributes(attributePath, searchAttributes);
-            attributeCache.put(key, foundAttributes);
-          }
-
-          Attribute foundAttribute = foundAttributes.get(attributeName);
-
+          Attribute foundAttribute = foundAttributes == null ? null
+              : foundAttributes.get(attributeName);
           if (foundAttribute != null)
           {
             value = (String) foundAttribute.get();
           }
-
-        } catch (NamingException | NullPointerException | IndexOutOfBoundsException e)
+        } catch (NamingException e)
         {
           // do nothing (Attribute value is not present and remains 'null')
           LOGGER.trace("", e);
@@ -1265,9 +1728,9 @@ public class LDAPDatasource extends Datasource
       }
     }
 
-      String key = generateKey(relation);
+    String key = generateKey(relation);
 
-      return new LDAPDataset(key, relation);
+    return new LDAPDataset(key, relation);
   }
 
   /**
@@ -1282,12 +1745,11 @@ public class LDAPDatasource extends Datasource
    *          SearchControls.ONELEVEL_SCOPE, to specify where to search.
    * @param onlyObjectClass
    *          If true, only nodes matching the objectClass {@link #objectClass} will be returned.
-   * @return The search results
+   * @return The search results, which are empty if the search failed. Must be closed if they
+   *         aren't iterated to the end.
    * @author Max Meier (D-III-ITD 5.1)
-   * @throws NamingException
-   *
    */
-  private NamingEnumeration<SearchResult> searchLDAP(String path, String filter, int searchScope,
+  private PagedSearch searchLDAP(String path, String filter, int searchScope,
       boolean onlyObjectClass)
   {
     LOGGER.debug("searchLDAP({}, {}, {}, {})", path, filter, searchScope, onlyObjectClass);
@@ -1306,52 +1768,174 @@ public class LDAPDatasource extends Datasource
       filter = "(&(objectClass=" + "*" + ")" + filter + ")"; // TODO: The objectClass=* is unnecessary
     }
 
-    Optional<NamingEnumeration<SearchResult>> result = Optional.empty();
-    DirContext ctx = null;
+    return new PagedSearch(path + baseDN, filter, searchControls);
+  }
 
-    try
+  /**
+   * The results of a search, which are requested page by page with the paged results control
+   * (RFC 2696). The context of the search is kept open until all pages have been read or
+   * {@link #close()} is called. Servers which don't support the control return all results at
+   * once.
+   */
+  private class PagedSearch implements Iterator<SearchResult>, AutoCloseable
+  {
+    private Name name;
+
+    private final String filter;
+
+    private final SearchControls searchControls;
+
+    /** The context of the search, null if the search is finished. */
+    private LdapContext ctx;
+
+    private NamingEnumeration<SearchResult> page;
+
+    /** True if the search has been aborted, so the results are incomplete. */
+    private boolean failed = false;
+
+    PagedSearch(String path, String filter, SearchControls searchControls)
     {
-      ctx = new InitialLdapContext(properties, null);
-      NameParser nameParser = ctx.getNameParser("");
-      Name name = nameParser.parse(path + baseDN);
+      this.filter = filter;
+      this.searchControls = searchControls;
+      try
+      {
+        name = new LdapName(path);
+        ctx = new InitialLdapContext(properties, null);
+        requestPage(null);
+      } catch (NamingException | IOException e)
+      {
+        LOGGER.error("", e);
+        failed = true;
+        close();
+      }
+    }
+
+    boolean isFailed()
+    {
+      return failed;
+    }
 
+    private void requestPage(byte[] cookie) throws NamingException, IOException
+    {
+      if (pageSize > 0)
+      {
+        ctx.setRequestControls(
+            new Control[] { new PagedResultsControl(pageSize, cookie, Control.NONCRITICAL) });
+      }
       LOGGER.trace("ctx.search({}, {}, searchControls) mit Zeitlimit {}", name, filter,
           searchControls.getTimeLimit());
-      result = Optional.of(ctx.search(name, filter, searchControls));
-      LOGGER.trace("ctx.search() abgeschlossen");
-    } catch (NamingException e)
-    {
-      LOGGER.error("", e);
-    } finally
+      page = ctx.search(name, filter, searchControls);
+    }
+
+    /**
+     * The cookie of the last page.
+     *
+     * @return The cookie or null, if there are no more pages.
+     */
+    private byte[] nextCookie() throws NamingException
     {
-      if (ctx != null)
+      Control[] controls = ctx.getResponseControls();
+      if (controls != null)
       {
-        try
+        for (Control control : controls)
         {
-          ctx.close();
-        } catch (NamingException e)
+          if (control instanceof PagedResultsResponseControl)
+          {
+            byte[] cookie = ((PagedResultsResponseControl) control).getCookie();
+            return cookie == null || cookie.length == 0 ? null : cookie;
+          }
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      try
+      {
+        while (ctx != null)
         {
-          LOGGER.error("", e);
+          if (page.hasMore())
+          {
+            return true;
+          }
+          byte[] cookie = nextCookie();
+          if (cookie == null)
+          {
+            close();
+          } else
+          {
+            requestPage(cookie);
+          }
         }
+      } catch (SizeLimitExceededException e)
+      {
+        LOGGER.info("Size limit of the LDAP server has been exceeded, results are incomplete.", e);
+        failed = true;
+        close();
+      } catch (NamingException | IOException e)
+      {
+        LOGGER.error("", e);
+        failed = true;
+        close();
       }
+      return false;
     }
 
-    result.ifPresent(r -> LOGGER
-        .debug(r.hasMoreElements() ? "Ergebnisse gefunden" : "keine Ergebnisse gefunden"));
+    @Override
+    public SearchResult next()
+    {
+      if (!hasNext())
+      {
+        throw new NoSuchElementException();
+      }
+      try
+      {
+        return page.next();
+      } catch (NamingException e)
+      {
+        failed = true;
+        close();
+        throw new NoSuchElementException(e.getMessage());
+      }
+    }
 
-    return result.orElse(null);
+    /**
+     * Abandon the search and return the connection to the pool.
+     */
+    @Override
+    public void close()
+    {
+      if (ctx == null)
+      {
+        return;
+      }
+      try
+      {
+        if (page != null)
+        {
+          page.close();
+        }
+        ctx.close();
+      } catch (NamingException e)
+      {
+        LOGGER.error("", e);
+      }
+      ctx = null;
+      page = null;
+    }
   }
 
   /**
-   * Searches the descendants of the node designated by path + BASE_DN with a distance of 'level'
-   * from this node for nodes that match the search criteria filter.
-   * Only objects with objectClass = {@link #objectClass} are returned
+   * Collects the descendants of the node designated by path + BASE_DN with a distance of
+   * 'level' - 1 from this node. Their children are the nodes with distance 'level'.
    *
-   * @return A list of {@link SearchResult}s
+   * @return The paths of the nodes relative to BASE_DN, or only path if level is 0 or 1.
    * @author Max Meier (D-III-ITD 5.1)
    *
    */
-  private List<SearchResult> searchLDAPLevel(String path, String filter, int level)
+  private List<String> searchLDAPLevel(String path, int level)
   {
     List<String> seeds = new ArrayList<>();
     seeds.add(path);
@@ -1370,12 +1954,12 @@ public class LDAPDatasource extends Datasource
           comma = "";
         }
 
-        NamingEnumeration<SearchResult> enumer = searchLDAP(searchPath + comma, "",
-            SearchControls.ONELEVEL_SCOPE, false);
+        PagedSearch enumer = searchLDAP(searchPath + comma, "", SearchControls.ONELEVEL_SCOPE,
+            false);
 
-        while (enumer != null && enumer.hasMoreElements())
+        while (enumer.hasNext())
         {
-          SearchResult currentResult = enumer.nextElement();
+          SearchResult currentResult = enumer.next();
           String subPath = preparePath(currentResult.getNameInNamespace());
           comma = ",";
           if (subPath.isEmpty())
@@ -1391,31 +1975,7 @@ public class LDAPDatasource extends Datasource
 
     }
 
-    List<SearchResult> result = new ArrayList<>();
-
-    for (String currentPath : seeds)
-    {
-      comma = ",";
-      if (currentPath.isEmpty())
-      {
-        comma = "";
-      }
-
-      NamingEnumeration<SearchResult> enumer = searchLDAP(currentPath + comma, filter,
-          level == 0 ? SearchControls.OBJECT_SCOPE : SearchControls.ONELEVEL_SCOPE, true);
-
-      while (enumer != null && enumer.hasMoreElements())
-      {
-        SearchResult sr = enumer.nextElement();
-        String name = preparePath(sr.getNameInNamespace());
-        String actualPath = name + (name.length() > 0 ? comma : "") + currentPath;
-        sr.setName(actualPath);
-        result.add(sr);
-      }
-
-    }
-
-    return result;
+    return seeds;
   }
 
   /**
@@ -0,0 +1,286 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.db;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Results which are fetched from their source while they are iterated. Datasets which have been
+ * fetched once are kept, so the results can be iterated several times. {@link #size()} and
+ * {@link #isEmpty()} fetch as many datasets as they need.
+ *
+ * The source is closed as soon as it is exhausted or {@link #cancel()} is called. So callers
+ * which don't iterate to the end should call {@link #cancel()}. The same happens if the thread
+ * which fetches the datasets is interrupted. If the source fails, the datasets fetched so far
+ * remain available and {@link #isFailed()} is true.
+ */
+public class LazyQueryResults implements QueryResults
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(LazyQueryResults.class);
+
+  /**
+   * The source of the datasets.
+   */
+  public interface Source extends AutoCloseable
+  {
+    /**
+     * Fetch the next dataset.
+     *
+     * @return The dataset or null, if there are no more datasets.
+     */
+    Dataset fetch();
+
+    /**
+     * Release the resources of the source. Is called once.
+     */
+    @Override
+    void close();
+  }
+
+  private final List<Dataset> fetched = new ArrayList<>();
+
+  /**
+   * Guards {@link #source} and {@link #fetching}. Unlike the monitor of the results, it isn't held
+   * while a dataset is fetched, so {@link #cancel()} doesn't wait for a slow source.
+   */
+  private final Object sourceLock = new Object();
+
+  /** The source or null, if it has been closed. */
+  private Source source;
+
+  /** Is a dataset being fetched from {@link #source}? */
+  private boolean fetching = false;
+
+  private volatile boolean cancelled = false;
+
+  private volatile boolean failed = false;
+
+  /**
+   * New results.
+   *
+   * @param source
+   *          The source of the datasets.
+   */
+  public LazyQueryResults(Source source)
+  {
+    this.source = source;
+  }
+
+  /**
+   * Results which have failed after some datasets had been read.
+   *
+   * @param datasets
+   *          The datasets read before the failure.
+   * @return Results with the datasets, which are {@link #isFailed()}.
+   */
+  public static LazyQueryResults incomplete(List<Dataset> datasets)
+  {
+    LazyQueryResults results = new LazyQueryResults(null);
+    results.fetched.addAll(datasets);
+    results.failed = true;
+    return results;
+  }
+
+  /**
+   * Stop fetching datasets and close the source. The datasets fetched so far remain available.
+   * If another thread is fetching a dataset, this method doesn't wait for it. The source is closed
+   * by that thread as soon as the dataset has been fetched.
+   */
+  public void cancel()
+  {
+    cancelled = true;
+    synchronized (sourceLock)
+    {
+      if (source != null)
+      {
+        failed = true;
+        if (!fetching)
+        {
+          closeSource();
+        }
+      }
+    }
+  }
+
+  /**
+   * Has fetching stopped before the source was exhausted, because the source failed or fetching
+   * has been cancelled or interrupted? Such results are incomplete and shouldn't be cached.
+   *
+   * @return True if the results are incomplete.
+   */
+  public boolean isFailed()
+  {
+    return failed;
+  }
+
+  /**
+   * Are results incomplete, because they are {@link LazyQueryResults} which have failed?
+   */
+  static boolean isFailed(QueryResults results)
+  {
+    return results instanceof LazyQueryResults && ((LazyQueryResults) results).isFailed();
+  }
+
+  /**
+   * Has the source been exhausted or cancelled?
+   *
+   * @return True if no more datasets are fetched.
+   */
+  public boolean isComplete()
+  {
+    synchronized (sourceLock)
+    {
+      return source == null;
+    }
+  }
+
+  /**
+   * The number of datasets fetched so far.
+   *
+   * @return The number of datasets, which can be iterated without accessing the source.
+   */
+  public synchronized int getFetchedCount()
+  {
+    return fetched.size();
+  }
+
+  @Override
+  public int size()
+  {
+    fetch(Integer.MAX_VALUE);
+    synchronized (this)
+    {
+      return fetched.size();
+    }
+  }
+
+  @Override
+  public boolean isEmpty()
+  {
+    return !fetch(0);
+  }
+
+  @Override
+  public Iterator<Dataset> iterator()
+  {
+    return new Iterator<Dataset>()
+    {
+      private int index = 0;
+
+      @Override
+      public boolean hasNext()
+      {
+        return fetch(index);
+      }
+
+      @Override
+      public Dataset next()
+      {
+        if (!fetch(index))
+        {
+          throw new NoSuchElementException();
+        }
+        synchronized (LazyQueryResults.this)
+        {
+          return fetched.get(index++);
+        }
+      }
+    };
+  }
+
+  /**
+   * Fetch datasets until the dataset with the given index is available.
+   *
+   * @param index
+   *          The index of the dataset.
+   * @return True if the dataset exists, false if the results have less datasets.
+   */
+  private synchronized boolean fetch(int index)
+  {
+    while (fetched.size() <= index)
+    {
+      Source current;
+      synchronized (sourceLock)
+      {
+        if (source == null)
+        {
+          break;
+        }
+        if (cancelled || Thread.currentThread().isInterrupted())
+        {
+          failed = true;
+          closeSource();
+          break;
+        }
+        current = source;
+        fetching = true;
+      }
+      Dataset dataset = null;
+      try
+      {
+        dataset = current.fetch();
+      } catch (RuntimeException e)
+      {
+        LOGGER.error("Results couldn't be fetched completely", e);
+        failed = true;
+      }
+      synchronized (sourceLock)
+      {
+        fetching = false;
+        if (dataset == null || cancelled)
+        {
+          closeSource();
+        }
+      }
+      if (dataset != null)
+      {
+        fetched.add(dataset);
+      }
+    }
+    return index < fetched.size();
+  }
+
+  /**
+   * Close the source. Must be called with {@link #sourceLock}.
+   */
+  private void closeSource()
+  {
+    if (source != null)
+    {
+      try
+      {
+        source.close();
+      } catch (RuntimeException e)
+      {
+        LOGGER.debug("Source couldn't be closed", e);
+      }
+      source = null;
+    }
+  }
+}
@@ -24,8 +24,11 @@ package org.libreoffice.lots.db;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -34,22 +37,22 @@ import java.util.Vector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.sun.star.sdb.CommandType;
 import com.sun.star.sdb.XColumn;
 import com.sun.star.sdbc.SQLException;
+import com.sun.star.sdbc.XCloseable;
 import com.sun.star.sdbc.XColumnLocate;
 import com.sun.star.sdbc.XConnection;
 import com.sun.star.sdbc.XDataSource;
+import com.sun.star.sdbc.XParameters;
+import com.sun.star.sdbc.XPreparedStatement;
 import com.sun.star.sdbc.XResultSet;
 import com.sun.star.sdbc.XRow;
-import com.sun.star.sdbc.XRowSet;
 import com.sun.star.sdbcx.XColumnsSupplier;
 import com.sun.star.sdbcx.XKeysSupplier;
+import com.sun.star.uno.UnoRuntime;
 
 import org.libreoffice.ext.unohelper.common.UNO;
 import org.libreoffice.ext.unohelper.common.UnoDictionary;
-import org.libreoffice.ext.unohelper.util.UnoComponent;
-import org.libreoffice.ext.unohelper.util.UnoProperty;
 import org.libreoffice.lots.config.ConfigThingy;
 import org.libreoffice.lots.config.ConfigurationErrorException;
 import org.libreoffice.lots.util.L;
@@ -163,7 +166,51 @@ public class OOoDatasource extends Datasource
    */
   private String userName = "";
 
-  private static final String SQL_SELECT_COMMAND = "SELECT * FROM ";
+  /** Maximum number of queries which {@link #findAll(List)} combines into one statement. */
+  private static final int MAX_COMBINED_QUERIES = 100;
+
+  /** Maximum number of prepared statements which are kept open. */
+  private static final int MAX_PREPARED_STATEMENTS = 50;
+
+  /**
+   * Maximum number of results of {@link #find(List)} and {@link #getContents()}. 0 if the number
+   * isn't limited.
+   */
+  private int maxHits;
+
+  /**
+   * The connection to the database. It's opened by the first query and used as long as it works.
+   */
+  private XConnection connection;
+
+  /**
+   * The number of cursors whose results are being read by connection. A connection which has
+   * failed isn't closed before all its cursors are closed, because other threads may still read
+   * their results.
+   */
+  private final Map<XConnection, Integer> openCursors = new IdentityHashMap<>();
+
+  /**
+   * The prepared statements of {@link #connection} by their SQL. The SQL only depends on the shape
+   * of a query (the columns and the number of parts), the values are bound as parameters. The
+   * least recently used statement is closed if there are too many. Statements whose results are
+   * being read are removed until the results are closed.
+   */
+  private final Map<String, PreparedQuery> statements = new LinkedHashMap<>(16, 0.75f, true)
+  {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, PreparedQuery> eldest)
+    {
+      if (size() > MAX_PREPARED_STATEMENTS)
+      {
+        eldest.getValue().close();
+        return true;
+      }
+      return false;
+    }
+  };
 
   /**
    * Password for logging in to the database.
@@ -227,6 +274,9 @@ public class OOoDatasource extends Datasource
       throw new ConfigurationErrorException(L.m(
         "SQL_SYNTAX \"{0}\" not supported", sqlSyntaxStr));
 
+    maxHits = (int) Math.min(Integer.MAX_VALUE,
+        parseNumber(sourceDesc, datasourceName, "MAX_HITS", 0));
+
     schema = new ArrayList<>();
     ConfigThingy schemaConf = sourceDesc.query("Schema");
     if (schemaConf.count() != 0)
@@ -268,6 +318,8 @@ public class OOoDatasource extends Datasource
           UNO.XDataSource(UNO.dbContext.getRegisteredObject(oooDatasourceName));
         ds.setLoginTimeout(LOGIN_TIMEOUT);
         XConnection conn = ds.getConnection(userName, password);
+        // keep the connection for the queries
+        connection = conn;
 
         /*
          * According to the IDL documentation for 'View,' views must also be included here
@@ -341,18 +393,24 @@ public class OOoDatasource extends Datasource
       }
       catch (ConfigurationErrorException x)
       {
+        // the data source isn't created, so nobody else closes the connection
+        retireConnection();
         throw x;
       }
       catch (Exception x)
       {
+        retireConnection();
         throw new ConfigurationErrorException(L.m(
           "Schema of OOo-datasource \"{0}\" could not be read.",
           oooDatasourceName), x);
       }
 
       if (keyColumns.length == 0)
+      {
+        retireConnection();
         throw new ConfigurationErrorException(L.m(
           "Data source \"{0}\": No Key column defined", datasourceName));
+      }
     }
   }
 
@@ -397,8 +455,8 @@ public class OOoDatasource extends Datasource
       return new QueryResultsList(new ArrayList<Dataset>(0));
     }
 
-    StringBuilder buffy =
-        new StringBuilder(SQL_SELECT_COMMAND + sqlIdentifier(oooTableName) + " WHERE ");
+    StringBuilder buffy = new StringBuilder(selectCommand(false) + " WHERE ");
+    List<String> parameters = new ArrayList<>();
 
     Iterator<String> iter = keys.iterator();
     boolean first = true;
@@ -417,15 +475,15 @@ public class OOoDatasource extends Datasource
           buffy.append(" AND ");
         }
         buffy.append(sqlIdentifier(decode(parts[i - 1])));
-        buffy.append('=');
-        buffy.append(sqlLiteral(decode(parts[i])));
+        buffy.append("=?");
+        parameters.add(decode(parts[i]));
       }
       buffy.append(')');
     }
 
     buffy.append(';');
 
-    return sqlQuery(buffy.toString());
+    return sqlQuery(buffy.toString(), parameters, 0);
   }
 
   @Override
@@ -435,9 +493,90 @@ public class OOoDatasource extends Datasource
       return new QueryResultsList(new Vector<Dataset>(0));
     }
 
-    StringBuilder buffy =
-        new StringBuilder(SQL_SELECT_COMMAND + sqlIdentifier(oooTableName) + " WHERE ");
+    StringBuilder buffy = new StringBuilder(selectCommand(true) + " WHERE ");
+    List<String> parameters = new ArrayList<>();
+    appendConditions(buffy, parameters, query);
+    appendLimit(buffy);
+    buffy.append(';');
+    return sqlQuery(buffy.toString(), parameters, maxHits);
+  }
 
+  /**
+   * The queries are combined into one statement per {@link #MAX_COMBINED_QUERIES} queries. If all
+   * queries search for a value without wildcards in the same column, the statement uses IN,
+   * otherwise the conditions of the queries are joined with OR. The results are assigned to the
+   * queries with {@link BatchResults}, the queries it can't split reliably are searched one by one.
+   */
+  @Override
+  public List<QueryResults> findAll(List<List<QueryPart>> queries)
+  {
+    List<QueryResults> results = new ArrayList<>(Collections.nCopies(queries.size(), null));
+    List<Integer> combinable = new ArrayList<>();
+    for (int i = 0; i < queries.size(); i++)
+    {
+      List<QueryPart> query = queries.get(i);
+      if (!query.isEmpty()
+          && query.stream().allMatch(part -> schema.contains(part.getColumnName())))
+      {
+        combinable.add(i);
+      } else
+      {
+        results.set(i, find(query));
+      }
+    }
+
+    for (int start = 0; start < combinable.size(); start += MAX_COMBINED_QUERIES)
+    {
+      List<Integer> indexes = combinable.subList(start,
+          Math.min(combinable.size(), start + MAX_COMBINED_QUERIES));
+      List<List<QueryPart>> batch = new ArrayList<>(indexes.size());
+      indexes.forEach(i -> batch.add(queries.get(i)));
+
+      StringBuilder buffy = new StringBuilder(selectCommand(false) + " WHERE ");
+      List<String> parameters = new ArrayList<>();
+      String column = batch.get(0).get(0).getColumnName();
+      if (batch.stream().allMatch(query -> query.size() == 1
+          && query.get(0).getColumnName().equals(column)
+          && query.get(0).getSearchString().indexOf('*') < 0))
+      {
+        buffy.append(sqlLower()).append('(').append(sqlIdentifier(column)).append(") IN (");
+        for (int j = 0; j < batch.size(); j++)
+        {
+          if (j > 0) {
+            buffy.append(", ");
+          }
+          appendLowerParameter(buffy, parameters, batch.get(j).get(0).getSearchString());
+        }
+        buffy.append(')');
+      } else
+      {
+        for (int j = 0; j < batch.size(); j++)
+        {
+          if (j > 0) {
+            buffy.append(" OR ");
+          }
+          buffy.append('(');
+          appendConditions(buffy, parameters, batch.get(j));
+          buffy.append(')');
+        }
+      }
+      buffy.append(';');
+
+      List<QueryResults> split = BatchResults.split(batch, sqlQuery(buffy.toString(), parameters, 0));
+      for (int j = 0; j < indexes.size(); j++)
+      {
+        results.set(indexes.get(j), split.get(j) == null ? find(batch.get(j)) : split.get(j));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Append the conditions of a query joined with AND. The search patterns are added to parameters.
+   */
+  private void appendConditions(StringBuilder buffy, List<String> parameters,
+      List<QueryPart> query)
+  {
     Iterator<QueryPart> iter = query.iterator();
     boolean first = true;
     while (iter.hasNext())
@@ -459,148 +598,367 @@ public class OOoDatasource extends Datasource
           // Therefore, the search string is converted to lowercase using the Java method toLowerCase.
           // The contents of the column to be searched can in turn be treated with lcase/lower.
           // This ensures that the searching and the search string both contain only lowercase letters.
-          buffy.append(sqlLiteral(sqlSearchPattern(part.getSearchString())).toLowerCase());
+          buffy.append('?');
+          parameters.add(sqlSearchPattern(part.getSearchString()).toLowerCase());
       } else {
         buffy.append(sqlLower());
-        buffy.append('(');
-        buffy.append(sqlLiteral(sqlSearchPattern(part.getSearchString())));
-        buffy.append(") ESCAPE '|'");
+        buffy.append("(?) ESCAPE '|'");
+        parameters.add(sqlSearchPattern(part.getSearchString()));
       }
 
       buffy.append(')');
     }
+  }
 
-    buffy.append(';');
-    return sqlQuery(buffy.toString());
+  /**
+   * Append a parameter in lower case for comparing it with a column in lower case.
+   */
+  private void appendLowerParameter(StringBuilder buffy, List<String> parameters, String value)
+  {
+    if (SQL_SYNTAX_PERVASIVESQL == sqlSyntax) {
+      buffy.append('?');
+      parameters.add(value.toLowerCase());
+    } else {
+      buffy.append(sqlLower()).append("(?)");
+      parameters.add(value);
+    }
   }
 
   @Override
   public QueryResults getContents()
   {
-    return sqlQuery(SQL_SELECT_COMMAND + sqlIdentifier(oooTableName) + ";");
+    StringBuilder buffy = new StringBuilder(selectCommand(true));
+    appendLimit(buffy);
+    buffy.append(';');
+    return sqlQuery(buffy.toString(), List.of(), maxHits);
   }
 
   /**
-   * Executes the SQL query query against the database and returns the results.
+   * Returns the beginning of a query for all columns of the table. If limited is true and the
+   * number of hits is limited, PervasiveSQL queries are limited with TOP.
    */
-  private QueryResults sqlQuery(String query)
+  private String selectCommand(boolean limited)
   {
-    LOGGER.debug("sqlQuery(\"{}\")", query);
+    StringBuilder buffy = new StringBuilder("SELECT ");
+    if (limited && maxHits > 0 && SQL_SYNTAX_PERVASIVESQL == sqlSyntax) {
+      buffy.append("TOP ").append(maxHits).append(' ');
+    }
+    return buffy.append("* FROM ").append(sqlIdentifier(oooTableName)).toString();
+  }
 
-    List<OOoDataset> datasets = new ArrayList<>();
+  /**
+   * Append the limit of the number of hits in the syntax of the database, if there's a limit.
+   * PervasiveSQL is limited by {@link #selectCommand(boolean)}.
+   */
+  private void appendLimit(StringBuilder buffy)
+  {
+    if (maxHits == 0) {
+      return;
+    }
+    if (SQL_SYNTAX_MYSQL == sqlSyntax) {
+      buffy.append(" LIMIT ").append(maxHits);
+    } else if (SQL_SYNTAX_PERVASIVESQL != sqlSyntax) {
+      buffy.append(" FETCH FIRST ").append(maxHits).append(" ROWS ONLY");
+    }
+  }
 
-    XRowSet results = null;
-    XConnection conn = null;
-    try
-    {
+  /**
+   * Executes the SQL query query with the parameters against the database. The results are read
+   * while they are iterated. The statement is prepared only once. If the connection has been used
+   * before and fails, a new connection is opened and the query is repeated once. Other errors
+   * don't affect the connection.
+   *
+   * @param limit
+   *          The maximum number of results or 0 for all results.
+   */
+  private synchronized QueryResults sqlQuery(String query, List<String> parameters, int limit)
+  {
+    LOGGER.debug("sqlQuery(\"{}\", {})", query, parameters);
 
+    boolean retry = connection != null;
+    while (true)
+    {
       try
       {
-        XDataSource ds =
-          UNO.XDataSource(UNO.dbContext.getRegisteredObject(oooDatasourceName));
-
-        ds.setLoginTimeout((int) Datasource.getDatasourceTimeout());
-        conn = ds.getConnection(userName, password);
+        return executeQuery(query, parameters, limit);
       }
-      catch (SQLException x)
+      catch (Exception x)
       {
-        LOGGER.error("Kann keine Verbindung zur Datenquelle herstellen", x);
+        boolean connectionFailed = isConnectionFailure(x);
+        if (connectionFailed)
+        {
+          retireConnection();
+        }
+        if (!retry || !connectionFailed)
+        {
+          LOGGER.error("Fehler beim Absetzen der Anfrage", x);
+          return new QueryResultsList(new ArrayList<Dataset>(0));
+        }
+        LOGGER.info("Connection of data source \"{}\" failed, opening a new connection",
+            datasourceName, x);
+        retry = false;
       }
+    }
+  }
 
-      results = UNO.XRowSet(UnoComponent.createComponentWithContext(UnoComponent.CSS_SDB_ROW_SET));
-
-      if (results == null)
-        throw new NullPointerException(L.m("Could not create RowSet"));
+  /**
+   * Is the error x caused by {@link #connection}? That's the case if the connection has been
+   * closed or if x reports a connection exception (SQL state class 08).
+   */
+  private boolean isConnectionFailure(Exception x)
+  {
+    if (x instanceof SQLException && ((SQLException) x).SQLState != null
+        && ((SQLException) x).SQLState.startsWith("08"))
+    {
+      return true;
+    }
+    if (connection == null)
+    {
+      return false;
+    }
+    try
+    {
+      return connection.isClosed();
+    }
+    catch (SQLException | RuntimeException e)
+    {
+      LOGGER.trace("", e);
+      return true;
+    }
+  }
 
-      UnoProperty.setProperty(results, UnoProperty.ACTIVE_CONNECTION, conn);
+  private QueryResults executeQuery(String query, List<String> parameters, int limit)
+      throws SQLException
+  {
+    PreparedQuery prepared = statements.remove(query);
+    if (prepared == null)
+    {
+      prepared = new PreparedQuery(getConnection(), query);
+    }
 
-      /*
-       * EscapeProcessing == false means that OOo should not manipulate the query
-       * itself but should pass it directly to the database. When this is used,
-       * the result (currently) is always read-only, as OOo cannot perform updates on
-       * statements it has not parsed. See comment at http://qa.openoffice.org/issues/show_bug.cgi?id=78522.
-       * Equivalent to the button 'Execute SQL Command Directly' in the Base Query Design.
-       */
-      UnoProperty.setProperty(results, UnoProperty.ESCAPE_PROCESSING, Boolean.FALSE);
+    XResultSet results;
+    try
+    {
+      results = prepared.execute(parameters);
+    }
+    catch (SQLException | RuntimeException x)
+    {
+      prepared.close();
+      throw x;
+    }
+    openCursors.merge(prepared.conn, 1, Integer::sum);
+    LazyQueryResults lazyResults = new LazyQueryResults(new Cursor(prepared, results, limit));
+    // read the first dataset, so that the results are available without waiting
+    lazyResults.isEmpty();
+    return lazyResults;
+  }
 
-      UnoProperty.setProperty(results, UnoProperty.COMMAND_TYPE, CommandType.COMMAND);
-      UnoProperty.setProperty(results, UnoProperty.COMMAND, query);
+  /**
+   * Returns a prepared statement to the cache after its results have been read. It's closed if it
+   * doesn't belong to the current connection or if there's already another statement for its
+   * query. A connection which isn't used anymore is closed with its last cursor.
+   */
+  private synchronized void release(PreparedQuery prepared)
+  {
+    openCursors.computeIfPresent(prepared.conn, (conn, count) -> count > 1 ? count - 1 : null);
+    if (prepared.conn == connection && !statements.containsKey(prepared.query))
+    {
+      statements.put(prepared.query, prepared);
+    } else
+    {
+      prepared.close();
+      if (prepared.conn != connection && !openCursors.containsKey(prepared.conn))
+      {
+        close(prepared.conn);
+      }
+    }
+  }
 
-      results.execute();
+  /**
+   * Returns {@link #connection}. A new connection is opened if there's none or if it has been
+   * closed.
+   */
+  private XConnection getConnection() throws SQLException
+  {
+    if (connection != null && !connection.isClosed())
+    {
+      return connection;
+    }
+    retireConnection();
 
-      Map<String, Integer> mapColumnNameToIndex = getColumnMapping(results);
-      XRow row = UNO.XRow(results);
+    XDataSource ds =
+      UNO.XDataSource(UNO.dbContext.getRegisteredObject(oooDatasourceName));
+    ds.setLoginTimeout((int) Datasource.getDatasourceTimeout());
+    connection = ds.getConnection(userName, password);
+    return connection;
+  }
 
-      while (results.next())
+  /**
+   * Stops using {@link #connection} and closes its cached prepared statements. The connection
+   * itself is closed when the results of all its cursors have been read.
+   */
+  private void retireConnection()
+  {
+    statements.values().forEach(PreparedQuery::close);
+    statements.clear();
+    if (connection != null)
+    {
+      if (!openCursors.containsKey(connection))
       {
-        Map<String, String> data = new HashMap<>();
-        Iterator<Map.Entry<String, Integer>> iter =
-          mapColumnNameToIndex.entrySet().iterator();
-        while (iter.hasNext())
-        {
-          Map.Entry<String, Integer> entry = iter.next();
-          String column = entry.getKey();
-          int idx = entry.getValue().intValue();
-          String value = null;
-          if (idx > 0) {
-            value = row.getString(idx);
-          }
-          data.put(column, value);
-        }
-        datasets.add(new OOoDataset(data));
+        close(connection);
       }
+      connection = null;
+    }
+  }
 
+  /**
+   * Closes a statement, result set or connection. Errors are ignored, because the object isn't
+   * used anymore.
+   */
+  private static void close(Object object)
+  {
+    try
+    {
+      XCloseable closeable = UnoRuntime.queryInterface(XCloseable.class, object);
+      if (closeable != null)
+      {
+        closeable.close();
+      }
     }
-    catch (Exception x)
+    catch (Exception e)
     {
-      LOGGER.error("Fehler beim Absetzen der Anfrage", x);
+      LOGGER.trace("", e);
     }
-    finally
+  }
+
+  /**
+   * Returns the column numbers for XRow(results)::getString() of the columns of the schema, in the
+   * order of the schema. If a column does not exist, its index is <= 0.
+   */
+  private int[] getColumnMapping(XResultSet results)
+  {
+    int[] indexes = new int[schema.size()];
+    XColumnLocate loc = UNO.XColumnLocate(results);
+    for (int i = 0; i < indexes.length; i++)
     {
-      if (results != null) {
-        UNO.XComponent(results).dispose();
+      indexes[i] = -1;
+      try
+      {
+        indexes[i] = loc.findColumn(schema.get(i));
       }
-      if (conn != null) {
-        try
-        {
-          conn.close();
-        }
-        catch (Exception e)
-        {
-          LOGGER.trace("", e);
-        }
+      catch (SQLException x)
+      {
+        LOGGER.trace("", x);
       }
     }
+    return indexes;
+  }
+
+  /**
+   * A prepared statement and the mapping of the schema to the columns of its results.
+   */
+  private class PreparedQuery
+  {
+    private final XConnection conn;
+
+    private final String query;
 
-    return new QueryResultsList(datasets);
+    private final XPreparedStatement statement;
 
+    /**
+     * The result of {@link #getColumnMapping(XResultSet)}. It's computed by the first execution.
+     */
+    private int[] columnIndexes;
+
+    PreparedQuery(XConnection conn, String query) throws SQLException
+    {
+      this.conn = conn;
+      this.query = query;
+      this.statement = conn.prepareStatement(query);
+    }
+
+    XResultSet execute(List<String> parameters) throws SQLException
+    {
+      XParameters params = UnoRuntime.queryInterface(XParameters.class, statement);
+      params.clearParameters();
+      for (int i = 0; i < parameters.size(); i++)
+      {
+        params.setString(i + 1, parameters.get(i));
+      }
+      XResultSet results = statement.executeQuery();
+      if (columnIndexes == null)
+      {
+        columnIndexes = getColumnMapping(results);
+      }
+      return results;
+    }
+
+    void close()
+    {
+      OOoDatasource.close(statement);
+    }
   }
 
   /**
-   * Returns a mapping of column names from schema to integer indices,
-   * which are the column numbers for XRow(results)::getString().
-   * If a column does not exist, its index is <= 0.
+   * Reads the results of a prepared statement one by one. The statement is released when the
+   * source is closed.
    */
-  private Map<String, Integer> getColumnMapping(XResultSet results)
+  private class Cursor implements LazyQueryResults.Source
   {
-    Map<String, Integer> mapColumnNameToIndex = new HashMap<>();
-    XColumnLocate loc = UNO.XColumnLocate(results);
-    Iterator<String> iter = getSchema().iterator();
-    while (iter.hasNext())
+    private final PreparedQuery prepared;
+
+    private final XResultSet results;
+
+    private final XRow row;
+
+    /** The number of datasets which may still be read, negative if there's no limit. */
+    private int remaining;
+
+    Cursor(PreparedQuery prepared, XResultSet results, int limit)
     {
-      String column = iter.next();
-      int idx = -1;
+      this.prepared = prepared;
+      this.results = results;
+      this.row = UNO.XRow(results);
+      this.remaining = limit > 0 ? limit : -1;
+    }
+
+    @Override
+    public Dataset fetch()
+    {
+      if (remaining == 0)
+      {
+        return null;
+      }
       try
       {
-        idx = loc.findColumn(column);
+        if (!results.next())
+        {
+          return null;
+        }
+        Map<String, String> data = new HashMap<>();
+        for (int i = 0; i < prepared.columnIndexes.length; i++)
+        {
+          int idx = prepared.columnIndexes[i];
+          data.put(schema.get(i), idx > 0 ? row.getString(idx) : null);
+        }
+        if (remaining > 0)
+        {
+          remaining--;
+        }
+        return new OOoDataset(data);
       }
       catch (SQLException x)
       {
-        LOGGER.trace("", x);
+        throw new IllegalStateException(x);
       }
-      mapColumnNameToIndex.put(column, Integer.valueOf(idx));
     }
-    return mapColumnNameToIndex;
+
+    @Override
+    public void close()
+    {
+      OOoDatasource.close(results);
+      release(prepared);
+    }
   }
 
   /**
@@ -615,17 +973,6 @@ public class OOoDatasource extends Datasource
     }
   }
 
-  /**
-   * Returns str as a string literal prepared for insertion into SQL statements.
-   *
-   * @param str
-   *          The string literal returned by prepareForSqlInsert always begins and ends with a single apostrophe (').
-   */
-  private static String sqlLiteral(String str)
-  {
-    return "'" + str.replaceAll("'", "''") + "'";
-  }
-
   /**
    * Returns str as an identifier name prepared for insertion into SQL statements.
    *
@@ -404,6 +404,12 @@ public class OverlayDatasource extends Datasource
     return best;
   }
 
+  @Override
+  protected Datasource getWrappedDatasource()
+  {
+    return source1;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -417,30 +423,19 @@ public class OverlayDatasource extends Datasource
 
   private QueryResults overlayColumns(QueryResults results, Predicate<Dataset> filter)
   {
-    List<Dataset> resultsWithOverlayments = new ArrayList<>(results.size());
+    List<Dataset> datasets = new ArrayList<>(results.size());
+    results.forEach(datasets::add);
+    List<List<Dataset>> appendices = new JoinLookup(source2, match1, match2).lookup(datasets);
 
-    Iterator<Dataset> iter = results.iterator();
-    while (iter.hasNext())
+    List<Dataset> resultsWithOverlayments = new ArrayList<>(datasets.size());
+    for (int i = 0; i < datasets.size(); i++)
     {
-      Dataset ds = iter.next();
-
-      List<QueryPart> query = new ArrayList<>(match1.length);
-      for (int i = 0; i < match1.length; ++i)
-      {
-        try
-        {
-          query.add(new QueryPart(match2[i], ds.get(match1[i])));
-        } catch (ColumnNotFoundException x)
-        {
-          LOGGER.error("", x);
-        }
-      }
-
-      QueryResults appendix = source2.find(query);
+      Dataset ds = datasets.get(i);
+      List<Dataset> appendix = appendices.get(i);
 
       Dataset newDataset;
 
-      if (appendix.size() == 0)
+      if (appendix.isEmpty())
       {
         newDataset = new ConcatDataset(ds, null);
         if (filter.test(newDataset))
@@ -449,10 +444,9 @@ public class OverlayDatasource extends Datasource
         }
       } else
       {
-        Iterator<Dataset> appendixIter = appendix.iterator();
-        while (appendixIter.hasNext())
+        for (Dataset appendixElement : appendix)
         {
-          newDataset = new ConcatDataset(ds, appendixIter.next());
+          newDataset = new ConcatDataset(ds, appendixElement);
           if (filter.test(newDataset))
           {
             resultsWithOverlayments.add(newDataset);
@@ -467,25 +461,15 @@ public class OverlayDatasource extends Datasource
 
   private QueryResults overlayColumnsReversed(QueryResults results, Predicate<Dataset> filter)
   {
-    List<ConcatDataset> resultsWithOverlayments = new ArrayList<>(results.size());
+    List<Dataset> datasets = new ArrayList<>(results.size());
+    results.forEach(datasets::add);
+    List<List<Dataset>> prependices = new JoinLookup(source1, match2, match1).lookup(datasets);
 
-    for (Dataset ds : results)
+    List<ConcatDataset> resultsWithOverlayments = new ArrayList<>(datasets.size());
+    for (int i = 0; i < datasets.size(); i++)
     {
-      List<QueryPart> query = new ArrayList<>(match1.length);
-      for (int i = 0; i < match1.length; ++i)
-      {
-        try
-        {
-          query.add(new QueryPart(match1[i], ds.get(match2[i])));
-        } catch (ColumnNotFoundException x)
-        {
-          LOGGER.error("", x);
-        }
-      }
-
-      QueryResults prependix = source1.find(query);
-
-      for (Dataset prepend : prependix)
+      Dataset ds = datasets.get(i);
+      for (Dataset prepend : prependices.get(i))
       {
         ConcatDataset newDataset = new ConcatDataset(prepend, ds);
         if (filter.test(newDataset))
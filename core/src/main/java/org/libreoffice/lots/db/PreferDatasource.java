@@ -157,6 +157,12 @@ public class PreferDatasource extends Datasource
     return new QueryResultsOverride(source2.find(query), source1.find(query), source1);
   }
 
+  @Override
+  protected Datasource getWrappedDatasource()
+  {
+    return source1;
+  }
+
   @Override
   public String getName()
   {
@@ -64,6 +64,27 @@ public class QueryPart
     return searchString;
   }
 
+  @Override
+  public boolean equals(Object obj)
+  {
+    if (this == obj)
+    {
+      return true;
+    }
+    if (obj == null || getClass() != obj.getClass())
+    {
+      return false;
+    }
+    QueryPart other = (QueryPart) obj;
+    return columnName.equals(other.columnName) && searchString.equals(other.searchString);
+  }
+
+  @Override
+  public int hashCode()
+  {
+    return 31 * columnName.hashCode() + searchString.hashCode();
+  }
+
   @Override
   public String toString()
   {
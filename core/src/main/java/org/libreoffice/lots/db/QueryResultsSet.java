@@ -23,14 +23,20 @@
 package org.libreoffice.lots.db;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
 
 /**
  * Represents the union of multiple QueryResults.
  *
- * Duplicate results are filtered out. It is a mathematical union.
+ * Duplicate results are filtered out. It is a mathematical union. Duplicates are either recognized
+ * by a comparator, which compares each new record with all records of the set, or by a key, which
+ * is looked up in a hash set. The order of the records is the order in which they were added.
  * @author daniel.sikeler
  */
 public class QueryResultsSet implements QueryResults
@@ -43,6 +49,14 @@ public class QueryResultsSet implements QueryResults
    * This comparator is used to recognize the equality of two datasets.
    */
   private final Comparator<Dataset> comparator;
+  /**
+   * This function computes the key of a dataset, datasets with equal keys are equal.
+   */
+  private final Function<Dataset, ?> identity;
+  /**
+   * The keys of all datasets in the set.
+   */
+  private final Set<Object> keys;
 
   /**
    * Creates an empty set.
@@ -51,6 +65,30 @@ public class QueryResultsSet implements QueryResults
   public QueryResultsSet(Comparator<Dataset> comparator)
   {
     this.comparator = comparator;
+    this.identity = null;
+    this.keys = null;
+  }
+
+  /**
+   * Creates an empty set which recognizes duplicates by their key.
+   * @param identity Computes the key of a dataset, e.g. {@link #datasetIdentity(Dataset)}. The
+   *          keys must implement {@link Object#hashCode()} and {@link Object#equals(Object)}.
+   */
+  public QueryResultsSet(Function<Dataset, ?> identity)
+  {
+    this.comparator = null;
+    this.identity = identity;
+    this.keys = new HashSet<>();
+  }
+
+  /**
+   * The identity of a dataset consisting of its class and its key.
+   * @param dataset The dataset.
+   * @return A key for {@link #QueryResultsSet(Function)}.
+   */
+  public static Object datasetIdentity(Dataset dataset)
+  {
+    return Arrays.asList(dataset.getClass(), dataset.getKey());
   }
 
   /**
@@ -70,6 +108,15 @@ public class QueryResultsSet implements QueryResults
    */
   public void add(Dataset dataset)
   {
+    if (keys != null)
+    {
+      if (keys.add(identity.apply(dataset)))
+      {
+        results.add(dataset);
+      }
+      return;
+    }
+
     boolean present = false;
     for (Dataset ds : results)
     {
@@ -23,14 +23,25 @@
 package org.libreoffice.lots.db;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 
 /**
- * Superclass for data sources that keep their data entirely in memory
+ * Superclass for data sources that keep their data entirely in memory.
+ *
+ * Columns can be indexed, so that {@link #find(List)} only has to test the datasets found by the
+ * most selective index instead of all datasets. The indexes and the map used by
+ * {@link #getDatasetsByKey(Collection)} are built on first use, so the data must not be modified
+ * afterwards.
  */
 public class RAMDatasource extends Datasource
 {
@@ -49,6 +60,21 @@ public class RAMDatasource extends Datasource
    */
   private String name;
 
+  /**
+   * The columns which should be indexed.
+   */
+  private Set<String> indexedColumns = Collections.emptySet();
+
+  /**
+   * The indexes which have already been built.
+   */
+  private final Map<String, ColumnIndex> indexes = new ConcurrentHashMap<>();
+
+  /**
+   * Maps each key to the positions of its datasets. Built on first use.
+   */
+  private volatile Map<String, int[]> keyIndex;
+
   /**
    * Creates a new RAMDatasource with the name 'name'. 'data' and 'schema' are included as references, not copied.
    *
@@ -64,6 +90,25 @@ public class RAMDatasource extends Datasource
     init(name, schema, data);
   }
 
+  /**
+   * Creates a new RAMDatasource with indexes on some columns. 'data' and 'schema' are included as
+   * references, not copied.
+   *
+   * @param name
+   *          the name of the data source
+   * @param schema
+   *          the schema of the data source
+   * @param data
+   *          the data source records
+   * @param indexedColumns
+   *          the columns which should be indexed
+   */
+  public RAMDatasource(String name, List<String> schema, List<Dataset> data,
+      Collection<String> indexedColumns)
+  {
+    init(name, schema, data, indexedColumns);
+  }
+
   /**
    * Creates an uninitialized RAMDatasource. A derived class that uses this constructor should call 'init()'
    * to perform the necessary initializations.
@@ -81,6 +126,20 @@ public class RAMDatasource extends Datasource
     this.schema = schema;
     this.data = data;
     this.name = name;
+    this.indexedColumns = Collections.emptySet();
+    indexes.clear();
+    keyIndex = null;
+  }
+
+  /**
+   * Performs the initialization actions of the constructor with the same parameters.
+   * This method should be used by derived classes when they use the constructor without arguments.
+   */
+  protected void init(String name, List<String> schema, List<Dataset> data,
+      Collection<String> indexedColumns)
+  {
+    init(name, schema, data);
+    this.indexedColumns = new HashSet<>(indexedColumns);
   }
 
   @Override
@@ -92,17 +151,20 @@ public class RAMDatasource extends Datasource
   @Override
   public QueryResults getDatasetsByKey(Collection<String> keys)
   {
-    List<Dataset> res = new ArrayList<>();
-    Iterator<Dataset> iter = data.iterator();
-    while (iter.hasNext())
+    Map<String, int[]> index = getKeyIndex();
+    List<Integer> positions = new ArrayList<>();
+    for (String key : new HashSet<>(keys))
     {
-      Dataset ds = iter.next();
-      if (keys.contains(ds.getKey()))
+      int[] rows = index.get(key);
+      if (rows != null)
       {
-        res.add(ds);
+        Arrays.stream(rows).forEach(positions::add);
       }
     }
+    Collections.sort(positions);
 
+    List<Dataset> res = new ArrayList<>(positions.size());
+    positions.forEach(row -> res.add(data.get(row)));
     return new QueryResultsList(res);
   }
 
@@ -119,20 +181,152 @@ public class RAMDatasource extends Datasource
       return new QueryResultsList(new Vector<Dataset>(0));
     }
 
-    Predicate<Dataset> pred = DatasetPredicate.makePredicate(query);
+    List<DatasetPredicate.PartMatcher> matchers = DatasetPredicate.compile(query);
+    Predicate<Dataset> pred = DatasetPredicate.matchAllOf(matchers);
 
     List<Dataset> results = new ArrayList<>();
 
-    data.forEach(ds -> {
-      if (pred.test(ds))
+    int[] candidates = findCandidates(matchers);
+    if (candidates == null)
+    {
+      data.forEach(ds -> {
+        if (pred.test(ds))
+        {
+          results.add(ds);
+        }
+      });
+    } else
+    {
+      for (int row : candidates)
       {
-        results.add(ds);
+        Dataset ds = data.get(row);
+        if (pred.test(ds))
+        {
+          results.add(ds);
+        }
       }
-    });
+    }
 
     return new QueryResultsList(results);
   }
 
+  /**
+   * Queries which can use an index probe it, all other queries are tested together in a single
+   * pass over the data.
+   */
+  @Override
+  public List<QueryResults> findAll(List<List<QueryPart>> queries)
+  {
+    List<QueryResults> results = new ArrayList<>(Collections.nCopies(queries.size(), null));
+    List<Integer> scanned = new ArrayList<>();
+    List<Predicate<Dataset>> scannedPredicates = new ArrayList<>();
+    for (int i = 0; i < queries.size(); i++)
+    {
+      List<QueryPart> query = queries.get(i);
+      if (query.isEmpty())
+      {
+        results.set(i, new QueryResultsList(new ArrayList<Dataset>(0)));
+        continue;
+      }
+      List<DatasetPredicate.PartMatcher> matchers = DatasetPredicate.compile(query);
+      Predicate<Dataset> pred = DatasetPredicate.matchAllOf(matchers);
+      int[] candidates = findCandidates(matchers);
+      if (candidates == null)
+      {
+        scanned.add(i);
+        scannedPredicates.add(pred);
+      } else
+      {
+        List<Dataset> found = new ArrayList<>();
+        for (int row : candidates)
+        {
+          Dataset ds = data.get(row);
+          if (pred.test(ds))
+          {
+            found.add(ds);
+          }
+        }
+        results.set(i, new QueryResultsList(found));
+      }
+    }
+
+    if (!scanned.isEmpty())
+    {
+      List<List<Dataset>> found = new ArrayList<>(scanned.size());
+      scanned.forEach(i -> found.add(new ArrayList<>()));
+      for (Dataset ds : data)
+      {
+        for (int j = 0; j < scannedPredicates.size(); j++)
+        {
+          if (scannedPredicates.get(j).test(ds))
+          {
+            found.get(j).add(ds);
+          }
+        }
+      }
+      for (int j = 0; j < scanned.size(); j++)
+      {
+        results.set(scanned.get(j), new QueryResultsList(found.get(j)));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Find the datasets which may match a query with the most selective index.
+   *
+   * @return The positions of the datasets in ascending order or null, if all datasets have to be
+   *         tested.
+   */
+  private int[] findCandidates(List<DatasetPredicate.PartMatcher> matchers)
+  {
+    ColumnIndex best = null;
+    DatasetPredicate.PartMatcher bestMatcher = null;
+    int bestEstimate = data.size();
+    for (DatasetPredicate.PartMatcher matcher : matchers)
+    {
+      if (!indexedColumns.contains(matcher.getColumn()))
+      {
+        continue;
+      }
+      ColumnIndex index = getIndex(matcher.getColumn());
+      int estimate = index.estimate(matcher.getNeedle(), matcher.isAtStart(), matcher.isAtEnd());
+      if (estimate < bestEstimate)
+      {
+        best = index;
+        bestMatcher = matcher;
+        bestEstimate = estimate;
+      }
+    }
+    return best == null ? null
+        : best.lookup(bestMatcher.getNeedle(), bestMatcher.isAtStart(), bestMatcher.isAtEnd());
+  }
+
+  private ColumnIndex getIndex(String column)
+  {
+    return indexes.computeIfAbsent(column, c -> new ColumnIndex(data, c));
+  }
+
+  private Map<String, int[]> getKeyIndex()
+  {
+    Map<String, int[]> index = keyIndex;
+    if (index == null)
+    {
+      Map<String, List<Integer>> rows = new HashMap<>();
+      for (int i = 0; i < data.size(); i++)
+      {
+        rows.computeIfAbsent(data.get(i).getKey(), k -> new ArrayList<>(1)).add(i);
+      }
+      index = new HashMap<>(rows.size() * 4 / 3 + 1);
+      for (Map.Entry<String, List<Integer>> entry : rows.entrySet())
+      {
+        index.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+      }
+      keyIndex = index;
+    }
+    return index;
+  }
+
   @Override
   public QueryResults getContents()
   {
@@ -0,0 +1,484 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.libreoffice.lots.WollMuxFiles;
+import org.libreoffice.lots.config.ConfigThingy;
+import org.libreoffice.lots.config.ConfigurationErrorException;
+import org.libreoffice.lots.util.L;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Data source which keeps a copy of another data source in a local index file, so that searches
+ * work without the network even if the other data source is slow or unreachable. The description
+ * looks like
+ *
+ * <pre>
+ * DataSource(
+ *   NAME "ldapReplica"
+ *   TYPE "replica"
+ *   SOURCE "ldap"
+ *   FILTER(Nachname "*") # datasets which are copied, may be repeated, default all datasets
+ *   REFRESH "3600"       # seconds between synchronizations, 0 disables them, default 3600
+ *   SYNC_TIMEOUT "600"   # seconds after which a synchronization is stopped, 0 waits forever
+ *   SHRINK_SYNCS "3"     # see below, default 3
+ * )
+ * </pre>
+ *
+ * Without FILTER the datasets of {@link Datasource#getContents()} are copied, so a FILTER is
+ * needed for sources like LDAP which don't return their contents.
+ *
+ * The index is stored in the directory "replica" of the WollMux directory (see
+ * {@link ReplicaIndex}) and loaded at start, so the first search after a restart doesn't need the
+ * source. The source is synchronized in the background. As long as there's no index, queries are
+ * passed to the source. Afterwards only the index is searched, keys which aren't in the index
+ * aren't found.
+ *
+ * If the source suddenly returns less than half of the datasets, it has probably failed. The
+ * index only shrinks that much if SHRINK_SYNCS consecutive synchronizations return so few
+ * datasets.
+ */
+public class ReplicaDatasource extends Datasource
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReplicaDatasource.class);
+
+  /**
+   * Name of the directory in {@link WollMuxFiles#getWollMuxDir()} which contains the index files.
+   */
+  private static final String REPLICA_DIR = "replica";
+
+  private static final String INDEX_SUFFIX = ".idx";
+
+  /**
+   * The thread which synchronizes all replicas.
+   */
+  private static final ScheduledExecutorService SYNC_EXECUTOR = Executors
+      .newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "replica synchronization");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private final String name;
+
+  private final Datasource source;
+
+  private final List<String> schema;
+
+  private final List<List<QueryPart>> filters = new ArrayList<>();
+
+  private final long refresh;
+
+  private final long syncTimeout;
+
+  private final long shrinkSyncs;
+
+  /**
+   * The number of consecutive synchronizations which returned less than half of the datasets of
+   * the index.
+   */
+  private int shrinkingSyncs = 0;
+
+  private final File directory;
+
+  /**
+   * The names of the index files of this replica are this prefix, the time of the synchronization
+   * and {@link #INDEX_SUFFIX}.
+   */
+  private final String filePrefix;
+
+  /**
+   * The current index or null, if there's none yet.
+   */
+  private volatile ReplicaIndex index;
+
+  /**
+   * Creates a new ReplicaDatasource and starts the synchronization in the background.
+   *
+   * @param nameToDatasource
+   *          Contains all data sources that have already been fully instantiated up to the point
+   *          of defining this ReplicaDatasource.
+   * @param sourceDesc
+   *          the "DataSource" node that contains the description of this ReplicaDatasource.
+   */
+  public ReplicaDatasource(Map<String, Datasource> nameToDatasource, ConfigThingy sourceDesc)
+  {
+    this(nameToDatasource, sourceDesc, new File(WollMuxFiles.getWollMuxDir(), REPLICA_DIR));
+    schedule(SYNC_EXECUTOR);
+  }
+
+  /**
+   * Creates a new ReplicaDatasource and loads its index, but doesn't synchronize it.
+   *
+   * @param directory
+   *          The directory of the index files.
+   */
+  ReplicaDatasource(Map<String, Datasource> nameToDatasource, ConfigThingy sourceDesc,
+      File directory)
+  {
+    this.directory = directory;
+    name = parseConfig(sourceDesc, "NAME", () -> L.m("NAME of data source is missing"));
+    String sourceName = parseConfig(sourceDesc, "SOURCE",
+        () -> L.m("SOURCE of data source {0} is missing", name));
+    source = nameToDatasource.get(sourceName);
+    if (source == null)
+    {
+      throw new ConfigurationErrorException(L.m("Error during initialization of datasource \"{0}\": "
+          + "Referenced datasource \"{1}\" missing or defined incorrectly", name, sourceName));
+    }
+    schema = source.getSchema();
+
+    for (ConfigThingy filterConf : sourceDesc.query("FILTER"))
+    {
+      List<QueryPart> filter = new ArrayList<>();
+      for (ConfigThingy partConf : filterConf)
+      {
+        if (!schema.contains(partConf.getName()))
+        {
+          throw new ConfigurationErrorException(L.m(
+              "Column \"{0}\" of FILTER is not defined in data source {1}", partConf.getName(),
+              sourceName));
+        }
+        filter.add(new QueryPart(partConf.getName(), partConf.toString()));
+      }
+      if (filter.isEmpty())
+      {
+        throw new ConfigurationErrorException(L.m("FILTER of data source {0} is empty", name));
+      }
+      filters.add(filter);
+    }
+    refresh = TimeUnit.SECONDS.toMillis(parseNumber(sourceDesc, name, "REFRESH", 3600));
+    syncTimeout = TimeUnit.SECONDS.toMillis(parseNumber(sourceDesc, name, "SYNC_TIMEOUT", 600));
+    shrinkSyncs = parseNumber(sourceDesc, name, "SHRINK_SYNCS", 3);
+
+    filePrefix = name.replaceAll("[^\\w-]", "_") + "-";
+    index = load();
+  }
+
+  /**
+   * Load the newest valid index file. Older files are deleted.
+   *
+   * @return The index or null, if there's no valid index with the schema of the source.
+   */
+  private ReplicaIndex load()
+  {
+    TreeMap<Long, File> files = listIndexFiles();
+    ReplicaIndex loaded = null;
+    for (Map.Entry<Long, File> entry : files.descendingMap().entrySet())
+    {
+      try
+      {
+        ReplicaIndex candidate = ReplicaIndex.read(entry.getValue());
+        if (candidate.getSchema().equals(schema))
+        {
+          loaded = candidate;
+          LOGGER.debug("Replica {} loaded {} datasets from {}", name, loaded.size(),
+              entry.getValue());
+          deleteIndexFiles(entry.getValue());
+          break;
+        }
+        LOGGER.debug("Index {} has another schema than data source {}", entry.getValue(), name);
+      } catch (IOException e)
+      {
+        LOGGER.info("Index {} of data source {} couldn't be read", entry.getValue(), name, e);
+      }
+    }
+    return loaded;
+  }
+
+  /**
+   * The index files of this replica by the time of their synchronization.
+   */
+  private TreeMap<Long, File> listIndexFiles()
+  {
+    TreeMap<Long, File> files = new TreeMap<>();
+    Pattern pattern =
+        Pattern.compile(Pattern.quote(filePrefix) + "(\\d+)" + Pattern.quote(INDEX_SUFFIX));
+    File[] children = directory.listFiles();
+    if (children != null)
+    {
+      for (File file : children)
+      {
+        Matcher m = pattern.matcher(file.getName());
+        if (m.matches())
+        {
+          files.put(Long.valueOf(m.group(1)), file);
+        }
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Delete all index files of this replica except the current one. Files which are still mapped
+   * can't be deleted on some systems, they're deleted later.
+   */
+  private void deleteIndexFiles(File current)
+  {
+    for (File file : listIndexFiles().values())
+    {
+      if (!file.equals(current) && !file.delete())
+      {
+        LOGGER.debug("Old index {} couldn't be deleted", file);
+      }
+    }
+  }
+
+  /**
+   * Synchronize the replica periodically every {@link #refresh} milliseconds. The first
+   * synchronization starts immediately if there's no index or if the index is older. If the
+   * replica isn't used anymore, the synchronization stops.
+   *
+   * @param executor
+   *          The executor which runs the synchronization.
+   */
+  void schedule(ScheduledExecutorService executor)
+  {
+    ReplicaIndex current = index;
+    SyncTask task = new SyncTask(this);
+    if (refresh > 0)
+    {
+      long delay = current == null ? 0
+          : Math.max(0, current.getSyncTime() + refresh - System.currentTimeMillis());
+      task.future = executor.scheduleWithFixedDelay(task, delay, refresh, TimeUnit.MILLISECONDS);
+    } else if (current == null)
+    {
+      executor.execute(task);
+    }
+  }
+
+  /**
+   * Copy the datasets of the source into a new index. The synchronization fails if the source
+   * reports that its results are incomplete or doesn't return them within {@link #syncTimeout}.
+   * If the source returns less than half of the datasets of the current index, the current index
+   * and its file are kept because the source has probably failed, unless this has happened
+   * {@link #shrinkSyncs} times in a row.
+   *
+   * @return True if the index has been replaced.
+   */
+  synchronized boolean sync()
+  {
+    long start = System.currentTimeMillis();
+    List<Dataset> datasets;
+    // within the limits of the source, like its searches
+    FutureTask<List<Dataset>> task = new FutureTask<>(this::fetch);
+    try
+    {
+      source.getExecutor().execute(task);
+      datasets = syncTimeout > 0 ? task.get(syncTimeout, TimeUnit.MILLISECONDS) : task.get();
+    } catch (TimeoutException e)
+    {
+      task.cancel(true);
+      LOGGER.error("Synchronization of data source {} took more than {} ms and was stopped", name,
+          syncTimeout);
+      return false;
+    } catch (InterruptedException e)
+    {
+      task.cancel(true);
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException | RuntimeException e)
+    {
+      LOGGER.error("Data source {} couldn't be synchronized", name, e);
+      return false;
+    }
+
+    ReplicaIndex current = index;
+    if (current != null && datasets.size() * 2L < current.size())
+    {
+      shrinkingSyncs++;
+      if (shrinkingSyncs < shrinkSyncs)
+      {
+        LOGGER.warn("Data source {} returned only {} of {} datasets, replica {} isn't changed",
+            source.getName(), datasets.size(), current.size(), name);
+        return false;
+      }
+      LOGGER.warn("Data source {} returned only {} of {} datasets {} times, replica {} shrinks",
+          source.getName(), datasets.size(), current.size(), shrinkingSyncs, name);
+    }
+    shrinkingSyncs = 0;
+
+    long syncTime = current == null ? start : Math.max(start, current.getSyncTime() + 1);
+    File file = new File(directory, filePrefix + syncTime + INDEX_SUFFIX);
+    try
+    {
+      if (!directory.isDirectory() && !directory.mkdirs())
+      {
+        throw new IOException("Directory " + directory + " can't be created");
+      }
+      ReplicaIndex.write(file, schema, datasets, syncTime);
+      index = ReplicaIndex.read(file);
+    } catch (IOException e)
+    {
+      LOGGER.error("Index of data source {} couldn't be written", name, e);
+      return false;
+    }
+    deleteIndexFiles(file);
+    LOGGER.debug("Replica {} synchronized {} datasets in {} ms", name, datasets.size(),
+        System.currentTimeMillis() - start);
+    return true;
+  }
+
+  /**
+   * Get the datasets which are copied from the source.
+   *
+   * @throws IllegalStateException
+   *           The source couldn't return all datasets.
+   */
+  private List<Dataset> fetch()
+  {
+    if (filters.isEmpty())
+    {
+      List<Dataset> datasets = new ArrayList<>();
+      QueryResults results = source.getContents();
+      results.forEach(datasets::add);
+      checkComplete(results);
+      return datasets;
+    }
+    Map<String, Dataset> datasets = new LinkedHashMap<>();
+    for (QueryResults results : source.findAll(filters))
+    {
+      for (Dataset ds : results)
+      {
+        datasets.putIfAbsent(ds.getKey(), ds);
+      }
+      checkComplete(results);
+    }
+    return new ArrayList<>(datasets.values());
+  }
+
+  private void checkComplete(QueryResults results)
+  {
+    if (LazyQueryResults.isFailed(results))
+    {
+      throw new IllegalStateException(
+          "Data source " + source.getName() + " returned incomplete results");
+    }
+  }
+
+  @Override
+  public List<String> getSchema()
+  {
+    return new ArrayList<>(schema);
+  }
+
+  @Override
+  public QueryResults getDatasetsByKey(Collection<String> keys)
+  {
+    ReplicaIndex current = index;
+    if (current == null)
+    {
+      return source.getDatasetsByKey(keys);
+    }
+    return new QueryResultsList(current.getByKeys(keys));
+  }
+
+  @Override
+  public QueryResults getContents()
+  {
+    ReplicaIndex current = index;
+    if (current == null)
+    {
+      return source.getContents();
+    }
+    return new QueryResultsList(current.getAll());
+  }
+
+  @Override
+  public QueryResults find(List<QueryPart> query)
+  {
+    ReplicaIndex current = index;
+    if (current == null)
+    {
+      return source.find(query);
+    }
+    if (query.isEmpty())
+    {
+      return new QueryResultsList(new ArrayList<Dataset>(0));
+    }
+    return new QueryResultsList(current.find(query));
+  }
+
+  @Override
+  protected Datasource getWrappedDatasource()
+  {
+    return source;
+  }
+
+  @Override
+  public String getName()
+  {
+    return name;
+  }
+
+  /**
+   * Synchronizes a replica as long as it's used. The task only holds a weak reference, so that
+   * replicas of an old configuration can be garbage collected.
+   */
+  private static class SyncTask implements Runnable
+  {
+    private final WeakReference<ReplicaDatasource> replica;
+
+    private volatile ScheduledFuture<?> future;
+
+    SyncTask(ReplicaDatasource replica)
+    {
+      this.replica = new WeakReference<>(replica);
+    }
+
+    @Override
+    public void run()
+    {
+      ReplicaDatasource ds = replica.get();
+      if (ds == null)
+      {
+        if (future != null)
+        {
+          future.cancel(false);
+        }
+        return;
+      }
+      ds.sync();
+    }
+  }
+}
@@ -0,0 +1,549 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.db;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * A memory-mapped index file with a copy of the datasets of a data source. The values of each
+ * column and the keys are stored as columns of UTF-8 strings. The rows are sorted by key in the
+ * key index and by the lower case value of each column in a prefix index. So datasets can be found
+ * by key and by the beginning of a search string with a binary search.
+ *
+ * The file is written once and never modified. It starts with a header
+ *
+ * <pre>
+ * int magic, int version, long syncTime, int columnCount, int rowCount,
+ * columnCount * (int length, byte[] name),
+ * int[columnCount + 1] columnStarts, int keyIndexStart, int[columnCount] prefixIndexStarts
+ * </pre>
+ *
+ * where the last column contains the keys. A column consists of int[rowCount + 1] offsets of the
+ * values, a bit set of the null values and the bytes of the values. An index consists of
+ * int[rowCount] row numbers.
+ */
+final class ReplicaIndex
+{
+  /**
+   * "REPL" in ASCII.
+   */
+  private static final int MAGIC = 0x5245504C;
+
+  /**
+   * Has to be increased if the format of the file changes.
+   */
+  private static final int VERSION = 1;
+
+  private final ByteBuffer buffer;
+
+  private final long syncTime;
+
+  private final List<String> schema;
+
+  private final int rows;
+
+  private final int[] columnStarts;
+
+  private final int keyIndexStart;
+
+  private final int[] prefixIndexStarts;
+
+  private ReplicaIndex(ByteBuffer buffer) throws IOException
+  {
+    this.buffer = buffer;
+    try
+    {
+      ByteBuffer header = buffer.duplicate();
+      if (header.getInt() != MAGIC || header.getInt() != VERSION)
+      {
+        throw new IOException("Unknown format of replica index");
+      }
+      syncTime = header.getLong();
+      int columns = header.getInt();
+      rows = header.getInt();
+      if (columns < 0 || rows < 0)
+      {
+        throw new IOException("Invalid replica index");
+      }
+      schema = new ArrayList<>(columns);
+      for (int i = 0; i < columns; i++)
+      {
+        byte[] name = new byte[header.getInt()];
+        header.get(name);
+        schema.add(new String(name, StandardCharsets.UTF_8));
+      }
+      columnStarts = new int[columns + 1];
+      for (int i = 0; i <= columns; i++)
+      {
+        columnStarts[i] = checkPosition(header.getInt(), 4 * (rows + 1) + (rows + 7) / 8);
+      }
+      keyIndexStart = checkPosition(header.getInt(), 4 * rows);
+      prefixIndexStarts = new int[columns];
+      for (int i = 0; i < columns; i++)
+      {
+        prefixIndexStarts[i] = checkPosition(header.getInt(), 4 * rows);
+      }
+    } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e)
+    {
+      throw new IOException("Invalid replica index", e);
+    }
+  }
+
+  private int checkPosition(int position, int length) throws IOException
+  {
+    if (position < 0 || (long) position + length > buffer.limit())
+    {
+      throw new IOException("Invalid replica index");
+    }
+    return position;
+  }
+
+  /**
+   * Map an index file.
+   *
+   * @param file
+   *          The file.
+   * @return The index.
+   * @throws IOException
+   *           The file can't be read or isn't an index.
+   */
+  static ReplicaIndex read(File file) throws IOException
+  {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+    {
+      if (channel.size() > Integer.MAX_VALUE)
+      {
+        throw new IOException("Replica index is too large");
+      }
+      return new ReplicaIndex(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Write an index file. The file is replaced atomically.
+   *
+   * @param file
+   *          The file.
+   * @param schema
+   *          The columns of the datasets.
+   * @param datasets
+   *          The datasets. Unknown columns are stored as null.
+   * @param syncTime
+   *          The time of the synchronization in milliseconds.
+   * @throws IOException
+   *           The file can't be written.
+   */
+  static void write(File file, List<String> schema, List<Dataset> datasets, long syncTime)
+      throws IOException
+  {
+    int columns = schema.size();
+    int rows = datasets.size();
+    List<byte[]> sections = new ArrayList<>();
+    List<int[]> indexes = new ArrayList<>();
+    for (int c = 0; c < columns; c++)
+    {
+      String[] values = new String[rows];
+      for (int r = 0; r < rows; r++)
+      {
+        try
+        {
+          values[r] = datasets.get(r).get(schema.get(c));
+        } catch (ColumnNotFoundException e)
+        {
+          values[r] = null;
+        }
+      }
+      sections.add(encodeColumn(values));
+      indexes.add(sort(values, true));
+    }
+    String[] keys = new String[rows];
+    for (int r = 0; r < rows; r++)
+    {
+      keys[r] = datasets.get(r).getKey();
+      if (keys[r] == null)
+      {
+        keys[r] = "";
+      }
+    }
+    sections.add(encodeColumn(keys));
+    int[] keyIndex = sort(keys, false);
+
+    ByteArrayOutputStream names = new ByteArrayOutputStream();
+    for (String column : schema)
+    {
+      writeString(new DataOutputStream(names), column);
+    }
+    long position = 4 + 4 + 8 + 4 + 4 + names.size() + 4 * (2 * columns + 2);
+    long[] starts = new long[2 * columns + 2];
+    for (int i = 0; i <= columns; i++)
+    {
+      starts[i] = position;
+      position += sections.get(i).length;
+    }
+    for (int i = columns + 1; i < starts.length; i++)
+    {
+      starts[i] = position;
+      position += 4 * rows;
+    }
+    if (position > Integer.MAX_VALUE)
+    {
+      throw new IOException("Replica index is too large");
+    }
+
+    File parent = file.getAbsoluteFile().getParentFile();
+    File tmp = File.createTempFile(file.getName(), ".tmp", parent);
+    try
+    {
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tmp))))
+      {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(syncTime);
+        out.writeInt(columns);
+        out.writeInt(rows);
+        names.writeTo(out);
+        for (long start : starts)
+        {
+          out.writeInt((int) start);
+        }
+        for (byte[] section : sections)
+        {
+          out.write(section);
+        }
+        writeInts(out, keyIndex);
+        for (int[] index : indexes)
+        {
+          writeInts(out, index);
+        }
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally
+    {
+      Files.deleteIfExists(tmp.toPath());
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String str) throws IOException
+  {
+    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static void writeInts(DataOutputStream out, int[] values) throws IOException
+  {
+    for (int value : values)
+    {
+      out.writeInt(value);
+    }
+  }
+
+  private static byte[] encodeColumn(String[] values) throws IOException
+  {
+    byte[][] encoded = new byte[values.length][];
+    byte[] nulls = new byte[(values.length + 7) / 8];
+    for (int r = 0; r < values.length; r++)
+    {
+      if (values[r] == null)
+      {
+        encoded[r] = new byte[0];
+        nulls[r >> 3] |= 1 << (r & 7);
+      } else
+      {
+        encoded[r] = values[r].getBytes(StandardCharsets.UTF_8);
+      }
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    int offset = 0;
+    out.writeInt(offset);
+    for (byte[] value : encoded)
+    {
+      offset += value.length;
+      out.writeInt(offset);
+    }
+    out.write(nulls);
+    for (byte[] value : encoded)
+    {
+      out.write(value);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * The row numbers sorted by the values.
+   */
+  private static int[] sort(String[] values, boolean ignoreCase)
+  {
+    String[] sortKeys = new String[values.length];
+    for (int r = 0; r < values.length; r++)
+    {
+      sortKeys[r] = sortKey(values[r], ignoreCase);
+    }
+    return IntStream.range(0, values.length).boxed()
+        .sorted(Comparator.comparing(r -> sortKeys[r])).mapToInt(Integer::intValue).toArray();
+  }
+
+  private static String sortKey(String value, boolean ignoreCase)
+  {
+    if (value == null)
+    {
+      return "";
+    }
+    return ignoreCase ? value.toLowerCase(Locale.ROOT) : value;
+  }
+
+  /**
+   * The time of the synchronization which has created the index.
+   *
+   * @return The time in milliseconds.
+   */
+  long getSyncTime()
+  {
+    return syncTime;
+  }
+
+  /**
+   * The columns of the datasets.
+   *
+   * @return The names of the columns.
+   */
+  List<String> getSchema()
+  {
+    return schema;
+  }
+
+  /**
+   * The number of datasets.
+   *
+   * @return The number of datasets in the index.
+   */
+  int size()
+  {
+    return rows;
+  }
+
+  /**
+   * All datasets in the order in which they have been written.
+   *
+   * @return The datasets.
+   */
+  List<Dataset> getAll()
+  {
+    List<Dataset> datasets = new ArrayList<>(rows);
+    for (int r = 0; r < rows; r++)
+    {
+      datasets.add(getDataset(r));
+    }
+    return datasets;
+  }
+
+  /**
+   * The datasets with the given keys.
+   *
+   * @param keys
+   *          The keys.
+   * @return The datasets in the order of the keys.
+   */
+  List<Dataset> getByKeys(Collection<String> keys)
+  {
+    List<Dataset> datasets = new ArrayList<>();
+    int keyColumn = schema.size();
+    for (String key : new LinkedHashSet<>(keys))
+    {
+      int i = lowerBound(keyIndexStart, keyColumn, key, false);
+      for (; i < rows; i++)
+      {
+        int row = buffer.getInt(keyIndexStart + 4 * i);
+        if (!key.equals(getString(keyColumn, row)))
+        {
+          break;
+        }
+        datasets.add(getDataset(row));
+      }
+    }
+    return datasets;
+  }
+
+  /**
+   * Find the datasets which match all parts of a query like {@link BatchResults#matches(Dataset,
+   * List)}. The part with the fewest values starting like its search string is looked up in the
+   * prefix index, the other parts are tested for these values only.
+   *
+   * @param query
+   *          The query.
+   * @return The datasets in the order in which they have been written.
+   */
+  List<Dataset> find(List<QueryPart> query)
+  {
+    int[] columns = new int[query.size()];
+    int from = 0;
+    int to = rows;
+    int index = -1;
+    for (int i = 0; i < columns.length; i++)
+    {
+      QueryPart part = query.get(i);
+      columns[i] = schema.indexOf(part.getColumnName());
+      if (columns[i] < 0)
+      {
+        return new ArrayList<>();
+      }
+      String search = part.getSearchString();
+      int wildcard = search.indexOf('*');
+      String prefix = (wildcard < 0 ? search : search.substring(0, wildcard))
+          .toLowerCase(Locale.ROOT);
+      if (!prefix.isEmpty())
+      {
+        int start = prefixIndexStarts[columns[i]];
+        int lower = lowerBound(start, columns[i], prefix, true);
+        int upper = upperBound(start, columns[i], prefix, lower);
+        if (upper - lower < to - from)
+        {
+          from = lower;
+          to = upper;
+          index = start;
+        }
+      }
+    }
+
+    List<Integer> found = new ArrayList<>();
+    for (int i = from; i < to; i++)
+    {
+      int row = index < 0 ? i : buffer.getInt(index + 4 * i);
+      boolean matches = true;
+      for (int p = 0; p < columns.length && matches; p++)
+      {
+        String value = getString(columns[p], row);
+        matches = value != null && BatchResults.matches(value, query.get(p).getSearchString());
+      }
+      if (matches)
+      {
+        found.add(row);
+      }
+    }
+    found.sort(null);
+
+    List<Dataset> datasets = new ArrayList<>(found.size());
+    for (int row : found)
+    {
+      datasets.add(getDataset(row));
+    }
+    return datasets;
+  }
+
+  /**
+   * The position in an index of the first row whose sort key isn't less than value.
+   */
+  private int lowerBound(int index, int column, String value, boolean ignoreCase)
+  {
+    int low = 0;
+    int high = rows;
+    while (low < high)
+    {
+      int mid = (low + high) >>> 1;
+      String key = sortKey(getString(column, buffer.getInt(index + 4 * mid)), ignoreCase);
+      if (key.compareTo(value) < 0)
+      {
+        low = mid + 1;
+      } else
+      {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * The position in a prefix index of the first row after lower whose lower case value doesn't
+   * start with prefix.
+   */
+  private int upperBound(int index, int column, String prefix, int lower)
+  {
+    int low = lower;
+    int high = rows;
+    while (low < high)
+    {
+      int mid = (low + high) >>> 1;
+      String key = sortKey(getString(column, buffer.getInt(index + 4 * mid)), true);
+      if (key.startsWith(prefix))
+      {
+        low = mid + 1;
+      } else
+      {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private Dataset getDataset(int row)
+  {
+    Map<String, String> data = new HashMap<>();
+    for (int c = 0; c < schema.size(); c++)
+    {
+      data.put(schema.get(c), getString(c, row));
+    }
+    return new SimpleDataset(getString(schema.size(), row), data);
+  }
+
+  private String getString(int column, int row)
+  {
+    int start = columnStarts[column];
+    int nulls = start + 4 * (rows + 1);
+    if ((buffer.get(nulls + (row >> 3)) & (1 << (row & 7))) != 0)
+    {
+      return null;
+    }
+    int offset = buffer.getInt(start + 4 * row);
+    byte[] bytes = new byte[buffer.getInt(start + 4 * (row + 1)) - offset];
+    ByteBuffer value = buffer.duplicate();
+    value.position(nulls + (rows + 7) / 8 + offset);
+    value.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -226,6 +226,12 @@ public class SchemaDatasource extends Datasource
     return wrapDatasets(source.find(translatedQuery));
   }
 
+  @Override
+  protected Datasource getWrappedDatasource()
+  {
+    return source;
+  }
+
   @Override
   public String getName()
   {
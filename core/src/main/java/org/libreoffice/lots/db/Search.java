@@ -24,18 +24,30 @@ package org.libreoffice.lots.db;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Stream;
 
 import org.libreoffice.lots.config.ConfigThingy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Diese Klasse stellt Methoden zur Verfügung um in Datenquellen Suchen durchzuführen.
  */
 public class Search
 {
+  private static final Logger LOGGER = LoggerFactory.getLogger(Search.class);
 
   private Search()
   {
@@ -65,26 +77,144 @@ public class Search
     {
       return null;
     }
+    return search(queryString, searchStrategy, datasources, Datasource.getDatasourceTimeout());
+  }
 
+  /**
+   * Performs the search. The queries of different data sources are executed concurrently on the
+   * {@link DatasourceExecutor} of each data source, the queries of one data source one after
+   * another. If there are several queries, those which fail or don't finish within the timeout
+   * are logged and skipped. If a query doesn't finish within the timeout, its thread is
+   * interrupted and the remaining queries of its data source are skipped. A single query is
+   * executed by the calling thread.
+   *
+   * @param timeout
+   *          Milliseconds each query may take.
+   */
+  static QueryResults search(String queryString, SearchStrategy searchStrategy,
+      Map<String, Datasource> datasources, long timeout)
+  {
     List<Query> queries = parseQuery(searchStrategy, queryString);
+    for (Query query : queries)
+    {
+      if (datasources.get(query.getDatasourceName()) == null)
+      {
+        throw new IllegalArgumentException(
+            "Data source \"" + query.getDatasourceName() + "\" doesn't exist");
+      }
+    }
 
-    QueryResults results = null;
-    List<QueryResults> listOfQueryResultsList = new ArrayList<>();
+    if (queries.size() == 1)
+    {
+      Query query = queries.get(0);
+      return execute(datasources.get(query.getDatasourceName()), query);
+    }
 
-    for (Query query : queries)
+    List<CompletableFuture<QueryResults>> futures = new ArrayList<>(queries.size());
+    Map<String, List<Integer>> queriesByDatasource = new LinkedHashMap<>();
+    for (int i = 0; i < queries.size(); i++)
     {
-      if (query.numberOfQueryParts() == 0)
+      futures.add(new CompletableFuture<>());
+      queriesByDatasource.computeIfAbsent(queries.get(i).getDatasourceName(), k -> new ArrayList<>())
+          .add(i);
+    }
+
+    long start = System.currentTimeMillis();
+    long[] deadlines = new long[queries.size()];
+    Map<String, Future<?>> tasks = new HashMap<>();
+    for (Map.Entry<String, List<Integer>> entry : queriesByDatasource.entrySet())
+    {
+      Datasource datasource = datasources.get(entry.getKey());
+      List<Integer> indexes = entry.getValue();
+      for (int i = 0; i < indexes.size(); i++)
+      {
+        deadlines[indexes.get(i)] = start + timeout * (i + 1);
+      }
+      try
       {
-        results = datasources.get(query.getDatasourceName()).getContents();
-      } else
+        tasks.put(entry.getKey(), datasource.getExecutor().submit(() -> {
+          for (int index : indexes)
+          {
+            CompletableFuture<QueryResults> future = futures.get(index);
+            if (Thread.currentThread().isInterrupted())
+            {
+              future.cancel(false);
+            }
+            if (future.isDone())
+            {
+              continue;
+            }
+            try
+            {
+              QueryResults results = execute(datasource, queries.get(index));
+              if (!future.complete(results) && results instanceof LazyQueryResults)
+              {
+                // nobody waits for the results anymore
+                ((LazyQueryResults) results).cancel();
+              }
+            } catch (RuntimeException ex)
+            {
+              future.completeExceptionally(ex);
+            }
+          }
+        }));
+      } catch (RejectedExecutionException ex)
       {
-        results = datasources.get(query.getDatasourceName()).find(query.getQueryParts());
+        indexes.forEach(index -> futures.get(index).completeExceptionally(ex));
+      }
+    }
+
+    List<QueryResults> listOfQueryResultsList = new ArrayList<>();
+    for (int i = 0; i < queries.size(); i++)
+    {
+      CompletableFuture<QueryResults> future = futures.get(i);
+      try
+      {
+        long remaining = Math.max(0, deadlines[i] - System.currentTimeMillis());
+        listOfQueryResultsList.add(future.get(remaining, TimeUnit.MILLISECONDS));
+      } catch (TimeoutException ex)
+      {
+        // stop the query and skip the remaining queries of the data source
+        String name = queries.get(i).getDatasourceName();
+        queriesByDatasource.get(name).forEach(index -> futures.get(index).cancel(false));
+        Future<?> task = tasks.get(name);
+        if (task != null)
+        {
+          task.cancel(true);
+        }
+        LOGGER.warn("Query {} of data source {} took more than {} ms and was skipped",
+            queries.get(i).getQueryParts(), queries.get(i).getDatasourceName(), timeout);
+      } catch (CancellationException ex)
+      {
+        LOGGER.warn("Query {} of data source {} was skipped", queries.get(i).getQueryParts(),
+            queries.get(i).getDatasourceName());
+      } catch (ExecutionException ex)
+      {
+        LOGGER.error("Query {} of data source {} failed", queries.get(i).getQueryParts(),
+            queries.get(i).getDatasourceName(), ex);
+      } catch (InterruptedException ex)
+      {
+        futures.forEach(f -> f.cancel(false));
+        tasks.values().forEach(task -> task.cancel(true));
+        Thread.currentThread().interrupt();
+        break;
       }
-      listOfQueryResultsList.add(results);
     }
     return mergeListOfQueryResultsList(listOfQueryResultsList);
   }
 
+  private static QueryResults execute(Datasource datasource, Query query)
+  {
+    if (query.numberOfQueryParts() == 0)
+    {
+      return datasource.getContents();
+    }
+    QueryResults results = datasource.find(query.getQueryParts());
+    // fetch lazy results completely while the search is still bounded by its timeout
+    results.size();
+    return results;
+  }
+
   /**
    * Führt die Ergenismengen zusammen. Dabei werden mehrfache Ergebnisse ausgefiltert.
    *
@@ -92,13 +222,7 @@ public class Search
    */
   private static QueryResults mergeListOfQueryResultsList(List<QueryResults> listOfQueryResultsList)
   {
-    QueryResultsSet results = new QueryResultsSet((o1, o2) -> {
-      if (o1.getClass() == o2.getClass() && o1.getKey() == o2.getKey())
-      {
-        return 0;
-      }
-      return 1;
-    });
+    QueryResultsSet results = new QueryResultsSet(QueryResultsSet::datasetIdentity);
 
     if (listOfQueryResultsList.size() == 1)
     {
@@ -0,0 +1,243 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.db;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A sequence of searches of which only the latest one is of interest, like the searches of a
+ * dialog while the user changes the query. A search starts after a debounce delay, so that
+ * searches which are submitted in quick succession run only once.
+ *
+ * A new search supersedes the previous one. If the previous search hasn't started yet, it's
+ * dropped. If it's running, its thread is interrupted, which stops {@link LazyQueryResults} and
+ * waiting for the queries of {@link Search}. The future of a superseded search is cancelled, so
+ * the results of an older search never overwrite the results of a newer one.
+ *
+ * The searches of all sessions run on a bounded pool of daemon threads, unless they are submitted
+ * with the {@link DatasourceExecutor} of a data source.
+ */
+public class SearchSession implements AutoCloseable
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(SearchSession.class);
+
+  /**
+   * Default delay in milliseconds between submitting and starting a search.
+   */
+  public static final long DEFAULT_DEBOUNCE = 150;
+
+  /**
+   * Maximum number of searches of all sessions which run concurrently.
+   */
+  private static final int MAX_THREADS = 4;
+
+  static final ScheduledExecutorService EXECUTOR = createExecutor();
+
+  private final long debounce;
+
+  private final ScheduledExecutorService executor;
+
+  /**
+   * The number of the latest search.
+   */
+  private long generation = 0;
+
+  /**
+   * The future of the latest search or null, if it has completed or has been cancelled.
+   */
+  private CompletableFuture<QueryResults> current;
+
+  /**
+   * The execution of the latest search or null, if it has completed or has been cancelled.
+   */
+  private Future<?> task;
+
+  /**
+   * A new session with the {@link #DEFAULT_DEBOUNCE} delay.
+   */
+  public SearchSession()
+  {
+    this(DEFAULT_DEBOUNCE);
+  }
+
+  /**
+   * A new session.
+   *
+   * @param debounce
+   *          Milliseconds between submitting and starting a search.
+   */
+  public SearchSession(long debounce)
+  {
+    this(debounce, EXECUTOR);
+  }
+
+  SearchSession(long debounce, ScheduledExecutorService executor)
+  {
+    this.debounce = debounce;
+    this.executor = executor;
+  }
+
+  /**
+   * Submit a new search and cancel the previous one.
+   *
+   * @param search
+   *          The search, which is called by a thread of the pool.
+   * @return A future with the results. It's cancelled if the search is superseded.
+   */
+  public synchronized CompletableFuture<QueryResults> search(Supplier<QueryResults> search)
+  {
+    cancel();
+    long searchGeneration = ++generation;
+    CompletableFuture<QueryResults> result = new CompletableFuture<>();
+    current = result;
+    task = executor.schedule(() -> run(searchGeneration, search, result), debounce,
+        TimeUnit.MILLISECONDS);
+    return result;
+  }
+
+  /**
+   * Submit a new search, which runs on the threads of a data source, and cancel the previous one.
+   * Only the debounce delay is spent on the threads of the session.
+   *
+   * @param search
+   *          The search.
+   * @param datasourceExecutor
+   *          The executor of the data source.
+   * @return A future with the results. It's cancelled if the search is superseded. It completes
+   *         exceptionally if the executor rejects the search.
+   */
+  public synchronized CompletableFuture<QueryResults> search(Supplier<QueryResults> search,
+      DatasourceExecutor datasourceExecutor)
+  {
+    cancel();
+    long searchGeneration = ++generation;
+    CompletableFuture<QueryResults> result = new CompletableFuture<>();
+    current = result;
+    task = executor.schedule(
+        () -> submit(searchGeneration, datasourceExecutor,
+            () -> run(searchGeneration, search, result), result),
+        debounce, TimeUnit.MILLISECONDS);
+    return result;
+  }
+
+  /**
+   * Cancel the latest search, if it hasn't completed yet.
+   */
+  public synchronized void cancel()
+  {
+    if (current != null)
+    {
+      current.cancel(false);
+      current = null;
+    }
+    if (task != null)
+    {
+      task.cancel(true);
+      task = null;
+    }
+  }
+
+  @Override
+  public void close()
+  {
+    cancel();
+  }
+
+  private synchronized void submit(long searchGeneration, DatasourceExecutor datasourceExecutor,
+      Runnable run, CompletableFuture<QueryResults> result)
+  {
+    if (searchGeneration != generation || result.isDone())
+    {
+      return;
+    }
+    try
+    {
+      task = datasourceExecutor.submit(run);
+    } catch (RejectedExecutionException e)
+    {
+      LOGGER.warn("Task rejected. {}", datasourceExecutor);
+      current = null;
+      task = null;
+      result.completeExceptionally(e);
+    }
+  }
+
+  private void run(long searchGeneration, Supplier<QueryResults> search,
+      CompletableFuture<QueryResults> result)
+  {
+    QueryResults results = null;
+    RuntimeException error = null;
+    try
+    {
+      results = search.get();
+    } catch (RuntimeException e)
+    {
+      error = e;
+    }
+
+    synchronized (this)
+    {
+      if (searchGeneration == generation && !result.isDone())
+      {
+        current = null;
+        task = null;
+        if (error == null)
+        {
+          result.complete(results);
+        } else
+        {
+          result.completeExceptionally(error);
+        }
+        return;
+      }
+    }
+
+    LOGGER.debug("Results of a superseded search are dropped", error);
+    if (results instanceof LazyQueryResults)
+    {
+      ((LazyQueryResults) results).cancel();
+    }
+  }
+
+  private static ScheduledExecutorService createExecutor()
+  {
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(MAX_THREADS, r -> {
+      Thread thread = new Thread(r, "WollMux search session");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.setRemoveOnCancelPolicy(true);
+    executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+}
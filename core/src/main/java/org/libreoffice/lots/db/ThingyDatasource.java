@@ -98,7 +98,7 @@ public class ThingyDatasource extends RAMDatasource
       List<Dataset> data = parseData(conf, name, schema, schemaOrdered,
           keyCols);
 
-      init(name, schema, data);
+      init(name, schema, data, parseIndexes(sourceDesc, name, schema));
     }
     catch (NodeNotFoundException x)
     {
@@ -173,6 +173,29 @@ public class ThingyDatasource extends RAMDatasource
     return keyCols.toArray(new String[keyCols.size()]);
   }
 
+  /**
+   * Parses the optional list of indexed columns, e.g. INDEX("Nachname" "Vorname").
+   */
+  private List<String> parseIndexes(ConfigThingy sourceDesc, String name, List<String> schema)
+  {
+    List<String> indexCols = new ArrayList<>();
+    for (ConfigThingy index : sourceDesc.query("INDEX"))
+    {
+      for (ConfigThingy column : index)
+      {
+        String spalte = column.toString();
+        if (!schema.contains(spalte))
+        {
+          throw new ConfigurationErrorException(L.m(
+              "Error in Conf-file of data source {0}: Index column \"{1}\" is not defined in schema",
+              name, spalte));
+        }
+        indexCols.add(spalte);
+      }
+    }
+    return indexCols;
+  }
+
   /**
    * Erzeugt ein neues MyDataset aus der Beschreibung dsDesc. Die Methode
    * erkennt automatisch, ob die Beschreibung in der Form ("Spaltenwert1",
@@ -156,6 +156,12 @@ public class UnionDatasource extends Datasource
     return new QueryResultsList(result.iterator(), 0);
   }
 
+  @Override
+  protected Datasource getWrappedDatasource()
+  {
+    return source1;
+  }
+
   @Override
   public String getName()
   {
@@ -33,7 +33,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
-import java.util.concurrent.CompletableFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -79,6 +78,7 @@ import org.libreoffice.lots.db.Dataset;
 import org.libreoffice.lots.db.Datasource;
 import org.libreoffice.lots.db.QueryResults;
 import org.libreoffice.lots.db.Search;
+import org.libreoffice.lots.db.SearchSession;
 import org.libreoffice.lots.db.SearchStrategy;
 import org.libreoffice.lots.func.FunctionFactory;
 import org.libreoffice.lots.func.FunctionLibrary;
@@ -391,6 +391,11 @@ public class DatasourceSearchDialog implements Dialog
      */
     private boolean autosearch = false;
 
+    /**
+     * The session of the searches, so that a new search cancels the previous one.
+     */
+    private final SearchSession searchSession = new SearchSession();
+
     /**
      * Mapping from data source column to control in which the value should be displayed.
      */
@@ -704,7 +709,7 @@ public class DatasourceSearchDialog implements Dialog
         return;
       }
 
-      CompletableFuture.supplyAsync(() -> {
+      searchSession.search(() -> {
         QueryResults r = null;
         try
         {
@@ -814,6 +819,10 @@ public class DatasourceSearchDialog implements Dialog
    */
   private void dialogEnd(String actionCommand)
   {
+    if (tabs != null)
+    {
+      tabs.values().forEach(tab -> tab.searchSession.close());
+    }
     if (dialog != null)
     {
       dialog.endExecute();
@@ -22,6 +22,8 @@
  */
 package org.libreoffice.lots.document;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -1477,7 +1479,16 @@ public class TextDocumentController
       }
     }
 
-    return werte.stringRepresentation();
+    StringBuilder buf = new StringBuilder(64 * formwerte.count());
+    try
+    {
+      werte.writeTo(buf, false, '"');
+    } catch (IOException e)
+    {
+      // a StringBuilder doesn't throw
+      throw new UncheckedIOException(e);
+    }
+    return buf.toString();
   }
 
   /**
@@ -31,6 +31,7 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.libreoffice.lots.config.ConfigQuery;
 import org.libreoffice.lots.config.ConfigThingy;
 import org.libreoffice.lots.config.InvalidIdentifierException;
 import org.libreoffice.lots.config.NodeNotFoundException;
@@ -58,6 +59,13 @@ public class VisibleTextFragmentList
    */
   private static final int MAXCOUNT = 100;
 
+  private static final ConfigQuery TEXT_FRAGMENTS = ConfigQuery.compileNearest("//TextFragments");
+
+  /**
+   * Mappings of the form (FRAG_ID ... URL ...).
+   */
+  private static final ConfigQuery MAPPINGS = ConfigQuery.compileNearest("//*[FRAG_ID]");
+
   private VisibleTextFragmentList() {}
 
   /**
@@ -145,11 +153,8 @@ public class VisibleTextFragmentList
     ConfigThingy.checkIdentifier(fragId);
 
     LinkedList<ConfigThingy> tfListe = new LinkedList<>();
-    ConfigThingy tfConf = conf.query("TextFragments");
-    Iterator<ConfigThingy> iter = tfConf.iterator();
-    while (iter.hasNext())
+    for (ConfigThingy confTextfragmente : TEXT_FRAGMENTS.in(conf))
     {
-      ConfigThingy confTextfragmente = iter.next();
       tfListe.addFirst(confTextfragmente);
     }
 
@@ -159,9 +164,7 @@ public class VisibleTextFragmentList
     {
       ConfigThingy textfragmente = iterTbListe.next();
 
-      ConfigThingy mappingsConf = textfragmente.queryByChild("FRAG_ID");
-
-      for (ConfigThingy mappingConf : mappingsConf)
+      for (ConfigThingy mappingConf : MAPPINGS.in(textfragmente))
       {
 
         String fragIdConf = null;
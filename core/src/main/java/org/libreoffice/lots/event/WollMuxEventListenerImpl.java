@@ -28,6 +28,7 @@ import org.libreoffice.lots.event.handlers.OnAddDocumentEventListener;
 import org.libreoffice.lots.event.handlers.OnCloseAndOpenExt;
 import org.libreoffice.lots.event.handlers.OnCloseTextDocument;
 import org.libreoffice.lots.event.handlers.OnCollectNonWollMuxFormFieldsViaPrintModel;
+import org.libreoffice.lots.event.handlers.OnConfigReloaded;
 import org.libreoffice.lots.event.handlers.OnDumpInfo;
 import org.libreoffice.lots.event.handlers.OnExecutePrintFunction;
 import org.libreoffice.lots.event.handlers.OnFormValueChanged;
@@ -460,4 +461,16 @@ public class WollMuxEventListenerImpl implements WollMuxEventListener
     event.process();
   }
 
+  /**
+   * Execute the event
+   *
+   * @param event
+   *          The event.
+   */
+  @Subscribe
+  public void onConfigReloaded(OnConfigReloaded event)
+  {
+    event.process();
+  }
+
 }
@@ -0,0 +1,95 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.event.handlers;
+
+import java.util.Set;
+
+import org.libreoffice.lots.WollMuxFehlerException;
+import org.libreoffice.lots.WollMuxFiles;
+import org.libreoffice.lots.db.Datasource;
+import org.libreoffice.lots.db.Datasources;
+
+/**
+ * Event which is emitted after lots.conf or one of its included files has changed and
+ * {@link WollMuxFiles#getWollmuxConf()} returns the new configuration. Caches which depend on
+ * changed sections are invalidated, they're rebuilt on the next access. Other listeners can
+ * subscribe to this event to update themselves.
+ */
+public class OnConfigReloaded extends WollMuxEvent
+{
+  private final Set<String> changedSections;
+
+  /**
+   * A new reload event.
+   *
+   * @param changedSections
+   *          The names of the top level sections which have changed.
+   */
+  public OnConfigReloaded(Set<String> changedSections)
+  {
+    this.changedSections = changedSections;
+  }
+
+  /**
+   * Has any of the top level sections changed?
+   *
+   * @param sections
+   *          The names of the sections.
+   * @return True if at least one of them has been added, removed or modified.
+   */
+  public boolean isChanged(String... sections)
+  {
+    for (String section : sections)
+    {
+      if (changedSections.contains(section))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public Set<String> getChangedSections()
+  {
+    return changedSections;
+  }
+
+  @Override
+  protected void doit() throws WollMuxFehlerException
+  {
+    if (isChanged("DataSources", "Datenquellen"))
+    {
+      Datasources.invalidate();
+    }
+    if (isChanged("DATASOURCE_TIMEOUT"))
+    {
+      Datasource.invalidateDatasourceTimeout();
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return this.getClass().getSimpleName() + "(" + changedSections + ")";
+  }
+}
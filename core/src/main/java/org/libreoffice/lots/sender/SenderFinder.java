@@ -100,7 +100,7 @@ abstract class SenderFinder
       evaluatedQuery.put(replaceVariables(pair.getKey()), replaceVariables(pair.getValue()));
     }
 
-    return senderList.find(evaluatedQuery);
+    return senderList.findIndependent(evaluatedQuery);
   }
 
   private String replaceVariables(String exp)
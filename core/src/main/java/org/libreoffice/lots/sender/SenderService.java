@@ -59,6 +59,7 @@ import org.libreoffice.lots.db.Datasources;
 import org.libreoffice.lots.db.DummyDatasourceWithMessagebox;
 import org.libreoffice.lots.db.QueryPart;
 import org.libreoffice.lots.db.QueryResults;
+import org.libreoffice.lots.db.SearchSession;
 import org.libreoffice.lots.dialog.DialogLibrary;
 import org.libreoffice.lots.dialog.InfoDialog;
 import org.libreoffice.lots.func.FunctionFactory;
@@ -104,6 +105,11 @@ public class SenderService implements XPALProvider
    */
   protected Datasource mainDatasource;
 
+  /**
+   * The session of {@link #find(Map)}, so that a new search cancels the previous one.
+   */
+  private final SearchSession searchSession = new SearchSession();
+
   /**
    * A list containing the {@link Dataset}s that are linked to a background
    * database, but whose key was no longer found in it and therefore
@@ -684,13 +690,33 @@ public class SenderService implements XPALProvider
    *
    * @param searchQuery
    *          Query to search against the main datasource.
-   * @return Search results as {@link QueryResults}
+   * @return Search results as {@link QueryResults}. The future is cancelled if another search is
+   *         started before this search has finished.
    */
   public CompletableFuture<List<Sender>> find(Map<String, String> searchQuery)
   {
     AsyncSearch searchAsync = new AsyncSearch(searchQuery, mainDatasource);
-    return searchAsync.runSearchAsync()
-        .thenApply(res -> StreamSupport.stream(res.spliterator(), false).map(Sender::new).collect(Collectors.toList()));
+    return searchAsync.runSearchAsync(searchSession).thenApply(SenderService::toSenders);
+  }
+
+  /**
+   * Like {@link #find(Map)}, but the search doesn't cancel other searches. Used by searches which
+   * run in parallel, like those of {@link #searchDefaultSender()}.
+   *
+   * @param searchQuery
+   *          Query to search against the main datasource.
+   * @return Search results as {@link QueryResults}
+   */
+  CompletableFuture<List<Sender>> findIndependent(Map<String, String> searchQuery)
+  {
+    AsyncSearch searchAsync = new AsyncSearch(searchQuery, mainDatasource);
+    return searchAsync.runSearchAsync().thenApply(SenderService::toSenders);
+  }
+
+  private static List<Sender> toSenders(QueryResults results)
+  {
+    return StreamSupport.stream(results.spliterator(), false).map(Sender::new)
+        .collect(Collectors.toList());
   }
 
   /**
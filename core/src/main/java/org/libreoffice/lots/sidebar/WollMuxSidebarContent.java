@@ -36,10 +36,12 @@ import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.eventbus.Subscribe;
 import com.sun.star.accessibility.XAccessible;
 import com.sun.star.awt.FocusEvent;
 import com.sun.star.awt.InvalidateStyle;
@@ -95,7 +97,9 @@ import org.libreoffice.lots.WollMuxSingleton;
 import org.libreoffice.lots.config.ConfigThingy;
 import org.libreoffice.lots.config.NodeNotFoundException;
 import org.libreoffice.lots.dialog.InfoDialog;
+import org.libreoffice.lots.event.WollMuxEventHandler;
 import org.libreoffice.lots.event.handlers.OnAbout;
+import org.libreoffice.lots.event.handlers.OnConfigReloaded;
 import org.libreoffice.lots.event.handlers.OnDumpInfo;
 import org.libreoffice.lots.event.handlers.OnKill;
 import org.libreoffice.lots.event.handlers.OnOpenDocument;
@@ -209,7 +213,7 @@ public class WollMuxSidebarContent extends ComponentBase implements XToolPanel,
     senderService = SenderService.getInstance();
 
     menus = new HashMap<>();
-    actions = new HashMap<>();
+    actions = new ConcurrentHashMap<>();
     searchActions = new HashMap<>();
 
     AbstractWindowListener windowAdapter = new AbstractWindowListener()
@@ -272,6 +276,7 @@ public class WollMuxSidebarContent extends ComponentBase implements XToolPanel,
       {
         readWollMuxBarConf(allowUserConfig, conf);
         createWollMuxBar(context, xMCF, conf);
+        WollMuxEventHandler.getInstance().registerListener(this);
       }
     } catch (Exception ex)
     {
@@ -370,23 +375,76 @@ public class WollMuxSidebarContent extends ComponentBase implements XToolPanel,
     controlContainer.addControl("line", line);
     layout.addControl(line, 1);
 
+    ConfigThingy menuConf = createMenus(conf, false);
+
+    ConfigThingy bkl = conf.query("Toolbars").query("LetterheadToolbar");
+    createUIElements(menuConf, bkl.getLastChild(), false, false);
+
+    tree.expandNode(root);
+  }
+
+  /**
+   * Create the menus of the tree and the buttons of the menu bar.
+   *
+   * @param conf
+   *          The configuration.
+   * @param onlyTree
+   *          If true, only the menus in the tree are created.
+   * @return The configuration of all menus.
+   * @throws NodeNotFoundException
+   *           A menu entry for an unknown menu should be created.
+   */
+  private ConfigThingy createMenus(ConfigThingy conf, boolean onlyTree)
+      throws NodeNotFoundException
+  {
     ConfigThingy menubar = conf.query("Menubar");
     ConfigThingy menuConf = conf.query("Menus");
 
     if (menubar.count() > 0)
     {
-      createUIElements(null, menubar.getLastChild(), false);
+      createUIElements(null, menubar.getLastChild(), false, onlyTree);
 
       for (ConfigThingy menuDef : menuConf.getLastChild())
       {
-        createUIElements(menuDef, menuDef.getLastChild(), true);
+        createUIElements(menuDef, menuDef.getLastChild(), true, onlyTree);
       }
     }
+    return menuConf;
+  }
 
-    ConfigThingy bkl = conf.query("Toolbars").query("LetterheadToolbar");
-    createUIElements(menuConf, bkl.getLastChild(), false);
+  /**
+   * Rebuild the tree if the menus have changed.
+   *
+   * @param event
+   *          The reload event.
+   */
+  @Subscribe
+  public void onConfigReloaded(OnConfigReloaded event)
+  {
+    if (dataModel == null || !event.isChanged("Menubar", "Menueleiste", "Menus"))
+    {
+      return;
+    }
 
-    tree.expandNode(root);
+    try
+    {
+      menus.clear();
+      actions.clear();
+      XMutableTreeNode root = dataModel.createNode("Vorlagen", false);
+      dataModel.setRoot(root);
+      createMenus(WollMuxFiles.getWollmuxConf(), true);
+      tree.expandNode(root);
+    } catch (Exception ex)
+    {
+      LOGGER.error("", ex);
+    }
+  }
+
+  @Override
+  protected void postDisposing()
+  {
+    WollMuxEventHandler.getInstance().unregisterListener(this);
+    super.postDisposing();
   }
 
   /**
@@ -801,15 +859,18 @@ public class WollMuxSidebarContent extends ComponentBase implements XToolPanel,
    * @param isMenu
    *          If false {@link UIElementType#MENUITEM} and {@link UIElementType#BUTTON} create
    *          buttons otherwise menu entries.
+   * @param onlyTree
+   *          If true, only elements of the tree are created.
    */
   private void createUIElements(ConfigThingy menuConf, ConfigThingy elementParent,
-      boolean isMenu)
+      boolean isMenu, boolean onlyTree)
   {
     for (ConfigThingy uiElementDesc : elementParent)
     {
       UIElementConfig config = new UIElementConfig(uiElementDesc);
 
-      if (!config.isSidebar())
+      if (!config.isSidebar()
+          || (onlyTree && !isMenu && config.getType() != UIElementType.MENU))
       {
         continue;
       }
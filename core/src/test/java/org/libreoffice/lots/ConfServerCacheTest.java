@@ -0,0 +1,138 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.libreoffice.lots.config.ConfigThingy;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.model.Header;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+import org.mockserver.verify.VerificationTimes;
+
+public class ConfServerCacheTest
+{
+  private ClientAndServer mockServer;
+  private String serverURI;
+  private File cacheFile;
+
+  @BeforeEach
+  public void setUp() throws Exception
+  {
+    mockServer = ClientAndServer.startClientAndServer();
+    serverURI = String.format("http://localhost:%d/", mockServer.getLocalPort());
+    cacheFile = File.createTempFile("confServer", ".cache");
+    cacheFile.delete();
+  }
+
+  @AfterEach
+  public void tearDown()
+  {
+    mockServer.stop();
+    cacheFile.delete();
+  }
+
+  private void respond(String body, String etag, long delay)
+  {
+    mockServer.reset();
+    mockServer.when(HttpRequest.request().withMethod("POST").withHeader("If-None-Match", etag))
+        .respond(HttpResponse.response().withStatusCode(304).withDelay(TimeUnit.MILLISECONDS, delay));
+    mockServer.when(HttpRequest.request().withMethod("POST"))
+        .respond(HttpResponse.response().withStatusCode(200)
+            .withHeader(new Header("ETag", etag))
+            .withBody(body).withDelay(TimeUnit.MILLISECONDS, delay));
+  }
+
+  @Test
+  public void testStartFromCache() throws Exception
+  {
+    respond("DEFAULT_CONTEXT \"v1\"", "\"1\"", 0);
+    ConfServerCache cache = new ConfServerCache(cacheFile);
+    assertEquals("v1", cache.load(serverURI, "user").getString("DEFAULT_CONTEXT"));
+    assertTrue(cacheFile.isFile());
+
+    // a slow server doesn't delay the start
+    respond("DEFAULT_CONTEXT \"v2\"", "\"2\"", 3000);
+    cache = new ConfServerCache(cacheFile);
+    long start = System.currentTimeMillis();
+    ConfigThingy conf = cache.load(serverURI, "user");
+    assertTrue(System.currentTimeMillis() - start < 1000);
+    assertEquals("v1", conf.getString("DEFAULT_CONTEXT"));
+
+    AtomicReference<ConfigThingy> update = new AtomicReference<>();
+    cache.revalidate(update::set).get(10, TimeUnit.SECONDS);
+    assertEquals("v2", update.get().getString("DEFAULT_CONTEXT"));
+    mockServer.verify(HttpRequest.request().withHeader("If-None-Match", "\"1\""),
+        VerificationTimes.exactly(1));
+
+    // the update has been stored
+    cache = new ConfServerCache(cacheFile);
+    assertEquals("v2", cache.load(serverURI, "user").getString("DEFAULT_CONTEXT"));
+  }
+
+  @Test
+  public void testNotModified() throws Exception
+  {
+    respond("DEFAULT_CONTEXT \"v1\"", "\"1\"", 0);
+    new ConfServerCache(cacheFile).load(serverURI, "user");
+
+    ConfServerCache cache = new ConfServerCache(cacheFile);
+    cache.load(serverURI, "user");
+    AtomicReference<ConfigThingy> update = new AtomicReference<>();
+    cache.revalidate(update::set).get(10, TimeUnit.SECONDS);
+    assertNull(update.get());
+    mockServer.verify(HttpRequest.request().withHeader("If-None-Match", "\"1\""),
+        VerificationTimes.exactly(1));
+  }
+
+  @Test
+  public void testOtherUser() throws Exception
+  {
+    respond("DEFAULT_CONTEXT \"v1\"", "\"1\"", 0);
+    new ConfServerCache(cacheFile).load(serverURI, "user");
+
+    respond("DEFAULT_CONTEXT \"other\"", "\"2\"", 0);
+    assertEquals("other",
+        new ConfServerCache(cacheFile).load(serverURI, "other").getString("DEFAULT_CONTEXT"));
+  }
+
+  @Test
+  public void testServerUnavailable() throws Exception
+  {
+    mockServer.when(HttpRequest.request().withMethod("POST"))
+        .respond(HttpResponse.response().withStatusCode(500));
+    assertNull(new ConfServerCache(cacheFile).load(serverURI, "user"));
+    assertTrue(Files.notExists(cacheFile.toPath()));
+  }
+}
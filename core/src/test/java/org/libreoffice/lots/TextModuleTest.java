@@ -0,0 +1,61 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.libreoffice.lots.config.ConfigThingy;
+
+public class TextModuleTest
+{
+  @Test
+  public void testLegacyNames() throws Exception
+  {
+    List<ConfigThingy> textBlocks = TextModule.getTextBlocks(new ConfigThingy("",
+        "Textbausteine(SEPARATOR \"#\") Textbausteine(SEPARATOR \"-\")"));
+    assertEquals(2, textBlocks.size());
+    assertEquals("-", textBlocks.get(0).getString("SEPARATOR"));
+
+    textBlocks = TextModule.getTextBlocks(new ConfigThingy("",
+        "Textbausteine(SEPARATOR \"#\") TextBlocks(SEPARATOR \"-\")"));
+    assertEquals(1, textBlocks.size());
+    assertEquals("-", textBlocks.get(0).getString("SEPARATOR"));
+  }
+
+  @Test
+  public void testNested() throws Exception
+  {
+    List<ConfigThingy> textBlocks = TextModule.getTextBlocks(new ConfigThingy("",
+        "Group(TextBlocks(Group(SEPARATOR \"-\") (MATCH \"a(.*)\" FRAG_ID \"first$1\")"
+            + "Group((MATCH \"a(.*)\" FRAG_ID \"deep$1\")))))"));
+    assertEquals(1, textBlocks.size());
+    assertArrayEquals(new String[] { "firstb", "c" },
+        TextModule.parseIdentifierInTextbausteine("ab-c", textBlocks.get(0)));
+    assertNull(TextModule.parseIdentifierInTextbausteine("x-c", textBlocks.get(0)));
+  }
+}
@@ -106,6 +106,28 @@ public class WollMuxFilesTest
     }
   }
 
+  @Test
+  public void serverConfIsNotWatched() throws Exception
+  {
+    File file = File.createTempFile("wollmuxTest", ".conf");
+    try (MockServerClient client = new MockServerClient("localhost", port);
+        BufferedWriter writer = new BufferedWriter(new FileWriter(file)))
+    {
+      writer.write(String.format("CONF_SERVER \"http://localhost:%d/\"", port));
+      writer.flush();
+      client.when(HttpRequest.request().withMethod("POST"))
+          .respond(HttpResponse.response().withStatusCode(200)
+              .withBody("DEFAULT_CONTEXT \"test_server\""));
+
+      WollMuxFiles.parseWollMuxConf(file);
+      WollMuxFiles.watchWollMuxConf(file);
+      // the watcher would replace the configuration with the local file immediately
+      Thread.sleep(1000);
+      assertEquals("test_server", WollMuxFiles.getWollmuxConf().getString("DEFAULT_CONTEXT", null),
+          "Configuration of the server has been replaced");
+    }
+  }
+
   @Test
   public void doNothingWithOutServerPara() throws Exception
   {
@@ -0,0 +1,192 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class ConfigQueryTest
+{
+  private static final String CONF = "DataSources("
+      + " DataSource(NAME 'a' TYPE 'ldap')"
+      + " DataSource(NAME 'b' TYPE 'conf')"
+      + " DataSource(NAME 'c' TYPE 'ldap'))"
+      + "TextBlocks(SEPARATOR '#' Abbreviations((MATCH 'x' FRAG_ID 'y') (MATCH 'z' FRAG_ID 'w')))"
+      + "A(B(A(B 'inner')) B 'outer')"
+      + "DataSources(DataSource(NAME 'd' TYPE 'ldap'))";
+
+  /**
+   * Run a query and return the string representation of the found nodes.
+   */
+  private List<String> run(String path, ConfigThingy context)
+  {
+    return run(ConfigQuery.compile(path), context);
+  }
+
+  private List<String> run(ConfigQuery query, ConfigThingy context)
+  {
+    List<String> result = new ArrayList<>();
+    for (ConfigThingy node : query.in(context))
+    {
+      result.add(node.stringRepresentation(false, '\'', false).replaceAll("\\s*\n\\s*", ""));
+    }
+    return result;
+  }
+
+  private List<String> names(String path, ConfigThingy context)
+  {
+    return names(ConfigQuery.compile(path), context);
+  }
+
+  private List<String> names(ConfigQuery query, ConfigThingy context)
+  {
+    List<String> result = new ArrayList<>();
+    for (ConfigThingy node : query.in(context))
+    {
+      result.add(node.getString("NAME"));
+    }
+    return result;
+  }
+
+  @Test
+  public void testChildSteps() throws Exception
+  {
+    ConfigThingy conf = new ConfigThingy("", CONF);
+    assertEquals(List.of("a", "b", "c", "d"), names("DataSources/DataSource", conf));
+    assertEquals(List.of("a", "b", "c", "d"), names("/DataSources/DataSource", conf));
+    assertEquals(List.of("TYPE 'ldap'", "TYPE 'conf'", "TYPE 'ldap'", "TYPE 'ldap'"),
+        run("DataSources/*/TYPE", conf));
+    assertEquals(List.of(), run("DataSource", conf));
+  }
+
+  @Test
+  public void testDescendantSteps() throws Exception
+  {
+    ConfigThingy conf = new ConfigThingy("", CONF);
+    assertEquals(List.of("a", "b", "c", "d"), names("//DataSource", conf));
+    assertEquals(List.of("SEPARATOR '#'"), run("TextBlocks//SEPARATOR", conf));
+    assertEquals(List.of("B(A(B 'inner'))", "B 'inner'", "B 'outer'"), run("//B", conf));
+    // B 'inner' can be reached from both A nodes, but it's returned only once
+    assertEquals(List.of("B(A(B 'inner'))", "B 'outer'", "B 'inner'"), run("//A/B", conf));
+  }
+
+  @Test
+  public void testPredicates() throws Exception
+  {
+    ConfigThingy conf = new ConfigThingy("", CONF);
+    assertEquals(List.of("a", "c", "d"), names("DataSources/DataSource[TYPE='ldap']", conf));
+    assertEquals(List.of("c"), names("DataSources/DataSource[TYPE=\"ldap\"][NAME='c']", conf));
+    assertEquals(List.of("(MATCH 'x' FRAG_ID 'y')", "(MATCH 'z' FRAG_ID 'w')"),
+        run("//*[MATCH]", conf));
+    assertEquals(List.of(), run("//*[MISSING]", conf));
+  }
+
+  @Test
+  public void testDepthBounds() throws Exception
+  {
+    ConfigThingy conf = new ConfigThingy("", "X(Y(Z(Y 'deep')) Y 'flat')");
+    assertEquals(List.of("Y(Z(Y 'deep'))", "Y 'flat'"), run("X/Y{1}", conf));
+    assertEquals(List.of("Y 'deep'"), run("X/Y{3}", conf));
+    assertEquals(List.of("Y 'deep'"), run("X/Y{2,}", conf));
+    assertEquals(List.of("Y(Z(Y 'deep'))", "Y 'flat'"), run("X//Y{,2}", conf));
+    assertEquals(List.of("Y(Z(Y 'deep'))", "Y 'deep'", "Y 'flat'"), run("X//Y", conf));
+    assertThrows(IllegalArgumentException.class, () -> ConfigQuery.compile("X/Y{0}"));
+    assertThrows(IllegalArgumentException.class, () -> ConfigQuery.compile("X/Y{3,2}"));
+  }
+
+  @Test
+  public void testFirstAndLast() throws Exception
+  {
+    ConfigThingy conf = new ConfigThingy("", CONF);
+    ConfigQuery query = ConfigQuery.compile("DataSources/DataSource/NAME");
+    assertEquals("a", query.first(conf).toString());
+    assertEquals("d", query.last(conf).toString());
+    assertNull(ConfigQuery.compile("Missing").first(conf));
+    assertNull(ConfigQuery.compile("Missing").last(conf));
+    assertSame(conf, ConfigQuery.compile("").first(conf));
+  }
+
+  @Test
+  public void testLazy() throws Exception
+  {
+    ConfigThingy conf = new ConfigThingy("", CONF);
+    Iterator<ConfigThingy> iter = ConfigQuery.compile("//DataSource").iterator(conf);
+    ConfigThingy first = iter.next();
+    // the query sees modifications of parts which haven't been visited yet
+    conf.getLastChild().add("DataSource").add("NAME").add("e");
+    List<String> names = new ArrayList<>();
+    names.add(first.getString("NAME"));
+    iter.forEachRemaining(node -> names.add(node.getString("NAME")));
+    assertEquals(List.of("a", "b", "c", "d", "e"), names);
+  }
+
+  @Test
+  public void testSyntaxErrors()
+  {
+    for (String path : List.of("A/", "A//", "A[", "A[B", "A[B=C]", "A[B='c]", "A{1", "A B", "[B]"))
+    {
+      assertThrows(IllegalArgumentException.class, () -> ConfigQuery.compile(path), path);
+    }
+    assertEquals("A[B='it''s']", ConfigQuery.compile("A[B='it''s']").toString());
+  }
+
+  @Test
+  public void testNearest() throws Exception
+  {
+    ConfigThingy conf = new ConfigThingy("", CONF);
+    for (String name : List.of("DataSource", "B", "MATCH", "SEPARATOR", "unknown"))
+    {
+      List<ConfigThingy> expected = new ArrayList<>();
+      conf.query(name).forEach(expected::add);
+      List<ConfigThingy> found = new ArrayList<>();
+      ConfigQuery.compileNearest("//" + name).in(conf).forEach(found::add);
+      assertEquals(expected, found, name);
+    }
+    assertEquals(List.of("B(A(B 'inner'))", "B 'outer'"),
+        run(ConfigQuery.compileNearest("A//B"), conf));
+    assertEquals(List.of("a", "b", "c", "d"),
+        names(ConfigQuery.compileNearest("//DataSources//DataSource"), conf));
+    assertEquals(List.of("(MATCH 'x' FRAG_ID 'y')", "(MATCH 'z' FRAG_ID 'w')"),
+        run(ConfigQuery.compileNearest("//*[MATCH]"), conf));
+
+    conf = new ConfigThingy("", "Group(Datenquellen(Datenquelle(NAME 'old')))");
+    assertEquals(List.of("old"),
+        names(ConfigQuery.compileNearest("//DataSources//DataSource"), conf));
+    assertEquals(List.of(), names("//DataSources//DataSource", conf));
+  }
+
+  @Test
+  public void testQuotedValue() throws Exception
+  {
+    ConfigThingy conf = new ConfigThingy("", "A(B \"it's\") A(B 'other')");
+    assertEquals(List.of("A(B 'it''s')"), run("A[B='it''s']", conf));
+  }
+}
@@ -0,0 +1,173 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+public class ConfigSnapshotTest
+{
+  private File dir;
+  private File conf;
+  private File include;
+  private File snapshot;
+
+  @BeforeEach
+  public void setUp() throws IOException
+  {
+    dir = Files.createTempDirectory("snapshotTest").toFile();
+    conf = new File(dir, "lots.conf");
+    include = new File(dir, "include.conf");
+    snapshot = new File(dir, "lots.conf.snapshot");
+    write(conf, "A 'a'\nB(%include 'include.conf')\nC(D 'ä%n''%u00e9' ('x', 'y'))\n", 0);
+    write(include, "E 'e'\nF(G 'g')\n", 0);
+  }
+
+  @AfterEach
+  public void tearDown()
+  {
+    for (File file : dir.listFiles())
+      file.delete();
+    dir.delete();
+  }
+
+  private void write(File file, String content, long lastModified) throws IOException
+  {
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    // files must not be modified after parsing started
+    file.setLastModified(lastModified == 0 ? System.currentTimeMillis() - 10000 : lastModified);
+  }
+
+  private URL url() throws IOException
+  {
+    return conf.toURI().toURL();
+  }
+
+  @Test
+  public void testSnapshot() throws Exception
+  {
+    assertNull(ConfigSnapshot.read(snapshot, "", url()));
+    ConfigThingy parsed = ConfigSnapshot.parse("", url(), snapshot);
+    assertTrue(snapshot.isFile());
+    assertEquals(new ConfigThingy("", url()).stringRepresentation(), parsed.stringRepresentation());
+
+    ConfigThingy loaded = ConfigSnapshot.read(snapshot, "", url());
+    assertNotNull(loaded);
+    assertEquals(parsed.stringRepresentation(), loaded.stringRepresentation());
+    assertEquals("e", loaded.get("B").getString("E"));
+    assertEquals("ä\n'é", loaded.get("C").getString("D"));
+
+    assertNull(ConfigSnapshot.read(snapshot, "", new File(dir, "other.conf").toURI().toURL()));
+  }
+
+  @Test
+  public void testSources() throws Exception
+  {
+    List<URL> expected = List.of(url(), include.toURI().toURL());
+    Set<URL> parsed = new LinkedHashSet<>();
+    ConfigSnapshot.parse("", url(), snapshot, parsed);
+    assertEquals(expected, new ArrayList<>(parsed));
+
+    // the files of a snapshot are known without parsing
+    Set<URL> loaded = new LinkedHashSet<>();
+    ConfigSnapshot.parse("", url(), snapshot, loaded);
+    assertEquals(expected, new ArrayList<>(loaded));
+  }
+
+  @Test
+  public void testChangedInclude() throws Exception
+  {
+    ConfigSnapshot.parse("", url(), snapshot);
+    write(include, "E 'changed'\n", 0);
+    assertNull(ConfigSnapshot.read(snapshot, "", url()));
+
+    ConfigThingy reparsed = ConfigSnapshot.parse("", url(), snapshot);
+    assertEquals("changed", reparsed.get("B").getString("E"));
+    assertNotNull(ConfigSnapshot.read(snapshot, "", url()));
+  }
+
+  @Test
+  public void testTouchedInclude() throws Exception
+  {
+    ConfigSnapshot.parse("", url(), snapshot);
+    assertTrue(include.setLastModified(include.lastModified() - 60000));
+    assertNotNull(ConfigSnapshot.read(snapshot, "", url()));
+
+    write(include, "E 'x'\nF(G 'g')\n", include.lastModified() - 60000);
+    assertNull(ConfigSnapshot.read(snapshot, "", url()));
+  }
+
+  @Test
+  public void testCorruptSnapshot() throws Exception
+  {
+    ConfigSnapshot.parse("", url(), snapshot);
+    byte[] data = Files.readAllBytes(snapshot.toPath());
+    Files.write(snapshot.toPath(), java.util.Arrays.copyOf(data, data.length / 2));
+    assertNull(ConfigSnapshot.read(snapshot, "", url()));
+    assertEquals("a", ConfigSnapshot.parse("", url(), snapshot).getString("A"));
+  }
+
+  /**
+   * Compare parsing a large configuration with loading its snapshot.
+   */
+  @Test
+  @Disabled
+  public void performance() throws Exception
+  {
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 20000; i++)
+    {
+      large.append("DataSource(NAME 'ds" + i + "' TYPE 'conf' URL 'file" + i
+          + ".conf' Schema('A', 'B', 'C') Key('A'))\n");
+    }
+    write(conf, large.toString(), 0);
+
+    long start = System.currentTimeMillis();
+    ConfigThingy parsed = ConfigSnapshot.parse("", url(), snapshot);
+    long parseTime = System.currentTimeMillis() - start;
+
+    start = System.currentTimeMillis();
+    ConfigThingy loaded = ConfigSnapshot.read(snapshot, "", url());
+    long loadTime = System.currentTimeMillis() - start;
+
+    assertEquals(parsed.count(), loaded.count());
+    assertTrue(loadTime < parseTime, "Parse: " + parseTime + " millis, snapshot: " + loadTime + " millis");
+  }
+}
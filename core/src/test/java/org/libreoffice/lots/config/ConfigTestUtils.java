@@ -0,0 +1,48 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.config;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+
+/**
+ * Helpers for the tests of the configuration.
+ */
+public class ConfigTestUtils
+{
+  private ConfigTestUtils()
+  {
+  }
+
+  /**
+   * The number of bytes which have been allocated by the current thread. Needs the ThreadMXBean of
+   * HotSpot.
+   */
+  public static long allocatedBytes() throws ReflectiveOperationException
+  {
+    Object bean = ManagementFactory.getThreadMXBean();
+    Method method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes",
+        long.class);
+    return (Long) method.invoke(bean, Thread.currentThread().getId());
+  }
+}
@@ -0,0 +1,465 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.libreoffice.lots.config.ConfigTestUtils.allocatedBytes;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+public class ConfigThingyTest
+{
+
+  /**
+   * Builds a tree which is large enough to be indexed once it is frozen. Nodes named "A" occur on
+   * several levels, some parents have more than one child "A".
+   */
+  private ConfigThingy createTree() throws Exception
+  {
+    StringBuilder conf = new StringBuilder();
+    for (int i = 0; i < 20; i++)
+    {
+      conf.append("N" + i + "(B(A '" + i + "' C(A 'x" + i + "' A 'y" + i + "')) D 'd')\n");
+    }
+    conf.append("A 'top'\n");
+    return new ConfigThingy("root", conf.toString());
+  }
+
+  private List<ConfigThingy> toList(ConfigThingy conf)
+  {
+    List<ConfigThingy> list = new ArrayList<>();
+    conf.forEach(list::add);
+    return list;
+  }
+
+  private void assertSameNodes(List<ConfigThingy> expected, ConfigThingy actual)
+  {
+    List<ConfigThingy> nodes = toList(actual);
+    assertEquals(expected.size(), nodes.size());
+    for (int i = 0; i < expected.size(); i++)
+      assertSame(expected.get(i), nodes.get(i));
+  }
+
+  @Test
+  public void testQueryWithIndex() throws Exception
+  {
+    ConfigThingy conf = createTree().freeze();
+    int[][] levels = { { 100, 1 }, { 100, 2 }, { 100, 3 }, { 100, 4 }, { 2, 2 }, { 3, 3 }, { 4, 4 },
+        { 1, 0 }, { 2, 0 }, { 2, 3 } };
+    for (int[] level : levels)
+    {
+      for (boolean getParents : new boolean[] { false, true })
+      {
+        // the first query scans the tree, the second one uses the index
+        List<ConfigThingy> scanned = toList(conf.query("A", getParents, level[0], level[1]));
+        assertSameNodes(scanned, conf.query("A", getParents, level[0], level[1]));
+      }
+    }
+
+    assertEquals("top", conf.get("A").toString());
+    assertEquals(20, conf.query("A", 3, 3).count());
+    assertEquals(40, conf.query("A", 4, 4).count());
+    assertEquals(20, conf.queryByChild("A", 4, 4).count());
+    assertEquals(0, conf.query("A", 3, 4).count());
+    assertEquals(0, conf.query("unknown").count());
+    assertThrows(NodeNotFoundException.class, () -> conf.get("unknown"));
+  }
+
+  @Test
+  public void testQueryAllWithIndex() throws Exception
+  {
+    ConfigThingy conf = createTree().freeze();
+    for (int maxlevel = 0; maxlevel < 6; maxlevel++)
+    {
+      for (boolean getParents : new boolean[] { false, true })
+      {
+        List<ConfigThingy> scanned = toList(conf.queryAll("A", maxlevel, getParents));
+        assertSameNodes(scanned, conf.queryAll("A", maxlevel, getParents));
+      }
+    }
+    assertEquals(61, conf.queryAll("A", 4, false).count());
+    // root, every B and every C
+    assertEquals(41, conf.queryAll("A", 4, true).count());
+  }
+
+  @Test
+  public void testIndexIsInvalidated() throws Exception
+  {
+    ConfigThingy conf = createTree();
+    conf.query("DataSources");
+    assertEquals(0, conf.query("DataSources").count());
+
+    ConfigThingy b = conf.get("N3").get("B");
+    b.add("DataSources").add("value");
+    assertEquals(0, conf.query("DataSources", 2).count());
+    assertEquals(1, conf.query("DataSources").count());
+    assertEquals(1, conf.query("DataSources").count());
+
+    conf.get("DataSources").setName("Renamed");
+    assertEquals(0, conf.query("DataSources").count());
+    assertEquals(1, conf.query("Renamed").count());
+    assertEquals(1, conf.query("Renamed").count());
+
+    for (Iterator<ConfigThingy> iter = b.iterator(); iter.hasNext();)
+    {
+      if (iter.next().getName().equals("Renamed"))
+        iter.remove();
+    }
+    assertEquals(0, conf.query("Renamed").count());
+    assertEquals(0, conf.query("Renamed").count());
+  }
+
+  @Test
+  public void testIndexWithSharedChild() throws Exception
+  {
+    ConfigThingy first = createTree();
+    ConfigThingy second = createTree();
+    ConfigThingy shared = new ConfigThingy("Shared");
+    first.get("N1").addChild(shared);
+    second.get("N2").get("B").addChild(shared);
+    for (ConfigThingy conf : List.of(first, second))
+    {
+      conf.query("DataSources");
+      assertEquals(0, conf.query("DataSources").count());
+    }
+
+    // modifications of another tree don't touch the index
+    createTree().add("DataSources");
+    assertEquals(0, first.query("DataSources").count());
+
+    shared.add("DataSources");
+    assertEquals(1, first.query("DataSources").count());
+    assertEquals(1, second.query("DataSources").count());
+
+    for (Iterator<ConfigThingy> iter = first.get("N1").iterator(); iter.hasNext();)
+    {
+      if (iter.next() == shared)
+        iter.remove();
+    }
+    shared.add("DataSources");
+    assertEquals(0, first.query("DataSources").count());
+    assertEquals(2, second.query("DataSources").count());
+  }
+
+  private void write(File file, String content) throws IOException
+  {
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private Exception parseError(URL url, ExecutorService executor)
+  {
+    try
+    {
+      if (executor == null)
+        new ConfigThingy("", url, new ArrayList<>());
+      else
+        new ConfigThingy("", url, new ArrayList<>(), executor);
+      return null;
+    } catch (IOException | SyntaxErrorException e)
+    {
+      return e;
+    }
+  }
+
+  private String messages(Throwable t)
+  {
+    StringBuilder buf = new StringBuilder();
+    for (; t != null; t = t.getCause())
+      buf.append(t.getClass().getName()).append(": ").append(t.getMessage()).append('\n');
+    return buf.toString();
+  }
+
+  @Test
+  public void testParallelIncludes() throws Exception
+  {
+    File dir = Files.createTempDirectory("includeTest").toFile();
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try
+    {
+      StringBuilder root = new StringBuilder("A 'a'\n");
+      for (int i = 0; i < 20; i++)
+      {
+        root.append("Inc" + i + "(%include 'inc" + i + ".conf')\n");
+        write(new File(dir, "inc" + i + ".conf"),
+            "B '" + i + "'\n%include 'shared.conf'\nC(%include 'sub/leaf.conf')\n");
+      }
+      root.append("%include 'shared.conf'\n");
+      write(new File(dir, "shared.conf"), "Shared('x', 'y')\n");
+      new File(dir, "sub").mkdir();
+      write(new File(dir, "sub/leaf.conf"), "Leaf '%u00e4'\n");
+      File rootFile = new File(dir, "lots.conf");
+      write(rootFile, root.toString());
+      URL url = rootFile.toURI().toURL();
+
+      List<URL> sequentialSources = new ArrayList<>();
+      List<URL> parallelSources = new ArrayList<>();
+      ConfigThingy sequential = new ConfigThingy("", url, sequentialSources);
+      ConfigThingy parallel = new ConfigThingy("", url, parallelSources, executor);
+      assertEquals(sequential.stringRepresentation(), parallel.stringRepresentation());
+      assertEquals(sequentialSources.toString(), parallelSources.toString());
+      assertEquals(62, parallelSources.size());
+
+      write(new File(dir, "inc7.conf"), "B 'ok'\nC(\n  D 'x'\n  E ) F\n");
+      Exception error = parseError(url, executor);
+      assertNotNull(error);
+      assertEquals(messages(parseError(url, null)), messages(error));
+
+      new File(dir, "inc7.conf").delete();
+      error = parseError(url, executor);
+      assertNotNull(error);
+      assertEquals(messages(parseError(url, null)), messages(error));
+    } finally
+    {
+      executor.shutdownNow();
+      for (File file : new File(dir, "sub").listFiles())
+        file.delete();
+      for (File file : dir.listFiles())
+        file.delete();
+      dir.delete();
+    }
+  }
+
+  @Test
+  public void testFreeze() throws Exception
+  {
+    ConfigThingy conf = createTree();
+    ConfigThingy frozen = conf.freeze();
+    assertTrue(frozen.isFrozen());
+    assertFalse(conf.isFrozen());
+    assertSame(frozen, frozen.freeze());
+    assertEquals(conf.stringRepresentation(), frozen.stringRepresentation());
+    for (int i = 0; i < 3; i++)
+    {
+      assertEquals(conf.query("A").stringRepresentation(), frozen.query("A").stringRepresentation());
+      assertEquals(conf.queryAll("A", 3, true).count(), frozen.queryAll("A", 3, true).count());
+    }
+
+    ConfigThingy n0 = frozen.get("N0");
+    ConfigThingy n1 = frozen.get("N1");
+    assertSame("B", n0.getFirstChild().getName());
+    assertSame(n0.get("D").getFirstChild().getName(), n1.get("D").getFirstChild().getName());
+    assertEquals(1, n0.get("D").count());
+    assertEquals(0, n0.get("D").getFirstChild().count());
+
+    assertThrows(UnsupportedOperationException.class, () -> frozen.addChild(new ConfigThingy("X")));
+    assertThrows(UnsupportedOperationException.class, () -> frozen.setName("X"));
+    Iterator<ConfigThingy> iter = frozen.iterator();
+    iter.next();
+    assertThrows(UnsupportedOperationException.class, iter::remove);
+
+    ConfigThingy copy = new ConfigThingy(frozen);
+    assertFalse(copy.isFrozen());
+    copy.add("X");
+    assertEquals(conf.count() + 1, copy.count());
+    assertEquals(conf.count(), frozen.count());
+  }
+
+  @Test
+  public void testWriteTo() throws Exception
+  {
+    ConfigThingy conf = new ConfigThingy("root",
+        "A 'x''y\"z%%%n%u000d' B('1', '2') C(D 'd' E 'e') F(G(H 'h') I('i' 'j')) ''('k')");
+    String expected = "\nroot(\n"
+        + "  A \"x'y\"\"z%%%n%u000a\"\n"
+        + "  B(\"1\", \"2\")\n"
+        + "  C(D \"d\" E \"e\")\n"
+        + "\n  F(\n"
+        + "    G(H \"h\")\n"
+        + "    I(\"i\", \"j\")\n"
+        + "  )\n"
+        + "  \"\"\n"
+        + "  (\"k\")\n"
+        + ")\n";
+    assertEquals(expected, conf.stringRepresentation());
+    StringWriter out = new StringWriter();
+    conf.writeTo(out, false, '"');
+    assertEquals(expected, out.toString());
+
+    out = new StringWriter();
+    conf.get("A").writeTo(out, false, '\'');
+    assertEquals("A 'x''y\"z%%%n%u000a'", out.toString());
+
+    out = new StringWriter();
+    conf.get("B").writeTo(out, true, '"');
+    assertEquals("\"1\"\n\"2\"\n", out.toString());
+
+    out = new StringWriter();
+    new ConfigThingy("K", "V 'a-\u00e4\ud83d\ude00b'").getFirstChild().writeTo(out, false, '"', true);
+    assertEquals("V \"a%u002d\u00e4%ud83d\ude00b\"", out.toString());
+
+    assertThrows(IllegalArgumentException.class, () -> conf.writeTo(new StringWriter(), false, '#'));
+  }
+
+  /**
+   * Compares writing a sender cache with 10000 entries to a file via
+   * {@link ConfigThingy#stringRepresentation()} and via
+   * {@link ConfigThingy#writeTo(Appendable, boolean, char)}.
+   */
+  @Test
+  @Disabled
+  public void performanceWriteTo() throws Exception
+  {
+    ConfigThingy conf = new ConfigThingy("");
+    ConfigThingy data = conf.add("Data");
+    for (int i = 0; i < 10000; i++)
+    {
+      ConfigThingy entry = data.add("");
+      for (String column : new String[] { "Vorname", "Nachname", "Mail", "Strasse", "Ort" })
+      {
+        entry.add(column).add(column + " \"" + i + "\" 100% äöü");
+      }
+    }
+
+    File file = File.createTempFile("writeTo", ".conf");
+    try
+    {
+      for (int round = 0; round < 5; round++)
+      {
+        long start = System.nanoTime();
+        long allocated = allocatedBytes();
+        try (Writer out = new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)))
+        {
+          out.write(conf.stringRepresentation(true, '"'));
+        }
+        long stringAllocated = allocatedBytes() - allocated;
+        long stringTime = System.nanoTime() - start;
+        String expected = Files.readString(file.toPath());
+
+        start = System.nanoTime();
+        allocated = allocatedBytes();
+        try (Writer out = new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)))
+        {
+          conf.writeTo(out, true, '"');
+        }
+        long writeAllocated = allocatedBytes() - allocated;
+        long writeTime = System.nanoTime() - start;
+
+        assertEquals(expected, Files.readString(file.toPath()));
+        System.out.println(String.format(
+            "%d chars%nstringRepresentation: %d millis, %d bytes%nwriteTo: %d millis, %d bytes%n",
+            expected.length(), stringTime / 1000000, stringAllocated, writeTime / 1000000,
+            writeAllocated));
+        if (round == 4)
+        {
+          assertTrue(writeAllocated < stringAllocated / 2);
+        }
+      }
+    } finally
+    {
+      file.delete();
+    }
+  }
+
+  /**
+   * Compares the heap histograms of the configuration used by the performance test of the XML
+   * generator after parsing and after freezing.
+   */
+  @Test
+  @Disabled
+  public void performance() throws Exception
+  {
+    URL url = getClass().getResource("generator/xml/performance.conf");
+    Map<String, Long> empty = histogram();
+    ConfigThingy parsed = new ConfigThingy("", url);
+    Map<String, Long> withParsed = histogram();
+    ConfigThingy frozen = parsed.freeze();
+    int count = parsed.count();
+    parsed = null;
+    Map<String, Long> withFrozen = histogram();
+    assertEquals(count, frozen.count());
+
+    // int arrays are ignored, because the JVM uses them to fill gaps in the heap
+    Set<String> classes = new HashSet<>(withParsed.keySet());
+    classes.addAll(withFrozen.keySet());
+    classes.remove("[I");
+    StringBuilder report = new StringBuilder();
+    long parsedTotal = 0;
+    long frozenTotal = 0;
+    for (String name : classes)
+    {
+      long parsedBytes = withParsed.getOrDefault(name, 0L) - empty.getOrDefault(name, 0L);
+      long frozenBytes = withFrozen.getOrDefault(name, 0L) - empty.getOrDefault(name, 0L);
+      parsedTotal += parsedBytes;
+      frozenTotal += frozenBytes;
+      if (Math.abs(parsedBytes) > 100000 || Math.abs(frozenBytes) > 100000)
+      {
+        report.append(String.format("%-50s %12d %12d%n", name, parsedBytes, frozenBytes));
+      }
+    }
+    report.append(String.format("%-50s %12d %12d%n", "total", parsedTotal, frozenTotal));
+    System.out.println(String.format("%-50s %12s %12s%n", "", "parsed", "frozen") + report);
+
+    assertTrue(frozenTotal < parsedTotal * 2 / 3, "parsed: " + parsedTotal + " bytes, frozen: " + frozenTotal + " bytes");
+  }
+
+  /**
+   * Returns the bytes of all live objects by class name after a full garbage collection.
+   */
+  private Map<String, Long> histogram() throws Exception
+  {
+    String histogram = (String) ManagementFactory.getPlatformMBeanServer().invoke(
+        new ObjectName("com.sun.management:type=DiagnosticCommand"), "gcClassHistogram",
+        new Object[] { null }, new String[] { String[].class.getName() });
+    Map<String, Long> bytes = new HashMap<>();
+    for (String line : histogram.split("\n"))
+    {
+      String[] columns = line.trim().split("\\s+");
+      if (columns.length >= 4 && columns[0].endsWith(":"))
+      {
+        bytes.put(columns[3], Long.parseLong(columns[2]));
+      }
+    }
+    return bytes;
+  }
+}
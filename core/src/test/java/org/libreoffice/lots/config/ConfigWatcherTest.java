@@ -0,0 +1,158 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ConfigWatcherTest
+{
+  private File dir;
+  private File conf;
+  private File first;
+  private File second;
+  private BlockingQueue<Set<String>> reloads;
+  private ConfigWatcher watcher;
+
+  @BeforeEach
+  public void setUp() throws IOException
+  {
+    dir = Files.createTempDirectory("watcherTest").toFile();
+    conf = new File(dir, "lots.conf");
+    first = new File(dir, "first.conf");
+    second = new File(dir, "second.conf");
+    write(conf, "A 'a'\n%include 'first.conf'\n%include 'second.conf'\n");
+    write(first, "B(C 'c')\n");
+    write(second, "D(E 'e')\n");
+    reloads = new LinkedBlockingQueue<>();
+    watcher = new ConfigWatcher("", conf.toURI().toURL(), new ConfigThingy(""), List.of(),
+        (newConf, changedSections) -> reloads.add(changedSections));
+  }
+
+  @AfterEach
+  public void tearDown() throws IOException
+  {
+    watcher.close();
+    for (File file : dir.listFiles())
+      file.delete();
+    dir.delete();
+  }
+
+  private void write(File file, String content) throws IOException
+  {
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private String key(File file) throws IOException
+  {
+    return file.toURI().toURL().toExternalForm();
+  }
+
+  @Test
+  public void testReloadOnlyChangedFiles() throws Exception
+  {
+    watcher.reload(List.of());
+    assertEquals(Set.of("A", "B", "D"), reloads.poll());
+    assertTrue(watcher.getConf().isFrozen());
+
+    write(first, "B(C 'changed')\n");
+    write(second, "D(E 'changed')\n");
+    watcher.reload(Set.of(key(first)));
+    assertEquals(Set.of("B"), reloads.poll());
+    assertEquals("changed", watcher.getConf().get("B").getString("C"));
+    assertEquals("e", watcher.getConf().get("D").getString("E"));
+
+    watcher.reload(Set.of(key(second)));
+    assertEquals(Set.of("D"), reloads.poll());
+    assertEquals("changed", watcher.getConf().get("D").getString("E"));
+
+    watcher.reload(Set.of(key(conf)));
+    assertNull(reloads.poll());
+  }
+
+  @Test
+  public void testSyntaxError() throws Exception
+  {
+    watcher.reload(List.of());
+    reloads.clear();
+
+    write(first, "B(C 'c'\n");
+    watcher.reload(Set.of(key(first)));
+    assertNull(reloads.poll());
+    assertEquals("c", watcher.getConf().get("B").getString("C"));
+
+    write(first, "B(C 'fixed')\n");
+    watcher.reload(Set.of(key(first)));
+    assertEquals(Set.of("B"), reloads.poll());
+  }
+
+  @Test
+  public void testChangedSections() throws Exception
+  {
+    ConfigThingy oldConf = new ConfigThingy("", "A 'a' B(C 'c') B(D 'd') E 'e'");
+    assertEquals(Set.of(), ConfigWatcher.changedSections(oldConf, oldConf));
+    assertEquals(Set.of("B", "E", "F"), ConfigWatcher.changedSections(oldConf,
+        new ConfigThingy("", "A 'a' B(C 'c') B(D 'x') F 'f'")));
+    assertEquals(Set.of("B"), ConfigWatcher.changedSections(oldConf,
+        new ConfigThingy("", "A 'a' B(D 'd') B(C 'c') E 'e'")));
+  }
+
+  @Test
+  public void testWatch() throws Exception
+  {
+    Set<URL> sources = new LinkedHashSet<>();
+    ConfigThingy parsed = new ConfigThingy("", conf.toURI().toURL(), sources).freeze();
+    watcher.close();
+    watcher = new ConfigWatcher("", conf.toURI().toURL(), parsed, sources,
+        (newConf, changedSections) -> reloads.add(changedSections));
+    watcher.start();
+    // the configuration isn't parsed again at the start
+    assertNull(reloads.poll(1, TimeUnit.SECONDS));
+    assertSame(parsed, watcher.getConf());
+
+    write(second, "D(E 'changed')\n");
+    Set<String> changed = reloads.poll(30, TimeUnit.SECONDS);
+    assertNotNull(changed);
+    assertEquals(Set.of("D"), changed);
+    assertEquals("changed", watcher.getConf().get("D").getString("E"));
+  }
+}
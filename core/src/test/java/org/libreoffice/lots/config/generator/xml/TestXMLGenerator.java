@@ -26,16 +26,31 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.xml.XMLConstants;
 import javax.xml.transform.Source;
@@ -191,4 +206,198 @@ public class TestXMLGenerator
     assertTrue(time < 1000, "Performance is bad: " + time + " millis");
   }
 
+  /**
+   * Convert a configuration with includes to XML and back, once with the DOM-API and once with the
+   * streaming API. Both have to produce the same files.
+   *
+   * @throws Exception
+   *           Problems with generator.
+   */
+  @Test
+  public void streamingRoundTrip() throws Exception
+  {
+    Path dir = Files.createTempDirectory("xmlGenerator");
+    try
+    {
+      streamingRoundTrip(dir);
+    } finally
+    {
+      deleteDirectory(dir);
+    }
+  }
+
+  private void streamingRoundTrip(Path dir) throws Exception
+  {
+    File main = createConfig(dir, 5, 500);
+
+    Document doc = new XMLGenerator(main.toURI().toURL()).generateXML();
+    Map<String, String> expected = new ConfGenerator(doc).generateConfMap("UTF-8");
+    assertEquals(6, expected.size());
+
+    File xml = dir.resolve("config.xml").toFile();
+    try (OutputStream out = new FileOutputStream(xml))
+    {
+      new XMLGenerator(main.toURI().toURL()).generateXML(out);
+    }
+    Map<String, String> actual = new LinkedHashMap<>();
+    try (InputStream in = new FileInputStream(xml))
+    {
+      ConfGenerator.generateConf(in, filename -> new StringWriter()
+      {
+        @Override
+        public void close() throws IOException
+        {
+          actual.put(filename, toString());
+        }
+      });
+    }
+    assertEquals(List.copyOf(expected.keySet()), List.copyOf(actual.keySet()), "Different files");
+    assertEquals(expected, actual, "Different content");
+  }
+
+  /**
+   * Compare the peak heap of the DOM-API and the streaming API on a large configuration.
+   *
+   * @throws Exception
+   *           Problems with generator.
+   */
+  @Test
+  @Disabled
+  public void performanceStreaming() throws Exception
+  {
+    Path dir = Files.createTempDirectory("xmlGenerator");
+    try
+    {
+      performanceStreaming(dir);
+    } finally
+    {
+      deleteDirectory(dir);
+    }
+  }
+
+  private void performanceStreaming(Path dir) throws Exception
+  {
+    File main = createConfig(dir, 20, 5000);
+    File xml = dir.resolve("config.xml").toFile();
+
+    long start = System.currentTimeMillis();
+    long domHeap = peakHeap(
+        () -> new ConfGenerator(new XMLGenerator(main.toURI().toURL()).generateXML()).generateConf());
+    long domTime = System.currentTimeMillis() - start;
+
+    start = System.currentTimeMillis();
+    long streamHeap = peakHeap(() -> {
+      try (OutputStream out = new FileOutputStream(xml))
+      {
+        new XMLGenerator(main.toURI().toURL()).generateXML(out);
+      }
+      try (InputStream in = new FileInputStream(xml))
+      {
+        ConfGenerator.generateConf(in);
+      }
+    });
+    long streamTime = System.currentTimeMillis() - start;
+
+    System.out.printf("DOM: %d ms, %d MB peak heap%nStAX: %d ms, %d MB peak heap%n", domTime,
+        domHeap >> 20, streamTime, streamHeap >> 20);
+    assertTrue(streamHeap < domHeap / 4, "Streaming needs too much memory");
+  }
+
+  /**
+   * Create a configuration which includes some files.
+   *
+   * @param dir
+   *          The directory of the files.
+   * @param files
+   *          The number of included files.
+   * @param entries
+   *          The number of entries per file.
+   * @return The main file.
+   * @throws IOException
+   *           Couldn't write the files.
+   */
+  private File createConfig(Path dir, int files, int entries) throws IOException
+  {
+    File main = dir.resolve("main.conf").toFile();
+    try (Writer out = Files.newBufferedWriter(main.toPath(), StandardCharsets.UTF_8))
+    {
+      out.write("# main file\nNAME \"main\"\n");
+      for (int file = 0; file < files; file++)
+      {
+        out.write("%include \"include" + file + ".conf\"\n");
+      }
+    }
+    for (int file = 0; file < files; file++)
+    {
+      try (BufferedWriter out = Files.newBufferedWriter(dir.resolve("include" + file + ".conf"),
+          StandardCharsets.UTF_8))
+      {
+        for (int entry = 0; entry < entries; entry++)
+        {
+          out.write("Key" + entry + " \"value " + entry + " with \"\"quotes\"\" and '\"\n");
+          out.write("Group" + entry + "(\n  A \"a\" B 'b'\n  List(\"x\", \"y\", \"z\")\n");
+          out.write("  # comment " + entry + "\n  Nested(C(D \"d\"))\n)\n");
+          out.write("(\"unnamed\", \"list\")\n");
+        }
+      }
+    }
+    return main;
+  }
+
+  private static void deleteDirectory(Path dir)
+  {
+    for (File file : dir.toFile().listFiles())
+    {
+      file.delete();
+    }
+    dir.toFile().delete();
+  }
+
+  private interface Conversion
+  {
+    void run() throws Exception;
+  }
+
+  /**
+   * Run a conversion and sample the used heap after each garbage collection, so that only the
+   * reachable objects are counted.
+   *
+   * @param conversion
+   *          The conversion.
+   * @return The maximal used heap.
+   * @throws Exception
+   *           The conversion failed.
+   */
+  private static long peakHeap(Conversion conversion) throws Exception
+  {
+    System.gc();
+    AtomicLong peak = new AtomicLong();
+    AtomicBoolean running = new AtomicBoolean(true);
+    Thread sampler = new Thread(() -> {
+      while (running.get())
+      {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+          if (pool.getType() == MemoryType.HEAP && pool.getCollectionUsage() != null)
+          {
+            used += pool.getCollectionUsage().getUsed();
+          }
+        }
+        peak.accumulateAndGet(used, Math::max);
+        LockSupport.parkNanos(1_000_000);
+      }
+    });
+    sampler.start();
+    try
+    {
+      conversion.run();
+    } finally
+    {
+      running.set(false);
+      sampler.join();
+    }
+    return peak.get();
+  }
+
 }
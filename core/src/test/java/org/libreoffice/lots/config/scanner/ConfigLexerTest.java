@@ -0,0 +1,217 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.config.scanner;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.libreoffice.lots.config.ConfigTestUtils.allocatedBytes;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.regex.Matcher;
+
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.libreoffice.lots.config.ConfigThingy;
+import org.libreoffice.lots.config.scanner.ConfigLexer.Kind;
+
+public class ConfigLexerTest
+{
+
+  @Test
+  public void testTokens() throws Exception
+  {
+    ConfigLexer lexer = new ConfigLexer(new StringReader("A 'x' (\"y\"),;)\n  %include 'f' # comment\n"),
+        false);
+    assertToken(lexer, Kind.KEY, "A", 1, 1);
+    assertToken(lexer, Kind.STRING, "'x'", 1, 3);
+    assertToken(lexer, Kind.OPENING_BRACKET, "(", 1, 7);
+    assertToken(lexer, Kind.STRING, "\"y\"", 1, 8);
+    assertToken(lexer, Kind.CLOSING_BRACKET, ")", 1, 11);
+    assertToken(lexer, Kind.CLOSING_BRACKET, ")", 1, 14);
+    assertToken(lexer, Kind.INCLUDE, "%include", 2, 3);
+    assertToken(lexer, Kind.STRING, "'f'", 2, 12);
+    assertToken(lexer, Kind.COMMENT, "# comment", 2, 16);
+    assertEquals(Kind.END, lexer.next());
+    assertEquals(3, lexer.line());
+    assertEquals(0, lexer.column());
+    assertEquals(Kind.END, lexer.next());
+  }
+
+  @Test
+  public void testLineTerminators() throws Exception
+  {
+    ConfigLexer lexer = new ConfigLexer(new StringReader("A\rB\r\nC\n\nD"), false);
+    assertToken(lexer, Kind.KEY, "A", 1, 1);
+    assertToken(lexer, Kind.KEY, "B", 2, 1);
+    assertToken(lexer, Kind.KEY, "C", 3, 1);
+    assertToken(lexer, Kind.KEY, "D", 5, 1);
+    assertEquals(Kind.END, lexer.next());
+    assertEquals(6, lexer.line());
+  }
+
+  @Test
+  public void testValue() throws Exception
+  {
+    assertEquals("a'b", value("'a''b'"));
+    assertEquals("a\"\"b", value("'a\"\"b'"));
+    assertEquals("\n%A%x%", value("\"%n%%%u0041%x%\""));
+    assertEquals("", value("''"));
+    assertThrows(IllegalArgumentException.class, () -> value("'%u00'"));
+    assertThrows(IllegalArgumentException.class, () -> value("'%uZZZZ'"));
+  }
+
+  @Test
+  public void testErrors() throws Exception
+  {
+    ConfigLexer lexer = new ConfigLexer(new StringReader("A 'unterminated"), false);
+    assertToken(lexer, Kind.KEY, "A", 1, 1);
+    assertEquals(Kind.ERROR, lexer.next());
+    assertEquals(3, lexer.column());
+    assertEquals("'unterminated", lexer.rest());
+    assertEquals(Kind.ERROR, lexer.next());
+
+    assertEquals(Kind.ERROR, new ConfigLexer(new StringReader("1A"), false).next());
+    assertEquals(Kind.ERROR, new ConfigLexer(new StringReader("%inc"), false).next());
+  }
+
+  @Test
+  public void testLenient() throws Exception
+  {
+    assertEquals(Kind.ERROR, new ConfigLexer(new StringReader("\u00A0A"), false).next());
+    ConfigLexer lexer = new ConfigLexer(new StringReader("\uFEFF\u00A0A"), true);
+    assertToken(lexer, Kind.KEY, "A", 1, 3);
+  }
+
+  /**
+   * Compares the lexer with the regular expressions of {@link TokenType}, which have been used
+   * before, and with {@link ConfigThingy}.
+   */
+  @Test
+  @Disabled
+  public void performance() throws Exception
+  {
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; large.length() < 8 * 1024 * 1024; i++)
+    {
+      large.append("DataSource(NAME 'ds" + i + "' TYPE \"conf\" URL 'file" + i
+          + ".conf' # comment\n  Schema('A', 'B', 'C''s') Key('A') LABEL \"100%% %u00E4\")\n");
+    }
+    String conf = large.toString();
+
+    for (int i = 0; i < 3; i++)
+    {
+      assertEquals(countWithRegex(conf), countWithLexer(conf));
+    }
+
+    long start = System.currentTimeMillis();
+    long allocated = allocatedBytes();
+    int regexTokens = countWithRegex(conf);
+    long regexAllocated = allocatedBytes() - allocated;
+    long regexTime = System.currentTimeMillis() - start;
+
+    start = System.currentTimeMillis();
+    allocated = allocatedBytes();
+    int lexerTokens = countWithLexer(conf);
+    long lexerAllocated = allocatedBytes() - allocated;
+    long lexerTime = System.currentTimeMillis() - start;
+
+    start = System.currentTimeMillis();
+    allocated = allocatedBytes();
+    ConfigThingy parsed = new ConfigThingy("", conf);
+    long parseAllocated = allocatedBytes() - allocated;
+    long parseTime = System.currentTimeMillis() - start;
+
+    assertEquals(regexTokens, lexerTokens);
+    assertTrue(parsed.count() > 0);
+    System.out.println(String.format(
+        "%d chars, %d tokens%nregex: %d millis, %d bytes%nlexer: %d millis, %d bytes%n"
+            + "ConfigThingy: %d millis, %d bytes",
+        conf.length(), lexerTokens, regexTime, regexAllocated, lexerTime, lexerAllocated,
+        parseTime, parseAllocated));
+    assertTrue(lexerTime < regexTime);
+    assertTrue(lexerAllocated < regexAllocated);
+  }
+
+  private static void assertToken(ConfigLexer lexer, Kind kind, String text, int line, int column)
+      throws IOException
+  {
+    assertEquals(kind, lexer.next());
+    assertEquals(text, lexer.text());
+    assertEquals(line, lexer.line());
+    assertEquals(column, lexer.column());
+  }
+
+  private static String value(String string) throws IOException
+  {
+    ConfigLexer lexer = new ConfigLexer(new StringReader(string), false);
+    assertEquals(Kind.STRING, lexer.next());
+    return lexer.value();
+  }
+
+  private static int countWithLexer(String conf) throws IOException
+  {
+    int count = 0;
+    ConfigLexer lexer = new ConfigLexer(new StringReader(conf), false);
+    while (lexer.next() != Kind.END)
+    {
+      ++count;
+    }
+    return count;
+  }
+
+  private static int countWithRegex(String conf) throws IOException
+  {
+    int count = 0;
+    BufferedReader reader = new BufferedReader(new StringReader(conf));
+    String line;
+    while ((line = reader.readLine()) != null)
+    {
+      while (!line.isEmpty())
+      {
+        for (TokenType tokenType : TokenType.values())
+        {
+          if (!tokenType.hasRegex())
+          {
+            continue;
+          }
+          Matcher matcher = tokenType.getRegex().matcher(line);
+          if (matcher.find())
+          {
+            // the old tokenizer created the content of every token
+            line.substring(0, matcher.end());
+            line = line.substring(matcher.end());
+            if (tokenType != TokenType.WHITESPACE)
+            {
+              ++count;
+            }
+            break;
+          }
+        }
+      }
+    }
+    return count;
+  }
+}
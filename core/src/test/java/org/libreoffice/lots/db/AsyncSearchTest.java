@@ -50,4 +50,16 @@ public class AsyncSearchTest
     assertTrue(search.runSearchAsync().get().isEmpty());
   }
 
+  @Test
+  public void testAsyncSearchInSession() throws Exception
+  {
+    SearchSession session = new SearchSession();
+    CompletableFuture<QueryResults> first =
+        new AsyncSearch(Map.of("column", "value"), new MockDatasource()).runSearchAsync(session);
+    CompletableFuture<QueryResults> second =
+        new AsyncSearch(Map.of("column", "value2"), new MockDatasource()).runSearchAsync(session);
+    assertTrue(first.isCancelled());
+    assertEquals("ds2", second.get().iterator().next().getKey());
+  }
+
 }
@@ -0,0 +1,102 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.libreoffice.lots.db.mock.MockDataset;
+
+public class BatchResultsTest
+{
+
+  @Test
+  public void testMatches()
+  {
+    assertTrue(BatchResults.matches("Value", "value"));
+    assertFalse(BatchResults.matches("Value2", "value"));
+    assertTrue(BatchResults.matches("Value2", "val*"));
+    assertTrue(BatchResults.matches("Value2", "*UE2"));
+    assertTrue(BatchResults.matches("Value2", "*lu*"));
+    assertTrue(BatchResults.matches("Value2", "v*l*2"));
+    assertFalse(BatchResults.matches("Value2", "v*l*3"));
+    assertFalse(BatchResults.matches("ab", "ab*b"));
+    assertTrue(BatchResults.matches("", ""));
+    assertTrue(BatchResults.matches("", "*"));
+  }
+
+  @Test
+  public void testSplit() throws Exception
+  {
+    List<List<QueryPart>> queries = List.of(List.of(new QueryPart("column", "a*")),
+        List.of(new QueryPart("column", "ab"), new QueryPart("column2", "x")),
+        List.of(new QueryPart("column", "c")));
+    Dataset ab = new MockDataset("ab", Map.of("column", "AB", "column2", "x"));
+    Dataset ac = new MockDataset("ac", Map.of("column", "ac", "column2", "y"));
+    List<QueryResults> split = BatchResults.split(queries, List.of(ab, ac));
+    assertEquals(3, split.size());
+    assertEquals(List.of("ab", "ac"), keys(split.get(0)));
+    assertEquals(List.of("ab"), keys(split.get(1)));
+    assertTrue(split.get(2).isEmpty());
+
+    // the data source matched something we can't reproduce
+    split = BatchResults.split(queries, List.of(ab, new MockDataset("d", "column", "d")));
+    assertEquals(3, split.size());
+    split.forEach(results -> assertNull(results));
+  }
+
+  @Test
+  public void testSplitUnreliable() throws Exception
+  {
+    List<List<QueryPart>> queries = List.of(List.of(new QueryPart("column", "a b")),
+        List.of(new QueryPart("column", "a*")), List.of(new QueryPart("column2", "x")));
+    // the data source ignored the additional whitespace
+    Dataset spaces = new MockDataset("spaces", Map.of("column", "a  B", "column2", "y"));
+    List<QueryResults> split = BatchResults.split(queries, List.of(spaces));
+    assertNull(split.get(0));
+    assertEquals(List.of("spaces"), keys(split.get(1)));
+    assertTrue(split.get(2).isEmpty());
+
+    // another value of column2 may have matched
+    Dataset ab = new MockDataset("ab", Map.of("column", "ab", "column2", "y"));
+    split = BatchResults.split(queries, List.of(ab), Set.of("column2"));
+    assertTrue(split.get(0).isEmpty());
+    assertEquals(List.of("ab"), keys(split.get(1)));
+    assertNull(split.get(2));
+  }
+
+  private List<String> keys(QueryResults results)
+  {
+    List<String> keys = new ArrayList<>();
+    results.forEach(ds -> keys.add(ds.getKey()));
+    return keys;
+  }
+}
@@ -0,0 +1,197 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.libreoffice.lots.config.ConfigThingy;
+import org.libreoffice.lots.config.ConfigurationErrorException;
+import org.libreoffice.lots.db.mock.CountingDatasource;
+
+public class CacheDatasourceTest
+{
+  private CountingDatasource source;
+
+  private long now;
+
+  @BeforeEach
+  public void setUp()
+  {
+    source = new CountingDatasource();
+    now = 0;
+  }
+
+  private CacheDatasource create(String config) throws Exception
+  {
+    return new CacheDatasource(Map.of("mock", source),
+        new ConfigThingy("", "NAME \"cache\" SOURCE \"mock\" " + config), () -> now);
+  }
+
+  @Test
+  public void testFind() throws Exception
+  {
+    CacheDatasource ds = create("");
+    assertEquals("cache", ds.getName());
+    assertEquals(List.of("column", "column2"), ds.getSchema());
+    List<QueryPart> query = List.of(new QueryPart("column", "value"),
+        new QueryPart("column2", "value2"));
+    assertEquals(1, ds.find(query).size());
+    assertEquals(1, ds.find(List.of(query.get(1), query.get(0))).size());
+    assertEquals(1, source.getQueries());
+    assertTrue(ds.getStatistics().contains("hits=1, misses=1"), ds.getStatistics());
+
+    now += TimeUnit.SECONDS.toNanos(301);
+    assertEquals(1, ds.find(query).size());
+    assertEquals(2, source.getQueries());
+  }
+
+  @Test
+  public void testNegativeCaching() throws Exception
+  {
+    CacheDatasource ds = create("NEGATIVE_TTL \"10\"");
+    List<QueryPart> query = List.of(new QueryPart("column", "unknown"));
+    assertTrue(ds.find(query).isEmpty());
+    assertTrue(ds.find(query).isEmpty());
+    assertEquals(1, source.getQueries());
+    now += TimeUnit.SECONDS.toNanos(11);
+    assertTrue(ds.find(query).isEmpty());
+    assertEquals(2, source.getQueries());
+
+    ds = create("NEGATIVE_TTL \"0\"");
+    ds.find(query);
+    ds.find(query);
+    assertEquals(4, source.getQueries());
+  }
+
+  @Test
+  public void testDefaultNegativeTtl() throws Exception
+  {
+    CacheDatasource ds = create("");
+    List<QueryPart> query = List.of(new QueryPart("column", "unknown"));
+    assertTrue(ds.find(query).isEmpty());
+    now += TimeUnit.SECONDS.toNanos(31);
+    assertTrue(ds.find(query).isEmpty());
+    assertEquals(2, source.getQueries());
+  }
+
+  @Test
+  public void testIncompleteResults() throws Exception
+  {
+    CacheDatasource ds = create("");
+    List<QueryPart> query = List.of(new QueryPart("column", "value"));
+    source.setIncomplete(true);
+    assertEquals(1, ds.find(query).size());
+    assertEquals(1, ds.findAll(List.of(query)).get(0).size());
+    assertEquals(1, ds.getDatasetsByKey(List.of("ds", "ds3")).size());
+
+    source.setIncomplete(false);
+    assertEquals(1, ds.find(query).size());
+    assertEquals(1, ds.find(query).size());
+    assertEquals(3, source.getQueries());
+    assertEquals(2, ds.getDatasetsByKey(List.of("ds", "ds3")).size());
+    assertEquals(2, source.getKeyQueries().size());
+  }
+
+  @Test
+  public void testLimits() throws Exception
+  {
+    CacheDatasource ds = create("MAX_ENTRIES \"2\"");
+    List<QueryPart> query1 = List.of(new QueryPart("column", "value"));
+    List<QueryPart> query2 = List.of(new QueryPart("column", "value3"));
+    List<QueryPart> query3 = List.of(new QueryPart("column", "unknown"));
+    ds.find(query1);
+    ds.find(query2);
+    ds.find(query1);
+    ds.find(query3); // evicts query2
+    ds.find(query1);
+    assertEquals(3, source.getQueries());
+    ds.find(query2);
+    assertEquals(4, source.getQueries());
+
+    ds = create("MAX_BYTES \"1\"");
+    ds.find(query1);
+    ds.find(query1);
+    assertEquals(6, source.getQueries());
+
+    assertThrows(ConfigurationErrorException.class, () -> create("TTL \"-1\""));
+    assertThrows(ConfigurationErrorException.class, () -> create("MAX_ENTRIES \"many\""));
+  }
+
+  @Test
+  public void testFindAll() throws Exception
+  {
+    CacheDatasource ds = create("");
+    List<QueryPart> query1 = List.of(new QueryPart("column", "value"));
+    List<QueryPart> query2 = List.of(new QueryPart("column", "value3"));
+    List<QueryPart> query3 = List.of(new QueryPart("column", "unknown"));
+    ds.find(query1);
+    List<QueryResults> results = ds.findAll(List.of(query1, query2, query3));
+    assertEquals(List.of("value"), values(results.get(0)));
+    assertEquals(List.of("value3"), values(results.get(1)));
+    assertTrue(results.get(2).isEmpty());
+    assertEquals(List.of(List.of(query2, query3)), source.getBatches());
+    assertEquals(3, source.getQueries());
+
+    results = ds.findAll(List.of(query3, query2));
+    assertTrue(results.get(0).isEmpty());
+    assertEquals(List.of("value3"), values(results.get(1)));
+    assertEquals(3, source.getQueries());
+  }
+
+  @Test
+  public void testDatasetsByKey() throws Exception
+  {
+    CacheDatasource ds = create("");
+    assertEquals(List.of("value", "value3"), values(ds.getDatasetsByKey(List.of("ds", "ds3"))));
+    assertEquals(List.of("value3", "value"),
+        values(ds.getDatasetsByKey(List.of("ds3", "unknown", "ds"))));
+    assertEquals(List.of(List.of("ds", "ds3"), List.of("unknown")), source.getKeyQueries());
+    assertTrue(ds.getDatasetsByKey(List.of("unknown")).isEmpty());
+    assertEquals(2, source.getKeyQueries().size());
+  }
+
+  private List<String> values(QueryResults results)
+  {
+    List<String> values = new ArrayList<>();
+    for (Dataset ds : results)
+    {
+      try
+      {
+        values.add(ds.get("column"));
+      } catch (ColumnNotFoundException e)
+      {
+        values.add(null);
+      }
+    }
+    return values;
+  }
+}
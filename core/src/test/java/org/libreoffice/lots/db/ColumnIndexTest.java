@@ -0,0 +1,115 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.db;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.libreoffice.lots.db.mock.MockDataset;
+
+public class ColumnIndexTest
+{
+  private final ColumnIndex index = new ColumnIndex(List.of(new MockDataset("0", "column", "Anna"),
+      new MockDataset("1", "column", "Hannah"), new MockDataset("2", "other", "anna"),
+      new MockDataset("3", "column", "Johanna"), new MockDataset("4", "column", "anna")), "column");
+
+  @Test
+  public void testContains()
+  {
+    assertArrayEquals(new int[] { 0, 1, 3, 4 }, index.lookup("ann", false, false));
+    assertArrayEquals(new int[] { 1, 3 }, index.lookup("h", false, false));
+    assertArrayEquals(new int[] { 0, 1, 3, 4 }, index.lookup("", false, false));
+    assertArrayEquals(new int[0], index.lookup("x", false, false));
+    assertEquals(0, index.estimate("annax", false, false));
+  }
+
+  @Test
+  public void testAnchored()
+  {
+    assertArrayEquals(new int[] { 0, 4 }, index.lookup("an", true, false));
+    assertArrayEquals(new int[] { 0, 3, 4 }, index.lookup("nna", false, true));
+    assertArrayEquals(new int[] { 0, 4 }, index.lookup("anna", true, true));
+    assertArrayEquals(new int[0], index.lookup("ann", true, true));
+  }
+
+  @Test
+  public void testControlCharacters()
+  {
+    ColumnIndex control = new ColumnIndex(List.of(new MockDataset("0", "column", "a\u0002"),
+        new MockDataset("1", "column", "\u0001b"), new MockDataset("2", "column", "")), "column");
+    // no match across the end of a value
+    assertArrayEquals(new int[0], control.lookup("\u0002\u0001", false, false));
+    assertArrayEquals(new int[0], control.lookup("a\u0002\u0001b", false, false));
+    assertArrayEquals(new int[] { 0 }, control.lookup("\u0002", false, true));
+    assertArrayEquals(new int[] { 1 }, control.lookup("\u0001", true, false));
+    assertArrayEquals(new int[] { 2 }, control.lookup("", true, true));
+    assertArrayEquals(new int[] { 0, 1, 2 }, control.lookup("", false, true));
+  }
+
+  @Test
+  public void testRandomValues()
+  {
+    Random random = new Random(42);
+    List<Dataset> data = new ArrayList<>();
+    List<String> values = new ArrayList<>();
+    for (int i = 0; i < 500; i++)
+    {
+      char[] value = new char[random.nextInt(8)];
+      for (int j = 0; j < value.length; j++)
+      {
+        value[j] = (char) ('a' + random.nextInt(3));
+      }
+      values.add(new String(value));
+      data.add(new MockDataset(Integer.toString(i), "column", values.get(i)));
+    }
+    ColumnIndex random3 = new ColumnIndex(data, "column");
+    for (String search : List.of("", "a", "ab", "cab", "bbb", "abcab", "d"))
+    {
+      for (int mode = 0; mode < 4; mode++)
+      {
+        boolean atStart = (mode & 1) != 0;
+        boolean atEnd = (mode & 2) != 0;
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < values.size(); i++)
+        {
+          String value = values.get(i);
+          if (atStart && atEnd ? value.equals(search)
+              : atStart ? value.startsWith(search)
+                  : atEnd ? value.endsWith(search) : value.contains(search))
+          {
+            expected.add(i);
+          }
+        }
+        int[] found = random3.lookup(search, atStart, atEnd);
+        assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), found);
+        assertTrue(random3.estimate(search, atStart, atEnd) >= found.length);
+      }
+    }
+  }
+}
@@ -26,10 +26,15 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
+import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.libreoffice.lots.db.Dataset;
 import org.libreoffice.lots.db.DatasetPredicate;
@@ -107,4 +112,91 @@ public class DatasetPredicateTest
         "Given datasets have a wrong match count with given QueryParts:");
   }
 
+  @Test
+  public void makePredicateAnchored()
+  {
+    Dataset ds = new SimpleDataset("Test", Map.of("Vorname", "Sheldon"));
+    assertTrue(DatasetPredicate.makePredicate(List.of(new QueryPart("Vorname", "she*"))).test(ds));
+    assertFalse(DatasetPredicate.makePredicate(List.of(new QueryPart("Vorname", "hel*"))).test(ds));
+    assertTrue(DatasetPredicate.makePredicate(List.of(new QueryPart("Vorname", "*DON"))).test(ds));
+    assertFalse(DatasetPredicate.makePredicate(List.of(new QueryPart("Vorname", "*eldo"))).test(ds));
+    assertTrue(DatasetPredicate.makePredicate(List.of(new QueryPart("Vorname", "*eldo*"))).test(ds));
+    assertTrue(DatasetPredicate.makePredicate(List.of(new QueryPart("Vorname", "eldo"))).test(ds));
+    assertTrue(DatasetPredicate.makePredicate(List.of(new QueryPart("Vorname", "*"))).test(ds));
+    assertFalse(DatasetPredicate.makePredicate(List.of(new QueryPart("Vorname", "Sheldon Cooper*")))
+        .test(ds));
+  }
+
+  @Test
+  public void makePredicateLiteral()
+  {
+    Dataset ds = new SimpleDataset("Test", Map.of("Vorname", "Dr. (Sheldon)"));
+    assertTrue(DatasetPredicate.makePredicate(List.of(new QueryPart("Vorname", "Dr. (S"))).test(ds));
+    assertFalse(DatasetPredicate.makePredicate(List.of(new QueryPart("Vorname", "D.."))).test(ds));
+    assertFalse(DatasetPredicate.makePredicate(List.of(new QueryPart("Vorname", "[dr]"))).test(ds));
+  }
+
+  @Test
+  public void makePredicateNullValue()
+  {
+    Map<String, String> values = new HashMap<>();
+    values.put("Vorname", null);
+    Dataset ds = new SimpleDataset("Test", values);
+    assertFalse(DatasetPredicate.makePredicate(List.of(new QueryPart("Vorname", "*"))).test(ds));
+  }
+
+  @Test
+  public void compileOrder()
+  {
+    List<DatasetPredicate.PartMatcher> matchers = DatasetPredicate.compile(
+        List.of(new QueryPart("a", "*"), new QueryPart("b", "ab"), new QueryPart("c", "abc"),
+            new QueryPart("d", "a*")));
+    assertEquals(List.of("d", "c", "b", "a"),
+        matchers.stream().map(DatasetPredicate.PartMatcher::getColumn).collect(Collectors.toList()));
+  }
+
+  @Test
+  @Disabled
+  public void performanceMakePredicate()
+  {
+    List<Dataset> data = new ArrayList<>();
+    for (int i = 0; i < 200000; i++)
+    {
+      data.add(new SimpleDataset("ds" + i,
+          Map.of("Vorname", "Vorname" + i, "Nachname", "Nachname" + (i * 7919 % 100000))));
+    }
+    List<QueryPart> query = List.of(new QueryPart("Nachname", "nachname12*"),
+        new QueryPart("Vorname", "vorname"));
+    for (int run = 0; run < 3; run++)
+    {
+      long start = System.nanoTime();
+      long count = data.stream().filter(legacyPredicate(query)).count();
+      long legacy = System.nanoTime() - start;
+      start = System.nanoTime();
+      assertEquals(count, data.stream().filter(DatasetPredicate.makePredicate(query)).count());
+      long compiled = System.nanoTime() - start;
+      System.out.println("per row Pattern: " + data.size() * 1_000_000_000L / legacy
+          + " rows/s, compiled: " + data.size() * 1_000_000_000L / compiled + " rows/s");
+    }
+  }
+
+  /**
+   * The predicate as it has been built before the search strings were compiled.
+   */
+  private Predicate<Dataset> legacyPredicate(List<QueryPart> query)
+  {
+    return query.stream().map(part -> {
+      Predicate<Dataset> pred = (Dataset ds) -> {
+        try
+        {
+          return Pattern.compile(part.getSearchString().replace("*", "").toLowerCase())
+              .matcher(ds.get(part.getColumnName()).toLowerCase()).find();
+        } catch (ColumnNotFoundException ex)
+        {
+          return false;
+        }
+      };
+      return pred;
+    }).reduce(DatasetPredicate.matchAll, Predicate::and);
+  }
 }
@@ -0,0 +1,184 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.libreoffice.lots.config.ConfigThingy;
+import org.libreoffice.lots.config.ConfigurationErrorException;
+import org.libreoffice.lots.db.mock.MockDatasource;
+
+public class DatasourceExecutorTest
+{
+  /**
+   * Occupy all threads and the queue of an executor until the returned latch is released.
+   */
+  private CountDownLatch block(DatasourceExecutor executor, int threads, int queue)
+      throws InterruptedException
+  {
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch started = new CountDownLatch(threads);
+    for (int i = 0; i < threads + queue; i++)
+    {
+      executor.execute(() -> {
+        started.countDown();
+        try
+        {
+          release.await();
+        } catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+        }
+      });
+    }
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    return release;
+  }
+
+  /**
+   * Wait until an executor has finished all its tasks.
+   */
+  private void awaitIdle(DatasourceExecutor executor) throws InterruptedException
+  {
+    long start = System.currentTimeMillis();
+    while ((executor.getActiveCount() > 0 || executor.getQueuedCount() > 0)
+        && System.currentTimeMillis() - start < 5000)
+    {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testLimits() throws Exception
+  {
+    DatasourceExecutor executor = new DatasourceExecutor("test", 2, 1);
+    CountDownLatch release = block(executor, 2, 1);
+    assertEquals(2, executor.getActiveCount());
+    assertEquals(1, executor.getQueuedCount());
+    assertEquals(0, executor.getRejectedCount());
+
+    CompletableFuture<String> rejected = executor.supplyAsync(() -> "rejected");
+    ExecutionException e = assertThrows(ExecutionException.class, rejected::get);
+    assertTrue(e.getCause() instanceof RejectedExecutionException);
+    assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> {}));
+    assertEquals(2, executor.getRejectedCount());
+
+    release.countDown();
+    awaitIdle(executor);
+    assertEquals("accepted", executor.supplyAsync(() -> "accepted").get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testNoQueue() throws Exception
+  {
+    DatasourceExecutor executor = new DatasourceExecutor("test", 1, 0);
+    CountDownLatch release = block(executor, 1, 0);
+    assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> {}));
+    assertEquals(1, executor.getRejectedCount());
+    release.countDown();
+  }
+
+  @Test
+  public void testIsolation() throws Exception
+  {
+    MockDatasource hanging = new MockDatasource();
+    hanging.setExecutor(new DatasourceExecutor("hanging", 1, 1));
+    CountDownLatch release = block(hanging.getExecutor(), 1, 1);
+
+    MockDatasource other = new MockDatasource();
+    QueryResults results = new AsyncSearch(Map.of("column", "value"), other).runSearchAsync()
+        .get(5, TimeUnit.SECONDS);
+    assertEquals(1, results.size());
+
+    CompletableFuture<QueryResults> future = new AsyncSearch(Map.of("column", "value"), hanging)
+        .runSearchAsync();
+    ExecutionException e = assertThrows(ExecutionException.class, future::get);
+    assertTrue(e.getCause() instanceof RejectedExecutionException);
+    release.countDown();
+  }
+
+  @Test
+  public void testSessionRejected() throws Exception
+  {
+    MockDatasource hanging = new MockDatasource();
+    hanging.setExecutor(new DatasourceExecutor("hanging", 1, 0));
+    CountDownLatch release = block(hanging.getExecutor(), 1, 0);
+    try (SearchSession session = new SearchSession(0))
+    {
+      CompletableFuture<QueryResults> future = new AsyncSearch(Map.of("column", "value"), hanging)
+          .runSearchAsync(session);
+      ExecutionException e = assertThrows(ExecutionException.class,
+          () -> future.get(5, TimeUnit.SECONDS));
+      assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+    release.countDown();
+  }
+
+  @Test
+  public void testWrappedDatasource() throws Exception
+  {
+    MockDatasource source = new MockDatasource();
+    source.setExecutor(new DatasourceExecutor("mock", 1, 0));
+    CacheDatasource cache = new CacheDatasource(Map.of("mock", source),
+        new ConfigThingy("", "NAME \"cache\" SOURCE \"mock\""));
+    assertSame(source.getExecutor(), cache.getExecutor());
+
+    CountDownLatch release = block(source.getExecutor(), 1, 0);
+    CompletableFuture<QueryResults> future = new AsyncSearch(Map.of("column", "value"), cache)
+        .runSearchAsync();
+    ExecutionException e = assertThrows(ExecutionException.class, future::get);
+    assertTrue(e.getCause() instanceof RejectedExecutionException);
+    release.countDown();
+  }
+
+  @Test
+  public void testConfiguration() throws Exception
+  {
+    DatasourceExecutor executor = DatasourceExecutor.create("test",
+        new ConfigThingy("", "MAX_CONCURRENCY \"1\" MAX_QUEUE \"0\""));
+    CountDownLatch release = block(executor, 1, 0);
+    assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> {}));
+    release.countDown();
+
+    assertTrue(DatasourceExecutor.hasLimits(new ConfigThingy("", "MAX_QUEUE \"0\"")));
+    assertFalse(DatasourceExecutor.hasLimits(new ConfigThingy("", "NAME \"test\"")));
+    assertThrows(ConfigurationErrorException.class,
+        () -> DatasourceExecutor.create("test", new ConfigThingy("", "MAX_CONCURRENCY \"0\"")));
+    assertThrows(ConfigurationErrorException.class,
+        () -> DatasourceExecutor.create("test", new ConfigThingy("", "MAX_QUEUE \"-1\"")));
+    assertThrows(ConfigurationErrorException.class,
+        () -> DatasourceExecutor.create("test", new ConfigThingy("", "MAX_QUEUE \"many\"")));
+  }
+}
@@ -0,0 +1,75 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.net.URL;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.libreoffice.lots.config.ConfigThingy;
+
+public class DatasourcesTest
+{
+  private final URL file = getClass().getResource("thingyDatasource.conf");
+
+  private String source(String name)
+  {
+    return "(NAME \"" + name + "\" TYPE \"conf\" URL \"" + file + "\" Schluessel(\"column\"))";
+  }
+
+  @Test
+  public void testLegacyNames() throws Exception
+  {
+    Map<String, Datasource> datasources = Datasources.createDatasources(
+        new ConfigThingy("", "Datenquellen(Datenquelle" + source("old") + ")"), null);
+    assertEquals(Set.of("old"), datasources.keySet());
+    assertNotNull(datasources.get("old"));
+
+    datasources = Datasources.createDatasources(new ConfigThingy("",
+        "Datenquellen(Datenquelle" + source("old") + ") DataSources(DataSource" + source("new")
+            + ")"),
+        null);
+    assertEquals(Set.of("new"), datasources.keySet());
+  }
+
+  @Test
+  public void testNested() throws Exception
+  {
+    Map<String, Datasource> datasources = Datasources.createDatasources(new ConfigThingy("",
+        "Group(DataSources(DataSource" + source("nested") + ")) DataSources(Group(DataSource"
+            + source("deep") + "))"),
+        null);
+    assertEquals(Set.of("deep"), datasources.keySet());
+
+    // only the nearest sections and data sources are used, like ConfigThingy.query()
+    datasources = Datasources.createDatasources(new ConfigThingy("",
+        "DataSources(DataSource" + source("top") + " Group(DataSource" + source("deeper")
+            + ")) Group(DataSources(DataSource" + source("nested") + "))"),
+        null);
+    assertEquals(Set.of("top"), datasources.keySet());
+  }
+}
@@ -0,0 +1,188 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.libreoffice.lots.db.mock.MockDataset;
+import org.libreoffice.lots.db.mock.MockDatasource;
+
+public class JoinLookupTest
+{
+
+  @Test
+  public void testLookup() throws Exception
+  {
+    List<QueryPart> queries = new ArrayList<>();
+    Datasource source = new MockDatasource("source", List.of("id", "name"),
+        List.of(new MockDataset("s1", Map.of("id", "1", "name", "first")),
+            new MockDataset("s2", Map.of("id", "2", "name", "second")),
+            new MockDataset("s3", Map.of("id", "1", "name", "third"))))
+    {
+      @Override
+      public QueryResults find(List<QueryPart> query)
+      {
+        queries.addAll(query);
+        return super.find(query);
+      }
+    };
+    List<Dataset> datasets = List.of(new MockDataset("d1", "ref", "1"),
+        new MockDataset("d2", "ref", "3"), new MockDataset("d3", "ref", "2"),
+        new MockDataset("d4", "ref", "1"));
+
+    List<List<Dataset>> joined = new JoinLookup(source, new String[] { "ref" },
+        new String[] { "id" }).lookup(datasets);
+    assertEquals(4, joined.size());
+    assertEquals(List.of("s1", "s3"), keys(joined.get(0)));
+    assertEquals(List.of(), keys(joined.get(1)));
+    assertEquals(List.of("s2"), keys(joined.get(2)));
+    assertEquals(List.of("s1", "s3"), keys(joined.get(3)));
+    // every distinct value is searched once
+    assertEquals(3, queries.size());
+  }
+
+  @Test
+  @Disabled
+  public void performanceLookup() throws Exception
+  {
+    List<Dataset> sourceData = new ArrayList<>();
+    for (int i = 0; i < 2000; i++)
+    {
+      sourceData.add(new MockDataset("s" + i, Map.of("id", "" + i, "name", "name" + i)));
+    }
+    RAMDatasource ram = new RAMDatasource("source", List.of("id", "name"), sourceData);
+    List<Dataset> datasets = new ArrayList<>();
+    Random random = new Random(1);
+    for (int i = 0; i < 500; i++)
+    {
+      datasets.add(new MockDataset("d" + i, "ref", "" + random.nextInt(400)));
+    }
+    String[] columns = { "ref" };
+    String[] sourceColumns = { "id" };
+
+    RoundTripDatasource perQuery = new RoundTripDatasource(ram, false);
+    long start = System.nanoTime();
+    for (Dataset ds : datasets)
+    {
+      perQuery.find(List.of(new QueryPart("id", ds.get("ref"))));
+    }
+    System.out.println("find per dataset: " + perQuery.roundTrips + " round-trips, "
+        + (System.nanoTime() - start) / 1_000_000 + " ms");
+
+    for (boolean batched : new boolean[] { false, true })
+    {
+      RoundTripDatasource source = new RoundTripDatasource(ram, batched);
+      start = System.nanoTime();
+      new JoinLookup(source, columns, sourceColumns).lookup(datasets);
+      System.out.println((batched ? "findAll combined: " : "findAll per distinct query: ")
+          + source.roundTrips + " round-trips, " + (System.nanoTime() - start) / 1_000_000
+          + " ms");
+    }
+  }
+
+  /**
+   * Simulates a remote data source with a latency of 1 ms per request.
+   */
+  private static class RoundTripDatasource extends Datasource
+  {
+    private final RAMDatasource data;
+    private final boolean batched;
+    private int roundTrips = 0;
+
+    RoundTripDatasource(RAMDatasource data, boolean batched)
+    {
+      this.data = data;
+      this.batched = batched;
+    }
+
+    private void roundTrip()
+    {
+      roundTrips++;
+      try
+      {
+        Thread.sleep(1);
+      } catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    @Override
+    public QueryResults find(List<QueryPart> query)
+    {
+      roundTrip();
+      return data.find(query);
+    }
+
+    @Override
+    public List<QueryResults> findAll(List<List<QueryPart>> queries)
+    {
+      if (!batched)
+      {
+        return super.findAll(queries);
+      }
+      roundTrip();
+      return data.findAll(queries);
+    }
+
+    @Override
+    public List<String> getSchema()
+    {
+      return data.getSchema();
+    }
+
+    @Override
+    public QueryResults getDatasetsByKey(Collection<String> keys)
+    {
+      roundTrip();
+      return data.getDatasetsByKey(keys);
+    }
+
+    @Override
+    public QueryResults getContents()
+    {
+      return data.getContents();
+    }
+
+    @Override
+    public String getName()
+    {
+      return data.getName();
+    }
+  }
+
+  private List<String> keys(List<Dataset> datasets)
+  {
+    List<String> keys = new ArrayList<>();
+    datasets.forEach(ds -> keys.add(ds.getKey()));
+    return keys;
+  }
+}
@@ -23,15 +23,19 @@
 package org.libreoffice.lots.db;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.libreoffice.lots.config.ConfigThingy;
+import org.libreoffice.lots.config.ConfigurationErrorException;
 import org.libreoffice.lots.db.ColumnNotFoundException;
 import org.libreoffice.lots.db.Dataset;
 import org.libreoffice.lots.db.Datasource;
@@ -42,11 +46,24 @@ import org.libreoffice.lots.db.QueryResults;
 import com.unboundid.ldap.listener.InMemoryDirectoryServer;
 import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
 import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchEntry;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSimpleBindRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.Filter;
 
 public class LDAPDatasourceTest
 {
   public static InMemoryDirectoryServer server;
   public static final String BASE_DN = "dc=myorg,dc=com";
+  public static final String USER = "cn=Directory Manager";
+  public static final String PASSWORD = "password";
+  /** Number of binds, each new connection with credentials binds once. */
+  public static final AtomicInteger binds = new AtomicInteger();
+  /** Number of searches with an OR filter, which read the nodes of relative columns. */
+  public static final AtomicInteger nodeSearches = new AtomicInteger();
+  /** Number of entries returned by searches with an OR filter. */
+  public static final AtomicInteger nodeEntries = new AtomicInteger();
 
   @BeforeAll
   public static void setup() throws Exception
@@ -55,6 +72,33 @@ public class LDAPDatasourceTest
     InMemoryListenerConfig listener = InMemoryListenerConfig.createLDAPConfig("test");
     InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE_DN);
     config.setListenerConfigs(listener);
+    config.addAdditionalBindCredentials(USER, PASSWORD);
+    config.addInMemoryOperationInterceptor(new InMemoryOperationInterceptor()
+    {
+      @Override
+      public void processSimpleBindRequest(InMemoryInterceptedSimpleBindRequest request)
+      {
+        binds.incrementAndGet();
+      }
+
+      @Override
+      public void processSearchRequest(InMemoryInterceptedSearchRequest request)
+      {
+        if (request.getRequest().getFilter().getFilterType() == Filter.FILTER_TYPE_OR)
+        {
+          nodeSearches.incrementAndGet();
+        }
+      }
+
+      @Override
+      public void processSearchEntry(InMemoryInterceptedSearchEntry entry)
+      {
+        if (entry.getRequest().getFilter().getFilterType() == Filter.FILTER_TYPE_OR)
+        {
+          nodeEntries.incrementAndGet();
+        }
+      }
+    });
     server = new InMemoryDirectoryServer(config);
     server.applyChangesFromLDIF(Paths.get(LDAPDatasourceTest.class.getResource("users.ldif").toURI()).toFile());
     server.startListening();
@@ -123,4 +167,165 @@ public class LDAPDatasourceTest
     assertEquals(1, results.size());
   }
 
+  @Test
+  public void testPagedResults() throws Exception
+  {
+    for (int i = 0; i < 5; i++)
+    {
+      server.add("dn: cn=Paged " + i + ",ou=Groups," + BASE_DN, "objectClass: person",
+          "cn: Paged " + i, "sn: Paged");
+    }
+    try
+    {
+      String url = "ldap://localhost:" + server.getListenPort();
+      Datasource ds = new LDAPDatasource(null, new ConfigThingy("", "NAME \"ldap\" URL \"" + url
+          + "\" BASE_DN \"" + BASE_DN + "\" PAGE_SIZE \"2\""
+          + " OBJECT_CLASS \"person\" Columns ((DB_COLUMN \"column\" PATH \"0:sn\") (DB_COLUMN \"column2\" PATH \"-1:ou\")) Schluessel (\"column\")"),
+          null);
+      QueryResults results = ds.find(List.of(new QueryPart("column", "Paged")));
+      assertTrue(results instanceof LazyQueryResults);
+      assertFalse(((LazyQueryResults) results).isComplete());
+      assertEquals(5, results.size());
+      assertTrue(((LazyQueryResults) results).isComplete());
+      for (Dataset data : results)
+      {
+        assertEquals("Paged", data.get("column"));
+        assertEquals("Groups", data.get("column2"));
+      }
+
+      LazyQueryResults cancelled = (LazyQueryResults) ds
+          .find(List.of(new QueryPart("column", "Paged")));
+      assertEquals("Paged", cancelled.iterator().next().get("column"));
+      cancelled.cancel();
+      assertTrue(cancelled.getFetchedCount() < 5);
+    } finally
+    {
+      for (int i = 0; i < 5; i++)
+      {
+        server.delete("cn=Paged " + i + ",ou=Groups," + BASE_DN);
+      }
+    }
+  }
+
+  @Test
+  public void testAttributeCache() throws Exception
+  {
+    for (int i = 0; i < 5; i++)
+    {
+      server.add("dn: cn=Cached " + i + ",ou=Groups," + BASE_DN, "objectClass: person",
+          "cn: Cached " + i, "sn: Cached");
+    }
+    try
+    {
+      String url = "ldap://localhost:" + server.getListenPort();
+      String columns = " OBJECT_CLASS \"person\" Columns ((DB_COLUMN \"column\" PATH \"0:sn\") (DB_COLUMN \"column2\" PATH \"-1:ou\")) Schluessel (\"column\")";
+      Datasource ds = new LDAPDatasource(null, new ConfigThingy("",
+          "NAME \"ldap\" URL \"" + url + "\" BASE_DN \"" + BASE_DN + "\"" + columns), null);
+      int before = nodeSearches.get();
+      QueryResults results = ds.find(List.of(new QueryPart("column", "Cached")));
+      assertEquals(5, results.size());
+      for (Dataset data : results)
+      {
+        assertEquals("Groups", data.get("column2"));
+      }
+      // the parent of all results is read once
+      assertEquals(1, nodeSearches.get() - before);
+      results = ds.find(List.of(new QueryPart("column", "Cached")));
+      assertEquals("Groups", results.iterator().next().get("column2"));
+      assertEquals(1, nodeSearches.get() - before);
+
+      ds = new LDAPDatasource(null, new ConfigThingy("", "NAME \"ldap\" URL \"" + url
+          + "\" BASE_DN \"" + BASE_DN + "\" ATTRIBUTE_CACHE_TTL \"0\"" + columns), null);
+      before = nodeSearches.get();
+      ds.find(List.of(new QueryPart("column", "Cached"))).size();
+      ds.find(List.of(new QueryPart("column", "Cached"))).size();
+      assertEquals(2, nodeSearches.get() - before);
+    } finally
+    {
+      for (int i = 0; i < 5; i++)
+      {
+        server.delete("cn=Cached " + i + ",ou=Groups," + BASE_DN);
+      }
+    }
+  }
+
+  @Test
+  public void testAttributesOfSameNamedNodes() throws Exception
+  {
+    server.add("dn: ou=Groups,ou=Users," + BASE_DN, "objectClass: organizationalUnit",
+        "ou: Groups");
+    server.add("dn: cn=Nested,ou=Groups," + BASE_DN, "objectClass: person", "cn: Nested",
+        "sn: Nested");
+    try
+    {
+      String url = "ldap://localhost:" + server.getListenPort();
+      Datasource ds = new LDAPDatasource(null, new ConfigThingy("", "NAME \"ldap\" URL \"" + url
+          + "\" BASE_DN \"" + BASE_DN + "\" ATTRIBUTE_CACHE_TTL \"0\""
+          + " OBJECT_CLASS \"person\" Columns ((DB_COLUMN \"column\" PATH \"0:sn\") (DB_COLUMN \"column2\" PATH \"-1:ou\")) Schluessel (\"column\")"),
+          null);
+      int before = nodeEntries.get();
+      QueryResults results = ds.find(List.of(new QueryPart("column", "Nested")));
+      assertEquals(1, results.size());
+      assertEquals("Groups", results.iterator().next().get("column2"));
+      // only the parent is read, not the node with the same name in ou=Users
+      assertEquals(1, nodeEntries.get() - before);
+    } finally
+    {
+      server.delete("cn=Nested,ou=Groups," + BASE_DN);
+      server.delete("ou=Groups,ou=Users," + BASE_DN);
+    }
+  }
+
+  @Test
+  public void testFindAll() throws Exception
+  {
+    String url = "ldap://localhost:" + server.getListenPort();
+    Datasource ds = new LDAPDatasource(null, new ConfigThingy("", "NAME \"ldap\" URL \"" + url
+        + "\" BASE_DN \"" + BASE_DN
+        + "\" OBJECT_CLASS \"person\" Columns ((DB_COLUMN \"column\" PATH \"0:sn\") (DB_COLUMN \"column2\" PATH \"-1:ou\")) Schluessel (\"column\")"),
+        null);
+    List<List<QueryPart>> queries = List.of(List.of(new QueryPart("column", "Ldap")),
+        List.of(new QueryPart("column", "unknown")), List.of(new QueryPart("column", "L*")),
+        List.of(new QueryPart("column2", "Users")), List.of());
+    List<QueryResults> results = ds.findAll(queries);
+    assertEquals(queries.size(), results.size());
+    for (int i = 0; i < queries.size(); i++)
+    {
+      assertEquals(ds.find(queries.get(i)).size(), results.get(i).size(), queries.get(i).toString());
+    }
+    assertEquals("Ldap", results.get(0).iterator().next().get("column"));
+    assertEquals("Users", results.get(2).iterator().next().get("column2"));
+    assertTrue(results.get(1).isEmpty());
+  }
+
+  @Test
+  public void testInvalidPageSize() throws Exception
+  {
+    assertThrows(ConfigurationErrorException.class, () -> new LDAPDatasource(null,
+        new ConfigThingy("", "NAME \"ldap\" URL \"ldap://localhost\" BASE_DN \"" + BASE_DN
+            + "\" PAGE_SIZE \"-1\" OBJECT_CLASS \"person\" Columns ((DB_COLUMN \"column\" PATH \"0:sn\")) Schluessel (\"column\")"),
+        null));
+  }
+
+  @Test
+  public void testConnectionReuse() throws Exception
+  {
+    String url = "ldap://localhost:" + server.getListenPort();
+    Datasource ds = new LDAPDatasource(null, new ConfigThingy("", "NAME \"ldap\" URL \"" + url
+        + "\" USER \"" + USER + "\" PASSWORD \"" + PASSWORD + "\" BASE_DN \"" + BASE_DN
+        + "\" OBJECT_CLASS \"person\" Columns ((DB_COLUMN \"column\" PATH \"0:sn\") (DB_COLUMN \"column2\" PATH \"-1:ou\")) Schluessel (\"column\" \"column2\")"),
+        null);
+    ds.find(List.of(new QueryPart("column", "Ldap")));
+    int before = binds.get();
+    for (int i = 0; i < 10; i++)
+    {
+      QueryResults results = ds.find(List.of(new QueryPart("column", "Ldap")));
+      assertEquals(1, results.size());
+      assertEquals("Users", results.iterator().next().get("column2"));
+      results = ds.find(List.of(new QueryPart("column2", "Users")));
+      assertEquals(1, results.size());
+    }
+    int opened = binds.get() - before;
+    assertTrue(opened <= 1, "opened " + opened + " connections");
+  }
 }
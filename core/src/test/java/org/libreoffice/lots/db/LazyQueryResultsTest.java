@@ -0,0 +1,213 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.libreoffice.lots.db.mock.MockDataset;
+
+public class LazyQueryResultsTest
+{
+
+  private static class CountingSource implements LazyQueryResults.Source
+  {
+    private final int count;
+    private int fetched = 0;
+    private int closed = 0;
+    private int failAt = -1;
+
+    CountingSource(int count)
+    {
+      this.count = count;
+    }
+
+    @Override
+    public Dataset fetch()
+    {
+      if (fetched == failAt)
+      {
+        throw new IllegalStateException("source failed");
+      }
+      if (fetched == count)
+      {
+        return null;
+      }
+      fetched++;
+      return new MockDataset("ds" + fetched, "column", "value" + fetched);
+    }
+
+    @Override
+    public void close()
+    {
+      closed++;
+    }
+  }
+
+  @Test
+  public void testFetchOnDemand() throws Exception
+  {
+    CountingSource source = new CountingSource(5);
+    LazyQueryResults results = new LazyQueryResults(source);
+    assertEquals(0, source.fetched);
+    assertFalse(results.isEmpty());
+    assertEquals(1, source.fetched);
+
+    Iterator<Dataset> iter = results.iterator();
+    assertEquals("ds1", iter.next().getKey());
+    assertEquals("ds2", iter.next().getKey());
+    assertEquals(2, results.getFetchedCount());
+    assertFalse(results.isComplete());
+
+    assertEquals(5, results.size());
+    assertTrue(results.isComplete());
+    assertEquals(1, source.closed);
+    assertEquals("ds3", iter.next().getKey());
+
+    int count = 0;
+    for (Dataset ds : results)
+    {
+      assertEquals("ds" + ++count, ds.getKey());
+    }
+    assertEquals(5, count);
+    assertEquals(5, source.fetched);
+    assertFalse(results.isFailed());
+  }
+
+  @Test
+  public void testFailed() throws Exception
+  {
+    CountingSource source = new CountingSource(5);
+    source.failAt = 2;
+    LazyQueryResults results = new LazyQueryResults(source);
+    assertEquals(2, results.size());
+    assertTrue(results.isComplete());
+    assertTrue(results.isFailed());
+    assertEquals(1, source.closed);
+  }
+
+  @Test
+  public void testIncomplete() throws Exception
+  {
+    LazyQueryResults results = LazyQueryResults.incomplete(List.of(new MockDataset()));
+    assertEquals(1, results.size());
+    assertTrue(results.isComplete());
+    assertTrue(results.isFailed());
+  }
+
+  @Test
+  public void testCancel() throws Exception
+  {
+    CountingSource source = new CountingSource(5);
+    LazyQueryResults results = new LazyQueryResults(source);
+    Iterator<Dataset> iter = results.iterator();
+    iter.next();
+    results.cancel();
+    assertEquals(1, source.closed);
+    assertTrue(results.isComplete());
+    assertFalse(iter.hasNext());
+    assertEquals(1, results.size());
+    assertTrue(results.isFailed());
+    results.cancel();
+    assertEquals(1, source.closed);
+  }
+
+  @Test
+  public void testCancelWhileFetching() throws Exception
+  {
+    CountDownLatch fetching = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountingSource source = new CountingSource(5)
+    {
+      @Override
+      public Dataset fetch()
+      {
+        fetching.countDown();
+        try
+        {
+          release.await();
+        } catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+        }
+        return super.fetch();
+      }
+    };
+    LazyQueryResults results = new LazyQueryResults(source);
+    Thread reader = new Thread(results::size);
+    reader.start();
+    assertTrue(fetching.await(10, TimeUnit.SECONDS));
+
+    // doesn't wait for the slow fetch, which closes the source afterwards
+    assertTimeoutPreemptively(Duration.ofSeconds(10), results::cancel);
+    assertTrue(results.isFailed());
+    assertFalse(results.isComplete());
+    assertEquals(0, source.closed);
+
+    release.countDown();
+    reader.join(10000);
+    assertTrue(results.isComplete());
+    assertEquals(1, source.closed);
+    assertEquals(1, results.getFetchedCount());
+  }
+
+  @Test
+  public void testEmpty() throws Exception
+  {
+    CountingSource source = new CountingSource(0);
+    LazyQueryResults results = new LazyQueryResults(source);
+    assertTrue(results.isEmpty());
+    assertEquals(0, results.size());
+    assertFalse(results.iterator().hasNext());
+    assertEquals(1, source.closed);
+    results.cancel();
+    assertFalse(results.isFailed());
+  }
+
+  @Test
+  public void testInterrupted() throws Exception
+  {
+    CountingSource source = new CountingSource(5);
+    LazyQueryResults results = new LazyQueryResults(source);
+    assertFalse(results.isEmpty());
+    Thread.currentThread().interrupt();
+    try
+    {
+      assertEquals(1, results.size());
+      assertTrue(results.isComplete());
+      assertEquals(1, source.closed);
+    } finally
+    {
+      Thread.interrupted();
+    }
+  }
+}
@@ -25,11 +25,13 @@ package org.libreoffice.lots.db;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.List;
 
 import org.junit.jupiter.api.Test;
 import org.libreoffice.lots.config.ConfigThingy;
+import org.libreoffice.lots.config.ConfigurationErrorException;
 import org.libreoffice.lots.db.ColumnNotFoundException;
 import org.libreoffice.lots.db.Dataset;
 import org.libreoffice.lots.db.Datasource;
@@ -62,4 +64,50 @@ public class OOoDatasourceTest extends OfficeTest
     assertEquals(5, results.size());
   }
 
+  @Test
+  public void testPreparedStatements() throws Exception
+  {
+    Datasource ds = new OOoDatasource(null,
+        new ConfigThingy("", "NAME \"ooo\" SOURCE \"Bibliography\" TABLE \"biblio\" Schluessel (\"Identifier\")"));
+
+    // the same statement is used with other parameters
+    assertEquals(5, ds.find(List.of(new QueryPart("Author", "gris*"))).size());
+    assertEquals(5, ds.find(List.of(new QueryPart("Author", "Gris, Myriam"))).size());
+    assertEquals(0, ds.find(List.of(new QueryPart("Author", "Gris' OR ''='"))).size());
+    assertEquals(0, ds.find(List.of(new QueryPart("Author", "Gris%"))).size());
+    assertEquals(1, ds.getDatasetsByKey(List.of("Identifier#ARJ00#")).size());
+    assertEquals(0, ds.getDatasetsByKey(List.of("Identifier#ARJ00' OR ''='#")).size());
+
+    List<QueryResults> all = ds.findAll(List.of(List.of(new QueryPart("Identifier", "ARJ00")),
+        List.of(new QueryPart("Identifier", "unknown"))));
+    assertEquals(1, all.get(0).size());
+    assertEquals(0, all.get(1).size());
+  }
+
+  @Test
+  public void testLazyResults() throws Exception
+  {
+    Datasource ds = new OOoDatasource(null,
+        new ConfigThingy("", "NAME \"ooo\" SOURCE \"Bibliography\" TABLE \"biblio\" Schluessel (\"Identifier\")"));
+
+    QueryResults results = ds.getContents();
+    assertTrue(results instanceof LazyQueryResults);
+    LazyQueryResults lazyResults = (LazyQueryResults) results;
+    assertFalse(lazyResults.isEmpty());
+    lazyResults.cancel();
+    assertTrue(lazyResults.isComplete());
+    assertEquals(1, lazyResults.getFetchedCount());
+    assertEquals(1, results.size());
+
+    // the statement can be used again after the results have been cancelled
+    assertEquals(20, ds.getContents().size());
+  }
+
+  @Test
+  public void testInvalidMaxHits() throws Exception
+  {
+    assertThrows(ConfigurationErrorException.class, () -> new OOoDatasource(null, new ConfigThingy("",
+        "NAME \"ooo\" SOURCE \"Bibliography\" TABLE \"biblio\" Schluessel (\"Identifier\") MAX_HITS \"-1\"")));
+  }
+
 }
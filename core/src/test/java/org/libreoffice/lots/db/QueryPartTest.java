@@ -23,6 +23,7 @@
 package org.libreoffice.lots.db;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import org.junit.jupiter.api.Test;
@@ -45,4 +46,15 @@ public class QueryPartTest
     assertEquals("", part.getSearchString());
   }
 
+  @Test
+  public void testEquals()
+  {
+    QueryPart part = new QueryPart("column", "search");
+    assertEquals(new QueryPart("column", "search"), part);
+    assertEquals(new QueryPart("column", "search").hashCode(), part.hashCode());
+    assertNotEquals(new QueryPart("column", "other"), part);
+    assertNotEquals(new QueryPart("other", "search"), part);
+    assertEquals(new QueryPart("column", ""), new QueryPart("column", null));
+  }
+
 }
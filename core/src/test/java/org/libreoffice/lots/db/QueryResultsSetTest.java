@@ -26,12 +26,18 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 
+import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.libreoffice.lots.db.ColumnNotFoundException;
 import org.libreoffice.lots.db.Dataset;
+import org.libreoffice.lots.db.QueryResultsList;
 import org.libreoffice.lots.db.QueryResultsSet;
+import org.libreoffice.lots.db.SimpleDataset;
 import org.libreoffice.lots.db.mock.MockDataset;
 import org.libreoffice.lots.db.mock.MockQueryResults;
 
@@ -66,4 +72,60 @@ public class QueryResultsSetTest
     assertEquals(2, res.size());
   }
 
+  @Test
+  public void testIdentity()
+  {
+    QueryResultsSet res = new QueryResultsSet(QueryResultsSet::datasetIdentity);
+    assertTrue(res.isEmpty());
+    // equal keys which are different objects
+    res.addAll(new MockQueryResults(new MockDataset(new String("b"), "column", "1"),
+        new MockDataset("a", "column", "2"), new MockDataset(new String("b"), "column", "3")));
+    res.addAll(new MockQueryResults(new MockDataset("c", "column", "4"),
+        new MockDataset("a", "column", "5")));
+    // same key, other class
+    res.add(new SimpleDataset("a", Map.of("column", "6")));
+    List<String> values = new ArrayList<>();
+    res.forEach(ds -> {
+      try
+      {
+        values.add(ds.get("column"));
+      } catch (ColumnNotFoundException e)
+      {
+        values.add(null);
+      }
+    });
+    assertEquals(List.of("1", "2", "4", "6"), values);
+
+    res = new QueryResultsSet(Dataset::getKey);
+    res.add(new MockDataset("a", "column", "1"));
+    res.add(new SimpleDataset("a", Map.of("column", "2")));
+    assertEquals(1, res.size());
+  }
+
+  @Test
+  @Disabled
+  public void performanceMerge()
+  {
+    List<Dataset> first = new ArrayList<>();
+    List<Dataset> second = new ArrayList<>();
+    for (int i = 0; i < 100000; i++)
+    {
+      first.add(new MockDataset("ds" + i, "column", "value"));
+      second.add(new MockDataset("ds" + (i + 50000), "column", "value"));
+    }
+    long start = System.nanoTime();
+    QueryResultsSet res = new QueryResultsSet(QueryResultsSet::datasetIdentity);
+    res.addAll(new QueryResultsList(first));
+    res.addAll(new QueryResultsList(second));
+    assertEquals(150000, res.size());
+    System.out.println("hash: " + (System.nanoTime() - start) / 1_000_000 + " ms");
+
+    start = System.nanoTime();
+    res = new QueryResultsSet((o1, o2) -> o1.getClass() == o2.getClass()
+        && o1.getKey().equals(o2.getKey()) ? 0 : 1);
+    res.addAll(new QueryResultsList(first.subList(0, 10000)));
+    res.addAll(new QueryResultsList(second.subList(0, 10000)));
+    System.out.println("comparator (10k rows only): " + (System.nanoTime() - start) / 1_000_000
+        + " ms");
+  }
 }
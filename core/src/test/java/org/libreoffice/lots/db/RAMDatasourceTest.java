@@ -25,9 +25,13 @@ package org.libreoffice.lots.db;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
+import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.libreoffice.lots.db.Datasource;
 import org.libreoffice.lots.db.QueryPart;
@@ -65,4 +69,113 @@ public class RAMDatasourceTest
     assertThrows(NullPointerException.class, () -> ds.getSchema());
   }
 
+  @Test
+  public void testIndexedColumns()
+  {
+    List<Dataset> data = createData(2000, 1);
+    Datasource plain = new RAMDatasource("ram", List.of("column"), data);
+    Datasource indexed = new RAMDatasource("ram", List.of("column"), data, List.of("column"));
+    for (String search : List.of("a", "ab*", "*ba", "*cab*", "ABC", "", "a.c", "[ab]c", "xyz"))
+    {
+      List<QueryPart> query = List.of(new QueryPart("column", search));
+      assertEquals(keys(plain.find(query)), keys(indexed.find(query)), search);
+    }
+    List<QueryPart> query = List.of(new QueryPart("unknown", "a"), new QueryPart("column", "abc"));
+    assertEquals(0, indexed.find(query).size());
+  }
+
+  @Test
+  public void testFindAll()
+  {
+    List<Dataset> data = createData(2000, 3);
+    Datasource plain = new RAMDatasource("ram", List.of("column"), data);
+    Datasource indexed = new RAMDatasource("ram", List.of("column"), data, List.of("column"));
+    List<List<QueryPart>> queries = new ArrayList<>();
+    for (String search : List.of("a", "ab*", "*ba", "ABC", "", "xyz"))
+    {
+      queries.add(List.of(new QueryPart("column", search)));
+    }
+    queries.add(List.of());
+    queries.add(List.of(new QueryPart("unknown", "a")));
+    for (Datasource ds : List.of(plain, indexed))
+    {
+      List<QueryResults> results = ds.findAll(queries);
+      assertEquals(queries.size(), results.size());
+      for (int i = 0; i < queries.size(); i++)
+      {
+        assertEquals(keys(plain.find(queries.get(i))), keys(results.get(i)),
+            queries.get(i).toString());
+      }
+    }
+  }
+
+  @Test
+  public void testDatasetsByKey()
+  {
+    Datasource ds = new RAMDatasource("ram", List.of("column"),
+        List.of(new MockDataset("a", "column", "1"), new MockDataset("b", "column", "2"),
+            new MockDataset("a", "column", "3")));
+    assertEquals(List.of("1", "2", "3"), values(ds.getDatasetsByKey(List.of("b", "a", "a"))));
+    assertEquals(List.of("2"), values(ds.getDatasetsByKey(List.of("b", "c"))));
+    assertTrue(ds.getDatasetsByKey(List.of()).isEmpty());
+  }
+
+  @Test
+  @Disabled
+  public void performanceIndexedColumns()
+  {
+    List<Dataset> data = createData(50000, 2);
+    Datasource plain = new RAMDatasource("ram", List.of("column"), data);
+    Datasource indexed = new RAMDatasource("ram", List.of("column"), data, List.of("column"));
+    List<QueryPart> query = List.of(new QueryPart("column", "abcab*"));
+    indexed.find(query);
+    for (Datasource ds : List.of(plain, indexed, plain, indexed))
+    {
+      long start = System.nanoTime();
+      for (int i = 0; i < 100; i++)
+      {
+        ds.find(query);
+      }
+      System.out.println((ds == plain ? "scan: " : "index: ")
+          + (System.nanoTime() - start) / 100_000 + " µs/query");
+    }
+  }
+
+  private List<Dataset> createData(int size, long seed)
+  {
+    Random random = new Random(seed);
+    List<Dataset> data = new ArrayList<>();
+    for (int i = 0; i < size; i++)
+    {
+      StringBuilder value = new StringBuilder();
+      for (int j = random.nextInt(12); j >= 0; j--)
+      {
+        value.append((char) ('A' + random.nextInt(3) + (random.nextBoolean() ? 32 : 0)));
+      }
+      data.add(new MockDataset("ds" + i, "column", value.toString()));
+    }
+    return data;
+  }
+
+  private List<String> keys(QueryResults results)
+  {
+    List<String> keys = new ArrayList<>();
+    results.forEach(ds -> keys.add(ds.getKey()));
+    return keys;
+  }
+
+  private List<String> values(QueryResults results)
+  {
+    List<String> values = new ArrayList<>();
+    results.forEach(ds -> {
+      try
+      {
+        values.add(ds.get("column"));
+      } catch (ColumnNotFoundException e)
+      {
+        values.add(null);
+      }
+    });
+    return values;
+  }
 }
@@ -0,0 +1,257 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.db;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.libreoffice.lots.config.ConfigThingy;
+import org.libreoffice.lots.config.ConfigurationErrorException;
+import org.libreoffice.lots.db.mock.CountingDatasource;
+import org.libreoffice.lots.db.mock.MockDataset;
+import org.libreoffice.lots.db.mock.MockDatasource;
+import org.libreoffice.lots.db.mock.SlowDatasource;
+
+public class ReplicaDatasourceTest
+{
+  private File dir;
+
+  private CountingDatasource source;
+
+  @BeforeEach
+  public void setUp() throws IOException
+  {
+    dir = Files.createTempDirectory("replicaTest").toFile();
+    source = new CountingDatasource();
+  }
+
+  @AfterEach
+  public void tearDown()
+  {
+    File[] files = dir.listFiles();
+    if (files != null)
+    {
+      for (File file : files)
+        file.delete();
+    }
+    dir.delete();
+  }
+
+  private ReplicaDatasource create(String config) throws Exception
+  {
+    return new ReplicaDatasource(Map.of("mock", source),
+        new ConfigThingy("", "NAME \"replica\" SOURCE \"mock\" " + config), dir);
+  }
+
+  @Test
+  public void testWithoutIndex() throws Exception
+  {
+    ReplicaDatasource ds = create("");
+    assertEquals("replica", ds.getName());
+    assertEquals(List.of("column", "column2"), ds.getSchema());
+    assertEquals(1, ds.find(List.of(new QueryPart("column", "value"))).size());
+    assertEquals(1, source.getQueries());
+  }
+
+  @Test
+  public void testSync() throws Exception
+  {
+    ReplicaDatasource ds = create("");
+    assertTrue(ds.sync());
+    assertEquals(1, source.getContentsCalls());
+    assertEquals(1, dir.listFiles().length);
+
+    QueryResults results = ds.find(List.of(new QueryPart("column", "VAL*")));
+    assertEquals(2, results.size());
+    assertEquals("value2", results.iterator().next().get("column2"));
+    assertEquals(1, ds.getDatasetsByKey(List.of("ds3")).size());
+    assertEquals(2, ds.getContents().size());
+    assertEquals(0, source.getQueries());
+    assertEquals(0, source.getKeyQueries().size());
+
+    assertTrue(ds.sync());
+    assertEquals(1, dir.listFiles().length);
+  }
+
+  @Test
+  public void testRestart() throws Exception
+  {
+    create("").sync();
+
+    source.setFailing(true);
+    ReplicaDatasource ds = create("");
+    assertEquals(1, ds.find(List.of(new QueryPart("column", "value3"))).size());
+    assertEquals(0, source.getQueries());
+
+    assertFalse(ds.sync());
+    assertEquals(2, ds.getContents().size());
+  }
+
+  @Test
+  public void testOtherSchema() throws Exception
+  {
+    create("").sync();
+    source = new CountingDatasource(List.of("column"));
+    ReplicaDatasource ds = create("");
+    ds.find(List.of(new QueryPart("column", "value")));
+    assertEquals(1, source.getQueries());
+  }
+
+  @Test
+  public void testFilter() throws Exception
+  {
+    ReplicaDatasource ds = create("FILTER(column \"value\") FILTER(column2 \"value4\")");
+    assertTrue(ds.sync());
+    assertEquals(0, source.getContentsCalls());
+    assertEquals(2, ds.getContents().size());
+
+    ds = create("FILTER(column \"value\")");
+    assertTrue(ds.sync());
+    assertEquals(1, ds.getContents().size());
+    assertEquals(0, ds.find(List.of(new QueryPart("column", "value3"))).size());
+    // keys which aren't replicated aren't looked up in the source
+    assertEquals(1, ds.getDatasetsByKey(List.of("ds", "ds3")).size());
+    assertEquals(0, source.getKeyQueries().size());
+  }
+
+  @Test
+  public void testEmptySource() throws Exception
+  {
+    ReplicaDatasource ds = create("");
+    assertTrue(ds.sync());
+    source.setEmpty(true);
+    assertFalse(ds.sync());
+    assertEquals(2, ds.getContents().size());
+  }
+
+  @Test
+  public void testIncompleteSource() throws Exception
+  {
+    ReplicaDatasource ds = create("");
+    source.setIncomplete(true);
+    assertFalse(ds.sync());
+    assertEquals(0, dir.listFiles().length);
+
+    source = new CountingDatasource(List.of("column", "column2"),
+        List.of(new MockDataset("ds", Map.of("column", "value", "column2", "value2")),
+            new MockDataset("ds2", Map.of("column", "value", "column2", "value3"))));
+    source.setIncomplete(true);
+    ds = create("FILTER(column \"value\")");
+    assertFalse(ds.sync());
+    assertEquals(0, dir.listFiles().length);
+  }
+
+  @Test
+  public void testShrinkingSource() throws Exception
+  {
+    List<Dataset> datasets = new ArrayList<>();
+    for (int i = 0; i < 5; i++)
+    {
+      datasets.add(new MockDataset("ds" + i, Map.of("column", "value" + i, "column2", "")));
+    }
+    new ReplicaDatasource(Map.of("mock", new MockDatasource("mock", source.getSchema(), datasets)),
+        new ConfigThingy("", "NAME \"replica\" SOURCE \"mock\""), dir).sync();
+    File[] files = dir.listFiles();
+
+    ReplicaDatasource ds = create("");
+    assertEquals(5, ds.getContents().size());
+    assertFalse(ds.sync());
+    assertEquals(5, ds.getContents().size());
+    assertArrayEquals(files, dir.listFiles());
+    assertEquals(5, create("").getContents().size());
+
+    // the third synchronization in a row with less datasets shrinks the replica
+    assertFalse(ds.sync());
+    assertTrue(ds.sync());
+    assertEquals(2, ds.getContents().size());
+    assertTrue(ds.sync());
+
+    ds = new ReplicaDatasource(
+        Map.of("mock", new MockDatasource("mock", source.getSchema(), datasets)),
+        new ConfigThingy("", "NAME \"replica\" SOURCE \"mock\""), dir);
+    assertTrue(ds.sync());
+    ds = create("SHRINK_SYNCS \"1\"");
+    assertTrue(ds.sync());
+    assertEquals(2, ds.getContents().size());
+  }
+
+  @Test
+  public void testSyncTimeout() throws Exception
+  {
+    SlowDatasource slow = new SlowDatasource("slow", 60000, "ds");
+    ReplicaDatasource ds = new ReplicaDatasource(Map.of("slow", slow), new ConfigThingy("",
+        "NAME \"replica\" SOURCE \"slow\" SYNC_TIMEOUT \"1\" FILTER(column \"value\")"), dir);
+    assertFalse(ds.sync());
+    assertEquals(1, slow.getStarted());
+    for (int i = 0; i < 100 && slow.getInterrupted() == 0; i++)
+    {
+      Thread.sleep(100);
+    }
+    assertEquals(1, slow.getInterrupted());
+    assertEquals(0, dir.listFiles().length);
+  }
+
+  @Test
+  public void testSchedule() throws Exception
+  {
+    ReplicaDatasource ds = create("REFRESH \"0\"");
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    ds.schedule(executor);
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(1, source.getContentsCalls());
+
+    // there's an index now
+    executor = Executors.newSingleThreadScheduledExecutor();
+    create("REFRESH \"0\"").schedule(executor);
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(1, source.getContentsCalls());
+  }
+
+  @Test
+  public void testInvalidConfig() throws Exception
+  {
+    assertThrows(ConfigurationErrorException.class, () -> create("REFRESH \"-1\""));
+    assertThrows(ConfigurationErrorException.class, () -> create("FILTER(unknown \"*\")"));
+    assertThrows(ConfigurationErrorException.class, () -> create("FILTER()"));
+    assertThrows(ConfigurationErrorException.class,
+        () -> new ReplicaDatasource(Map.of(), new ConfigThingy("", "NAME \"r\" SOURCE \"mock\""), dir));
+  }
+}
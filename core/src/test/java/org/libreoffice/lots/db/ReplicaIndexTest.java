@@ -0,0 +1,180 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.libreoffice.lots.db.mock.MockDataset;
+
+public class ReplicaIndexTest
+{
+  private static final List<String> SCHEMA = List.of("Vorname", "Nachname");
+
+  private File file;
+
+  @BeforeEach
+  public void setUp() throws IOException
+  {
+    file = File.createTempFile("replica", ".idx");
+  }
+
+  @AfterEach
+  public void tearDown()
+  {
+    file.delete();
+  }
+
+  private static Dataset person(String key, String firstName, String lastName)
+  {
+    Map<String, String> data = new HashMap<>();
+    data.put("Vorname", firstName);
+    data.put("Nachname", lastName);
+    return new MockDataset(key, data);
+  }
+
+  private ReplicaIndex write(List<Dataset> datasets) throws IOException
+  {
+    ReplicaIndex.write(file, SCHEMA, datasets, 42);
+    return ReplicaIndex.read(file);
+  }
+
+  private static List<String> keys(List<Dataset> datasets)
+  {
+    return datasets.stream().map(Dataset::getKey).collect(Collectors.toList());
+  }
+
+  @Test
+  public void testReadWrite() throws Exception
+  {
+    ReplicaIndex index = write(List.of(person("1", "Anna", "Müller"), person("2", null, ""),
+        new MockDataset("3", "Vorname", "Ärger")));
+    assertEquals(SCHEMA, index.getSchema());
+    assertEquals(42, index.getSyncTime());
+    assertEquals(3, index.size());
+
+    List<Dataset> all = index.getAll();
+    assertEquals(List.of("1", "2", "3"), keys(all));
+    assertEquals("Müller", all.get(0).get("Nachname"));
+    assertNull(all.get(1).get("Vorname"));
+    assertEquals("", all.get(1).get("Nachname"));
+    assertEquals("Ärger", all.get(2).get("Vorname"));
+    assertNull(all.get(2).get("Nachname"));
+
+    assertEquals(0, write(List.of()).size());
+  }
+
+  @Test
+  public void testFind() throws Exception
+  {
+    ReplicaIndex index = write(List.of(person("1", "Anna", "Müller"),
+        person("2", "Bernd", "Mayer"), person("3", "anna", "Maier"), person("4", null, "Meier"),
+        person("5", "Annabell", "Schmidt")));
+    assertEquals(List.of("1", "3"), keys(index.find(List.of(new QueryPart("Vorname", "ANNA")))));
+    assertEquals(List.of("1", "3", "5"),
+        keys(index.find(List.of(new QueryPart("Vorname", "anna*")))));
+    assertEquals(List.of("2", "3"), keys(index.find(List.of(new QueryPart("Nachname", "ma*er")))));
+    assertEquals(List.of("1", "2", "3", "4"),
+        keys(index.find(List.of(new QueryPart("Nachname", "*er")))));
+    assertEquals(List.of("1", "2", "3", "5"),
+        keys(index.find(List.of(new QueryPart("Vorname", "*")))));
+    assertEquals(List.of("3"), keys(index.find(
+        List.of(new QueryPart("Vorname", "ann*"), new QueryPart("Nachname", "mai*")))));
+    assertEquals(List.of(), index.find(List.of(new QueryPart("Vorname", "Zoe"))));
+    assertEquals(List.of(), index.find(List.of(new QueryPart("unknown", "*"))));
+  }
+
+  @Test
+  public void testGetByKeys() throws Exception
+  {
+    ReplicaIndex index = write(List.of(person("b", "Anna", "Müller"),
+        person("a", "Bernd", "Mayer"), person("b", "Carla", "Maier")));
+    assertEquals(List.of("a"), keys(index.getByKeys(List.of("a", "c"))));
+    List<Dataset> found = index.getByKeys(List.of("b", "a", "b"));
+    assertEquals(List.of("b", "b", "a"), keys(found));
+    assertEquals("Anna", found.get(0).get("Vorname"));
+    assertEquals("Carla", found.get(1).get("Vorname"));
+  }
+
+  @Test
+  public void testInvalidFile() throws Exception
+  {
+    Files.write(file.toPath(), "no index".getBytes(StandardCharsets.UTF_8));
+    assertThrows(IOException.class, () -> ReplicaIndex.read(file));
+    Files.write(file.toPath(), new byte[0]);
+    assertThrows(IOException.class, () -> ReplicaIndex.read(file));
+  }
+
+  @Test
+  @Disabled
+  public void performanceFind() throws Exception
+  {
+    List<Dataset> datasets = new ArrayList<>();
+    for (int i = 0; i < 200000; i++)
+    {
+      datasets.add(person(Integer.toString(i), "Vorname" + (i % 1000), "Nachname" + i));
+    }
+    long start = System.currentTimeMillis();
+    ReplicaIndex index = write(datasets);
+    System.out.println("write: " + (System.currentTimeMillis() - start) + " ms, "
+        + file.length() / 1024 + " KiB");
+
+    start = System.currentTimeMillis();
+    index = ReplicaIndex.read(file);
+    System.out.println("read: " + (System.currentTimeMillis() - start) + " ms");
+
+    List<QueryPart> query = List.of(new QueryPart("Nachname", "nachname1234*"));
+    start = System.nanoTime();
+    int found = 0;
+    for (int i = 0; i < 100; i++)
+    {
+      found = index.find(query).size();
+    }
+    System.out.println("index: " + (System.nanoTime() - start) / 100000 + " µs per query");
+    start = System.nanoTime();
+    int scanned = 0;
+    for (int i = 0; i < 100; i++)
+    {
+      scanned = (int) datasets.stream().filter(ds -> BatchResults.matches(ds, query)).count();
+    }
+    System.out.println("scan: " + (System.nanoTime() - start) / 100000 + " µs per query");
+    assertEquals(scanned, found);
+    assertTrue(found > 0);
+  }
+}
@@ -0,0 +1,170 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.libreoffice.lots.db.mock.MockDataset;
+import org.libreoffice.lots.db.mock.SlowDatasource;
+
+public class SearchSessionTest
+{
+  private final SlowDatasource datasource = new SlowDatasource(0);
+
+  private final List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+
+  private CompletableFuture<QueryResults> search(SearchSession session, String value,
+      long latency)
+  {
+    CompletableFuture<QueryResults> future = session
+        .search(() -> datasource.find(List.of(new QueryPart("column", value)), latency));
+    future.thenAccept(results -> results.forEach(ds -> delivered.add(ds.getKey())));
+    return future;
+  }
+
+  /**
+   * Wait until the callbacks of a completed search have been called.
+   */
+  private List<String> awaitDelivered() throws InterruptedException
+  {
+    long start = System.currentTimeMillis();
+    while (delivered.isEmpty() && System.currentTimeMillis() - start < 10000)
+    {
+      Thread.sleep(10);
+    }
+    Thread.sleep(50);
+    return new ArrayList<>(delivered);
+  }
+
+  @Test
+  public void testDebounce() throws Exception
+  {
+    SearchSession session = new SearchSession(200);
+    List<CompletableFuture<QueryResults>> futures = new ArrayList<>();
+    for (String value : List.of("v", "va", "val", "valu", "value2"))
+    {
+      futures.add(search(session, value, 0));
+    }
+    assertEquals(1, futures.get(4).get(10, TimeUnit.SECONDS).size());
+    for (int i = 0; i < 4; i++)
+    {
+      assertTrue(futures.get(i).isCancelled());
+    }
+    assertEquals(1, datasource.getStarted());
+    assertEquals(List.of("ds2"), awaitDelivered());
+  }
+
+  @Test
+  public void testSupersede() throws Exception
+  {
+    SearchSession session = new SearchSession(0);
+    CompletableFuture<QueryResults> slow = search(session, "value", 5000);
+    assertTrue(datasource.awaitRunning(10, TimeUnit.SECONDS));
+    CompletableFuture<QueryResults> fast = search(session, "value2", 0);
+
+    assertEquals(1, fast.get(10, TimeUnit.SECONDS).size());
+    assertTrue(slow.isCancelled());
+    assertEquals(List.of("ds2"), awaitDelivered());
+    long start = System.currentTimeMillis();
+    while (datasource.getInterrupted() == 0 && System.currentTimeMillis() - start < 10000)
+    {
+      Thread.sleep(10);
+    }
+    assertEquals(1, datasource.getInterrupted());
+  }
+
+  @Test
+  public void testLazyResultsOfSupersededSearch() throws Exception
+  {
+    SearchSession session = new SearchSession(0);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    List<LazyQueryResults> lazyResults = new ArrayList<>();
+    CompletableFuture<QueryResults> first = session.search(() -> {
+      started.countDown();
+      // ignores the interrupt, like a blocking network call
+      while (true)
+      {
+        try
+        {
+          release.await();
+          break;
+        } catch (InterruptedException e)
+        {
+          // continue waiting
+        }
+      }
+      LazyQueryResults results = new LazyQueryResults(new LazyQueryResults.Source()
+      {
+        @Override
+        public Dataset fetch()
+        {
+          return new MockDataset();
+        }
+
+        @Override
+        public void close()
+        {
+          // nothing to close
+        }
+      });
+      lazyResults.add(results);
+      return results;
+    });
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    session.cancel();
+    release.countDown();
+
+    assertTrue(first.isCancelled());
+    long start = System.currentTimeMillis();
+    while ((lazyResults.isEmpty() || !lazyResults.get(0).isComplete())
+        && System.currentTimeMillis() - start < 10000)
+    {
+      Thread.sleep(10);
+    }
+    assertTrue(lazyResults.get(0).isComplete());
+  }
+
+  @Test
+  public void testError() throws Exception
+  {
+    SearchSession session = new SearchSession(0);
+    CompletableFuture<QueryResults> future = session.search(() -> {
+      throw new IllegalStateException("failed");
+    });
+    ExecutionException e =
+        assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+    assertTrue(e.getCause() instanceof IllegalStateException);
+  }
+}
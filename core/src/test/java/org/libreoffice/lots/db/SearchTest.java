@@ -24,7 +24,10 @@ package org.libreoffice.lots.db;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -36,6 +39,7 @@ import org.libreoffice.lots.db.Search;
 import org.libreoffice.lots.db.SearchStrategy;
 import org.libreoffice.lots.db.mock.MockDataset;
 import org.libreoffice.lots.db.mock.MockDatasource;
+import org.libreoffice.lots.db.mock.SlowDatasource;
 
 public class SearchTest
 {
@@ -78,4 +82,51 @@ public class SearchTest
     results = Search.search("value", strategy, datasources);
     assertEquals(2, results.size());
   }
+
+  @Test
+  public void testParallelSearch() throws Exception
+  {
+    SearchStrategy strategy = SearchStrategy.parse(new ConfigThingy("",
+        "SearchStrategy(slow (column \"${suchanfrage1}\") failing (column \"${suchanfrage1}\") "
+            + "slow2 (column \"${suchanfrage1}\") hanging (column \"${suchanfrage1}\"))"));
+    Map<String, Datasource> datasources = Map.of(
+        "slow", new SlowDatasource("slow", 500, "a"),
+        "failing", new SlowDatasource("failing", -1, "b"),
+        "slow2", new SlowDatasource("slow2", 500, "c"),
+        "hanging", new SlowDatasource("hanging", 5000, "d"));
+
+    long start = System.currentTimeMillis();
+    QueryResults results = Search.search("value", strategy, datasources, 1000);
+    long duration = System.currentTimeMillis() - start;
+    assertTrue(duration < 1800, "queries haven't been executed concurrently: " + duration);
+    List<String> keys = new ArrayList<>();
+    results.forEach(ds -> keys.add(ds.getKey()));
+    assertEquals(List.of("a", "c"), keys);
+
+    assertThrows(IllegalArgumentException.class,
+        () -> Search.search("value", strategy, Map.of("slow", new MockDatasource()), 1000));
+  }
+
+  @Test
+  public void testTimeoutInterruptsQuery() throws Exception
+  {
+    SearchStrategy strategy = SearchStrategy.parse(new ConfigThingy("",
+        "SearchStrategy(slow (column \"${suchanfrage1}\") hanging (column \"${suchanfrage1}\") "
+            + "hanging (column \"${suchanfrage1}2\"))"));
+    SlowDatasource hanging = new SlowDatasource("hanging", 5000, "d");
+    Map<String, Datasource> datasources = Map.of("slow", new SlowDatasource("slow", 100, "a"),
+        "hanging", hanging);
+
+    long start = System.currentTimeMillis();
+    QueryResults results = Search.search("value", strategy, datasources, 500);
+    assertTrue(System.currentTimeMillis() - start < 1500, "remaining queries haven't been skipped");
+    assertEquals(1, results.size());
+
+    // the thread of the data source is released
+    for (int i = 0; i < 50 && hanging.getExecutor().getActiveCount() > 0; i++)
+    {
+      Thread.sleep(20);
+    }
+    assertEquals(0, hanging.getExecutor().getActiveCount());
+  }
 }
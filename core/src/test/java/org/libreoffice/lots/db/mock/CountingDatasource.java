@@ -0,0 +1,197 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.db.mock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.libreoffice.lots.db.Dataset;
+import org.libreoffice.lots.db.LazyQueryResults;
+import org.libreoffice.lots.db.QueryPart;
+import org.libreoffice.lots.db.QueryResults;
+import org.libreoffice.lots.db.QueryResultsList;
+
+/**
+ * A data source which counts its queries and can simulate failures.
+ */
+public class CountingDatasource extends MockDatasource
+{
+  private int queries;
+
+  private final List<List<String>> keyQueries = new ArrayList<>();
+
+  private final List<List<List<QueryPart>>> batches = new ArrayList<>();
+
+  private int contents;
+
+  /**
+   * Let all queries fail.
+   */
+  private boolean failing;
+
+  /**
+   * Let the results fail after the first dataset.
+   */
+  private boolean incomplete;
+
+  /**
+   * Return no datasets for {@link #find(List)} and {@link #getContents()}.
+   */
+  private boolean empty;
+
+  public CountingDatasource()
+  {
+    this(List.of("column", "column2"));
+  }
+
+  public CountingDatasource(List<String> schema)
+  {
+    this(schema,
+        List.of(new MockDataset("ds", Map.of("column", "value", "column2", "value2")),
+            new MockDataset("ds3", Map.of("column", "value3", "column2", "value4"))));
+  }
+
+  public CountingDatasource(List<String> schema, List<Dataset> datasets)
+  {
+    super("mock", schema, datasets);
+  }
+
+  /**
+   * The number of calls of {@link #find(List)}.
+   */
+  public int getQueries()
+  {
+    return queries;
+  }
+
+  /**
+   * The keys of each call of {@link #getDatasetsByKey(Collection)}.
+   */
+  public List<List<String>> getKeyQueries()
+  {
+    return keyQueries;
+  }
+
+  /**
+   * The queries of each call of {@link #findAll(List)}.
+   */
+  public List<List<List<QueryPart>>> getBatches()
+  {
+    return batches;
+  }
+
+  /**
+   * The number of calls of {@link #getContents()}.
+   */
+  public int getContentsCalls()
+  {
+    return contents;
+  }
+
+  public void setFailing(boolean failing)
+  {
+    this.failing = failing;
+  }
+
+  public void setIncomplete(boolean incomplete)
+  {
+    this.incomplete = incomplete;
+  }
+
+  public void setEmpty(boolean empty)
+  {
+    this.empty = empty;
+  }
+
+  @Override
+  public QueryResults find(List<QueryPart> query)
+  {
+    check();
+    ++queries;
+    return empty ? new QueryResultsList(List.of()) : failIfRequested(super.find(query));
+  }
+
+  @Override
+  public List<QueryResults> findAll(List<List<QueryPart>> queries)
+  {
+    batches.add(new ArrayList<>(queries));
+    return super.findAll(queries);
+  }
+
+  @Override
+  public QueryResults getContents()
+  {
+    check();
+    ++contents;
+    return empty ? new QueryResultsList(List.of()) : failIfRequested(super.getContents());
+  }
+
+  @Override
+  public QueryResults getDatasetsByKey(Collection<String> keys)
+  {
+    check();
+    keyQueries.add(new ArrayList<>(keys));
+    return failIfRequested(super.getDatasetsByKey(keys));
+  }
+
+  private void check()
+  {
+    if (failing)
+    {
+      throw new IllegalStateException("source isn't available");
+    }
+  }
+
+  private QueryResults failIfRequested(QueryResults results)
+  {
+    if (!incomplete)
+    {
+      return results;
+    }
+    Iterator<Dataset> iter = results.iterator();
+    return new LazyQueryResults(new LazyQueryResults.Source()
+    {
+      private boolean first = true;
+
+      @Override
+      public Dataset fetch()
+      {
+        if (!first)
+        {
+          throw new IllegalStateException("source failed");
+        }
+        first = false;
+        return iter.hasNext() ? iter.next() : null;
+      }
+
+      @Override
+      public void close()
+      {
+        // nothing to release
+      }
+    });
+  }
+}
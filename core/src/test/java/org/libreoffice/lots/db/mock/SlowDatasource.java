@@ -0,0 +1,127 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.db.mock;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.libreoffice.lots.db.QueryPart;
+import org.libreoffice.lots.db.QueryResults;
+import org.libreoffice.lots.db.QueryResultsList;
+
+/**
+ * A data source whose queries take some time.
+ */
+public class SlowDatasource extends MockDatasource
+{
+  private final long delay;
+
+  private final AtomicInteger started = new AtomicInteger();
+
+  private final AtomicInteger interrupted = new AtomicInteger();
+
+  private final CountDownLatch running = new CountDownLatch(1);
+
+  /**
+   * A data source with the datasets of {@link MockDatasource#MockDatasource()}.
+   *
+   * @param delay
+   *          Milliseconds to wait for each query; a negative value lets each query fail.
+   */
+  public SlowDatasource(long delay)
+  {
+    this.delay = delay;
+  }
+
+  /**
+   * A data source which answers each query for "value" after some time with one dataset.
+   *
+   * @param delay
+   *          Milliseconds to wait for each query; a negative value lets each query fail.
+   */
+  public SlowDatasource(String name, long delay, String key)
+  {
+    super(name, List.of("column"), List.of(new MockDataset(key, "column", "value")));
+    this.delay = delay;
+  }
+
+  @Override
+  public QueryResults find(List<QueryPart> query)
+  {
+    if (delay < 0)
+    {
+      throw new IllegalStateException("data source failed");
+    }
+    return find(query, delay);
+  }
+
+  /**
+   * Answer a query after some time. If the thread is interrupted, there are no results.
+   *
+   * @param latency
+   *          Milliseconds to wait.
+   */
+  public QueryResults find(List<QueryPart> query, long latency)
+  {
+    started.incrementAndGet();
+    running.countDown();
+    try
+    {
+      Thread.sleep(latency);
+    } catch (InterruptedException e)
+    {
+      interrupted.incrementAndGet();
+      Thread.currentThread().interrupt();
+      return new QueryResultsList(List.of());
+    }
+    return super.find(query);
+  }
+
+  /**
+   * The number of queries which have been started.
+   */
+  public int getStarted()
+  {
+    return started.get();
+  }
+
+  /**
+   * The number of queries which have been interrupted.
+   */
+  public int getInterrupted()
+  {
+    return interrupted.get();
+  }
+
+  /**
+   * Wait until the first query has been started.
+   *
+   * @return False if the time has elapsed before.
+   */
+  public boolean awaitRunning(long timeout, TimeUnit unit) throws InterruptedException
+  {
+    return running.await(timeout, unit);
+  }
+}
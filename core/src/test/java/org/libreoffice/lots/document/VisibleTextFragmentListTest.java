@@ -0,0 +1,56 @@
+/*-
+ * #%L
+ * WollMux
+ * %%
+ * Copyright (C) 2005 - 2024 Landeshauptstadt München and LibreOffice contributors
+ * %%
+ * Licensed under the EUPL, Version 1.1 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ *
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ *
+ * http://ec.europa.eu/idabc/eupl5
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * #L%
+ */
+package org.libreoffice.lots.document;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.libreoffice.lots.config.ConfigThingy;
+
+public class VisibleTextFragmentListTest
+{
+  @Test
+  public void testLegacyNames() throws Exception
+  {
+    ConfigThingy conf = new ConfigThingy("",
+        "Textfragmente((FRAG_ID \"frag\" URL \"old\"))");
+    assertEquals(List.of("old"), VisibleTextFragmentList.getURLsByID(conf, "frag"));
+
+    conf = new ConfigThingy("",
+        "Textfragmente((FRAG_ID \"frag\" URL \"old\")) TextFragments((FRAG_ID \"frag\" URL \"new\"))");
+    assertEquals(List.of("new"), VisibleTextFragmentList.getURLsByID(conf, "frag"));
+  }
+
+  @Test
+  public void testNested() throws Exception
+  {
+    ConfigThingy conf = new ConfigThingy("", "TextFragments((FRAG_ID \"frag\" URL \"first\")"
+        + " Group((FRAG_ID \"frag\" URL \"deep\")))"
+        + " Group(TextFragments((FRAG_ID \"frag\" URL \"nested\")))"
+        + " TextFragments(Group((FRAG_ID \"frag\" URL \"second\")))");
+    // the later section takes precedence, deeper sections and mappings are ignored
+    assertEquals(List.of("second", "first"), VisibleTextFragmentList.getURLsByID(conf, "frag"));
+  }
+}
@@ -27,6 +27,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
@@ -68,6 +69,24 @@ public class SenderFinderTest
     assertEquals(1, results.size());
   }
 
+  @Test
+  public void testParallelFind() throws Exception
+  {
+    SenderFinder dataFinder = new SenderFinder(senderServcie)
+    {
+
+      @Override
+      protected String getValueForKey(String key)
+      {
+        return key;
+      }
+    };
+    CompletableFuture<List<Sender>> first = dataFinder.find(new ConfigThingy("", "column \"${value}\""));
+    CompletableFuture<List<Sender>> second = dataFinder.find(new ConfigThingy("", "column \"${value2}\""));
+    assertEquals(1, first.get().size());
+    assertEquals(1, second.get().size());
+  }
+
   @Test
   public void testFindWithNullKey() throws IOException, SyntaxErrorException, InterruptedException, ExecutionException
   {